@@ -0,0 +1,155 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.inadco.hbl.api.AggregateFunction;
+import com.inadco.hbl.api.AggregateFunctionRegistry;
+import com.inadco.hbl.api.AggregationView;
+import com.inadco.hbl.api.PrimitiveAccumulator;
+import com.inadco.hbl.client.impl.SliceOperation;
+import com.inadco.hbl.client.impl.functions.FCount;
+import com.inadco.hbl.client.impl.functions.FMax;
+import com.inadco.hbl.client.impl.functions.FMin;
+import com.inadco.hbl.client.impl.functions.FSum;
+import com.inadco.hbl.protocodegen.Cells.Aggregation;
+
+/**
+ * Merging a pool of serialized aggregations of a cell with the example1
+ * registry: {@code mergeAll()} of parsed messages, {@code mergeAll()} of
+ * views over the serialized bytes, and merging the standard functions into a
+ * primitive accumulator slot.
+ * <P>
+ * 
+ * The grouped variants merge the pool in groups of {@link #GROUP_SIZE} rows,
+ * the way scans do: with a builder per row, cloned and built to be merged
+ * into its group (as it was before the views), or with views merged straight
+ * into the group. Run with the GC profiler to compare the allocations per
+ * row.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AggregateFunctionRegistryBenchmark {
+
+    private static final int          GROUP_SIZE  = 100;
+
+    private AggregateFunctionRegistry afr;
+    private byte[][]                  aggregations;
+    private AggregateFunction[]       primitiveFunctions;
+    private AggregationView           view        = new AggregationView();
+    private PrimitiveAccumulator      accumulator = new PrimitiveAccumulator(1);
+
+    @Setup
+    public void setUp() throws IOException {
+        afr = BenchmarkData.loadCube().getAggregateFunctionRegistry();
+        aggregations = BenchmarkData.aggregations(new Random(1234), 1024);
+        primitiveFunctions =
+            afr.resolveFunctions(Arrays.asList(FCount.FNAME, FSum.FNAME, "AVG", FMin.FNAME, FMax.FNAME));
+    }
+
+    /**
+     * Parse and merge, the way cells were merged before views.
+     */
+    @Benchmark
+    public Aggregation.Builder mergeAllParsed() throws InvalidProtocolBufferException {
+        Aggregation.Builder accumulator = Aggregation.newBuilder();
+        for (byte[] aggr : aggregations)
+            afr.mergeAll(accumulator, Aggregation.parseFrom(aggr), SliceOperation.ADD);
+        return accumulator;
+    }
+
+    @Benchmark
+    public Aggregation.Builder mergeAllView() {
+        Aggregation.Builder accumulator = Aggregation.newBuilder();
+        for (byte[] aggr : aggregations)
+            afr.mergeAll(accumulator, view.reset(aggr, 0, aggr.length), SliceOperation.ADD);
+        return accumulator;
+    }
+
+    @Benchmark
+    public Aggregation.Builder mergeGroupsDecoded() throws InvalidProtocolBufferException {
+        Aggregation.Builder total = Aggregation.newBuilder();
+        Aggregation.Builder group = null;
+        for (int i = 0; i < aggregations.length; i++) {
+            Aggregation.Builder row = Aggregation.newBuilder().mergeFrom(aggregations[i]);
+            if (group == null)
+                group = row;
+            else
+                afr.mergeAll(group, row.clone().build(), SliceOperation.ADD);
+            if ((i + 1) % GROUP_SIZE == 0) {
+                afr.mergeAll(total, group.build(), SliceOperation.ADD);
+                group = null;
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public Aggregation.Builder mergeGroupsViewed() {
+        Aggregation.Builder total = Aggregation.newBuilder();
+        Aggregation.Builder group = null;
+        for (int i = 0; i < aggregations.length; i++) {
+            if (group == null)
+                group = Aggregation.newBuilder();
+            afr.mergeAll(group, view.reset(aggregations[i], 0, aggregations[i].length), SliceOperation.ADD);
+            if ((i + 1) % GROUP_SIZE == 0) {
+                afr.mergeAll(total, group.build(), SliceOperation.ADD);
+                group = null;
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double mergePrimitive() {
+        accumulator.clear();
+        for (byte[] aggr : aggregations)
+            afr.mergeFunctions(primitiveFunctions,
+                               accumulator,
+                               0,
+                               view.reset(aggr, 0, aggr.length),
+                               SliceOperation.ADD);
+        return accumulator.getSum(0);
+    }
+
+}
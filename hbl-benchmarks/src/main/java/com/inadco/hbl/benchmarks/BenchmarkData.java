@@ -0,0 +1,192 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.TreeSet;
+
+import org.apache.commons.lang.Validate;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.inadco.hbl.api.Cube;
+import com.inadco.hbl.api.Cuboid;
+import com.inadco.hbl.api.Dimension;
+import com.inadco.hbl.api.Hierarchy;
+import com.inadco.hbl.client.impl.SliceOperation;
+import com.inadco.hbl.client.impl.scanner.ScanSpec;
+import com.inadco.hbl.compiler.YamlModelParser;
+import com.inadco.hbl.protocodegen.Cells.Aggregation;
+
+/**
+ * Synthetic data shaped like the example1 cube of the sample module
+ * (example1.yaml): 16 byte hex ids, short strings and hourly impression time
+ * over 90 days.
+ * <P>
+ * 
+ * All of it is generated off fixed seeds, so that runs are comparable.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public final class BenchmarkData {
+
+    public static final String    MODEL_RESOURCE  = "example1.yaml";
+    public static final String    IMPRESSION_TIME = "impressionTime";
+    public static final String[]  MEASURES        = { "impCnt", "click" };
+
+    /** 2012-01-01 00:00 UTC */
+    public static final long      T0              = 1325376000000L;
+    public static final long      HOUR            = 3600L * 1000;
+    public static final int       HOURS           = 90 * 24;
+
+    private static final TimeZone UTC             = TimeZone.getTimeZone("UTC");
+
+    private BenchmarkData() {
+    }
+
+    public static String loadModelYaml() throws IOException {
+        InputStream is = BenchmarkData.class.getClassLoader().getResourceAsStream(MODEL_RESOURCE);
+        Validate.notNull(is, "cube model is not on the classpath");
+        try {
+            Reader r = new InputStreamReader(is, "UTF-8");
+            StringBuilder sb = new StringBuilder();
+            char[] buff = new char[4096];
+            for (int n; (n = r.read(buff)) >= 0;)
+                sb.append(buff, 0, n);
+            return sb.toString();
+        } finally {
+            is.close();
+        }
+    }
+
+    public static Cube loadCube() throws IOException {
+        return YamlModelParser.parseYamlModel(loadModelYaml());
+    }
+
+    public static Cuboid findCuboid(Cube cube, String... path) {
+        Cuboid cuboid = cube.findCuboidForPath(Arrays.asList(path));
+        Validate.notNull(cuboid, "no cuboid for the path");
+        return cuboid;
+    }
+
+    /**
+     * @return UTC calendar of the hour since {@link #T0}.
+     */
+    public static GregorianCalendar hour(int hour) {
+        GregorianCalendar gcal = new GregorianCalendar(UTC);
+        gcal.setTimeInMillis(T0 + hour * HOUR);
+        return gcal;
+    }
+
+    /**
+     * @return n distinct random ids, in the key order.
+     */
+    public static byte[][] ids(Random rnd, int n, int len) {
+        TreeSet<byte[]> ids = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+        while (ids.size() < n) {
+            byte[] id = new byte[len];
+            rnd.nextBytes(id);
+            ids.add(id);
+        }
+        return ids.toArray(new byte[n][]);
+    }
+
+    /**
+     * Row keys of an [id, time] cuboid the way the compiler writes them: a
+     * key for every id and every level of the time hierarchy (all, monthly,
+     * hourly), in the key order.
+     * 
+     * @param cuboid
+     *            cuboid of a non-hierarchical dimension followed by a time
+     *            hierarchy
+     * @param ids
+     *            members of the first dimension
+     * @param hours
+     *            hours of time since {@link #T0} to write
+     */
+    public static byte[][] timeSeriesRows(Cuboid cuboid, byte[][] ids, int hours) {
+        List<Dimension> dims = cuboid.getCuboidDimensions();
+        Validate.isTrue(dims.size() == 2 && dims.get(1) instanceof Hierarchy, "expected an [id, time] cuboid");
+        Dimension idDim = dims.get(0);
+        Hierarchy time = (Hierarchy) dims.get(1);
+
+        TreeSet<byte[]> rows = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+        byte[] key = new byte[cuboid.getKeyLen()];
+        for (byte[] id : ids) {
+            idDim.getKey(id, key, 0);
+            for (int h = 0; h < hours; h++) {
+                GregorianCalendar gcal = hour(h);
+                for (int level = 0; level < time.getDepth(); level++) {
+                    time.getKey(gcal, level, key, idDim.getKeyLen());
+                    rows.add(key.clone());
+                }
+            }
+        }
+        return rows.toArray(new byte[rows.size()][]);
+    }
+
+    /**
+     * @return serialized aggregations of a single numeric measure cell.
+     */
+    public static byte[][] aggregations(Random rnd, int n) {
+        byte[][] aggrs = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            long cnt = 1 + rnd.nextInt(100);
+            double sum = 0, sumSq = 0, min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+            for (int j = 0; j < 4; j++) {
+                double x = rnd.nextInt(1000);
+                sum += x;
+                sumSq += x * x;
+                min = Math.min(min, x);
+                max = Math.max(max, x);
+            }
+            aggrs[i] =
+                Aggregation.newBuilder()
+                    .setCnt(cnt)
+                    .setSum(sum)
+                    .setSumSq(sumSq)
+                    .setMin(min)
+                    .setMax(max)
+                    .build()
+                    .toByteArray();
+        }
+        return aggrs;
+    }
+
+    /**
+     * @return scan spec of {@link #MEASURES} grouped by the key prefix of the
+     *         given length.
+     */
+    public static ScanSpec scanSpec(Cuboid cuboid, int groupKeyLen) {
+        byte[][] measureQualifiers = new byte[MEASURES.length][];
+        for (int i = 0; i < MEASURES.length; i++)
+            measureQualifiers[i] = Bytes.toBytes(MEASURES[i]);
+        return new ScanSpec(measureQualifiers, groupKeyLen, null, cuboid, SliceOperation.ADD);
+    }
+
+}
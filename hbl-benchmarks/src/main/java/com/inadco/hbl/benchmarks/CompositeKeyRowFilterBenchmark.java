@@ -0,0 +1,141 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.Filter.ReturnCode;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.inadco.hbl.api.Cuboid;
+import com.inadco.hbl.api.Dimension;
+import com.inadco.hbl.api.Range;
+import com.inadco.hbl.client.impl.Slice;
+import com.inadco.hbl.client.impl.scanner.CompositeKeyRowFilter;
+
+/**
+ * {@link CompositeKeyRowFilter#filterRowKey(byte[], int, int)} over the rows
+ * of the [dim1, impressionTime] cuboid, the way a region scanner drives it:
+ * rows the filter asks to seek past are skipped to the hint. The time slice
+ * is spread over hourly and monthly level scans, so the filter has to skip
+ * the keys of the other hierarchy levels.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompositeKeyRowFilterBenchmark {
+
+    /** number of dim1 members */
+    @Param({ "16", "128" })
+    public int                      ids;
+
+    /** length of the time slice, hours */
+    @Param({ "24", "1000" })
+    public int                      sliceHours;
+
+    private byte[][]                rows;
+    private KeyValue[]              kvs;
+    private CompositeKeyRowFilter[] filters;
+    private int[]                   startRows;
+    private byte[][]                stopRows;
+
+    @Setup
+    public void setUp() throws IOException {
+        Cuboid cuboid = BenchmarkData.findCuboid(BenchmarkData.loadCube(), "dim1", BenchmarkData.IMPRESSION_TIME);
+        List<Dimension> dims = cuboid.getCuboidDimensions();
+        byte[][] dim1Ids = BenchmarkData.ids(new Random(1234), ids, dims.get(0).getKeyLen());
+        rows = BenchmarkData.timeSeriesRows(cuboid, dim1Ids, BenchmarkData.HOURS);
+        kvs = new KeyValue[rows.length];
+        for (int i = 0; i < rows.length; i++)
+            kvs[i] = new KeyValue(rows[i], 0l);
+
+        // starts mid-month, so that longer slices are partly scanned monthly
+        int start = 10 * 24 + 5;
+        Slice slice = new Slice(BenchmarkData.hour(start), false, BenchmarkData.hour(start + sliceHours), true);
+        Range[] timeRanges = dims.get(1).optimizeSliceScan(slice, false);
+
+        filters = new CompositeKeyRowFilter[timeRanges.length];
+        startRows = new int[timeRanges.length];
+        stopRows = new byte[timeRanges.length][];
+        for (int i = 0; i < timeRanges.length; i++) {
+            CompositeKeyRowFilter filter =
+                new CompositeKeyRowFilter(new Range[] { dims.get(0).allRange(), timeRanges[i] });
+            filter.initTransients();
+            filters[i] = filter;
+            startRows[i] = seek(filter.getCompositeBound(true));
+            stopRows[i] = filter.getCompositeBound(false);
+        }
+    }
+
+    @Benchmark
+    public int scan(Blackhole bh) {
+        int included = 0;
+        for (int f = 0; f < filters.length; f++) {
+            CompositeKeyRowFilter filter = filters[f];
+            byte[] stopRow = stopRows[f];
+            int i = startRows[f];
+            while (i < rows.length && Bytes.compareTo(rows[i], stopRow) <= 0) {
+                byte[] row = rows[i];
+                if (filter.filterRowKey(row, 0, row.length)) {
+                    i++;
+                    continue;
+                }
+                KeyValue kv = kvs[i];
+                if (filter.filterKeyValue(kv) == ReturnCode.SEEK_NEXT_USING_HINT)
+                    i = Math.max(i + 1, seek(filter.getNextKeyHint(kv).getRow()));
+                else {
+                    bh.consume(kv);
+                    included++;
+                    i++;
+                }
+            }
+        }
+        return included;
+    }
+
+    private int seek(byte[] row) {
+        int i = Arrays.binarySearch(rows, row, Bytes.BYTES_COMPARATOR);
+        return i >= 0 ? i : -i - 1;
+    }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.inadco.hbl.client.impl.ThreadPerTaskExecutor;
+
+/**
+ * Load test of the scanner fan-out: a batch of queries running at the same
+ * time, each opening and prefetching a few {@link SimulatedRpcScanner}s, thru
+ * the client's default thread pool or the virtual thread executor
+ * (hbl.client.virtualthreads, java 21+). Throughput is queries per the time
+ * of a batch.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentQueryBenchmark {
+
+    private static final int  SCANS           = 8;
+    private static final int  ROWS            = 64;
+    private static final int  CACHING         = 16;
+    private static final long LATENCY         = 2;
+    private static final int  MAX_CONCURRENCY = 4096;
+
+    /** number of queries running at the same time */
+    @Param({ "500", "1000" })
+    public int                queries;
+
+    /** scanner executor: "pool" the same as the client's default, or "virtual" */
+    @Param({ "pool", "virtual" })
+    public String             executor;
+
+    private ExecutorService   es;
+    private ExecutorService   callers;
+
+    @Setup
+    public void setUp() {
+        if ("pool".equals(executor)) {
+            ThreadPoolExecutor tpe =
+                new ThreadPoolExecutor(3, 50, 5, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(3));
+            tpe.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+            es = tpe;
+        } else
+            es = ThreadPerTaskExecutor.newVirtualThreadExecutor(MAX_CONCURRENCY);
+
+        // application threads issuing the queries
+        callers = Executors.newFixedThreadPool(queries);
+    }
+
+    @TearDown
+    public void tearDown() {
+        callers.shutdownNow();
+        es.shutdownNow();
+    }
+
+    @Benchmark
+    public int queries() throws Exception {
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>(queries);
+        for (int i = 0; i < queries; i++)
+            results.add(callers.submit(new Callable<Integer>() {
+
+                @Override
+                public Integer call() throws Exception {
+                    return SimulatedRpcScanner.runQuery(es, SCANS, ROWS, CACHING, LATENCY);
+                }
+            }));
+        int n = 0;
+        for (Future<Integer> result : results)
+            n += result.get();
+        if (n != queries * SCANS * ROWS)
+            throw new IllegalStateException("rows lost");
+        return n;
+    }
+
+}
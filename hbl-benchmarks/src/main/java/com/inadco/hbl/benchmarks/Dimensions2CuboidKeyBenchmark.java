@@ -0,0 +1,116 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.pig.data.DataBag;
+import org.apache.pig.data.DataByteArray;
+import org.apache.pig.data.Tuple;
+import org.apache.pig.data.TupleFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.inadco.hbl.api.Cuboid;
+import com.inadco.hbl.api.Dimension;
+import com.inadco.hbl.api.Hierarchy;
+import com.inadco.hbl.compiler.YamlModelParser;
+import com.inadco.hbl.model.HexDimension;
+import com.inadco.hbl.piggybank.Dimensions2CuboidKey;
+import com.inadco.hbl.util.HblUtil;
+
+/**
+ * {@link Dimensions2CuboidKey} the compiler calls for every fact and cuboid,
+ * over facts of the [dim1, impressionTime] and the [dim1, charDim1, dim2,
+ * charDim2, impressionTime] cuboids of example1.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Dimensions2CuboidKeyBenchmark {
+
+    private static final int     FACTS = 1024;
+
+    /** cuboid path, comma separated */
+    @Param({ "dim1,impressionTime", "dim1,charDim1,dim2,charDim2,impressionTime" })
+    public String                cuboid;
+
+    private Dimensions2CuboidKey func;
+    private Tuple[]              facts;
+
+    @Setup
+    public void setUp() throws IOException {
+        func = new Dimensions2CuboidKey(YamlModelParser.encodeCubeModel(BenchmarkData.loadModelYaml()));
+        Cuboid c = BenchmarkData.findCuboid(BenchmarkData.loadCube(), cuboid.split(","));
+        String path = HblUtil.encodeCuboidPath(c);
+        List<Dimension> dims = c.getCuboidDimensions();
+        Random rnd = new Random(1234);
+        TupleFactory tf = TupleFactory.getInstance();
+
+        facts = new Tuple[FACTS];
+        for (int i = 0; i < FACTS; i++) {
+            Tuple fact = tf.newTuple(dims.size() + 1);
+            fact.set(0, path);
+            for (int j = 0; j < dims.size(); j++) {
+                Dimension d = dims.get(j);
+                Object member;
+                if (d instanceof Hierarchy)
+                    member = BenchmarkData.T0 + rnd.nextInt(BenchmarkData.HOURS) * BenchmarkData.HOUR;
+                else if (d instanceof HexDimension) {
+                    byte[] id = new byte[d.getKeyLen()];
+                    rnd.nextBytes(id);
+                    member = new DataByteArray(id);
+                } else
+                    member = "member" + rnd.nextInt(1000);
+                fact.set(j + 1, member);
+            }
+            facts[i] = fact;
+        }
+    }
+
+    @Benchmark
+    public long exec() throws IOException {
+        long n = 0;
+        for (Tuple fact : facts) {
+            DataBag keys = func.exec(fact);
+            n += keys.size();
+        }
+        return n;
+    }
+
+}
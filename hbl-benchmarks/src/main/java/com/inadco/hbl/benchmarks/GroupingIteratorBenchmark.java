@@ -0,0 +1,113 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.inadco.datastructs.adapters.GroupingIterator;
+import com.inadco.hbl.api.AggregateFunctionRegistry;
+import com.inadco.hbl.api.Cube;
+import com.inadco.hbl.api.Cuboid;
+import com.inadco.hbl.client.impl.functions.FCount;
+import com.inadco.hbl.client.impl.functions.FSum;
+import com.inadco.hbl.client.impl.scanner.GroupingScanStrategy;
+import com.inadco.hbl.client.impl.scanner.RawScanResult;
+import com.inadco.hbl.client.impl.scanner.ScanSpec;
+
+/**
+ * {@link GroupingIterator} with {@link GroupingScanStrategy} rolling the rows
+ * of the [dim1, impressionTime] cuboid up to dim1 groups.
+ * <P>
+ * 
+ * "primitive" merges only SUM and COUNT the way a query asking just for those
+ * does; "all" merges all functions of the example1 registry, including the
+ * custom ones, the way scans without a function list do.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupingIteratorBenchmark {
+
+    /** number of dim1 groups */
+    @Param({ "16", "256" })
+    public int                        groups;
+
+    @Param({ "primitive", "all" })
+    public String                     functions;
+
+    private AggregateFunctionRegistry afr;
+    private ScanSpec                  spec;
+    private byte[][]                  rows;
+    private byte[][]                  aggregations;
+
+    @Setup
+    public void setUp() throws IOException {
+        Cube cube = BenchmarkData.loadCube();
+        Cuboid cuboid = BenchmarkData.findCuboid(cube, "dim1", BenchmarkData.IMPRESSION_TIME);
+        Random rnd = new Random(1234);
+        afr = cube.getAggregateFunctionRegistry();
+        rows = BenchmarkData.timeSeriesRows(cuboid, BenchmarkData.ids(rnd, groups, 16), 10 * 24);
+        aggregations = BenchmarkData.aggregations(rnd, 1024);
+        spec = BenchmarkData.scanSpec(cuboid, cuboid.getCuboidDimensions().get(0).getKeyLen());
+        if ("primitive".equals(functions)) {
+            String[][] measureFunctions = new String[BenchmarkData.MEASURES.length][];
+            for (int i = 0; i < measureFunctions.length; i++)
+                measureFunctions[i] = new String[] { FSum.FNAME, FCount.FNAME };
+            spec.setMeasureFunctions(measureFunctions);
+        }
+    }
+
+    @Benchmark
+    public int group(Blackhole bh) throws IOException {
+        GroupingIterator<RawScanResult, RawScanResult> grouped =
+            new GroupingIterator<RawScanResult, RawScanResult>(new RawScanResultInput(rows, aggregations, spec),
+                                                               new GroupingScanStrategy(spec, afr, false));
+        int n = 0;
+        while (grouped.hasNext()) {
+            grouped.next();
+            bh.consume(grouped.current().getMeasure(0));
+            n++;
+        }
+        grouped.close();
+        return n;
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.inadco.datastructs.InputIterator;
+import com.inadco.datastructs.MergeStrategy;
+import com.inadco.datastructs.adapters.NWayMergingIterator;
+import com.inadco.datastructs.util.LoserTreeMergeStrategy;
+import com.inadco.datastructs.util.StatefulHeapSortMergeStrategy;
+import com.inadco.hbl.api.Cuboid;
+import com.inadco.hbl.client.impl.scanner.RawScanResult;
+import com.inadco.hbl.client.impl.scanner.ScanSpec;
+
+/**
+ * {@link NWayMergingIterator} merging the results of k scans of the [dim1,
+ * impressionTime] cuboid by group, with {@link StatefulHeapSortMergeStrategy}
+ * and, for comparison, {@link LoserTreeMergeStrategy} the result sets use now,
+ * for k = 2..256.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MergingIteratorBenchmark {
+
+    /** number of scans merged */
+    @Param({ "2", "4", "8", "16", "32", "64", "128", "256" })
+    public int         inputs;
+
+    @Param({ "heap", "loserTree" })
+    public String      strategy;
+
+    private ScanSpec   spec;
+    private byte[][][] rows;
+    private byte[][]   aggregations;
+
+    @Setup
+    public void setUp() throws IOException {
+        Cuboid cuboid = BenchmarkData.findCuboid(BenchmarkData.loadCube(), "dim1", BenchmarkData.IMPRESSION_TIME);
+        Random rnd = new Random(1234);
+        byte[][] all = BenchmarkData.timeSeriesRows(cuboid, BenchmarkData.ids(rnd, 16, 16), BenchmarkData.HOURS);
+        spec = BenchmarkData.scanSpec(cuboid, cuboid.getKeyLen());
+        aggregations = BenchmarkData.aggregations(rnd, 1024);
+
+        // deal the rows out to the scans
+        int[] counts = new int[inputs];
+        int[] picks = new int[all.length];
+        for (int i = 0; i < all.length; i++)
+            counts[picks[i] = rnd.nextInt(inputs)]++;
+        rows = new byte[inputs][][];
+        for (int k = 0; k < inputs; k++)
+            rows[k] = new byte[counts[k]][];
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < all.length; i++)
+            rows[picks[i]][counts[picks[i]]++] = all[i];
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public int merge(Blackhole bh) throws IOException {
+        InputIterator<RawScanResult>[] iters = new InputIterator[inputs];
+        for (int k = 0; k < inputs; k++)
+            iters[k] = new RawScanResultInput(rows[k], aggregations, spec);
+        MergeStrategy<RawScanResult> ms;
+        if ("heap".equals(strategy))
+            ms = new StatefulHeapSortMergeStrategy<RawScanResult>(new RawScanResult.GroupComparator());
+        else
+            ms = new LoserTreeMergeStrategy<RawScanResult>(new RawScanResult.GroupComparator());
+        NWayMergingIterator<RawScanResult> merged = new NWayMergingIterator<RawScanResult>(iters, ms, false);
+        int n = 0;
+        while (merged.hasNext()) {
+            merged.next();
+            bh.consume(merged.current());
+            n++;
+        }
+        merged.close();
+        return n;
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.benchmarks;
+
+import com.inadco.datastructs.InputIterator;
+import com.inadco.hbl.client.impl.scanner.RawScanResult;
+import com.inadco.hbl.client.impl.scanner.ScanSpec;
+
+/**
+ * Scan results off the given rows, the way the scanners produce them: one
+ * result instance refilled with the group key and serialized measures of
+ * every next row.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class RawScanResultInput implements InputIterator<RawScanResult> {
+
+    private final byte[][]      rows;
+    private final byte[][]      aggregations;
+    private final RawScanResult current;
+    private final int           measureCnt;
+    private final int           groupKeyLen;
+    private int                 index = -1;
+
+    /**
+     * @param rows
+     *            row keys, in the key order
+     * @param aggregations
+     *            serialized aggregations to cycle thru for the measures
+     * @param spec
+     *            scan spec of the results
+     */
+    public RawScanResultInput(byte[][] rows, byte[][] aggregations, ScanSpec spec) {
+        super();
+        this.rows = rows;
+        this.aggregations = aggregations;
+        current = new RawScanResult(spec);
+        measureCnt = spec.getMeasureQualifiers().length;
+        groupKeyLen = spec.getGroupKeyLen();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return index + 1 < rows.length;
+    }
+
+    @Override
+    public void next() {
+        index++;
+        current.reset();
+        System.arraycopy(rows[index], 0, current.getGroup(), 0, groupKeyLen);
+        for (int i = 0; i < measureCnt; i++) {
+            byte[] aggr = aggregations[(index + i) % aggregations.length];
+            current.setRawMeasure(i, aggr, 0, aggr.length);
+        }
+    }
+
+    @Override
+    public RawScanResult current() {
+        return current;
+    }
+
+    @Override
+    public int getCurrentIndex() {
+        return index;
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
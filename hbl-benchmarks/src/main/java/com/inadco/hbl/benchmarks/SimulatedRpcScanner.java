@@ -0,0 +1,139 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.benchmarks;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.inadco.hbl.client.impl.SliceOperation;
+import com.inadco.hbl.client.impl.scanner.AbstractScanSpecScanner;
+import com.inadco.hbl.client.impl.scanner.PrefetchingScanSpecScanner;
+import com.inadco.hbl.client.impl.scanner.RawScanResult;
+import com.inadco.hbl.client.impl.scanner.ScanSpec;
+import com.inadco.hbl.client.impl.scanner.ScanSpecScanner;
+
+/**
+ * Scanner blocking for a simulated RPC latency on open and every caching
+ * rows, in place of a region server.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class SimulatedRpcScanner extends AbstractScanSpecScanner {
+
+    private final int  rows;
+    private final int  caching;
+    private final long latency;
+    private int        n;
+
+    public SimulatedRpcScanner(int rows, int caching, long latency) {
+        super(new ScanSpec(new byte[][] { Bytes.toBytes("m") }, 4, null, null, SliceOperation.ADD));
+        this.rows = rows;
+        this.caching = caching;
+        this.latency = latency;
+    }
+
+    /**
+     * A query the way the result set runs it: opens the scanners and then
+     * prefetches them on the executor, running whatever the executor rejects
+     * in the current thread.
+     * 
+     * @return number of rows the query got
+     */
+    public static int runQuery(ExecutorService es, int scans, final int rows, final int caching, final long latency)
+        throws IOException, InterruptedException {
+        List<FutureTask<AbstractScanSpecScanner>> opens = new ArrayList<FutureTask<AbstractScanSpecScanner>>();
+        for (int i = 0; i < scans; i++) {
+            FutureTask<AbstractScanSpecScanner> open =
+                new FutureTask<AbstractScanSpecScanner>(new Callable<AbstractScanSpecScanner>() {
+
+                    @Override
+                    public AbstractScanSpecScanner call() throws Exception {
+                        rpc(latency);
+                        return new SimulatedRpcScanner(rows, caching, latency);
+                    }
+                });
+            try {
+                es.execute(open);
+            } catch (RejectedExecutionException exc) {
+                open.run();
+            }
+            opens.add(open);
+        }
+
+        int n = 0;
+        for (FutureTask<AbstractScanSpecScanner> open : opens) {
+            AbstractScanSpecScanner delegate;
+            try {
+                delegate = open.get();
+            } catch (ExecutionException exc) {
+                throw new IOException(exc.getCause());
+            }
+            ScanSpecScanner scanner;
+            try {
+                scanner = new PrefetchingScanSpecScanner(delegate, es, 2, caching, 0);
+            } catch (RejectedExecutionException exc) {
+                scanner = delegate;
+            }
+            try {
+                while (scanner.hasNext()) {
+                    scanner.next();
+                    n++;
+                }
+            } finally {
+                scanner.close();
+            }
+        }
+        return n;
+    }
+
+    @Override
+    protected RawScanResult fetchNextRawResult(RawScanResult holder) throws IOException {
+        if (n == rows)
+            return null;
+        if (n % caching == 0)
+            rpc(latency);
+        RawScanResult result = holder == null ? new RawScanResult(scanSpec) : holder;
+        result.setGroup(Bytes.toBytes(n++));
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    private static void rpc(long latency) throws InterruptedIOException {
+        try {
+            Thread.sleep(latency);
+        } catch (InterruptedException exc) {
+            throw new InterruptedIOException();
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.inadco.hbl.math.aggregators.IrregularSamplingSummarizer;
+import com.inadco.hbl.math.aggregators.OnlineCannyAvgSummarizer;
+import com.inadco.hbl.math.aggregators.OnlineCannyBiasedBinomialSummarizer;
+import com.inadco.hbl.math.aggregators.OnlineCannyRateSummarizer;
+import com.inadco.hbl.math.aggregators.OnlineExpAvgSummarizer;
+import com.inadco.hbl.math.aggregators.OnlineExpBiasedBinomialSummarizer;
+import com.inadco.hbl.math.aggregators.OnlineExpRateSummarizer;
+
+/**
+ * Update and combine of the irregular sampling summarizers behind the
+ * IrregularSampleMeasure of example1 (impTimeSeries, clickTimeSeries): a
+ * series of samples over 90 days fed into one summarizer, and the partial
+ * summarizers of the same series combined into one, the way cells of a
+ * cuboid are merged.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SummarizerBenchmark {
+
+    private static final int              SAMPLES  = 1024;
+    private static final int              PARTIALS = 16;
+    /** history of 7 days, as cannyAvg7d */
+    private static final double           DT       = 604800000d;
+    private static final double           P0       = 0.25;
+
+    @Param({ "cannyAvg", "cannyRate", "cannyBinomial", "expAvg", "expRate", "expBinomial" })
+    public String                         summarizer;
+
+    private double[]                      x;
+    private double[]                      t;
+    private IrregularSamplingSummarizer   target;
+    private IrregularSamplingSummarizer[] partials;
+
+    @Setup
+    public void setUp() {
+        Random rnd = new Random(1234);
+        boolean binomial = summarizer.endsWith("Binomial");
+        x = new double[SAMPLES];
+        t = new double[SAMPLES];
+        double time = BenchmarkData.T0;
+        for (int i = 0; i < SAMPLES; i++) {
+            time += rnd.nextInt((int) (2 * BenchmarkData.HOURS * BenchmarkData.HOUR / SAMPLES));
+            t[i] = time;
+            x[i] = binomial ? (rnd.nextDouble() < P0 ? 1 : 0) : rnd.nextInt(1000);
+        }
+
+        target = newSummarizer();
+        partials = new IrregularSamplingSummarizer[PARTIALS];
+        for (int i = 0; i < PARTIALS; i++)
+            partials[i] = newSummarizer();
+        for (int i = 0; i < SAMPLES; i++)
+            partials[rnd.nextInt(PARTIALS)].update(x[i], t[i]);
+    }
+
+    @Benchmark
+    public double update() {
+        target.reset();
+        for (int i = 0; i < SAMPLES; i++)
+            target.update(x[i], t[i]);
+        return target.getValue();
+    }
+
+    @Benchmark
+    public double combine() {
+        target.reset();
+        for (IrregularSamplingSummarizer partial : partials)
+            target.combine(partial);
+        return target.getValue();
+    }
+
+    private IrregularSamplingSummarizer newSummarizer() {
+        if ("cannyAvg".equals(summarizer))
+            return new OnlineCannyAvgSummarizer(DT);
+        if ("cannyRate".equals(summarizer))
+            return new OnlineCannyRateSummarizer(DT);
+        if ("cannyBinomial".equals(summarizer))
+            return new OnlineCannyBiasedBinomialSummarizer(P0, DT);
+        if ("expAvg".equals(summarizer))
+            return new OnlineExpAvgSummarizer(DT);
+        if ("expRate".equals(summarizer))
+            return new OnlineExpRateSummarizer(DT);
+        if ("expBinomial".equals(summarizer))
+            return new OnlineExpBiasedBinomialSummarizer(P0, DT);
+        throw new IllegalArgumentException("unknown summarizer: " + summarizer);
+    }
+
+}
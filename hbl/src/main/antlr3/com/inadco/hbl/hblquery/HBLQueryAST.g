@@ -16,6 +16,12 @@ tokens {
   SLICE = 'slice';
   IN = 'in';
   INF = 'inf';
+  ORDER = 'order';
+  LIMIT = 'limit';
+  ASC = 'asc';
+  DESC = 'desc';
+  HAVING = 'having';
+  TIMEOUT = 'timeout';
   FUNC;
   SELECTION_LIST;
   SEL_EXPR;
@@ -23,6 +29,13 @@ tokens {
   LEFTCLOSED;
   RIGHTOPEN;
   RIGHTCLOSED;
+  PREDICATE;
+  GT;
+  GE;
+  LT;
+  LE;
+  EQ;
+  NE;
 }
 
 @header { 
@@ -57,7 +70,7 @@ tokens {
 }
 
 select 
-	: 	SELECT^ selectExprList fromClause whereClause? groupClause? EOF! 
+	: 	SELECT^ selectExprList fromClause whereClause? groupClause? havingClause? orderClause? limitClause? timeoutClause? EOF! 
 	;
 	
 selectExprList 
@@ -71,6 +84,46 @@ fromClause
 groupClause 	     
 	:	GROUP^ BY! id (','! id)* 
 	;
+
+/**
+  group filter, e.g. "HAVING SUM(click) > 100". 
+  all of the predicates must hold.
+*/
+havingClause
+	:	HAVING^ havingPredicate (','! havingPredicate)*
+	;
+
+havingPredicate
+	:	unaryFunc compOp value -> ^( PREDICATE unaryFunc compOp value )
+	;
+
+compOp
+	:	'>' -> GT
+	|	'>=' -> GE
+	|	'<' -> LT
+	|	'<=' -> LE
+	|	'=' -> EQ
+	|	'<>' -> NE
+	;
+
+/**
+  order of the results by one of the select expression aliases 
+  (or the dimension name if dimension has no alias).
+*/
+orderClause
+	:	ORDER^ BY! id ( ASC | DESC )?
+	;
+
+limitClause
+	:	LIMIT^ ( INT | param )
+	;
+
+/**
+  deadline of the query execution, ms.
+*/
+timeoutClause
+	:	TIMEOUT^ ( INT | param )
+	;
 		
 	
 unaryFunc 
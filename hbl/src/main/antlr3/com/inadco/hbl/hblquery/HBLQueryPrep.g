@@ -79,6 +79,10 @@ scope Visitor {
     	if ( errorReporter != null ) errorReporter.reset();
     	super.reset();
     }
+    /** number of parameters the last walk consumed */
+    public int getHblParamCount() { 
+    	return hblParamCnt; 
+    }
     
 }
 
@@ -96,7 +100,7 @@ scope Visitor;
 	qVisitor.reset(); 
     hblParamCnt =0;
 }
-	: 	^( SELECT exprList fromClause whereClause? groupClause? ) 
+	: 	^( SELECT exprList fromClause whereClause? groupClause? havingClause? orderClause? limitClause? timeoutClause? ) 
 	{ 
 		qVisitor.visitSelect ( $exprList.start, $fromClause.start, $whereClause.start, $groupClause.start );
 	}
@@ -132,8 +136,10 @@ sliceSpec
     	qVisitor.visitSlice ($id.nameVal, 
     	   $leftBoundType.open, 
     	   $left.val,
+    	   $left.paramIndex,
     	   $rightBoundType.open, 
-    	   $right.val); 
+    	   $right.val,
+    	   $right.paramIndex); 
     }
     ; 
 
@@ -154,6 +160,53 @@ scope Visitor;
 }
     :   ^( GROUP id+ )
     ;    
+
+havingClause
+    :   ^( HAVING havingPredicate+ )
+    ;
+
+havingPredicate
+    :   ^( PREDICATE aggrFunc compOp value )
+    {
+    	qVisitor.visitHavingPredicate($aggrFunc.funcName, $aggrFunc.measure, $compOp.op, $value.val);
+    }
+    ;
+
+compOp returns [String op]
+    :   GT { $op = ">"; }
+    |   GE { $op = ">="; }
+    |   LT { $op = "<"; }
+    |   LE { $op = "<="; }
+    |   EQ { $op = "="; }
+    |   NE { $op = "<>"; }
+    ;
+
+orderClause
+    :   ^( ORDER id ( ASC | desc=DESC )? )
+    {
+    	qVisitor.visitOrderBy($id.nameVal, $desc != null);
+    }
+    ;
+
+limitClause
+    :   ^( LIMIT 
+            ( INT { qVisitor.visitLimit(Integer.parseInt($INT.text)); }
+            | param { $param.val instanceof Number }? { 
+                qVisitor.visitLimit(((Number) $param.val).intValue()); 
+              }
+            ) 
+        )
+    ;
+
+timeoutClause
+    :   ^( TIMEOUT 
+            ( INT { qVisitor.visitTimeout(Long.parseLong($INT.text)); }
+            | param { $param.val instanceof Number }? { 
+                qVisitor.visitTimeout(((Number) $param.val).longValue()); 
+              }
+            ) 
+        )
+    ;
     
 aggrFunc returns [String measure, String funcName]
 scope Visitor;
@@ -195,13 +248,13 @@ id  returns [ String nameVal ]
     ;               
         
     
-param returns [Object val]
+param returns [Object val, Integer index]
     :   '?'
-        { $val=hblParams.get(hblParamCnt++); }
+        { $index=hblParamCnt; $val=hblParams.get(hblParamCnt++); }
     ;   
     
-value returns [Object val] 
-    :   param { $val= $param.val; } 
+value returns [Object val, Integer paramIndex] 
+    :   param { $val= $param.val; $paramIndex= $param.index; } 
     | INT { $val= Integer.parseInt($text); }
     | FLOAT { $val= Double.parseDouble($text); } 
     | STRING { $val= $STRING.text.substring(1,$STRING.text.length()-1); }
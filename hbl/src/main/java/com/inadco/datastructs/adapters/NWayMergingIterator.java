@@ -22,9 +22,8 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Deque;
-import java.util.HashSet;
-import java.util.Set;
 
 import com.inadco.datastructs.InputIterator;
 import com.inadco.datastructs.MergeStrategy;
@@ -47,7 +46,8 @@ public class NWayMergingIterator<T> implements InputIterator<T> {
     private MergeStrategy<T>             m_mergeStrategy;
     private int                          m_currentIndex = -1;
     private MergeStrategy.StepResult     m_stepResult   = new MergeStrategy.StepResult();
-    private Set<Integer>                 m_unfinished;
+    private BitSet                       m_unfinished;
+    private int                          m_unfinishedCount;
     private int                          m_stepOutputIdx;                                // index
                                                                                           // of
                                                                                           // output
@@ -62,7 +62,7 @@ public class NWayMergingIterator<T> implements InputIterator<T> {
         m_mergeStrategy = mergeStrategy;
         if (cascadeClose)
             m_closeables.addAll(Arrays.asList(inputs));
-        m_unfinished = new HashSet<Integer>((inputs.length << 1) + 1, 0.75f);
+        m_unfinished = new BitSet(inputs.length);
         m_stepResult.m_advance = new int[inputs.length];
         m_stepResult.m_output = new int[inputs.length];
 
@@ -71,7 +71,8 @@ public class NWayMergingIterator<T> implements InputIterator<T> {
         for (int i = 0; i < inputs.length; i++)
             if (inputs[i].hasNext()) {
                 inputs[i].next();
-                m_unfinished.add(i);
+                m_unfinished.set(i);
+                m_unfinishedCount++;
             } else {
                 inputs[i] = null;
             }
@@ -84,7 +85,7 @@ public class NWayMergingIterator<T> implements InputIterator<T> {
 
     @Override
     public boolean hasNext() throws IOException {
-        return m_stepOutputIdx + 1 < m_stepResult.m_outputCount || m_unfinished.size() > 0;
+        return m_stepOutputIdx + 1 < m_stepResult.m_outputCount || m_unfinishedCount > 0;
     }
 
     @Override
@@ -105,7 +106,7 @@ public class NWayMergingIterator<T> implements InputIterator<T> {
                     int advanceIndex = m_stepResult.m_advance[i];
                     assert advanceIndex >= 0 && advanceIndex < m_inputs.length;
 
-                    if (m_unfinished.contains(advanceIndex))
+                    if (m_unfinished.get(advanceIndex))
                         m_inputs[advanceIndex].next();
                     else
                         m_inputs[advanceIndex] = null;
@@ -123,7 +124,8 @@ public class NWayMergingIterator<T> implements InputIterator<T> {
                 for (int i = 0; i < m_stepResult.m_advanceCount; i++) {
                     int advanceIndex = m_stepResult.m_advance[i];
                     if (!m_inputs[advanceIndex].hasNext()) {
-                        m_unfinished.remove(advanceIndex);
+                        m_unfinished.clear(advanceIndex);
+                        m_unfinishedCount--;
                         m_mergeStrategy.onInputRemoved(m_inputs[advanceIndex]);
                     }
                 }
@@ -0,0 +1,166 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.datastructs.util;
+
+import java.io.IOException;
+import java.util.Comparator;
+
+import com.inadco.datastructs.InputIterator;
+import com.inadco.datastructs.MergeStrategy;
+
+/**
+ * N-way sort merge strategy based on a tournament (loser) tree.
+ * <P>
+ * 
+ * Internal nodes of the tree keep the loser of the match played at that node,
+ * and the root keeps the overall winner. Since only the winner is advanced
+ * after each step, only the matches on the path from the winner's leaf to the
+ * root need to be replayed, which is exactly ceil(log2(N)) comparisons per
+ * output element regardless of the inputs (unlike the heap sift which takes up
+ * to 2*log2(N) comparisons). Exhausted inputs (<code>null</code>s) just lose
+ * every match, so no rebuild is needed when inputs are removed.
+ * <P>
+ * 
+ * Equal elements come out in the order of their inputs, so the merge is
+ * stable.
+ * <P>
+ * 
+ * Same as {@link StatefulHeapSortMergeStrategy}, it is stateful and thus can't
+ * be used for several merges at the same time. Can be re-used, but
+ * {@link #reset()} must be called between uses.
+ * <P>
+ * 
+ * @param <T>
+ *            element type
+ * 
+ * @author dmitriy
+ * 
+ */
+public class LoserTreeMergeStrategy<T> implements MergeStrategy<T> {
+
+    /*
+     * m_tree[0] is the winner, m_tree[1..N-1] are the losers of the internal
+     * nodes. Leaf of input i is node N+i, parent of node n is n/2.
+     */
+    private int[]                        m_tree;
+    private InputIterator<? extends T>[] m_inputs;
+    private Comparator<? super T>        m_comparator;
+
+    public LoserTreeMergeStrategy() {
+        this(null);
+    }
+
+    public LoserTreeMergeStrategy(Comparator<? super T> comparator) {
+        m_comparator = comparator;
+        if (m_comparator == null)
+
+            m_comparator = new Comparator<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public int compare(Object o1, Object o2) {
+                    assert o1 instanceof Comparable<?>;
+                    assert o2 instanceof Comparable<?>;
+                    return ((Comparable<Object>) o1).compareTo(o2);
+                }
+
+            };
+        reset();
+    }
+
+    public void reset() {
+        m_tree = null;
+        m_inputs = null;
+    }
+
+    @Override
+    public void onInputRemoved(InputIterator<? extends T> input) throws IOException {
+        /*
+         * the winner is the only one that is ever advanced, and its leaf is
+         * replayed on the next step anyway. Anything else would mean somebody
+         * else advanced the inputs, so we'd rather start over.
+         */
+        if (m_tree != null && m_inputs[m_tree[0]] != input)
+            m_tree = null;
+    }
+
+    @Override
+    public void processStep(InputIterator<? extends T>[] inputs, MergeStrategy.StepResult result) throws IOException {
+        if (m_tree == null || m_inputs != inputs)
+            buildTree(inputs);
+        else
+            replay(m_tree[0], inputs);
+
+        // always output and advance the winner.
+        result.m_outputCount = 1;
+        result.m_output[0] = m_tree[0];
+        result.m_advanceCount = 1;
+        result.m_advance[0] = m_tree[0];
+    }
+
+    private void buildTree(InputIterator<? extends T>[] inputs) throws IOException {
+        m_inputs = inputs;
+        m_tree = new int[inputs.length];
+        m_tree[0] = playSubtree(1, inputs);
+    }
+
+    /*
+     * plays all matches of the subtree, leaving the losers in the internal
+     * nodes. Returns the winner of the subtree.
+     */
+    private int playSubtree(int node, InputIterator<? extends T>[] inputs) throws IOException {
+        int n = inputs.length;
+        if (node >= n)
+            return node - n;
+        int left = playSubtree(node << 1, inputs);
+        int right = playSubtree((node << 1) + 1, inputs);
+        if (beats(left, right, inputs)) {
+            m_tree[node] = right;
+            return left;
+        } else {
+            m_tree[node] = left;
+            return right;
+        }
+    }
+
+    private void replay(int input, InputIterator<? extends T>[] inputs) throws IOException {
+        int winner = input;
+        for (int node = (input + inputs.length) >>> 1; node > 0; node >>>= 1) {
+            int loser = m_tree[node];
+            if (beats(loser, winner, inputs)) {
+                m_tree[node] = winner;
+                winner = loser;
+            }
+        }
+        m_tree[0] = winner;
+    }
+
+    /*
+     * exhausted inputs lose to everything; ties go to the lower input index.
+     */
+    private boolean beats(int a, int b, InputIterator<? extends T>[] inputs) throws IOException {
+        InputIterator<? extends T> ia = inputs[a], ib = inputs[b];
+        if (ia == null)
+            return ib == null && a < b;
+        if (ib == null)
+            return true;
+        int cmp = m_comparator.compare(ia.current(), ib.current());
+        return cmp < 0 || cmp == 0 && a < b;
+    }
+
+}
@@ -19,8 +19,6 @@
 package com.inadco.datastructs.util;
 
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
 
 import com.inadco.datastructs.InputIterator;
 import com.inadco.datastructs.MergeStrategy;
@@ -40,8 +38,8 @@ public class NWayMerge {
      * <P>
      * 
      * As of this time, default merge strategy is
-     * {@link StatefulHeapSortMergeStrategy}, which means default merge behavior
-     * is non-deduplicating sorting merge.
+     * {@link LoserTreeMergeStrategy}, which means default merge behavior is
+     * non-deduplicating stable sorting merge.
      * <P>
      * 
      * @param <T>
@@ -55,7 +53,7 @@ public class NWayMerge {
      */
     public static <T> void sortedMerge(InputIterator<? extends T>[] inputs, OutputIterator<? super T> output)
         throws IOException {
-        merge(inputs, output, new StatefulHeapSortMergeStrategy<T>());
+        merge(inputs, output, new LoserTreeMergeStrategy<T>());
     }
 
     /**
@@ -79,7 +77,7 @@ public class NWayMerge {
         if (inputs.length == 0)
             return; // corner case: no inputs
 
-        final Set<Integer> finished = new HashSet<Integer>((inputs.length << 1) + 1, 0.75f);
+        int finishedCount = 0;
         final MergeStrategy.StepResult stepResult = new MergeStrategy.StepResult();
         stepResult.m_advance = new int[inputs.length];
         stepResult.m_output = new int[inputs.length];
@@ -90,11 +88,11 @@ public class NWayMerge {
             if (inputs[i].hasNext())
                 inputs[i].next();
             else {
-                finished.add(i);
+                finishedCount++;
                 inputs[i] = null;
             }
 
-        while (finished.size() < inputs.length) {
+        while (finishedCount < inputs.length) {
             mergeStrategy.processStep(inputs, stepResult);
 
             // 1. output the requested ones
@@ -115,7 +113,7 @@ public class NWayMerge {
                 if (inputs[advanceIndex].hasNext())
                     inputs[advanceIndex].next();
                 else {
-                    finished.add(advanceIndex);
+                    finishedCount++;
                     inputs[advanceIndex] = null;
                 }
 
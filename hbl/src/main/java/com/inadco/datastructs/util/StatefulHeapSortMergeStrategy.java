@@ -102,9 +102,12 @@ public class StatefulHeapSortMergeStrategy<T> implements MergeStrategy<T> {
 
     private void buildHeap(InputIterator<? extends T>[] inputs) throws IOException {
         m_heap = new int[inputs.length];
+        /*
+         * exhausted inputs stay in the heap too (they just sink to the
+         * bottom), otherwise their slots would all be pointing to input 0.
+         */
         for (int i = 0; i < inputs.length; i++)
-            if (inputs[i] != null)
-                m_heap[i] = i;
+            m_heap[i] = i;
         heapify(inputs);
 
     }
@@ -18,6 +18,8 @@
  */
 package com.inadco.hbl.api;
 
+import java.util.Collection;
+
 import com.inadco.hbl.client.impl.SliceOperation;
 import com.inadco.hbl.protocodegen.Cells.Aggregation;
 
@@ -29,8 +31,21 @@ public interface AggregateFunction {
 
     void merge(Aggregation.Builder accumulator, Aggregation source, SliceOperation operation);
 
+    /**
+     * Same as {@link #merge(Aggregation.Builder, Aggregation, SliceOperation)}
+     * but straight from the serialized source (scan path).
+     */
+    void merge(Aggregation.Builder accumulator, AggregationView source, SliceOperation operation);
+
     public String getName();
 
+    /**
+     * @return names of the functions whose states this function's value is
+     *         derived from (and which therefore have to be merged for this one
+     *         to be evaluated).
+     */
+    public Collection<String> getDependencies();
+
     public boolean supportsComplementScan();
 
     public Object getAggrValue(Aggregation source);
@@ -41,5 +41,64 @@ public interface AggregateFunctionRegistry {
 
     void mergeAll(Aggregation.Builder accumulator, Aggregation source, SliceOperation operation);
 
+    /**
+     * @return all registered functions.
+     */
+    AggregateFunction[] getFunctions();
+
+    /**
+     * Minimal set of functions needed to evaluate the given ones, i.e. the
+     * functions along with all of their dependencies.
+     * 
+     * @param funcNames
+     * @return resolved functions, to pass on to the
+     *         <code>mergeFunctions(AggregateFunction[], ...)</code> methods.
+     */
+    AggregateFunction[] resolveFunctions(Collection<String> funcNames);
+
+    void mergeFunctions(AggregateFunction[] funcs,
+                        Aggregation.Builder accumulator,
+                        Aggregation source,
+                        SliceOperation operation);
+
+    void mergeFunctions(AggregateFunction[] funcs,
+                        Aggregation.Builder accumulator,
+                        AggregationView source,
+                        SliceOperation operation);
+
+    /**
+     * merge into primitive accumulator; all of the functions must be
+     * {@link PrimitiveAggregateFunction}s.
+     */
+    void mergeFunctions(AggregateFunction[] funcs,
+                        PrimitiveAccumulator accumulator,
+                        int slot,
+                        AggregationView source,
+                        SliceOperation operation);
+
+    void mergeFunctions(AggregateFunction[] funcs,
+                        PrimitiveAccumulator accumulator,
+                        int slot,
+                        PrimitiveAccumulator source,
+                        int sourceSlot,
+                        SliceOperation operation);
+
+    void mergeAll(Aggregation.Builder accumulator, AggregationView source, SliceOperation operation);
+
+    /**
+     * @return true if all of the functions are
+     *         {@link PrimitiveAggregateFunction}s, i.e. groups may be
+     *         accumulated in {@link PrimitiveAccumulator}s.
+     */
+    boolean isPrimitive();
+
+    void mergeAll(PrimitiveAccumulator accumulator, int slot, AggregationView source, SliceOperation operation);
+
+    void mergeAll(PrimitiveAccumulator accumulator,
+                  int slot,
+                  PrimitiveAccumulator source,
+                  int sourceSlot,
+                  SliceOperation operation);
+
     AggregateFunction findFunction(String name);
 }
@@ -0,0 +1,329 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.api;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.inadco.hbl.protocodegen.Cells.Aggregation;
+
+/**
+ * Read-only view of a serialized {@link Aggregation} message in someone else's
+ * buffer (typically, hbase cell value), decoded on demand.
+ * <P>
+ * 
+ * Scans merge every row's aggregation into a group accumulator and then throw
+ * it away, so there's no point to build an {@link Aggregation} (or even a
+ * builder) for each row. The view parses the wire format straight into
+ * primitives (custom states are referenced in place) the first time any field
+ * is requested and can be reset to the next cell without allocations.
+ * <P>
+ * 
+ * The buffer must not change while view is in use. The view is not thread
+ * safe.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public final class AggregationView {
+
+    private static final int TAG_CNT           = 1 << 3 | 0;
+    private static final int TAG_SUM           = 2 << 3 | 1;
+    private static final int TAG_SUM_SQ        = 3 << 3 | 1;
+    private static final int TAG_MIN           = 4 << 3 | 1;
+    private static final int TAG_MAX           = 5 << 3 | 1;
+    private static final int TAG_CUSTOM_STATES = 51 << 3 | 2;
+
+    private byte[]           buffer;
+    private int              offset;
+    private int              length;
+
+    private boolean          parsed;
+    private boolean          hasCnt, hasSum, hasSumSq, hasMin, hasMax;
+    private long             cnt;
+    private double           sum, sumSq, min, max;
+
+    /**
+     * custom states, as (offset, length) pairs.
+     */
+    private int[]            customStates      = new int[4];
+    private int              customStatesCount;
+
+    /**
+     * parsing position
+     */
+    private int              pos;
+
+    public AggregationView() {
+        super();
+    }
+
+    public AggregationView(byte[] buffer, int offset, int length) {
+        super();
+        reset(buffer, offset, length);
+    }
+
+    /**
+     * point the view to another serialized aggregation.
+     * 
+     * @return self
+     */
+    public AggregationView reset(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        parsed = false;
+        return this;
+    }
+
+    /**
+     * detach the view from the buffer.
+     */
+    public void clear() {
+        buffer = null;
+        parsed = false;
+    }
+
+    /**
+     * @return true if view is pointed to a serialized aggregation.
+     */
+    public boolean isSet() {
+        return buffer != null;
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public boolean hasCnt() {
+        parse();
+        return hasCnt;
+    }
+
+    public long getCnt() {
+        parse();
+        return cnt;
+    }
+
+    public boolean hasSum() {
+        parse();
+        return hasSum;
+    }
+
+    public double getSum() {
+        parse();
+        return sum;
+    }
+
+    public boolean hasSumSq() {
+        parse();
+        return hasSumSq;
+    }
+
+    public double getSumSq() {
+        parse();
+        return sumSq;
+    }
+
+    public boolean hasMin() {
+        parse();
+        return hasMin;
+    }
+
+    public double getMin() {
+        parse();
+        return min;
+    }
+
+    public boolean hasMax() {
+        parse();
+        return hasMax;
+    }
+
+    public double getMax() {
+        parse();
+        return max;
+    }
+
+    public int getCustomStatesCount() {
+        parse();
+        return customStatesCount;
+    }
+
+    /**
+     * @return offset of the custom state in the {@link #getBuffer()}.
+     */
+    public int getCustomStateOffset(int index) {
+        parse();
+        if (index >= customStatesCount)
+            throw new IndexOutOfBoundsException();
+        return customStates[index << 1];
+    }
+
+    public int getCustomStateLength(int index) {
+        parse();
+        if (index >= customStatesCount)
+            throw new IndexOutOfBoundsException();
+        return customStates[(index << 1) + 1];
+    }
+
+    /**
+     * Merge the aggregation into a builder the regular (protobuf) way.
+     * 
+     * @param builder
+     */
+    public void mergeTo(Aggregation.Builder builder) {
+        try {
+            builder.mergeFrom(buffer, offset, length);
+        } catch (InvalidProtocolBufferException exc) {
+            throw new IllegalArgumentException(exc.getMessage(), exc);
+        }
+    }
+
+    /**
+     * @return the aggregation as a message. Allocates, so it is only a fallback
+     *         for functions that don't know about views.
+     */
+    public Aggregation toAggregation() {
+        Aggregation.Builder builder = Aggregation.newBuilder();
+        mergeTo(builder);
+        return builder.build();
+    }
+
+    private void parse() {
+        if (parsed)
+            return;
+        if (buffer == null)
+            throw new IllegalStateException("aggregation view is not set");
+
+        hasCnt = hasSum = hasSumSq = hasMin = hasMax = false;
+        cnt = 0;
+        sum = sumSq = min = max = 0.0;
+        customStatesCount = 0;
+
+        int end = offset + length;
+        pos = offset;
+        while (pos < end) {
+            int tag = (int) readVarint(end);
+            switch (tag) {
+            case TAG_CNT:
+                cnt = readVarint(end);
+                hasCnt = true;
+                break;
+            case TAG_SUM:
+                sum = readDouble(end);
+                hasSum = true;
+                break;
+            case TAG_SUM_SQ:
+                sumSq = readDouble(end);
+                hasSumSq = true;
+                break;
+            case TAG_MIN:
+                min = readDouble(end);
+                hasMin = true;
+                break;
+            case TAG_MAX:
+                max = readDouble(end);
+                hasMax = true;
+                break;
+            case TAG_CUSTOM_STATES:
+                int len = (int) readVarint(end);
+                checkBounds(pos + len, end);
+                if (customStates.length < (customStatesCount + 1) << 1) {
+                    int[] grown = new int[customStates.length << 1];
+                    System.arraycopy(customStates, 0, grown, 0, customStates.length);
+                    customStates = grown;
+                }
+                customStates[customStatesCount << 1] = pos;
+                customStates[(customStatesCount << 1) + 1] = len;
+                customStatesCount++;
+                pos += len;
+                break;
+            default:
+                skipField(tag, end);
+            }
+        }
+        parsed = true;
+    }
+
+    /*
+     * fields we don't know about (added later, perhaps).
+     */
+    private void skipField(int tag, int end) {
+        switch (tag & 0x07) {
+        case 0:
+            readVarint(end);
+            break;
+        case 1:
+            pos += 8;
+            checkBounds(pos, end);
+            break;
+        case 2:
+            int len = (int) readVarint(end);
+            pos += len;
+            checkBounds(pos, end);
+            break;
+        case 5:
+            pos += 4;
+            checkBounds(pos, end);
+            break;
+        default:
+            throw new IllegalArgumentException(String.format("Malformed aggregation: unsupported wire type of tag %d.",
+                                                             tag));
+        }
+    }
+
+    private long readVarint(int end) {
+        long val = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            checkBounds(pos + 1, end);
+            byte b = buffer[pos++];
+            val |= (long) (b & 0x7f) << shift;
+            if (b >= 0)
+                return val;
+        }
+        throw new IllegalArgumentException("Malformed aggregation: varint is too long.");
+    }
+
+    private double readDouble(int end) {
+        checkBounds(pos + 8, end);
+        long bits = 0;
+        for (int i = 7; i >= 0; i--)
+            bits = bits << 8 | (buffer[pos + i] & 0xff);
+        pos += 8;
+        return Double.longBitsToDouble(bits);
+    }
+
+    /**
+     * @param next
+     *            position right after the field being read
+     */
+    private static void checkBounds(int next, int end) {
+        if (next > end || next < 0)
+            throw new IllegalArgumentException("Malformed aggregation: truncated field.");
+    }
+
+}
@@ -45,4 +45,13 @@ public interface Cube  {
     
     AggregateFunctionRegistry getAggregateFunctionRegistry();
 
+    /**
+     * Data older than this (relative to now), ms, is sealed: compilations
+     * don't change it anymore, so results over it may be cached for good. 0
+     * if nothing is sealed.
+     * 
+     * @return sealing horizon
+     */
+    long getSealingHorizon();
+
 }
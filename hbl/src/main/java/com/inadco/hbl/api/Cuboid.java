@@ -88,4 +88,13 @@ public interface Cuboid {
      */
     String getCompilerGroup();
 
+    /**
+     * Scanner caching (rows per RPC) for scans of this cuboid, if configured
+     * in the model. Overrides client's caching policy but not the query's own
+     * setting.
+     * 
+     * @return caching, or 0 if the client policy is to decide.
+     */
+    int getScanCaching();
+
 }
@@ -0,0 +1,174 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.api;
+
+import java.util.Arrays;
+
+import com.inadco.hbl.protocodegen.Cells.Aggregation;
+
+/**
+ * Group accumulator for the built-in aggregate functions: the primitive fields
+ * of {@link Aggregation} laid out as arrays, one slot per measure, with their
+ * presence bits. This is what groups are accumulated in during scans unless
+ * the cube has custom functions (see
+ * {@link AggregateFunctionRegistry#isPrimitive()}). Protobuf aggregation is
+ * only built when the result is asked for, see
+ * {@link #save(int, Aggregation.Builder)}.
+ * <P>
+ * 
+ * Accessors mirror those of {@link Aggregation.Builder}, so function
+ * implementations read the same for both.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public final class PrimitiveAccumulator {
+
+    private static final byte CNT     = 0x01;
+    private static final byte SUM     = 0x02;
+    private static final byte SUM_SQ  = 0x04;
+    private static final byte MIN     = 0x08;
+    private static final byte MAX     = 0x10;
+    /**
+     * anything at all was merged into the slot (even if an aggregation with no
+     * fields).
+     */
+    private static final byte TOUCHED = 0x40;
+
+    private final byte[]      present;
+    private final long[]      cnt;
+    private final double[]    sum;
+    private final double[]    sumSq;
+    private final double[]    min;
+    private final double[]    max;
+
+    public PrimitiveAccumulator(int slots) {
+        super();
+        present = new byte[slots];
+        cnt = new long[slots];
+        sum = new double[slots];
+        sumSq = new double[slots];
+        min = new double[slots];
+        max = new double[slots];
+    }
+
+    public int getSlots() {
+        return present.length;
+    }
+
+    public void clear() {
+        Arrays.fill(present, (byte) 0);
+    }
+
+    public void touch(int slot) {
+        present[slot] |= TOUCHED;
+    }
+
+    public boolean isTouched(int slot) {
+        return (present[slot] & TOUCHED) != 0;
+    }
+
+    public boolean hasCnt(int slot) {
+        return (present[slot] & CNT) != 0;
+    }
+
+    public long getCnt(int slot) {
+        return hasCnt(slot) ? cnt[slot] : 0;
+    }
+
+    public void setCnt(int slot, long value) {
+        cnt[slot] = value;
+        present[slot] |= CNT;
+    }
+
+    public boolean hasSum(int slot) {
+        return (present[slot] & SUM) != 0;
+    }
+
+    public double getSum(int slot) {
+        return hasSum(slot) ? sum[slot] : 0.0;
+    }
+
+    public void setSum(int slot, double value) {
+        sum[slot] = value;
+        present[slot] |= SUM;
+    }
+
+    public boolean hasSumSq(int slot) {
+        return (present[slot] & SUM_SQ) != 0;
+    }
+
+    public double getSumSq(int slot) {
+        return hasSumSq(slot) ? sumSq[slot] : 0.0;
+    }
+
+    public void setSumSq(int slot, double value) {
+        sumSq[slot] = value;
+        present[slot] |= SUM_SQ;
+    }
+
+    public boolean hasMin(int slot) {
+        return (present[slot] & MIN) != 0;
+    }
+
+    public double getMin(int slot) {
+        return hasMin(slot) ? min[slot] : 0.0;
+    }
+
+    public void setMin(int slot, double value) {
+        min[slot] = value;
+        present[slot] |= MIN;
+    }
+
+    public boolean hasMax(int slot) {
+        return (present[slot] & MAX) != 0;
+    }
+
+    public double getMax(int slot) {
+        return hasMax(slot) ? max[slot] : 0.0;
+    }
+
+    public void setMax(int slot, double value) {
+        max[slot] = value;
+        present[slot] |= MAX;
+    }
+
+    /**
+     * Materialize the slot as protobuf aggregation.
+     * 
+     * @param slot
+     * @param target
+     *            builder to set the present fields to.
+     */
+    public void save(int slot, Aggregation.Builder target) {
+        byte p = present[slot];
+        if ((p & CNT) != 0)
+            target.setCnt(cnt[slot]);
+        if ((p & SUM) != 0)
+            target.setSum(sum[slot]);
+        if ((p & SUM_SQ) != 0)
+            target.setSumSq(sumSq[slot]);
+        if ((p & MIN) != 0)
+            target.setMin(min[slot]);
+        if ((p & MAX) != 0)
+            target.setMax(max[slot]);
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.api;
+
+import com.inadco.hbl.client.impl.SliceOperation;
+
+/**
+ * Aggregate function that can accumulate its state in a
+ * {@link PrimitiveAccumulator} slot rather than in an aggregation builder.
+ * Functions derived entirely from the states of other functions (such as
+ * average) are trivially such.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public interface PrimitiveAggregateFunction extends AggregateFunction {
+
+    void merge(PrimitiveAccumulator accumulator, int slot, AggregationView source, SliceOperation operation);
+
+    void merge(PrimitiveAccumulator accumulator,
+               int slot,
+               PrimitiveAccumulator source,
+               int sourceSlot,
+               SliceOperation operation);
+
+    /**
+     * Same as {@link #getAggrValue(com.inadco.hbl.protocodegen.Cells.Aggregation)}
+     * but straight off the accumulator slot, without building the aggregation.
+     * Untouched slot is the empty group.
+     */
+    Object getAggrValue(PrimitiveAccumulator accumulator, int slot);
+
+    /**
+     * Same as {@link #getAggrValue(PrimitiveAccumulator, int)} but unboxed.
+     * Undefined value is {@link Double#NaN}.
+     */
+    double getDoubleValue(PrimitiveAccumulator accumulator, int slot);
+
+}
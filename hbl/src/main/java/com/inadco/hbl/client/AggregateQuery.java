@@ -18,6 +18,8 @@
  */
 package com.inadco.hbl.client;
 
+import java.util.concurrent.Future;
+
 /**
  * Aggregate query interface.
  * <P>
@@ -30,13 +32,10 @@ package com.inadco.hbl.client;
  * and open intervals. Closed boundary means the boundary value is included into
  * the result. Open boundary beans it is not included. Unbounded queries are
  * implicitly supported thru putting closed boundary with maximum value possible
- * for that particular data type. <B>IMPORTANT</B> at this time of this writing,
- * only one range per dimension is supported. If another range is added for the
- * same dimension, it would just simply overwrite the previous one. There's no
- * technical reason not to support multiple slices on the same query except that
- * it is just did not happen to be common case enough to have immediate support
- * for. If multiple slices are needed, they could always be obtained by running
- * a query per slice and then aggregating the results manuallly at this pont.
+ * for that particular data type. Multiple slices may be added for the same
+ * dimension, the result then covers their union. Slices may overlap: they are
+ * merged into a minimal set of disjoint slices at plan time, so no member is
+ * counted twice.
  * 
  * 
  * <LI>define projection ({@link #addGroupBy(String)}. Note that unlike with
@@ -89,8 +88,7 @@ public interface AggregateQuery {
 
     /**
      * adds closed range (interval) specification for a slice for a given
-     * dimension. Only at most one range specification can be added for
-     * individual projection at this time.
+     * dimension. More slices on the same dimension add up to their union.
      * 
      * @param dimension
      *            dimension name to slice upon.
@@ -129,6 +127,128 @@ public interface AggregateQuery {
      */
     AggregateQuery addSlice(String dimension, Object leftBound, boolean leftOpen, Object rightBound, boolean rightOpen);
 
+    /**
+     * Add a HAVING predicate: only the groups where the function of the
+     * measure compares to the value as requested are returned. Multiple
+     * predicates must all hold. The measure is added to the query if it is
+     * not there yet.
+     * 
+     * @param functionName
+     *            aggregate function name, e.g. "SUM"
+     * @param measure
+     *            the measure name
+     * @param op
+     *            one of "&gt;", "&gt;=", "&lt;", "&lt;=", "=", "&lt;&gt;".
+     * @param value
+     *            number to compare to
+     * @return self
+     */
+    AggregateQuery addHaving(String functionName, String measure, String op, Object value);
+
+    /**
+     * Run partial aggregation of the scans on the region side (thru the
+     * cuboid aggregation coprocessor endpoint) so that only one partial
+     * aggregate per group per region is shipped to the client. If the endpoint
+     * is not deployed for the cuboid table, the query silently falls back to
+     * the client-side aggregation. Off by default.
+     * <P>
+     * 
+     * Unlike slices, measures and groups, this setting is not reset between
+     * executions.
+     * 
+     * @param regionSideAggregation
+     * @return self
+     */
+    AggregateQuery setRegionSideAggregation(boolean regionSideAggregation);
+
+    /**
+     * Prefetch scans in background: each scan gets a producer task on the
+     * client executor fetching batches ahead while the results are being
+     * merged and grouped. Not reset between executions.
+     * 
+     * @param depth
+     *            max number of batches to fetch ahead per scan. 0 switches
+     *            prefetching off (default).
+     * @param memoryLimit
+     *            approximate max number of bytes to fetch ahead per scan. 0
+     *            means no limit other than the depth.
+     * @return self
+     */
+    AggregateQuery setPrefetch(int depth, long memoryLimit);
+
+    /**
+     * Scanner caching (rows per RPC) for the scans of this query. Takes
+     * precedence over the cuboid's caching in the model and the client's
+     * {@link ScannerCachingPolicy}. Not reset between executions.
+     * 
+     * @param caching
+     *            rows per RPC, 0 to let the model or the client decide
+     *            (default).
+     * @return self
+     */
+    AggregateQuery setScanCaching(int caching);
+
+    /**
+     * Allow the planner to pick cuboids whose group dimensions are not stacked
+     * on the left of the key. Groups of such cuboids don't come out of the
+     * scans in order, so they are collected in hash tables, spilling sorted
+     * runs to local disk once the memory limit is exceeded. Off by default;
+     * not reset between executions.
+     * 
+     * @param hashGrouping
+     *            true to allow hash grouping.
+     * @param memoryLimit
+     *            approximate max number of bytes of groups each scan may keep
+     *            in memory. 0 means default.
+     * @return self
+     */
+    AggregateQuery setHashGrouping(boolean hashGrouping, long memoryLimit);
+
+    /**
+     * Split each scan at the region boundaries of the cuboid table and scan
+     * the region parts concurrently on the client executor. The parts are
+     * concatenated in the key order, so the results are the same as without
+     * splitting. Scans aggregated on the region side are not split. Not reset
+     * between executions.
+     * 
+     * @param perQuery
+     *            max number of region parts of the query scanned at the same
+     *            time. 1 or less switches splitting off (default).
+     * @param perRegionServer
+     *            max number of region parts of the query scanned at the same
+     *            time on the same region server. 0 means no limit other than
+     *            per query.
+     * @return self
+     */
+    AggregateQuery setScanParallelism(int perQuery, int perRegionServer);
+
+    /**
+     * Put a deadline on the query executions. The clock starts once the
+     * execution starts scanning. When the deadline passes, the query is
+     * cancelled (see {@link AggregateResultSet#cancel()}) and the result set
+     * fails with {@link QueryTimeoutException}. If that happens while
+     * {@link #execute()} is still opening the scans, execute() fails with
+     * {@link HblException} caused by {@link QueryTimeoutException}. Not reset
+     * between executions.
+     * 
+     * @param timeout
+     *            max time the execution may take, ms. 0 means no deadline
+     *            (default).
+     * @return self
+     */
+    AggregateQuery setTimeout(long timeout);
+
+    /**
+     * Priority lane the query waits in if the client's
+     * {@link HblQueryClient#getQueryScheduler() scheduler} can't admit it
+     * right away. Not reset between executions.
+     * 
+     * @param priority
+     *            {@link QueryPriority#INTERACTIVE} by default.
+     * @return self
+     */
+    AggregateQuery setPriority(QueryPriority priority);
+
     /**
      * Execute the query
      * 
@@ -137,4 +257,43 @@ public interface AggregateQuery {
      */
     AggregateResultSet execute() throws HblException;
 
+    /**
+     * Execute the query asynchronously: the query is planned (and may be
+     * reused) right away, while waiting for the admission and opening the
+     * scans is done by the client executor. If the executor can't take it
+     * right now, the query is executed in the current thread.
+     * <P>
+     * 
+     * Cancelling the future before it is done closes the result set it would
+     * have returned; otherwise, the result set is expected to be closed by
+     * the user. The future fails with {@link HblException} the same way
+     * {@link #execute()} would.
+     * 
+     * @return future result set.
+     * @throws HblException
+     *             if the query can't be planned.
+     */
+    Future<AggregateResultSet> executeAsync() throws HblException;
+
+    /**
+     * Execute the query and push the results to the consumer in batches as
+     * the scans produce them, so the first results may be consumed before the
+     * last scan finishes. Execution and delivery are done by the client
+     * executor; if it can't take them right now, they are done in the current
+     * thread. The result set is closed by the delivery.
+     * <P>
+     * 
+     * Cancelling the future cancels the query. The executing thread is not
+     * interrupted, even if asked to.
+     * 
+     * @param consumer
+     *            results consumer
+     * @param batchSize
+     *            max number of results per batch
+     * @return future number of results delivered.
+     * @throws HblException
+     *             if the query can't be planned.
+     */
+    Future<Long> executeAsync(AggregateResultConsumer consumer, int batchSize) throws HblException;
+
 }
@@ -0,0 +1,65 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client;
+
+import java.util.List;
+
+/**
+ * Push style consumer of query results, see
+ * {@link AggregateQuery#executeAsync(AggregateResultConsumer, int)}.
+ * <P>
+ * 
+ * Methods are called by the thread delivering the results (normally, one of
+ * the client executor threads), one at a time. Either {@link #completed()} or
+ * {@link #failed(Throwable)} is called once at the end of the delivery.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public interface AggregateResultConsumer {
+
+    /**
+     * Next batch of the results, in the order of the result set. The results
+     * are detached from the result set, so they may be kept after the call.
+     * Results of prepared queries are {@link PreparedAggregateResult}s.
+     * 
+     * @param results
+     *            batch of results, never empty.
+     * @throws HblException
+     *             to stop the delivery. the query is then closed and the
+     *             exception is passed on to {@link #failed(Throwable)}.
+     */
+    void consume(List<AggregateResult> results) throws HblException;
+
+    /**
+     * All results have been delivered.
+     */
+    void completed();
+
+    /**
+     * The delivery has stopped because of an error, a cancellation or a
+     * timeout ({@link QueryCancelledException}, {@link QueryTimeoutException}
+     * ).
+     * 
+     * @param cause
+     */
+    void failed(Throwable cause);
+
+}
@@ -18,8 +18,93 @@
  */
 package com.inadco.hbl.client;
 
+import java.util.List;
+
 import com.inadco.datastructs.InputIterator;
 
 public interface AggregateResultSet extends InputIterator<AggregateResult> {
 
+    /**
+     * Statistics of the underlying scans (one per scan spec). Complete only
+     * after the result set has been iterated thru.
+     * 
+     * @return scan statistics
+     */
+    List<ScanStatistics> getScanStatistics();
+
+    /**
+     * Cancel the query: cancel the scans still being opened and close the
+     * ones already open (no thread is interrupted). May be called from any
+     * thread, any number of times.
+     * The thread iterating the result set gets {@link QueryCancelledException}
+     * from then on. The result set still needs to be closed.
+     */
+    void cancel();
+
+    /**
+     * Resolve a function of a measure once, so that it can be read off each
+     * result by the handle without any lookups.
+     * 
+     * @param measure
+     *            the measure name
+     * @param functionName
+     *            aggregate function name, e.g. "SUM"
+     * @return handle for {@link #getAggregate(int)}, {@link #getDouble(int)}
+     *         and {@link #getLong(int)}, valid for this result set only.
+     * @throws HblException
+     *             if the measure or the function is unknown
+     */
+    int resolveAggregate(String measure, String functionName) throws HblException;
+
+    /**
+     * Resolve a group dimension once, so that its member can be read off each
+     * result by the handle without any lookups.
+     * 
+     * @param dimensionName
+     *            the dimension name
+     * @return handle for {@link #getGroupMember(int)} and
+     *         {@link #getEpochMillis(int)}, valid for this result set only.
+     * @throws HblException
+     *             if the dimension is not part of the group
+     */
+    int resolveGroupMember(String dimensionName) throws HblException;
+
+    /**
+     * @return same as {@link AggregateResult#getAggregate(String, String)} of
+     *         the current result.
+     */
+    Object getAggregate(int handle) throws HblException;
+
+    /**
+     * Aggregate of the current result, unboxed. Measures accumulated in
+     * primitive slots are evaluated without allocations.
+     * 
+     * @return the aggregate, {@link Double#NaN} if undefined (e.g. SUM of an
+     *         empty group).
+     */
+    double getDouble(int handle) throws HblException;
+
+    /**
+     * Same as {@link #getDouble(int)} but truncated to long. Undefined
+     * aggregate is 0.
+     */
+    long getLong(int handle) throws HblException;
+
+    /**
+     * @return same as {@link AggregateResult#getGroupMember(String)} of the
+     *         current result. The member is decoded once per result and the
+     *         same instance is returned until the result set moves on.
+     */
+    Object getGroupMember(int handle) throws HblException;
+
+    /**
+     * Member of a time dimension of the current result as epoch
+     * milliseconds. Hourly and daily time hierarchies are decoded straight
+     * from the group key, without creating calendars.
+     * 
+     * @throws HblException
+     *             if the member is not a calendar or a date.
+     */
+    long getEpochMillis(int handle) throws HblException;
+
 }
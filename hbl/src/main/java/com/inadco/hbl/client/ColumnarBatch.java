@@ -0,0 +1,289 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * A batch of results of a prepared query laid out by columns (one per select
+ * expression), so that bulk consumers (such as R thru rJava) may take the
+ * whole batch in a handful of array transfers instead of asking for each
+ * value of each row.
+ * <P>
+ * 
+ * Each column is packed into a primitive array according to the values it
+ * got in the batch (see {@link ColumnType}). Columns of other values (or of
+ * values of different kinds) stay {@link ColumnType#OBJECT}. Null values are
+ * flagged in {@link #getNulls(int)}, whatever the column type.
+ * <P>
+ * 
+ * Arrays are as long as the number of rows in the batch, the batch is
+ * reusable.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class ColumnarBatch {
+
+    public enum ColumnType {
+        /**
+         * numbers, see {@link ColumnarBatch#getDoubles(int)}
+         */
+        DOUBLE,
+        /**
+         * integral numbers, see {@link ColumnarBatch#getLongs(int)}
+         */
+        LONG,
+        /**
+         * see {@link ColumnarBatch#getStrings(int)}
+         */
+        STRING,
+        /**
+         * byte arrays of the same length (such as hex dimension members),
+         * see {@link ColumnarBatch#getBytes(int)}
+         */
+        BYTES,
+        /**
+         * anything else, see {@link ColumnarBatch#getObjects(int)}
+         */
+        OBJECT
+    }
+
+    private final List<String> aliases;
+    private final int          capacity;
+    private final Object[][]   values;
+    private final ColumnType[] types;
+    private final Object[]     columns;
+    private final boolean[][]  nulls;
+    private final int[]        byteWidths;
+    private int                rowCount;
+
+    /**
+     * @param aliases
+     *            select expression aliases, in the order of the select
+     *            expressions
+     * @param capacity
+     *            max number of rows in the batch
+     */
+    public ColumnarBatch(List<String> aliases, int capacity) {
+        super();
+        Validate.notNull(aliases);
+        Validate.isTrue(capacity > 0, "batch capacity must be positive");
+        this.aliases = aliases;
+        this.capacity = capacity;
+        int columnCnt = aliases.size();
+        values = new Object[columnCnt][capacity];
+        types = new ColumnType[columnCnt];
+        columns = new Object[columnCnt];
+        nulls = new boolean[columnCnt][];
+        byteWidths = new int[columnCnt];
+    }
+
+    public List<String> getAliases() {
+        return aliases;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getColumnCount() {
+        return types.length;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public ColumnType getColumnType(int column) {
+        return types[column];
+    }
+
+    public double[] getDoubles(int column) {
+        return (double[]) column(column, ColumnType.DOUBLE);
+    }
+
+    public long[] getLongs(int column) {
+        return (long[]) column(column, ColumnType.LONG);
+    }
+
+    public String[] getStrings(int column) {
+        return (String[]) column(column, ColumnType.STRING);
+    }
+
+    /**
+     * @param column
+     * @return values of the column packed one after another, each
+     *         {@link #getByteWidth(int)} bytes long. Nulls are zeros.
+     */
+    public byte[] getBytes(int column) {
+        return (byte[]) column(column, ColumnType.BYTES);
+    }
+
+    /**
+     * @param column
+     * @return length of the values of a {@link ColumnType#BYTES} column.
+     */
+    public int getByteWidth(int column) {
+        return byteWidths[column];
+    }
+
+    /**
+     * Values of any column as they are.
+     * 
+     * @param column
+     * @return values
+     */
+    public Object[] getObjects(int column) {
+        return Arrays.copyOf(values[column], rowCount);
+    }
+
+    /**
+     * @param column
+     * @return true for the rows whose value is null.
+     */
+    public boolean[] getNulls(int column) {
+        return nulls[column];
+    }
+
+    /**
+     * Start filling the batch again.
+     */
+    public void clear() {
+        for (Object[] columnValues : values)
+            Arrays.fill(columnValues, 0, rowCount, null);
+        Arrays.fill(types, null);
+        Arrays.fill(columns, null);
+        Arrays.fill(nulls, null);
+        Arrays.fill(byteWidths, 0);
+        rowCount = 0;
+    }
+
+    /**
+     * Add a row.
+     * 
+     * @param row
+     *            values of the row in the column order. Copied.
+     */
+    public void add(Object[] row) {
+        Validate.isTrue(rowCount < capacity, "batch is full");
+        Validate.isTrue(row.length == types.length, "wrong number of columns");
+        for (int i = 0; i < row.length; i++)
+            values[i][rowCount] = row[i];
+        rowCount++;
+    }
+
+    /**
+     * Pack the columns once the batch is filled.
+     */
+    public void pack() {
+        for (int i = 0; i < types.length; i++)
+            pack(i);
+    }
+
+    private void pack(int column) {
+        Object[] columnValues = values[column];
+        boolean[] columnNulls = new boolean[rowCount];
+        ColumnType type = null;
+        int width = -1;
+        for (int i = 0; i < rowCount && type != ColumnType.OBJECT; i++) {
+            Object value = columnValues[i];
+            ColumnType valueType;
+            if (value == null) {
+                columnNulls[i] = true;
+                continue;
+            }
+            if (value instanceof Long
+                || value instanceof Integer
+                || value instanceof Short
+                || value instanceof Byte)
+                valueType = ColumnType.LONG;
+            else if (value instanceof Number)
+                valueType = ColumnType.DOUBLE;
+            else if (value instanceof String)
+                valueType = ColumnType.STRING;
+            else if (value instanceof byte[] && (width < 0 || width == ((byte[]) value).length)) {
+                valueType = ColumnType.BYTES;
+                width = ((byte[]) value).length;
+            } else
+                valueType = ColumnType.OBJECT;
+
+            if (type == null || type == valueType)
+                type = valueType;
+            else if (isNumeric(type) && isNumeric(valueType))
+                // integral and not
+                type = ColumnType.DOUBLE;
+            else
+                type = ColumnType.OBJECT;
+        }
+        if (type == null)
+            // all nulls
+            type = ColumnType.OBJECT;
+
+        Object packed = null;
+        switch (type) {
+        case DOUBLE:
+            double[] doubles = new double[rowCount];
+            for (int i = 0; i < rowCount; i++)
+                doubles[i] = columnNulls[i] ? Double.NaN : ((Number) columnValues[i]).doubleValue();
+            packed = doubles;
+            break;
+        case LONG:
+            long[] longs = new long[rowCount];
+            for (int i = 0; i < rowCount; i++)
+                if (!columnNulls[i])
+                    longs[i] = ((Number) columnValues[i]).longValue();
+            packed = longs;
+            break;
+        case STRING:
+            String[] strings = new String[rowCount];
+            for (int i = 0; i < rowCount; i++)
+                strings[i] = (String) columnValues[i];
+            packed = strings;
+            break;
+        case BYTES:
+            byte[] bytes = new byte[rowCount * width];
+            for (int i = 0; i < rowCount; i++)
+                if (!columnNulls[i])
+                    System.arraycopy(columnValues[i], 0, bytes, i * width, width);
+            packed = bytes;
+            byteWidths[column] = width;
+            break;
+        default:
+        }
+        types[column] = type;
+        columns[column] = packed;
+        nulls[column] = columnNulls;
+    }
+
+    private static boolean isNumeric(ColumnType type) {
+        return type == ColumnType.LONG || type == ColumnType.DOUBLE;
+    }
+
+    private Object column(int column, ColumnType type) {
+        if (types[column] != type)
+            throw new IllegalStateException(String.format("Column %d is %s, not %s.", column, types[column], type));
+        return columns[column];
+    }
+
+}
@@ -0,0 +1,331 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.apache.commons.lang.Validate;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.Writable;
+
+import com.inadco.hbl.api.Cuboid;
+import com.inadco.hbl.api.Dimension;
+import com.inadco.hbl.util.HblUtil;
+
+/**
+ * Statistics of a cuboid table as collected by
+ * {@link HblAdmin#collectCuboidStatistics(org.apache.hadoop.conf.Configuration)}
+ * : row count, distinct value estimates per cuboid dimension (in cuboid path
+ * order) and equi-depth histogram of the composite keys.
+ * <P>
+ * 
+ * Query planner uses them to estimate how many rows a scan of a composite key
+ * range will go thru, see {@link #estimateRows(byte[], byte[])}.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class CuboidStatistics implements Writable {
+
+    private static final int VERSION = 1;
+
+    private long             collected;
+    private long             rowCount;
+    private int              keyLen;
+    private long[]           distinct;
+    /**
+     * histogram bucket boundaries: n+1 keys for n buckets, each bucket holding
+     * about the same number of rows, first and last ones are the smallest and
+     * the largest keys seen.
+     */
+    private byte[][]         boundaries;
+
+    public CuboidStatistics() {
+        super();
+    }
+
+    public CuboidStatistics(long rowCount, int keyLen, long[] distinct, byte[][] boundaries) {
+        super();
+        Validate.notNull(distinct);
+        Validate.notNull(boundaries);
+        this.collected = System.currentTimeMillis();
+        this.rowCount = rowCount;
+        this.keyLen = keyLen;
+        this.distinct = distinct;
+        this.boundaries = boundaries;
+    }
+
+    /**
+     * @return when the statistics were collected, ms since epoch.
+     */
+    public long getCollected() {
+        return collected;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public int getKeyLen() {
+        return keyLen;
+    }
+
+    /**
+     * @return distinct value estimates of the cuboid dimensions, in the order
+     *         of the cuboid path.
+     */
+    public long[] getDistinct() {
+        return distinct;
+    }
+
+    public int getBucketCount() {
+        return boundaries.length < 2 ? 0 : boundaries.length - 1;
+    }
+
+    /**
+     * Estimate number of rows in the composite key range. The planner would
+     * use it as an estimate of the rows a scan of this range goes thru.
+     * 
+     * @param start
+     *            composite key lower bound, inclusive
+     * @param end
+     *            composite key upper bound, inclusive
+     * @return estimated number of rows
+     */
+    public double estimateRows(byte[] start, byte[] end) {
+        if (rowCount == 0)
+            return 0;
+        if (getBucketCount() == 0)
+            // single row or no histogram at all.
+            return rowCount;
+        double fraction = position(end) - position(start);
+        return fraction <= 0 ? 0 : fraction * rowCount;
+    }
+
+    /**
+     * @return approximate fraction of the rows with keys less than the given
+     *         one, per histogram.
+     */
+    private double position(byte[] key) {
+        int n = boundaries.length - 1;
+        if (Bytes.compareTo(key, boundaries[0]) <= 0)
+            return 0;
+        if (Bytes.compareTo(key, boundaries[n]) >= 0)
+            return 1;
+
+        // find the bucket: the last boundary not greater than the key
+        int lo = 0, hi = n;
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (Bytes.compareTo(boundaries[mid], key) <= 0)
+                lo = mid;
+            else
+                hi = mid;
+        }
+        return (lo + interpolate(boundaries[lo], boundaries[lo + 1], key)) / n;
+    }
+
+    /**
+     * linear interpolation of the key position between the bucket bounds. We
+     * treat up to 7 bytes following the common prefix of the bounds as an
+     * unsigned number, which is about as precise as it gets with the double
+     * arithmetics anyway.
+     */
+    private static double interpolate(byte[] lo, byte[] hi, byte[] key) {
+        int prefix = 0;
+        int len = Math.min(lo.length, hi.length);
+        while (prefix < len && lo[prefix] == hi[prefix])
+            prefix++;
+        long vlo = toLong(lo, prefix), vhi = toLong(hi, prefix), vkey = toLong(key, prefix);
+        if (vhi <= vlo)
+            return 0.5;
+        double frac = (double) (vkey - vlo) / (vhi - vlo);
+        return frac < 0 ? 0 : frac > 1 ? 1 : frac;
+    }
+
+    private static long toLong(byte[] key, int offset) {
+        long val = 0;
+        for (int i = offset; i < offset + 7; i++)
+            val = (val << 8) | (i < key.length ? key[i] & 0xff : 0);
+        return val;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(VERSION);
+        out.writeLong(collected);
+        HblUtil.writeVarUint64(out, rowCount);
+        HblUtil.writeVarUint32(out, keyLen);
+        HblUtil.writeVarUint32(out, distinct.length);
+        for (long d : distinct)
+            HblUtil.writeVarUint64(out, d);
+        HblUtil.writeVarUint32(out, boundaries.length);
+        for (byte[] b : boundaries)
+            out.write(b);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int version = in.readByte();
+        if (version != VERSION)
+            throw new IOException(String.format("Unsupported cuboid statistics version %d.", version));
+        collected = in.readLong();
+        rowCount = HblUtil.readVarUint64(in);
+        keyLen = HblUtil.readVarUint32(in);
+        distinct = new long[HblUtil.readVarUint32(in)];
+        for (int i = 0; i < distinct.length; i++)
+            distinct[i] = HblUtil.readVarUint64(in);
+        boundaries = new byte[HblUtil.readVarUint32(in)][];
+        for (int i = 0; i < boundaries.length; i++) {
+            boundaries[i] = new byte[keyLen];
+            in.readFully(boundaries[i]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CuboidStatistics[rows=%d, distinct=%s, buckets=%d]",
+                             rowCount,
+                             Arrays.toString(distinct),
+                             getBucketCount());
+    }
+
+    /**
+     * Collects statistics over (sorted or not) stream of the cuboid keys in
+     * one pass with bounded memory: histogram is built from a reservoir sample
+     * of the keys, distinct values are estimated with k minimum values
+     * sketches.
+     * <P>
+     * 
+     * @author dmitriy
+     * 
+     */
+    public static class Collector {
+
+        private static final int      KMV_SIZE = 1024;
+
+        private final int             keyLen;
+        private final int[]           dimOffsets;
+        private final int[]           dimLens;
+        private final int             buckets;
+        private final List<byte[]>    sample;
+        private final int             sampleSize;
+        private final Random          rnd      = new Random(0x5eedL);
+        private final TreeSet<Long>[] kmv;
+        private long                  rowCount;
+
+        @SuppressWarnings("unchecked")
+        public Collector(Cuboid cuboid, int buckets) {
+            super();
+            Validate.isTrue(buckets > 0, "number of histogram buckets must be positive");
+            List<Dimension> dims = cuboid.getCuboidDimensions();
+            this.keyLen = cuboid.getKeyLen();
+            this.buckets = buckets;
+            dimOffsets = new int[dims.size()];
+            dimLens = new int[dims.size()];
+            kmv = new TreeSet[dims.size()];
+            int offset = 0;
+            for (int i = 0; i < dimOffsets.length; i++) {
+                dimOffsets[i] = offset;
+                dimLens[i] = dims.get(i).getKeyLen();
+                offset += dimLens[i];
+                kmv[i] = new TreeSet<Long>();
+            }
+            sampleSize = Math.max(buckets * 32, 1024);
+            sample = new ArrayList<byte[]>(sampleSize);
+        }
+
+        public void add(byte[] key) {
+            Validate.isTrue(key.length == keyLen, "unexpected cuboid key length");
+            rowCount++;
+
+            if (sample.size() < sampleSize)
+                sample.add(key);
+            else {
+                long r = (long) (rnd.nextDouble() * rowCount);
+                if (r < sampleSize)
+                    sample.set((int) r, key);
+            }
+
+            for (int i = 0; i < kmv.length; i++) {
+                TreeSet<Long> sketch = kmv[i];
+                Long h = hash(key, dimOffsets[i], dimLens[i]);
+                if (sketch.size() < KMV_SIZE)
+                    sketch.add(h);
+                else if (h < sketch.last() && sketch.add(h))
+                    sketch.pollLast();
+            }
+        }
+
+        public CuboidStatistics getStatistics() {
+            long[] distinct = new long[kmv.length];
+            for (int i = 0; i < kmv.length; i++) {
+                TreeSet<Long> sketch = kmv[i];
+                if (sketch.size() < KMV_SIZE)
+                    distinct[i] = sketch.size();
+                else {
+                    // hashes are positive, so k-th minimum is uniform in [0,1)
+                    double kth = (double) sketch.last() / Long.MAX_VALUE;
+                    distinct[i] = Math.min(rowCount, (long) ((KMV_SIZE - 1) / kth));
+                }
+            }
+
+            List<byte[]> sorted = new ArrayList<byte[]>(sample);
+            Collections.sort(sorted, Bytes.BYTES_COMPARATOR);
+            int n = Math.min(buckets, sorted.size() - 1);
+            byte[][] boundaries;
+            if (n <= 0)
+                boundaries = sorted.toArray(new byte[sorted.size()][]);
+            else {
+                boundaries = new byte[n + 1][];
+                for (int i = 0; i <= n; i++)
+                    boundaries[i] = sorted.get((int) ((long) i * (sorted.size() - 1) / n));
+            }
+
+            return new CuboidStatistics(rowCount, keyLen, distinct, boundaries);
+        }
+
+        /**
+         * 64 bit FNV-1a with a murmur finalizer, masked to be positive.
+         */
+        private static long hash(byte[] key, int offset, int len) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = offset; i < offset + len; i++) {
+                h ^= key[i] & 0xff;
+                h *= 0x100000001b3L;
+            }
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb93e7ec0e0e9L;
+            h ^= h >>> 33;
+            return h & Long.MAX_VALUE;
+        }
+    }
+
+}
@@ -18,11 +18,16 @@
  */
 package com.inadco.hbl.client;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayDeque;
+import java.util.Collection;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.annotation.PostConstruct;
 
@@ -33,9 +38,14 @@ import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.log4j.Logger;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.annotation.Scope;
@@ -46,6 +56,7 @@ import org.springframework.stereotype.Component;
 import com.inadco.hbl.api.Cube;
 import com.inadco.hbl.api.Cuboid;
 import com.inadco.hbl.compiler.YamlModelParser;
+import com.inadco.hbl.coprocessor.CuboidAggregationEndpoint;
 import com.inadco.hbl.util.IOUtil;
 
 /**
@@ -72,10 +83,27 @@ public class HblAdmin {
     public static final String  HBL_MODEL_KEY_STR            = "MODEL";
     public static final byte[]  HBL_MODEL_KEY                = Bytes.toBytes(HBL_MODEL_KEY_STR);
 
+    /**
+     * system table row holding the time each cuboid table was last compiled
+     * (qualifier is the cuboid table name).
+     */
+    public static final String  HBL_LAST_COMPILED_KEY_STR    = "LAST_COMPILED";
+    public static final byte[]  HBL_LAST_COMPILED_KEY        = Bytes.toBytes(HBL_LAST_COMPILED_KEY_STR);
+
+    /**
+     * system table row holding {@link CuboidStatistics} (qualifier is the
+     * cuboid table name).
+     */
+    public static final String  HBL_STATS_KEY_STR            = "STATS";
+    public static final byte[]  HBL_STATS_KEY                = Bytes.toBytes(HBL_STATS_KEY_STR);
+
+    public static final int     DEFAULT_HISTOGRAM_BUCKETS    = 64;
+
     private byte[]              systemTable                  = HBL_DEFAULT_SYSTEM_TABLE;
     private Resource            cubeModel;
     private String              cubeModelYamlStr;
     private Cube                cube;
+    private boolean             deployAggregationEndpoint;
 
     /**
      * non-spring constructor Setup cube model by name of the model saved in HBL
@@ -123,6 +151,23 @@ public class HblAdmin {
         return cube;
     }
 
+    public boolean isDeployAggregationEndpoint() {
+        return deployAggregationEndpoint;
+    }
+
+    /**
+     * if set, newly created cuboid tables will have region-side aggregation
+     * endpoint ({@link CuboidAggregationEndpoint}) attached as a table
+     * coprocessor. The hbl jar must be on the region servers' classpath then.
+     * Alternatively, the endpoint may be configured for all tables thru
+     * <code>hbase.coprocessor.region.classes</code>.
+     * 
+     * @param deployAggregationEndpoint
+     */
+    public void setDeployAggregationEndpoint(boolean deployAggregationEndpoint) {
+        this.deployAggregationEndpoint = deployAggregationEndpoint;
+    }
+
     @PostConstruct
     public void init() throws IOException {
         Validate.notNull(cubeModel);
@@ -190,6 +235,9 @@ public class HblAdmin {
 
         htd.addFamily(hcd);
 
+        if (deployAggregationEndpoint)
+            htd.addCoprocessor(CuboidAggregationEndpoint.class.getName());
+
         admin.createTable(htd);
     }
 
@@ -224,6 +272,134 @@ public class HblAdmin {
         }
     }
 
+    /**
+     * Mark all cuboids of the cube as just compiled, so that query clients
+     * drop the results they have cached for them.
+     * 
+     * @param conf
+     * @throws IOException
+     */
+    public void markCompiled(Configuration conf) throws IOException {
+        markCompiled(conf, systemTable, cube.getCuboids());
+    }
+
+    /**
+     * Mark cuboids as just compiled (sets their "last compiled" marker in the
+     * system table). Compiler runners are expected to call this once the
+     * compiled data is committed to the cuboid tables.
+     * 
+     * @param conf
+     * @param systemTable
+     * @param cuboids
+     * @throws IOException
+     */
+    public static void markCompiled(Configuration conf, byte[] systemTable, Collection<? extends Cuboid> cuboids)
+        throws IOException {
+        byte[] now = Bytes.toBytes(System.currentTimeMillis());
+        Put put = new Put(HBL_LAST_COMPILED_KEY);
+        for (Cuboid c : cuboids)
+            put.add(HBL_SYSTEM_FAMILY, Bytes.toBytes(c.getCuboidTableName()), now);
+
+        HTable stable = new HTable(conf, systemTable);
+        try {
+            stable.put(put);
+        } finally {
+            stable.close();
+        }
+    }
+
+    /**
+     * Collect statistics of all cuboids of the cube and save them in the
+     * system table, so that query planner could pick cheapest cuboid for a
+     * query. It scans cuboid tables in full, so it is meant to be run after
+     * compilations, preferably off-peak.
+     * 
+     * @param conf
+     * @throws IOException
+     */
+    public void collectCuboidStatistics(Configuration conf) throws IOException {
+        collectCuboidStatistics(conf, systemTable, cube.getCuboids(), DEFAULT_HISTOGRAM_BUCKETS);
+    }
+
+    /**
+     * Collect statistics of the cuboids and save them in the system table.
+     * Cuboids whose tables do not exist are skipped.
+     * 
+     * @param conf
+     * @param systemTable
+     * @param cuboids
+     * @param buckets
+     *            number of histogram buckets
+     * @throws IOException
+     */
+    public static void collectCuboidStatistics(Configuration conf,
+                                               byte[] systemTable,
+                                               Collection<? extends Cuboid> cuboids,
+                                               int buckets) throws IOException {
+        HBaseAdmin hba = new HBaseAdmin(conf);
+        Put put = new Put(HBL_STATS_KEY);
+        for (Cuboid c : cuboids) {
+            byte[] tablename = Bytes.toBytes(c.getCuboidTableName());
+            if (!hba.tableExists(tablename))
+                continue;
+            CuboidStatistics stats = collectCuboidStatistics(conf, c, buckets);
+            s_log.info(String.format("cuboid table %s: %s.", c.getCuboidTableName(), stats));
+            put.add(HBL_SYSTEM_FAMILY, tablename, WritableUtils.toByteArray(stats));
+        }
+        if (put.isEmpty())
+            return;
+
+        HTable stable = new HTable(conf, systemTable);
+        try {
+            stable.put(put);
+        } finally {
+            stable.close();
+        }
+    }
+
+    private static CuboidStatistics collectCuboidStatistics(Configuration conf, Cuboid c, int buckets)
+        throws IOException {
+        CuboidStatistics.Collector collector = new CuboidStatistics.Collector(c, buckets);
+        Deque<Closeable> closeables = new ArrayDeque<Closeable>();
+        try {
+            HTable table = new HTable(conf, c.getCuboidTableName());
+            closeables.addFirst(table);
+            Scan scan = new Scan();
+            scan.addFamily(HBL_METRIC_FAMILY);
+            scan.setFilter(new FirstKeyOnlyFilter());
+            scan.setCaching(1000);
+            scan.setCacheBlocks(false);
+            ResultScanner scanner = table.getScanner(scan);
+            closeables.addFirst(scanner);
+            for (Result r = scanner.next(); r != null; r = scanner.next())
+                collector.add(r.getRow());
+            return collector.getStatistics();
+        } finally {
+            IOUtil.closeAll(closeables);
+        }
+    }
+
+    /**
+     * Read statistics of all cuboids saved in the system table.
+     * 
+     * @param systemTable
+     * @return cuboid table name -> statistics
+     * @throws IOException
+     */
+    public static Map<String, CuboidStatistics> readCuboidStatistics(HTableInterface systemTable)
+        throws IOException {
+        Map<String, CuboidStatistics> stats = new HashMap<String, CuboidStatistics>();
+        Result r = systemTable.get(new Get(HBL_STATS_KEY).addFamily(HBL_SYSTEM_FAMILY));
+        if (r == null || r.isEmpty())
+            return stats;
+        for (Map.Entry<byte[], byte[]> entry : r.getFamilyMap(HBL_SYSTEM_FAMILY).entrySet()) {
+            CuboidStatistics cs = new CuboidStatistics();
+            cs.readFields(new DataInputStream(new ByteArrayInputStream(entry.getValue())));
+            stats.put(Bytes.toString(entry.getKey()), cs);
+        }
+        return stats;
+    }
+
     public static Resource readModelFromHBase(Configuration conf, String modelName, byte[] systemTable) throws IOException {
         Validate.notNull(modelName);
 
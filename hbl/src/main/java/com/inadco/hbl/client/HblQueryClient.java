@@ -19,28 +19,48 @@
 package com.inadco.hbl.client;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.lang.Validate;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.HTablePool;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.log4j.Logger;
 import org.springframework.core.io.Resource;
 
 import com.inadco.hbl.api.Cube;
 import com.inadco.hbl.client.impl.AggregateQueryImpl;
 import com.inadco.hbl.client.impl.PreparedAggregateQueryImpl;
+import com.inadco.hbl.client.impl.QueryBatch;
+import com.inadco.hbl.client.impl.QueryResultCache;
+import com.inadco.hbl.client.impl.QueryScheduler;
+import com.inadco.hbl.client.impl.StatementCache;
+import com.inadco.hbl.client.impl.ThreadPerTaskExecutor;
+import com.inadco.hbl.client.impl.scanner.AdaptiveCachingPolicy;
+import com.inadco.hbl.client.impl.scanner.FixedCachingPolicy;
 import com.inadco.hbl.compiler.YamlModelParser;
 import com.inadco.hbl.model.SimpleCube;
 import com.inadco.hbl.util.IOUtil;
@@ -58,21 +78,66 @@ import com.inadco.hbl.util.IOUtil;
  */
 public class HblQueryClient implements Closeable {
 
-    private static final int                   DEFAULT_MAX_THREADS = 50;
-    private static final int                   DEFAULT_QUEUE_SIZE  = 3;
+    private static final Logger                s_log                = Logger.getLogger(HblQueryClient.class);
+
+    private static final int                   DEFAULT_MAX_THREADS  = 50;
+    private static final int                   DEFAULT_QUEUE_SIZE   = 3;
+
+    /**
+     * If set to a positive number (and the client creates its own executor),
+     * the client runs scanner constructors and prefetchers on virtual threads
+     * (java 21+), at most that many at the same time. The ones over that wait
+     * for a thread a while before they run in the query's own thread (see
+     * {@link ThreadPerTaskExecutor}). Off by default.
+     */
+    public static final String                 PROP_VIRTUAL_THREADS = "hbl.client.virtualthreads";
+
+    /**
+     * System table the client reads cube models, cuboid statistics and
+     * "last compiled" markers from. {@link HblAdmin#HBL_DEFAULT_SYSTEM_TABLE}
+     * by default.
+     */
+    public static final String                 PROP_SYSTEM_TABLE    = "hbl.client.systemtable";
 
     private Configuration                      conf;
     private String                             yamlModelStr;
+    private volatile byte[]                    systemTable          = HblAdmin.HBL_DEFAULT_SYSTEM_TABLE;
     private ExecutorService                    es;
     private HTablePool                         tpool;
-    private AtomicReference<Map<String, Cube>> cubeCache           = new AtomicReference<Map<String, Cube>>();
-    private Deque<Closeable>                   closeables          = new ArrayDeque<Closeable>();
+    private AtomicReference<Map<String, Cube>> cubeCache            = new AtomicReference<Map<String, Cube>>();
+    private ConcurrentMap<String, String>      cubeModels           = new ConcurrentHashMap<String, String>();
+    private Deque<Closeable>                   closeables           = new ArrayDeque<Closeable>();
+    private volatile ScannerCachingPolicy      scannerCachingPolicy = new AdaptiveCachingPolicy();
+    private volatile QueryResultCache          resultCache;
+    private volatile StatementCache            statementCache       = StatementCache.getShared();
+    private volatile File                      spillDir;
+    private ScheduledExecutorService           deadlineTimer;
+    private final QueryMetrics                 queryMetrics         = new QueryMetrics();
+    private final QueryScheduler               queryScheduler       = new QueryScheduler(queryMetrics);
+
+    /*
+     * "last compiled" markers of cuboid tables as last seen in the system
+     * table. While the result cache is enabled, they are checked in the
+     * background, by default every 30 seconds.
+     */
+    private ConcurrentMap<String, Long>        compiledMarkers      = new ConcurrentHashMap<String, Long>();
+    private volatile long                      markersCheckInterval = 1000 * 30;
+    private ScheduledExecutorService           markersTimer;
+    private ScheduledFuture<?>                 markersCheck;
+
+    /*
+     * cuboid statistics for cost based cuboid selection, reloaded along with
+     * the models.
+     */
+    private AtomicReference<Map<String, CuboidStatistics>> cuboidStats =
+        new AtomicReference<Map<String, CuboidStatistics>>();
+    private AtomicLong                         lastStatsLoad        = new AtomicLong();
 
     /*
      * ttl for the model in the client, by default, 10 minutes, then need to
      * update.
      */
-    private long                               cubeCacheTTL        = 1000 * 60 * 10;
+    private long                               cubeCacheTTL         = 1000 * 60 * 10;
 
     public HblQueryClient(Configuration conf) throws IOException, HblException {
         this(conf, (String) null, null);
@@ -111,6 +176,220 @@ public class HblQueryClient implements Closeable {
         this.cubeCacheTTL = cubeCacheTTL;
     }
 
+    public ScannerCachingPolicy getScannerCachingPolicy() {
+        return scannerCachingPolicy;
+    }
+
+    /**
+     * Policy deciding scanner caching for the scans whose caching is set
+     * neither by the query nor by the cuboid model. By default, it is
+     * {@link AdaptiveCachingPolicy}; {@link FixedCachingPolicy} restores the
+     * old behavior.
+     * 
+     * @param scannerCachingPolicy
+     */
+    public void setScannerCachingPolicy(ScannerCachingPolicy scannerCachingPolicy) {
+        Validate.notNull(scannerCachingPolicy);
+        this.scannerCachingPolicy = scannerCachingPolicy;
+    }
+
+    /**
+     * Enable caching of query results. Queries executed from now on look up
+     * their results in the cache first, and cache them once they are iterated
+     * thru to the end.
+     * <P>
+     * 
+     * If the cube has a sealing horizon ({@link Cube#getSealingHorizon()}),
+     * time slices are also split into the sealed and live parts, and results
+     * of the sealed part are cached separately so that they survive
+     * recompilations. Then only the live part needs to be scanned again.
+     * 
+     * @param maxBytes
+     *            bound on the total size of cached results
+     * @param ttl
+     *            max time to keep results, ms. 0 means until the cuboid is
+     *            compiled again or the results are evicted.
+     */
+    public synchronized void enableResultCache(long maxBytes, long ttl) {
+        resultCache = new QueryResultCache(maxBytes, ttl);
+        scheduleMarkersCheck();
+    }
+
+    public synchronized void disableResultCache() {
+        resultCache = null;
+        if (markersCheck != null) {
+            markersCheck.cancel(false);
+            markersCheck = null;
+        }
+    }
+
+    /**
+     * @return the result cache (for metrics, mostly), or null if result
+     *         caching is not enabled.
+     */
+    public QueryResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Drop cached results of the cuboid table. The cache does that by itself
+     * once it sees cuboid's "last compiled" marker bumped in the system table
+     * (see {@link HblAdmin#markCompiled(Configuration)}), this is for the
+     * compile runners that live in the same process and would rather not wait
+     * for it.
+     * 
+     * @param cuboidTableName
+     */
+    public void invalidateResultCache(String cuboidTableName) {
+        QueryResultCache cache = resultCache;
+        if (cache != null)
+            cache.invalidate(cuboidTableName);
+    }
+
+    /**
+     * @return cache of the parsed statements the prepared queries of this
+     *         client use, or null if they parse their statements each time.
+     */
+    public StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * @param statementCache
+     *            cache of the parsed statements for the prepared queries of
+     *            this client, null to parse each time. By default, the cache
+     *            shared by all clients of the process
+     *            ({@link StatementCache#getShared()}).
+     */
+    public void setStatementCache(StatementCache statementCache) {
+        this.statementCache = statementCache;
+    }
+
+    public File getSpillDir() {
+        return spillDir;
+    }
+
+    /**
+     * @param spillDir
+     *            local directory hash grouped queries spill their groups to
+     *            when they run out of memory. null (default) means the system
+     *            temporary directory.
+     */
+    public void setSpillDir(File spillDir) {
+        this.spillDir = spillDir;
+    }
+
+    /**
+     * @return counters of the queries run thru this client.
+     */
+    public QueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    /**
+     * Admission control of the queries run thru this client: limits on the
+     * queries running per cube, on their scanners and memory, and the
+     * priority lanes queries wait in meanwhile. No limits by default.
+     * 
+     * @return the scheduler, to configure.
+     */
+    public QueryScheduler getQueryScheduler() {
+        return queryScheduler;
+    }
+
+    /**
+     * @return scheduler the queries time out in (see
+     *         {@link AggregateQuery#setTimeout(long)}).
+     */
+    public ScheduledExecutorService getDeadlineTimer() {
+        return deadlineTimer;
+    }
+
+    public long getMarkersCheckInterval() {
+        return markersCheckInterval;
+    }
+
+    /**
+     * @param markersCheckInterval
+     *            how often the result cache checks the "last compiled" markers
+     *            of the cuboids, ms. The checks run in the background.
+     */
+    public void setMarkersCheckInterval(long markersCheckInterval) {
+        Validate.isTrue(markersCheckInterval > 0, "markers check interval must be positive");
+        this.markersCheckInterval = markersCheckInterval;
+        if (resultCache != null)
+            scheduleMarkersCheck();
+    }
+
+    public String getSystemTable() {
+        return Bytes.toString(systemTable);
+    }
+
+    /**
+     * @param systemTable
+     *            system table to read the cube models, cuboid statistics and
+     *            "last compiled" markers from. Same as
+     *            {@link #PROP_SYSTEM_TABLE}.
+     */
+    public void setSystemTable(String systemTable) {
+        Validate.notNull(systemTable);
+        this.systemTable = Bytes.toBytes(systemTable);
+    }
+
+    /**
+     * Result cache, as it should be used for the query executed right now.
+     * Results of the cuboids compiled since are dropped by the background
+     * check of the "last compiled" markers.
+     * 
+     * @return result cache or null if not enabled.
+     */
+    public QueryResultCache acquireResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Statistics of the cuboid as last collected by
+     * {@link HblAdmin#collectCuboidStatistics(Configuration)}. They are
+     * reloaded from the system table once in a while (as often as the cube
+     * models are).
+     * 
+     * @param cuboidTableName
+     * @return statistics, or null if none were collected (or loaded yet).
+     */
+    public CuboidStatistics getCuboidStatistics(String cuboidTableName) {
+        long last = lastStatsLoad.get();
+        long now = System.currentTimeMillis();
+        if ((cuboidStats.get() == null || now - last >= cubeCacheTTL) && lastStatsLoad.compareAndSet(last, now))
+            refreshCuboidStatistics();
+        Map<String, CuboidStatistics> stats = cuboidStats.get();
+        return stats == null ? null : stats.get(cuboidTableName);
+    }
+
+    /**
+     * reload cuboid statistics from the system table now.
+     */
+    public void refreshCuboidStatistics() {
+        Map<String, CuboidStatistics> stats;
+        try {
+            HTableInterface stable;
+            try {
+                stable = tpool.getTable(systemTable);
+            } catch (RuntimeException exc) {
+                throw new IOException(exc.getMessage(), exc);
+            }
+            try {
+                stats = HblAdmin.readCuboidStatistics(stable);
+            } finally {
+                stable.close();
+            }
+        } catch (IOException exc) {
+            // planner falls back to the heuristics then.
+            s_log.warn("Unable to load cuboid statistics.", exc);
+            stats = new HashMap<String, CuboidStatistics>();
+        }
+        cuboidStats.set(stats);
+    }
+
     @Override
     public void close() throws IOException {
         IOUtil.closeAll(closeables);
@@ -144,6 +423,22 @@ public class HblQueryClient implements Closeable {
         return cube;
     }
 
+    /**
+     * yaml source of the cube model, as it was last loaded.
+     * 
+     * @param cubeName
+     * @return
+     * @throws HblException
+     */
+    public String getCubeModelYaml(String cubeName) throws HblException {
+        String yaml = cubeModels.get(cubeName);
+        if (yaml == null) {
+            getCube(cubeName);
+            yaml = cubeModels.get(cubeName);
+        }
+        return yaml;
+    }
+
     public AggregateQuery createQuery() {
         return new AggregateQueryImpl(this, es, tpool);
     }
@@ -152,18 +447,102 @@ public class HblQueryClient implements Closeable {
         return new PreparedAggregateQueryImpl(this, es, tpool);
     }
 
+    /**
+     * Execute queries created by this client together, so that the client
+     * side scans of the same cuboid table are run as a single hbase scan over
+     * the union of their key ranges, each row fanned out to the queries it
+     * belongs to. Queries are reset as if executed one by one.
+     * 
+     * @param queries
+     * @return result sets, in the order of the queries. Each is expected to
+     *         be closed by the user.
+     * @throws HblException
+     */
+    public List<AggregateResultSet> executeBatch(List<? extends AggregateQuery> queries) throws HblException {
+        return QueryBatch.execute(queries, tpool);
+    }
+
+    /**
+     * Execute the prepared statement once per parameter set, with the scans
+     * shared the same way as {@link #executeBatch(List)} does.
+     * 
+     * @param query
+     *            prepared query created by this client.
+     * @param parameterSets
+     *            parameter values by parameter index, one array per
+     *            execution.
+     * @return result sets, in the order of the parameter sets. Each is
+     *         expected to be closed by the user.
+     * @throws HblException
+     */
+    public List<AggregateResultSet> executeBatch(PreparedAggregateQuery query, List<Object[]> parameterSets)
+        throws HblException {
+        return QueryBatch.execute(query, parameterSets, tpool);
+    }
+
+    private synchronized void scheduleMarkersCheck() {
+        if (markersCheck != null)
+            markersCheck.cancel(false);
+        markersCheck = markersTimer.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                QueryResultCache cache = resultCache;
+                if (cache == null)
+                    return;
+                try {
+                    checkCompiledMarkers(cache);
+                } catch (Throwable thr) {
+                    /*
+                     * can't tell whether anything was compiled, so be
+                     * conservative.
+                     */
+                    s_log.warn("Unable to check cuboid compilation markers, dropping cached results.", thr);
+                    cache.invalidateAll();
+                }
+            }
+        }, 0, markersCheckInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkCompiledMarkers(QueryResultCache cache) throws IOException {
+        HTableInterface stable;
+        try {
+            stable = tpool.getTable(systemTable);
+        } catch (RuntimeException exc) {
+            // that's how the pool reports a missing table
+            throw new IOException(exc.getMessage(), exc);
+        }
+        try {
+            Result r =
+                stable.get(new Get(HblAdmin.HBL_LAST_COMPILED_KEY).addFamily(HblAdmin.HBL_SYSTEM_FAMILY));
+            if (r == null || r.isEmpty())
+                return;
+            for (Map.Entry<byte[], byte[]> marker : r.getFamilyMap(HblAdmin.HBL_SYSTEM_FAMILY).entrySet()) {
+                String cuboidTableName = Bytes.toString(marker.getKey());
+                long compiled = Bytes.toLong(marker.getValue());
+                Long seen = compiledMarkers.put(cuboidTableName, compiled);
+                if (seen == null || seen < compiled)
+                    cache.invalidate(cuboidTableName);
+            }
+        } finally {
+            stable.close();
+        }
+    }
+
     private Cube loadCube(String cubeName) throws HblException {
         Deque<Closeable> closeables = new ArrayDeque<Closeable>();
         try {
             try {
-                Resource yamlModel = HblAdmin.readModelFromHBase(conf, cubeName, HblAdmin.HBL_DEFAULT_SYSTEM_TABLE);
+                Resource yamlModel = HblAdmin.readModelFromHBase(conf, cubeName, systemTable);
                 InputStream is = yamlModel.getInputStream();
 
                 Validate.notNull(is);
                 closeables.addFirst(is);
 
                 yamlModelStr = IOUtil.fromStream(is, "utf-8");
-                return YamlModelParser.parseYamlModel(yamlModelStr);
+                Cube cube = YamlModelParser.parseYamlModel(yamlModelStr);
+                cubeModels.put(cubeName, yamlModelStr);
+                return cube;
 
             } finally {
                 IOUtil.closeAll(closeables);
@@ -177,6 +556,9 @@ public class HblQueryClient implements Closeable {
     private void init(Configuration conf, ExecutorService es, int maxThreads) throws IOException {
         Validate.notNull(conf);
         this.conf = conf;
+        String systemTableName = conf.get(PROP_SYSTEM_TABLE);
+        if (systemTableName != null)
+            systemTable = Bytes.toBytes(systemTableName);
 
         /*
          * Height queue size not only doesn't help but would actually harm,
@@ -190,6 +572,15 @@ public class HblQueryClient implements Closeable {
         else if (maxThreads < 3)
             maxThreads = 3;
 
+        int virtualThreads = conf.getInt(PROP_VIRTUAL_THREADS, 0);
+        if (es == null && virtualThreads > 0) {
+            if (ThreadPerTaskExecutor.isVirtualThreadSupported()) {
+                es = ThreadPerTaskExecutor.newVirtualThreadExecutor(virtualThreads);
+                closeables.addFirst(new IOUtil.ExecutorServiceCloseable(es, 30));
+            } else
+                s_log.warn("Virtual threads are not supported by this JVM, using the thread pool.");
+        }
+
         if (es == null) {
             ThreadPoolExecutor tpe =
                 new ThreadPoolExecutor(3, maxThreads, 5, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
@@ -218,5 +609,37 @@ public class HblQueryClient implements Closeable {
         tpool = new HTablePool(conf, 400);
         closeables.addFirst(tpool);
 
+        /*
+         * deadline timer does nothing but cancel the queries that are late, so
+         * one daemon thread will do.
+         */
+        ScheduledThreadPoolExecutor stpe = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        closeables.addFirst(new IOUtil.ExecutorServiceCloseable(stpe, 1));
+        deadlineTimer = stpe;
+
+        /*
+         * markers checks wait for the system table, so they get a thread of
+         * their own rather than hold up the deadlines.
+         */
+        stpe = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = Executors.defaultThreadFactory().newThread(r);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        closeables.addFirst(new IOUtil.ExecutorServiceCloseable(stpe, 1));
+        markersTimer = stpe;
+
     }
 }
@@ -28,7 +28,41 @@ package com.inadco.hbl.client;
  */
 public interface PreparedAggregateQuery extends AggregateQuery {
     
+    /**
+     * Prepare the statement. Executions plan it once and then keep reusing
+     * the plan (the cuboid chosen included) while only the parameters of the
+     * slice bounds change, just generating the scans for the new bounds. A
+     * change of any other parameter plans the statement again.
+     * 
+     * @param statement
+     * @throws HblException
+     */
     void prepare ( String statement ) throws HblException;
     void setHblParameter(int param, Object value) throws HblException;
 
+    /**
+     * Order the results by a select expression (same as ORDER BY clause of
+     * the statement, which takes precedence). Only the results that make it
+     * under the limit (if any) are kept in memory. Like the rest of the query
+     * definition, reset after each execution.
+     * 
+     * @param alias
+     *            alias of the select expression to order by, null for no
+     *            particular order.
+     * @param descending
+     *            true for descending order.
+     * @return self
+     */
+    PreparedAggregateQuery setOrderBy(String alias, boolean descending);
+
+    /**
+     * Limit the number of results (same as LIMIT clause of the statement,
+     * which takes precedence). Reset after each execution.
+     * 
+     * @param limit
+     *            max number of results, negative for no limit.
+     * @return self
+     */
+    PreparedAggregateQuery setLimit(int limit);
+
 }
@@ -0,0 +1,59 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client;
+
+import java.io.IOException;
+
+/**
+ * Result set of a {@link PreparedAggregateQuery}, which is what its
+ * {@link PreparedAggregateQuery#execute()} returns. Its current result is the
+ * result set itself.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public interface PreparedAggregateResultSet extends AggregateResultSet, PreparedAggregateResult {
+
+    /**
+     * Take up to the given number of the next results in one batch, laid out
+     * by select expressions. Meant for bulk transfers, where asking for each
+     * value of each row separately is what takes the time.
+     * 
+     * @param maxRows
+     *            max number of results in the batch
+     * @return the batch. It has no rows once the result set is over.
+     * @throws IOException
+     * @throws HblException
+     */
+    ColumnarBatch nextBatch(int maxRows) throws IOException, HblException;
+
+    /**
+     * Fill the batch with the next results, up to its capacity. Same as
+     * {@link #nextBatch(int)}, reusing the batch.
+     * 
+     * @param batch
+     *            batch created for the aliases of this result set
+     * @return number of results in the batch, 0 once the result set is over.
+     * @throws IOException
+     * @throws HblException
+     */
+    int nextBatch(ColumnarBatch batch) throws IOException, HblException;
+
+}
@@ -0,0 +1,48 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown by the result set of a query that has been cancelled (see
+ * {@link AggregateResultSet#cancel()}).
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class QueryCancelledException extends InterruptedIOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public QueryCancelledException() {
+        super();
+    }
+
+    public QueryCancelledException(String message) {
+        super(message);
+    }
+
+    public QueryCancelledException(String message, Throwable cause) {
+        super(message);
+        initCause(cause);
+    }
+
+}
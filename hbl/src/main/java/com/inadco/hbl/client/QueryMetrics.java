@@ -0,0 +1,105 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the queries run thru a client.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class QueryMetrics {
+
+    private final AtomicLong cancellations = new AtomicLong();
+    private final AtomicLong timeouts      = new AtomicLong();
+    private final AtomicLong queued        = new AtomicLong();
+    private final AtomicLong queuedNanos   = new AtomicLong();
+    private final AtomicLong rejections    = new AtomicLong();
+
+    /**
+     * @return number of queries cancelled by their callers.
+     */
+    public long getCancellations() {
+        return cancellations.get();
+    }
+
+    /**
+     * @return number of queries cancelled because they ran out of time.
+     */
+    public long getTimeouts() {
+        return timeouts.get();
+    }
+
+    /**
+     * @return number of queries that had to wait for admission.
+     */
+    public long getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * @return total time queries spent waiting for admission, ms.
+     */
+    public long getQueuedMillis() {
+        return queuedNanos.get() / 1000000;
+    }
+
+    /**
+     * @return number of queries rejected because the admission queue was
+     *         full.
+     */
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    public void addCancellation() {
+        cancellations.incrementAndGet();
+    }
+
+    public void addTimeout() {
+        timeouts.incrementAndGet();
+    }
+
+    /**
+     * @param nanos
+     *            time the query waited for admission
+     */
+    public void addQueued(long nanos) {
+        queued.incrementAndGet();
+        queuedNanos.addAndGet(nanos);
+    }
+
+    public void addRejection() {
+        rejections.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("QueryMetrics [cancellations=%d, timeouts=%d, queued=%d, queuedMillis=%d, rejections=%d]",
+                             getCancellations(),
+                             getTimeouts(),
+                             getQueued(),
+                             getQueuedMillis(),
+                             getRejections());
+    }
+
+}
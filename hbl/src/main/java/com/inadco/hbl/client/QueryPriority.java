@@ -0,0 +1,43 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client;
+
+/**
+ * Priority lane a query waits in for admission when the client is busy (see
+ * {@link AggregateQuery#setPriority(QueryPriority)}).
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public enum QueryPriority {
+
+    /**
+     * latency sensitive queries (dashboards etc.). Admitted ahead of the batch
+     * ones.
+     */
+    INTERACTIVE,
+
+    /**
+     * exports, reports and the like. Still get their share of admissions
+     * while interactive queries are waiting, so they don't starve.
+     */
+    BATCH
+
+}
@@ -0,0 +1,116 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client;
+
+/**
+ * Statistics of a single scan (one per scan spec) as observed by the client.
+ * <P>
+ * 
+ * RPC counts (and hence RPC latencies) are estimates: client can't really see
+ * when the hbase client scanner goes to the region server, so we assume it does
+ * each time its cache (<code>caching</code> rows) runs dry.
+ * <P>
+ * 
+ * Updated by the scanning thread, so it is only consistent once the scan is
+ * over.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class ScanStatistics {
+
+    private final String tableName;
+    private final int    caching;
+    private long         rows;
+    private long         bytes;
+    private long         rpcs;
+    private long         rpcNanos;
+
+    public ScanStatistics(String tableName, int caching) {
+        super();
+        this.tableName = tableName;
+        this.caching = caching;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return caching the scan ran with
+     */
+    public int getCaching() {
+        return caching;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getRpcs() {
+        return rpcs;
+    }
+
+    /**
+     * @return total time spent waiting for the RPCs, nanoseconds
+     */
+    public long getRpcNanos() {
+        return rpcNanos;
+    }
+
+    public void addRow(long rowBytes) {
+        rows++;
+        bytes += rowBytes;
+    }
+
+    public void addRpc(long nanos) {
+        rpcs++;
+        rpcNanos += nanos;
+    }
+
+    /**
+     * Add up counts of another scan (such as a region part of the same scan
+     * spec).
+     * 
+     * @param other
+     */
+    public void add(ScanStatistics other) {
+        rows += other.rows;
+        bytes += other.bytes;
+        rpcs += other.rpcs;
+        rpcNanos += other.rpcNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ScanStatistics [table=%s, caching=%d, rows=%d, bytes=%d, rpcs=%d, rpcNanos=%d]",
+                             tableName,
+                             caching,
+                             rows,
+                             bytes,
+                             rpcs,
+                             rpcNanos);
+    }
+
+}
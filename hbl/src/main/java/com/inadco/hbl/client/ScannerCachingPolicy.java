@@ -0,0 +1,57 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client;
+
+import com.inadco.hbl.client.impl.scanner.ScanSpec;
+
+/**
+ * Client-wide policy deciding scanner caching (rows fetched per RPC) for the
+ * scans that neither the query nor the cuboid model configure explicitly.
+ * <P>
+ * 
+ * Implementations must be thread safe, the policy is shared by all queries of
+ * the client.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public interface ScannerCachingPolicy {
+
+    /**
+     * Called right before the scan starts.
+     * 
+     * @param scanSpec
+     * @param tableName
+     *            cuboid table name
+     * @return caching to use for the scan
+     */
+    int scanStarted(ScanSpec scanSpec, String tableName);
+
+    /**
+     * Called once the scan is over (closed), regardless whether it was scanned
+     * to the end or not.
+     * 
+     * @param scanSpec
+     * @param stats
+     *            what has been observed during the scan
+     */
+    void scanCompleted(ScanSpec scanSpec, ScanStatistics stats);
+
+}
@@ -18,19 +18,27 @@
  */
 package com.inadco.hbl.client.impl;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.commons.lang.Validate;
 import org.apache.hadoop.hbase.client.HTablePool;
 import org.apache.hadoop.hbase.util.Bytes;
 
+import com.inadco.hbl.api.AggregateFunction;
 import com.inadco.hbl.api.AggregateFunctionRegistry;
 import com.inadco.hbl.api.Cube;
 import com.inadco.hbl.api.Cuboid;
@@ -38,9 +46,15 @@ import com.inadco.hbl.api.Dimension;
 import com.inadco.hbl.api.Measure;
 import com.inadco.hbl.api.Range;
 import com.inadco.hbl.client.AggregateQuery;
+import com.inadco.hbl.client.AggregateResult;
+import com.inadco.hbl.client.AggregateResultConsumer;
 import com.inadco.hbl.client.AggregateResultSet;
+import com.inadco.hbl.client.CuboidStatistics;
 import com.inadco.hbl.client.HblException;
 import com.inadco.hbl.client.HblQueryClient;
+import com.inadco.hbl.client.QueryPriority;
+import com.inadco.hbl.client.impl.scanner.CompositeKeyRowFilter;
+import com.inadco.hbl.client.impl.scanner.HashGroupingIterator;
 import com.inadco.hbl.client.impl.scanner.ScanSpec;
 
 /**
@@ -52,19 +66,33 @@ import com.inadco.hbl.client.impl.scanner.ScanSpec;
  */
 public class AggregateQueryImpl implements AggregateQuery {
 
+    /**
+     * fixed cost of a scan (opening the scanner, seeking to the start row) in
+     * rows, for the cost based cuboid selection.
+     */
+    private static final int            SCAN_COST        = 100;
+
     protected HblQueryClient            client;
     protected Cube                      cube;
     private ExecutorService             es;
     /**
      * dim name -> range slice requested
      */
-    private Map<String, List<Slice>>    dimSlices       = new HashMap<String, List<Slice>>();
-    private Set<String>                 measures        = new HashSet<String>();
+    private Map<String, List<Slice>>    dimSlices        = new HashMap<String, List<Slice>>();
+    private Set<String>                 measures         = new HashSet<String>();
+    /**
+     * measure -> functions requested on it. Plain queries don't know which
+     * functions are going to be evaluated, so this may stay empty in which
+     * case all functions are merged.
+     */
+    private Map<String, Set<String>>    measureFunctions = new HashMap<String, Set<String>>();
+    private List<HavingPredicate>       having           = new ArrayList<HavingPredicate>();
 
-    protected List<String>              groupDimensions = new ArrayList<String>();
+    protected List<String>              groupDimensions  = new ArrayList<String>();
     private HTablePool                  tpool;
     protected AggregateFunctionRegistry afr;
     protected boolean                   allowComplements;
+    protected ExecutionOptions          options          = new ExecutionOptions();
 
     public AggregateQueryImpl(HblQueryClient client, ExecutorService es, HTablePool tpool) {
         super();
@@ -77,10 +105,62 @@ public class AggregateQueryImpl implements AggregateQuery {
         if (cube == null || !cube.getName().equals(cubeName)) {
             cube = client.getCube(cubeName);
             afr = cube.getAggregateFunctionRegistry();
+            options.setCubeModelYaml(client.getCubeModelYaml(cubeName));
         }
         return this;
     }
 
+    @Override
+    public AggregateQuery setRegionSideAggregation(boolean regionSideAggregation) {
+        options.setRegionSideAggregation(regionSideAggregation);
+        return this;
+    }
+
+    @Override
+    public AggregateQuery setScanCaching(int caching) {
+        Validate.isTrue(caching >= 0, "caching must not be negative");
+        options.setScanCaching(caching);
+        return this;
+    }
+
+    @Override
+    public AggregateQuery setPrefetch(int depth, long memoryLimit) {
+        Validate.isTrue(depth >= 0, "prefetch depth must not be negative");
+        options.setPrefetchDepth(depth);
+        options.setPrefetchMemoryLimit(memoryLimit);
+        return this;
+    }
+
+    @Override
+    public AggregateQuery setHashGrouping(boolean hashGrouping, long memoryLimit) {
+        Validate.isTrue(memoryLimit >= 0, "memory limit must not be negative");
+        options.setHashGrouping(hashGrouping);
+        options.setHashGroupingMemoryLimit(memoryLimit);
+        return this;
+    }
+
+    @Override
+    public AggregateQuery setScanParallelism(int perQuery, int perRegionServer) {
+        Validate.isTrue(perRegionServer >= 0, "region server scan parallelism must not be negative");
+        options.setScanParallelism(perQuery);
+        options.setRegionServerScanParallelism(perRegionServer);
+        return this;
+    }
+
+    @Override
+    public AggregateQuery setTimeout(long timeout) {
+        Validate.isTrue(timeout >= 0, "timeout must not be negative");
+        options.setTimeout(timeout);
+        return this;
+    }
+
+    @Override
+    public AggregateQuery setPriority(QueryPriority priority) {
+        Validate.notNull(priority);
+        options.setPriority(priority);
+        return this;
+    }
+
     @Override
     public AggregateQuery addMeasure(String measure) {
         Validate.notNull(measure);
@@ -90,6 +170,17 @@ public class AggregateQueryImpl implements AggregateQuery {
         return this;
     }
 
+    @Override
+    public AggregateQuery addHaving(String functionName, String measure, String op, Object value) {
+        Validate.notNull(cube, "A cube not set");
+        Validate.isTrue(afr.findFunction(functionName) != null, "Unknown function name");
+        Validate.isTrue(value instanceof Number, "predicate value must be a number");
+        addMeasure(measure);
+        having.add(new HavingPredicate(functionName, measure, HavingPredicate.Op.fromSymbol(op), ((Number) value)
+            .doubleValue()));
+        return this;
+    }
+
     @Override
     public AggregateQuery addGroupBy(String dimName) {
         Validate.notNull(dimName);
@@ -139,36 +230,67 @@ public class AggregateQueryImpl implements AggregateQuery {
 
     public List<ScanSpec> generateScanSpecs(Map<String, Integer> dimName2GroupKeyOffsetMap,
                                             Map<String, Integer> measureName2indexMap) throws IOException, HblException {
-        if (dimName2GroupKeyOffsetMap == null)
-            dimName2GroupKeyOffsetMap = new HashMap<String, Integer>(11);
-        if (measureName2indexMap == null)
-            measureName2indexMap = new HashMap<String, Integer>(11);
-        
         Validate.notNull(cube, "A cube not set");
+        normalizeSlices();
+        return generateScanSpecs(compile(), dimName2GroupKeyOffsetMap, measureName2indexMap);
+    }
+
+    /**
+     * multiple slices of the same dimension must not overlap, otherwise not
+     * only we'd be performing more scans than needed, but they will also
+     * contain duplicate counts.
+     */
+    protected void normalizeSlices() {
+        for (Map.Entry<String, List<Slice>> dimSlice : dimSlices.entrySet()) {
+            Dimension dim = cube.getDimensions().get(dimSlice.getKey());
+            dimSlice.setValue(new ArrayList<Slice>(SliceNormalizer.normalize(dimSlice.getValue(), dim)));
+        }
+    }
+
+    /**
+     * Choose the cuboid and lay out the group keys and measures for the
+     * current query. Slices are expected to be normalized.
+     * 
+     * @return plan to generate scan specs with.
+     * @throws IOException
+     */
+    protected CompiledPlan compile() throws IOException {
+
         Cuboid cuboid = findCuboid();
 
         Validate.notNull(cuboid, "Unable to find a suitable cuboid for the slice query.");
 
-        /*
-         * FIXME, TODO: check slices for overlapping. otherwise, if slices
-         * overlap, not only we'd be performing more scans than needed, but they
-         * will also contain duplicate counts.
-         * 
-         * for now we just have to assume that slices will not overlap.
-         */
-        List<ScanSpec> scanSpecs = new ArrayList<ScanSpec>();
-
-        List<Range> partialSpec = new ArrayList<Range>();
+        Map<String, Integer> dimName2GroupKeyOffsetMap = new HashMap<String, Integer>(11);
+        Map<String, Integer> measureName2indexMap = new HashMap<String, Integer>(11);
 
         int groupKeyLen = 0, curKeyLen = 0;
 
-        for (Dimension dim : cuboid.getCuboidDimensions()) {
+        /*
+         * if group dimensions are stacked on the left, group key is just the
+         * row key prefix up to the last of them. Otherwise, group key is
+         * packed from the group dimension fields of the row key, and groups
+         * are collected in hash tables.
+         */
+        List<Dimension> cuboidDimensions = cuboid.getCuboidDimensions();
+        int[] groupKeyFields = isGroupPrefix(cuboid) ? null : new int[cuboidDimensions.size() << 1];
+        int fieldCnt = 0;
+
+        for (Dimension dim : cuboidDimensions) {
             String dimName = dim.getName();
-            dimName2GroupKeyOffsetMap.put(dimName, curKeyLen);
+            if (groupKeyFields == null) {
+                dimName2GroupKeyOffsetMap.put(dimName, curKeyLen);
+                if (groupDimensions.contains(dimName))
+                    groupKeyLen = curKeyLen + dim.getKeyLen();
+            } else if (groupDimensions.contains(dimName)) {
+                dimName2GroupKeyOffsetMap.put(dimName, groupKeyLen);
+                groupKeyFields[fieldCnt++] = curKeyLen;
+                groupKeyFields[fieldCnt++] = dim.getKeyLen();
+                groupKeyLen += dim.getKeyLen();
+            }
             curKeyLen += dim.getKeyLen();
-            if (groupDimensions.contains(dim.getName()))
-                groupKeyLen = curKeyLen;
         }
+        if (groupKeyFields != null)
+            groupKeyFields = Arrays.copyOf(groupKeyFields, fieldCnt);
 
         // for (int i = 0; i < numGroupKeys; i++) {
         // Dimension dim = cuboid.getCuboidDimensions().get(i);
@@ -191,7 +313,142 @@ public class AggregateQueryImpl implements AggregateQuery {
 //        for (String measure : measures)
 //            measuresArr[i++] = measureMap.get(measure);
 
-        generateScanSpecs(cuboid, scanSpecs, partialSpec, 0, groupKeyLen, SliceOperation.ADD, measureQualifiers);
+        HavingPredicate[] predicates = null;
+        if (!having.isEmpty()) {
+            predicates = having.toArray(new HavingPredicate[having.size()]);
+            for (HavingPredicate predicate : predicates)
+                predicate.setMeasureIndex(measureName2indexMap.get(predicate.getMeasure()));
+        }
+
+        return new CompiledPlan(cuboid,
+                                dimName2GroupKeyOffsetMap,
+                                measureName2indexMap,
+                                groupKeyLen,
+                                groupKeyFields,
+                                measureQualifiers,
+                                resolveMeasureFunctions(measureName2indexMap),
+                                predicates,
+                                groupKeyFields == null && groupKeyLen == curKeyLen);
+    }
+
+    /**
+     * @return true if the plan compiled earlier for the same query with
+     *         different slice bounds still works for the current slices.
+     */
+    protected boolean isApplicable(CompiledPlan plan) {
+        /*
+         * a null bound parameter removes its slice, so the cuboid may have
+         * been chosen without a dimension sliced now.
+         */
+        List<String> cuboidPath = plan.getCuboid().getCuboidPath();
+        if (!cuboidPath.containsAll(dimSlices.keySet()) || !cuboidPath.containsAll(groupDimensions))
+            return false;
+
+        /*
+         * the cuboid may have been chosen for streaming grouping only because
+         * a slice of a dimension left of a group dimension was degenerate.
+         * Hash grouping works with any cuboid, as long as it is allowed.
+         */
+        if (plan.getGroupKeyFields() == null)
+            return isGroupPrefix(plan.getCuboid());
+        return options.isHashGrouping();
+    }
+
+    /**
+     * Generate the scans of the current slices.
+     * 
+     * @param plan
+     *            compiled for the current query.
+     * @param dimName2GroupKeyOffsetMap
+     *            optional holder for the group key offsets of the dimensions.
+     * @param measureName2indexMap
+     *            optional holder for the measure indices.
+     * @return scan specs
+     */
+    protected List<ScanSpec> generateScanSpecs(CompiledPlan plan,
+                                               Map<String, Integer> dimName2GroupKeyOffsetMap,
+                                               Map<String, Integer> measureName2indexMap) {
+        if (dimName2GroupKeyOffsetMap != null)
+            dimName2GroupKeyOffsetMap.putAll(plan.getDimName2GroupKeyOffsetMap());
+        if (measureName2indexMap != null)
+            measureName2indexMap.putAll(plan.getMeasureName2indexMap());
+
+        Cuboid cuboid = plan.getCuboid();
+        int groupKeyLen = plan.getGroupKeyLen();
+        byte[][] measureQualifiers = plan.getMeasureQualifiers();
+
+        List<ScanSpec> scanSpecs = new ArrayList<ScanSpec>();
+
+        List<Range> partialSpec = new ArrayList<Range>();
+
+        /*
+         * if results can be cached, try to split the time slice into the
+         * sealed and live parts so that only the live part would need to be
+         * re-scanned most of the time.
+         */
+        String segmentedDim = null;
+        List<Slice> segmentSlices = null;
+        if (client.getResultCache() != null && cube.getSealingHorizon() > 0) {
+            long sealedBefore = System.currentTimeMillis() - cube.getSealingHorizon();
+            for (Dimension dim : cuboid.getCuboidDimensions()) {
+                List<Slice> slices = dimSlices.get(dim.getName());
+                if (slices == null || slices.size() != 1 || !TimeSliceSegmenter.isTimeDimension(dim))
+                    continue;
+                segmentSlices = TimeSliceSegmenter.segment(slices.get(0), sealedBefore);
+                if (segmentSlices != null) {
+                    segmentedDim = dim.getName();
+                    break;
+                }
+            }
+        }
+
+        if (segmentedDim == null)
+            generateScanSpecs(cuboid, scanSpecs, partialSpec, 0, groupKeyLen, SliceOperation.ADD, measureQualifiers);
+        else {
+            List<Slice> slices = dimSlices.get(segmentedDim);
+            try {
+                int segment = 0;
+                for (Slice segmentSlice : segmentSlices) {
+                    segment++;
+                    if (segmentSlice == null)
+                        continue;
+                    int segmentStart = scanSpecs.size();
+                    dimSlices.put(segmentedDim, Collections.singletonList(segmentSlice));
+                    generateScanSpecs(cuboid,
+                                      scanSpecs,
+                                      partialSpec,
+                                      0,
+                                      groupKeyLen,
+                                      SliceOperation.ADD,
+                                      measureQualifiers);
+                    // all but the last one are sealed
+                    for (ScanSpec ss : scanSpecs.subList(segmentStart, scanSpecs.size())) {
+                        ss.setSegment(segment);
+                        ss.setSealed(segment < segmentSlices.size());
+                    }
+                }
+            } finally {
+                dimSlices.put(segmentedDim, slices);
+            }
+        }
+
+        HavingPredicate[] predicates = plan.getHaving();
+        /*
+         * if every group is a single cuboid row, and nothing is subtracted
+         * from it by complement scans, groups coming out of the regions are
+         * final and may be filtered there already.
+         */
+        boolean havingPushdown = predicates != null && plan.isHavingPushdown();
+        for (ScanSpec ss : scanSpecs)
+            if (ss.getSliceOperation() != SliceOperation.ADD)
+                havingPushdown = false;
+
+        for (ScanSpec ss : scanSpecs) {
+            ss.setMeasureFunctions(plan.getMeasureFunctions());
+            ss.setGroupKeyFields(plan.getGroupKeyFields());
+            ss.setHaving(predicates);
+            ss.setHavingPushdown(havingPushdown);
+        }
 
         return scanSpecs;
 
@@ -199,43 +456,64 @@ public class AggregateQueryImpl implements AggregateQuery {
 
     @Override
     public AggregateResultSet execute() throws HblException {
-        try {
-            Map<String, Integer> dimName2GroupKeyOffsetMap = new HashMap<String, Integer>();
-            Map<String, Integer> measureName2indexMap = new HashMap<String, Integer>();
-            List<ScanSpec> scanSpecs = generateScanSpecs(dimName2GroupKeyOffsetMap, measureName2indexMap);
-
-            return createResultSet(scanSpecs,
-                                   es,
-                                   tpool,
-                                   afr,
-                                   measureName2indexMap,
-                                   dimName2GroupKeyOffsetMap,
-                                   null,
-                                   null,
-                                   null);
-        } catch (IOException exc) {
-            throw new HblException(exc.getMessage(), exc);
-        } finally {
-            reset();
-        }
+        return execute(null, null, null);
     }
 
     public AggregateResultSet execute(byte[] startSplitKey, byte[] endSplitKey, String enforcedCuboidTableName)
+        throws HblException {
+        return plan(startSplitKey, endSplitKey, enforcedCuboidTableName).start();
+    }
+
+    @Override
+    public Future<AggregateResultSet> executeAsync() throws HblException {
+        final Execution execution = plan(null, null, null);
+        return execution.submit(new Callable<AggregateResultSet>() {
+
+            @Override
+            public AggregateResultSet call() throws Exception {
+                return execution.startAsync();
+            }
+        }, true);
+    }
+
+    @Override
+    public Future<Long> executeAsync(final AggregateResultConsumer consumer, final int batchSize)
+        throws HblException {
+        Validate.notNull(consumer);
+        Validate.isTrue(batchSize > 0, "batch size must be positive");
+        final Execution execution = plan(null, null, null);
+        return execution.submit(new Callable<Long>() {
+
+            @Override
+            public Long call() throws Exception {
+                return execution.deliver(consumer, batchSize);
+            }
+        }, false);
+    }
+
+    /**
+     * Plan the execution of the query and reset the query.
+     */
+    Execution plan(byte[] startSplitKey, byte[] endSplitKey, String enforcedCuboidTableName)
         throws HblException {
         try {
             Map<String, Integer> dimName2GroupKeyOffsetMap = new HashMap<String, Integer>();
             Map<String, Integer> measureName2indexMap = new HashMap<String, Integer>();
             List<ScanSpec> scanSpecs = generateScanSpecs(dimName2GroupKeyOffsetMap, measureName2indexMap);
 
-            return createResultSet(scanSpecs,
-                                   es,
-                                   tpool,
-                                   afr,
-                                   measureName2indexMap,
-                                   dimName2GroupKeyOffsetMap,
-                                   startSplitKey,
-                                   endSplitKey,
-                                   enforcedCuboidTableName);
+            ExecutionOptions execOptions = executionOptions();
+            Callable<AggregateResultSetImpl> resultSetFactory =
+                createResultSetFactory(scanSpecs,
+                                       es,
+                                       tpool,
+                                       afr,
+                                       measureName2indexMap,
+                                       dimName2GroupKeyOffsetMap,
+                                       startSplitKey,
+                                       endSplitKey,
+                                       enforcedCuboidTableName,
+                                       execOptions);
+            return new Execution(cube.getName(), scanSpecs, execOptions, resultSetFactory);
         } catch (IOException exc) {
             throw new HblException(exc.getMessage(), exc);
         } finally {
@@ -247,9 +525,53 @@ public class AggregateQueryImpl implements AggregateQuery {
     protected void reset() {
         dimSlices.clear();
         measures.clear();
+        measureFunctions.clear();
+        having.clear();
         groupDimensions.clear();
     }
 
+    /**
+     * Declare a function to be evaluated on a measure. Once there are any,
+     * only the declared functions (and whatever they depend on) are merged
+     * during the query.
+     * 
+     * @param measure
+     * @param funcName
+     */
+    protected void addMeasureFunction(String measure, String funcName) {
+        Set<String> funcs = measureFunctions.get(measure);
+        if (funcs == null)
+            measureFunctions.put(measure, funcs = new HashSet<String>());
+        funcs.add(funcName);
+    }
+
+    /*
+     * function closures per measure index, null if unrestricted. Functions of
+     * the HAVING predicates are needed, too, but they alone don't restrict
+     * anything.
+     */
+    private String[][] resolveMeasureFunctions(Map<String, Integer> measureName2indexMap) {
+        if (measureFunctions.isEmpty())
+            return null;
+        String[][] result = new String[measureName2indexMap.size()][];
+        for (Map.Entry<String, Integer> entry : measureName2indexMap.entrySet()) {
+            Set<String> funcs = new HashSet<String>();
+            if (measureFunctions.containsKey(entry.getKey()))
+                funcs.addAll(measureFunctions.get(entry.getKey()));
+            for (HavingPredicate predicate : having)
+                if (predicate.getMeasure().equals(entry.getKey()))
+                    funcs.add(predicate.getFunctionName());
+            if (funcs.isEmpty())
+                return null;
+            List<String> names = new ArrayList<String>();
+            for (AggregateFunction af : afr.resolveFunctions(funcs))
+                names.add(af.getName());
+            Collections.sort(names);
+            result[entry.getValue()] = names.toArray(new String[names.size()]);
+        }
+        return result;
+    }
+
     protected boolean isAllowComplements() {
         return allowComplements;
     }
@@ -258,6 +580,20 @@ public class AggregateQueryImpl implements AggregateQuery {
         this.allowComplements = allowComplements;
     }
 
+    /**
+     * @return copy of the query options for a particular execution, completed
+     *         with the client-wide settings.
+     */
+    protected ExecutionOptions executionOptions() {
+        ExecutionOptions execOptions = options.clone();
+        execOptions.setCachingPolicy(client.getScannerCachingPolicy());
+        execOptions.setResultCache(client.acquireResultCache());
+        execOptions.setSpillDir(client.getSpillDir());
+        execOptions.setDeadlineTimer(client.getDeadlineTimer());
+        execOptions.setQueryMetrics(client.getQueryMetrics());
+        return execOptions;
+    }
+
     /**
      * 
      * @param scanSpecs
@@ -278,28 +614,40 @@ public class AggregateQueryImpl implements AggregateQuery {
      *            is the same as given, thus inforcing idempotent cuboid. Used
      *            only by HblInputSplit to assert idempotent optimizer
      *            processing.
-     * @return
-     * @throws IOException
+     * @param options
+     *            execution options of this particular execution.
+     * @return factory of the result set. Captures everything it needs of the
+     *         query state, as the query gets reset before the result set is
+     *         created.
      */
-    protected AggregateResultSetImpl createResultSet(final List<ScanSpec> scanSpecs,
-                                                     final ExecutorService es,
-                                                     final HTablePool tpool,
-                                                     final AggregateFunctionRegistry afr,
-                                                     final Map<String, Integer> measureName2IndexMap,
-                                                     final Map<String, Integer> dimName2GroupKeyOffsetMap,
-                                                     final byte[] startSplitKey,
-                                                     final byte[] endSplitKey,
-                                                     final String enforcedCuboidTableName) throws IOException {
-        return new AggregateResultSetImpl(
-            scanSpecs,
-            es,
-            tpool,
-            afr,
-            measureName2IndexMap,
-            dimName2GroupKeyOffsetMap,
-            startSplitKey,
-            endSplitKey,
-            enforcedCuboidTableName);
+    protected Callable<AggregateResultSetImpl>
+        createResultSetFactory(final List<ScanSpec> scanSpecs,
+                               final ExecutorService es,
+                               final HTablePool tpool,
+                               final AggregateFunctionRegistry afr,
+                               final Map<String, Integer> measureName2IndexMap,
+                               final Map<String, Integer> dimName2GroupKeyOffsetMap,
+                               final byte[] startSplitKey,
+                               final byte[] endSplitKey,
+                               final String enforcedCuboidTableName,
+                               final ExecutionOptions options) {
+        return new Callable<AggregateResultSetImpl>() {
+
+            @Override
+            public AggregateResultSetImpl call() throws IOException {
+                return new AggregateResultSetImpl(
+                    scanSpecs,
+                    es,
+                    tpool,
+                    afr,
+                    measureName2IndexMap,
+                    dimName2GroupKeyOffsetMap,
+                    startSplitKey,
+                    endSplitKey,
+                    enforcedCuboidTableName,
+                    options);
+            }
+        };
     }
 
     /**
@@ -345,11 +693,14 @@ public class AggregateQueryImpl implements AggregateQuery {
 
             generateScanSpecs(cuboid, scanHolder, partialSpec, dimIndex + 1, groupKeyLen, so, measureQualifiers);
         } else {
-            if (slices.size() != 1)
-                throw new UnsupportedOperationException(
-                    "queries to multiple slices of the same dimension are not supported (yet)!");
-            Slice slice = slices.iterator().next();
-            Range[] ranges = dim.optimizeSliceScan(slice, allowComplements);
+
+            /*
+             * slices are normalized to be disjoint by now, so each just adds
+             * its own scans.
+             */
+            List<Range> ranges = new ArrayList<Range>();
+            for (Slice slice : slices)
+                ranges.addAll(Arrays.asList(dim.optimizeSliceScan(slice, allowComplements)));
 
             Validate.notEmpty(ranges);
 
@@ -385,7 +736,7 @@ public class AggregateQueryImpl implements AggregateQuery {
         }
     }
 
-    private Cuboid findCuboid() {
+    private Cuboid findCuboid() throws IOException {
 
         /*
          * we need to find cuboid with composite keys where grouping dimensions
@@ -398,6 +749,7 @@ public class AggregateQueryImpl implements AggregateQuery {
         dimensionSubset.addAll(groupDimensions);
 
         Cuboid cuboid = null;
+        List<Cuboid> candidates = new ArrayList<Cuboid>();
 
         // find a suitable cuboid per above with fewest extra dimensions.
         for (Cuboid c : cube.getCuboids()) {
@@ -412,38 +764,302 @@ public class AggregateQueryImpl implements AggregateQuery {
                 continue;
 
             // now check group dimensions that must be stacked on the left.
-            int cnt = groupDimensions.size();
-            for (String dimName : cPath) {
-                if (groupDimensions.contains(dimName)) {
-                    cnt--;
-                } else {
-                    /*
-                     * easy but still quite effective optimization is that if
-                     * slices are degenerate, their dimension could be pushed
-                     * left in the cuboid without breaking inline grouping
-                     * prerequisites. This is surprisingly much more often the
-                     * case as degenerate slicing is quite common.
-                     */
-                    List<Slice> slices = dimSlices.get(dimName);
-                    if (slices == null || slices.size() != 1)
-                        break; // clearly not degenerate
-
-                    Slice slice = slices.get(0);
-                    if (slice.isLeftOpen() || slice.isRightOpen()
-                        || !slice.getLeftBound().equals(slice.getRightBound()))
-                        break; // not degenerate.
-                }
-            }
-            if (cnt > 0)
+            if (!options.isHashGrouping() && !isGroupPrefix(c))
                 continue;
 
             // found qualifying cuboid. good.
-            if (cuboid == null || cPath.size() < cuboid.getCuboidPath().size())
+            candidates.add(c);
+            if (cuboid == null || isCheaperGuess(c, cuboid))
                 cuboid = c;
         }
 
+        /*
+         * fewest dimensions is only a guess though: a wider cuboid with a
+         * selective leading dimension may well be cheaper to scan than a
+         * narrower one that needs to be scanned in full. So if we have
+         * statistics, go by the estimated number of rows scanned instead.
+         */
+        if (candidates.size() > 1) {
+            Cuboid cheapest = findCheapestCuboid(candidates);
+            if (cheapest != null)
+                cuboid = cheapest;
+        }
+
         return cuboid;
 
     }
 
+    /**
+     * @return true if the cuboid's key starts with the group dimensions, i.e.
+     *         the groups come out of its scans in order.
+     */
+    private boolean isGroupPrefix(Cuboid c) {
+        int cnt = groupDimensions.size();
+        for (String dimName : c.getCuboidPath()) {
+            if (groupDimensions.contains(dimName)) {
+                cnt--;
+            } else {
+                /*
+                 * easy but still quite effective optimization is that if
+                 * slices are degenerate, their dimension could be pushed left
+                 * in the cuboid without breaking inline grouping
+                 * prerequisites. This is surprisingly much more often the case
+                 * as degenerate slicing is quite common.
+                 */
+                List<Slice> slices = dimSlices.get(dimName);
+                if (slices == null || slices.size() != 1)
+                    break; // clearly not degenerate
+
+                Slice slice = slices.get(0);
+                if (slice.isLeftOpen() || slice.isRightOpen() || !slice.getLeftBound().equals(slice.getRightBound()))
+                    break; // not degenerate.
+            }
+        }
+        return cnt <= 0;
+    }
+
+    /*
+     * without statistics: fewer dimensions, then streaming grouping over
+     * hash grouping.
+     */
+    private boolean isCheaperGuess(Cuboid c, Cuboid other) {
+        int size = c.getCuboidPath().size(), otherSize = other.getCuboidPath().size();
+        return size < otherSize || size == otherSize && isGroupPrefix(c) && !isGroupPrefix(other);
+    }
+
+    /**
+     * Cost based cuboid selection: estimates number of rows each candidate's
+     * scans would go thru based on the cuboid statistics.
+     * 
+     * @param candidates
+     *            qualifying cuboids
+     * @return cheapest cuboid, or null if not all of the candidates have
+     *         statistics.
+     * @throws IOException
+     */
+    private Cuboid findCheapestCuboid(List<Cuboid> candidates) throws IOException {
+        Cuboid cheapest = null;
+        double minCost = 0;
+        for (Cuboid c : candidates) {
+            CuboidStatistics stats = client.getCuboidStatistics(c.getCuboidTableName());
+            if (stats == null || stats.getKeyLen() != c.getKeyLen())
+                return null; // not collected, or model has changed since.
+
+            List<ScanSpec> scanSpecs = new ArrayList<ScanSpec>();
+            generateScanSpecs(c, scanSpecs, new ArrayList<Range>(), 0, 0, SliceOperation.ADD, new byte[0][]);
+
+            double cost = 0;
+            for (ScanSpec scanSpec : scanSpecs) {
+                CompositeKeyRowFilter krf = new CompositeKeyRowFilter(scanSpec.getRanges());
+                cost += SCAN_COST + stats.estimateRows(krf.getCompositeBound(true), krf.getCompositeBound(false));
+            }
+
+            if (cheapest == null || cost < minCost || (cost == minCost && isCheaperGuess(c, cheapest))) {
+                cheapest = c;
+                minCost = cost;
+            }
+        }
+        return cheapest;
+    }
+
+    /**
+     * Execution planned by the query. Holds all of the query state it needs,
+     * so the query may be reset and reused before the execution starts.
+     */
+    class Execution {
+
+        private final String                           cubeName;
+        private final List<ScanSpec>                   scanSpecs;
+        private final ExecutionOptions                 execOptions;
+        private final Callable<AggregateResultSetImpl> resultSetFactory;
+        private AsyncExecution<?>                      future;
+
+        Execution(String cubeName,
+                  List<ScanSpec> scanSpecs,
+                  ExecutionOptions execOptions,
+                  Callable<AggregateResultSetImpl> resultSetFactory) {
+            super();
+            this.cubeName = cubeName;
+            this.scanSpecs = scanSpecs;
+            this.execOptions = execOptions;
+            this.resultSetFactory = resultSetFactory;
+        }
+
+        List<ScanSpec> getScanSpecs() {
+            return scanSpecs;
+        }
+
+        ExecutionOptions getExecOptions() {
+            return execOptions;
+        }
+
+        /**
+         * scanners the execution may have open at the same time.
+         */
+        int getScans() {
+            int scans = scanSpecs.size();
+            if (execOptions.getScanParallelism() > 1)
+                scans += execOptions.getScanParallelism();
+            return scans;
+        }
+
+        /**
+         * memory the open scanners of the execution may buffer.
+         */
+        long getMemory() {
+            long memory = 0;
+            long prefetchMemory = execOptions.getPrefetchDepth() > 0 ? execOptions.getPrefetchMemoryLimit() : 0;
+            long hashMemory = execOptions.getHashGroupingMemoryLimit();
+            if (hashMemory <= 0)
+                hashMemory = HashGroupingIterator.DEFAULT_MEMORY_LIMIT;
+            for (ScanSpec spec : scanSpecs) {
+                memory += prefetchMemory;
+                if (spec.getGroupKeyFields() != null)
+                    memory += hashMemory;
+            }
+            if (execOptions.getScanParallelism() > 1)
+                memory += execOptions.getScanParallelism() * prefetchMemory;
+            return memory;
+        }
+
+        /**
+         * Wait for the client's scheduler to admit the executions as a whole,
+         * under the cube and the priority of this one. Time spent waiting
+         * counts against their timeouts.
+         * 
+         * @param executions
+         *            this execution, or the batch it starts.
+         * @return admission for all of them.
+         */
+        QueryScheduler.Ticket admit(List<Execution> executions) throws HblException {
+            int scans = 0;
+            long memory = 0;
+            long timeout = 0;
+            for (Execution execution : executions) {
+                scans += execution.getScans();
+                memory += execution.getMemory();
+                long t = execution.execOptions.getTimeout();
+                if (t > 0 && (timeout == 0 || t < timeout))
+                    timeout = t;
+            }
+
+            long start = System.currentTimeMillis();
+            QueryScheduler.Ticket admission =
+                client.getQueryScheduler().admit(cubeName, execOptions.getPriority(), scans, memory, timeout);
+            long waited = System.currentTimeMillis() - start;
+            for (Execution execution : executions) {
+                ExecutionOptions options = execution.execOptions;
+                if (options.getTimeout() > 0)
+                    options.setTimeout(Math.max(1, options.getTimeout() - waited));
+            }
+            return admission;
+        }
+
+        /**
+         * Wait for the admission and open the scans.
+         */
+        AggregateResultSetImpl start() throws HblException {
+            return start(admit(Collections.singletonList(this)));
+        }
+
+        /**
+         * Open the scans.
+         * 
+         * @param admission
+         *            admission of the execution, or a share of the admission
+         *            of the batch it is part of. The result set releases it
+         *            once closed; released right away if the result set can't
+         *            be created.
+         */
+        AggregateResultSetImpl start(Closeable admission) throws HblException {
+            execOptions.setAdmission(admission);
+            try {
+                AggregateResultSetImpl resultSet = resultSetFactory.call();
+                // the result set releases it from now on.
+                admission = null;
+                return resultSet;
+            } catch (HblException exc) {
+                throw exc;
+            } catch (Exception exc) {
+                throw new HblException(exc.getMessage(), exc);
+            } finally {
+                if (admission != null) {
+                    try {
+                        admission.close();
+                    } catch (IOException exc) {
+                        // does not happen.
+                    }
+                }
+            }
+        }
+
+        /**
+         * Run the execution on the executor, or in the current thread if the
+         * executor can't take it right now.
+         */
+        <V> Future<V> submit(Callable<V> callable, boolean resultSetReturned) {
+            AsyncExecution<V> task = new AsyncExecution<V>(callable, resultSetReturned);
+            future = task;
+            try {
+                es.execute(task);
+            } catch (RejectedExecutionException exc) {
+                task.run();
+            }
+            return task;
+        }
+
+        AggregateResultSetImpl startAsync() throws HblException, IOException {
+            AggregateResultSetImpl resultSet = start();
+            if (!future.started(resultSet))
+                throw new CancellationException();
+            return resultSet;
+        }
+
+        /**
+         * Start and push the results to the consumer.
+         * 
+         * @return number of results delivered
+         */
+        long deliver(AggregateResultConsumer consumer, int batchSize) throws Exception {
+            AggregateResultSetImpl resultSet = null;
+            long count = 0;
+            try {
+                resultSet = startAsync();
+
+                List<AggregateResult> batch = new ArrayList<AggregateResult>(batchSize);
+                while (resultSet.hasNext()) {
+                    resultSet.next();
+                    batch.add(resultSet.detach());
+                    if (batch.size() == batchSize) {
+                        consumer.consume(batch);
+                        count += batch.size();
+                        batch = new ArrayList<AggregateResult>(batchSize);
+                    }
+                }
+                if (batch.size() > 0) {
+                    consumer.consume(batch);
+                    count += batch.size();
+                }
+
+                AggregateResultSetImpl closing = resultSet;
+                resultSet = null;
+                closing.close();
+            } catch (Exception exc) {
+                consumer.failed(exc);
+                throw exc;
+            } finally {
+                if (resultSet != null) {
+                    try {
+                        resultSet.close();
+                    } catch (IOException exc) {
+                        // the original failure is what's reported.
+                    }
+                }
+            }
+            consumer.completed();
+            return count;
+        }
+
+    }
+
 }
@@ -23,14 +23,23 @@ import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.lang.Validate;
 import org.apache.hadoop.hbase.client.HTablePool;
@@ -39,18 +48,35 @@ import org.apache.log4j.Logger;
 import com.inadco.datastructs.InputIterator;
 import com.inadco.datastructs.adapters.GroupingIterator;
 import com.inadco.datastructs.adapters.NWayMergingIterator;
-import com.inadco.datastructs.util.StatefulHeapSortMergeStrategy;
+import com.inadco.datastructs.util.LoserTreeMergeStrategy;
 import com.inadco.hbl.api.AggregateFunction;
 import com.inadco.hbl.api.AggregateFunctionRegistry;
 import com.inadco.hbl.api.Cuboid;
 import com.inadco.hbl.api.Dimension;
+import com.inadco.hbl.api.PrimitiveAggregateFunction;
 import com.inadco.hbl.client.AggregateResult;
 import com.inadco.hbl.client.AggregateResultSet;
 import com.inadco.hbl.client.HblException;
+import com.inadco.hbl.client.ScanStatistics;
+import com.inadco.hbl.client.impl.scanner.AbstractScanSpecScanner;
+import com.inadco.hbl.client.impl.scanner.CachedResultIterator;
 import com.inadco.hbl.client.impl.scanner.FilteringScanSpecScanner;
 import com.inadco.hbl.client.impl.scanner.GroupingScanStrategy;
+import com.inadco.hbl.client.impl.scanner.HashGroupingIterator;
+import com.inadco.hbl.client.impl.scanner.HavingFilterIterator;
+import com.inadco.hbl.client.impl.scanner.ParallelScanContext;
+import com.inadco.hbl.client.impl.scanner.PrefetchingScanSpecScanner;
 import com.inadco.hbl.client.impl.scanner.RawScanResult;
+import com.inadco.hbl.client.impl.scanner.RegionAggregatingScanner;
+import com.inadco.hbl.client.impl.scanner.ResultRecordingIterator;
 import com.inadco.hbl.client.impl.scanner.ScanSpec;
+import com.inadco.hbl.client.impl.scanner.ScanSpecScanner;
+import com.inadco.hbl.client.impl.scanner.ScanSplit;
+import com.inadco.hbl.client.impl.scanner.SharedScans;
+import com.inadco.hbl.client.impl.scanner.SplitScanSpecScanner;
+import com.inadco.hbl.client.impl.scanner.TopNIterator;
+import com.inadco.hbl.model.SimpleDateHierarchy;
+import com.inadco.hbl.model.SimpleTimeHourHierarchy;
 import com.inadco.hbl.protocodegen.Cells.Aggregation;
 import com.inadco.hbl.util.IOUtil;
 
@@ -72,6 +98,12 @@ public class AggregateResultSetImpl implements AggregateResultSet, AggregateResu
     private Map<String, Integer>             dim2GroupKeyOffsetMap;
     private Map<String, ? extends Dimension> groupDimName2Dimension;
     private Cuboid                           cuboid;
+    private List<ScanSpecScanner>            scanSpecScanners;
+    private QueryControl                     control;
+
+    /* accessor handles, see #resolveAggregate() and #resolveGroupMember() */
+    private List<AggregateHandle>            aggregateHandles = new ArrayList<AggregateHandle>();
+    private List<GroupMemberHandle>          memberHandles    = new ArrayList<GroupMemberHandle>();
 
     AggregateResultSetImpl(final List<ScanSpec> scanSpecs,
                            final ExecutorService es,
@@ -81,30 +113,165 @@ public class AggregateResultSetImpl implements AggregateResultSet, AggregateResu
                            final Map<String, Integer> dimName2GroupKeyOffsetMap,
                            final byte[] startSplitKey,
                            final byte[] endSplitKey,
-                           final String enforcedCuboidTableName) throws IOException {
+                           final String enforcedCuboidTableName,
+                           final ExecutionOptions options) throws IOException {
         super();
 
         Validate.notNull(scanSpecs);
         Validate.notEmpty(scanSpecs);
         Validate.notNull(measureName2IndexMap);
         Validate.notNull(afr);
+        Validate.notNull(options);
 
         this.measureName2IndexMap = measureName2IndexMap;
         this.dim2GroupKeyOffsetMap = dimName2GroupKeyOffsetMap;
         this.afr = afr;
 
+        if (options.getAdmission() != null)
+            closeables.addFirst(options.getAdmission());
+        control = new QueryControl(options.getTimeout(), options.getDeadlineTimer(), options.getQueryMetrics());
+        closeables.addFirst(control);
+
         ScanSpec spec = scanSpecs.get(0);
         this.cuboid = spec.getCuboid();
         this.groupDimName2Dimension = cuboid.getParentCube().getDimensions();
 
-        // constructors of FilteringScanSpecScanner are the ones that will be
-        // running initial query -- so we probably
-        // want to parallelize them. except for the first one which we want to
-        // run in
-        // the context of the current thread.
+        QueryResultCache cache = options.getResultCache();
+        QueryResultCache.Key cacheKey = null;
+        long cacheGeneration = 0;
+        if (cache != null) {
+            cacheKey = QueryResultCache.createKey(scanSpecs, startSplitKey, endSplitKey, enforcedCuboidTableName);
+            cacheGeneration = cache.getGeneration(cacheKey);
+            byte[] rows = cache.get(cacheKey);
+            if (rows != null) {
+                scanSpecScanners = Collections.emptyList();
+                delegate = new CachedResultIterator(rows, spec);
+                closeables.addFirst(delegate);
+                return;
+            }
+        }
+
+        /*
+         * scan specs of the same segment are merged and grouped together first
+         * (see ScanSpec#getSegment()). Results of sealed segments don't change
+         * any more, so we take them from the cache if we can.
+         */
+        Map<Integer, List<ScanSpec>> segments = new LinkedHashMap<Integer, List<ScanSpec>>();
+        for (ScanSpec ss : scanSpecs) {
+            List<ScanSpec> segmentSpecs = segments.get(ss.getSegment());
+            if (segmentSpecs == null)
+                segments.put(ss.getSegment(), segmentSpecs = new ArrayList<ScanSpec>());
+            segmentSpecs.add(ss);
+        }
+
+        Map<Integer, QueryResultCache.Key> sealedKeys = new HashMap<Integer, QueryResultCache.Key>();
+        Map<Integer, byte[]> sealedRows = new HashMap<Integer, byte[]>();
+        List<ScanSpec> specsToScan = new ArrayList<ScanSpec>(scanSpecs.size());
+        for (Map.Entry<Integer, List<ScanSpec>> segment : segments.entrySet()) {
+            List<ScanSpec> segmentSpecs = segment.getValue();
+            if (cache != null && segmentSpecs.get(0).isSealed()) {
+                QueryResultCache.Key key =
+                    QueryResultCache.createKey(segmentSpecs, startSplitKey, endSplitKey, enforcedCuboidTableName);
+                byte[] rows = cache.get(key, true);
+                if (rows != null) {
+                    sealedRows.put(segment.getKey(), rows);
+                    continue;
+                }
+                sealedKeys.put(segment.getKey(), key);
+            }
+            specsToScan.addAll(segmentSpecs);
+        }
+
+        List<ScanSpecScanner> scanners =
+            createScanners(specsToScan, es, tpool, startSplitKey, endSplitKey, enforcedCuboidTableName, options);
+        scanSpecScanners = new ArrayList<ScanSpecScanner>(scanners);
+
+        Iterator<ScanSpecScanner> scannerIter = scanners.iterator();
+        List<InputIterator<RawScanResult>> segmentIters = new ArrayList<InputIterator<RawScanResult>>();
+        for (Map.Entry<Integer, List<ScanSpec>> segment : segments.entrySet()) {
+            List<ScanSpec> segmentSpecs = segment.getValue();
+            byte[] rows = sealedRows.get(segment.getKey());
+            InputIterator<RawScanResult> segmentIter;
+            if (rows != null) {
+                segmentIter = new CachedResultIterator(rows, segmentSpecs.get(0));
+                closeables.addFirst(segmentIter);
+            } else {
+                List<ScanSpecScanner> segmentScanners = new ArrayList<ScanSpecScanner>(segmentSpecs.size());
+                for (int i = 0; i < segmentSpecs.size(); i++)
+                    segmentScanners.add(scannerIter.next());
+                segmentIter = mergeAndGroup(segmentScanners, segmentSpecs.get(0), options);
+
+                QueryResultCache.Key key = sealedKeys.get(segment.getKey());
+                if (key != null) {
+                    segmentIter = new ResultRecordingIterator(segmentIter, cache, key, cache.getGeneration(key), true);
+                    closeables.addFirst(segmentIter);
+                }
+            }
+            segmentIters.add(segmentIter);
+        }
+
+        if (segmentIters.size() == 1)
+            delegate = segmentIters.get(0);
+        else {
 
-        List<Future<FilteringScanSpecScanner>> filteringScannerConstructors =
-            new ArrayList<Future<FilteringScanSpecScanner>>();
+            /*
+             * segments are disjoint slices of the same cuboid with their
+             * complements already applied, so we just add up their groups.
+             */
+            @SuppressWarnings("unchecked")
+            InputIterator<RawScanResult>[] inputs = segmentIters.toArray(new InputIterator[segmentIters.size()]);
+            LoserTreeMergeStrategy<RawScanResult> sortMergeStrategy =
+                new LoserTreeMergeStrategy<RawScanResult>(new RawScanResult.GroupComparator());
+            InputIterator<RawScanResult> mergingIter =
+                new NWayMergingIterator<RawScanResult>(inputs, sortMergeStrategy, false);
+            closeables.addFirst(mergingIter);
+
+            GroupingScanStrategy gsc = new GroupingScanStrategy(spec, afr, false);
+            delegate = new GroupingIterator<RawScanResult, RawScanResult>(mergingIter, gsc);
+            closeables.addFirst(delegate);
+        }
+
+        if (spec.getHaving() != null) {
+            delegate = new HavingFilterIterator(delegate, spec.getHaving(), afr);
+            closeables.addFirst(delegate);
+        }
+
+        if (cache != null) {
+            delegate = new ResultRecordingIterator(delegate, cache, cacheKey, cacheGeneration, false);
+            closeables.addFirst(delegate);
+        }
+    }
+
+    /**
+     * Create scanners for the scan specs, in the same order.
+     * <P>
+     * 
+     * Constructors of the scanners are the ones that will be running initial
+     * query -- so we probably want to parallelize them. except for the first
+     * one which we want to run in the context of the current thread. Those
+     * the executor can't take right now are run in the current thread, too.
+     */
+    private List<ScanSpecScanner> createScanners(List<ScanSpec> scanSpecs,
+                                                 final ExecutorService es,
+                                                 final HTablePool tpool,
+                                                 final byte[] startSplitKey,
+                                                 final byte[] endSplitKey,
+                                                 final String enforcedCuboidTableName,
+                                                 final ExecutionOptions options) throws IOException {
+        List<ScanSpecScanner> scanners = new ArrayList<ScanSpecScanner>();
+        if (scanSpecs.isEmpty())
+            return scanners;
+
+        List<FutureTask<ScanSpecScanner>> scannerConstructors = new ArrayList<FutureTask<ScanSpecScanner>>();
+
+        /*
+         * region parts of all scans of the query share the same caps.
+         */
+        ParallelScanContext scanContext = null;
+        if (options.getScanParallelism() > 1)
+            scanContext =
+                new ParallelScanContext(options.getScanParallelism(), options.getRegionServerScanParallelism());
+        final ParallelScanContext psc = scanContext;
 
         Iterator<ScanSpec> iter = scanSpecs.iterator();
         ScanSpec firstSpec = iter.next();
@@ -112,38 +279,58 @@ public class AggregateResultSetImpl implements AggregateResultSet, AggregateResu
         for (; iter.hasNext();) {
             final ScanSpec ss = iter.next();
 
-            Callable<FilteringScanSpecScanner> callable = new Callable<FilteringScanSpecScanner>() {
+            Callable<ScanSpecScanner> callable = new Callable<ScanSpecScanner>() {
 
                 @Override
-                public FilteringScanSpecScanner call() throws IOException, HblException {
-                    return new FilteringScanSpecScanner(ss, tpool, startSplitKey, endSplitKey, enforcedCuboidTableName);
+                public ScanSpecScanner call() throws IOException, HblException {
+                    return register(createScanner(ss,
+                                                  es,
+                                                  tpool,
+                                                  startSplitKey,
+                                                  endSplitKey,
+                                                  enforcedCuboidTableName,
+                                                  options,
+                                                  psc));
                 }
             };
 
-            filteringScannerConstructors.add(es.submit(callable));
+            FutureTask<ScanSpecScanner> constructor = new FutureTask<ScanSpecScanner>(callable);
+            try {
+                es.execute(constructor);
+                control.register(constructor);
+            } catch (RejectedExecutionException exc) {
+                constructor.run();
+            }
+            scannerConstructors.add(constructor);
         }
-        List<FilteringScanSpecScanner> filteringScanners = new ArrayList<FilteringScanSpecScanner>();
 
         // launch first scanner
         // in the context of this thread
 
         IOException lastExc = null;
         try {
-            FilteringScanSpecScanner fscanner =
-                new FilteringScanSpecScanner(firstSpec, tpool, startSplitKey, endSplitKey, enforcedCuboidTableName);
-            closeables.addFirst(fscanner);
-            filteringScanners.add(fscanner);
+            ScanSpecScanner scanner =
+                createScanner(firstSpec, es, tpool, startSplitKey, endSplitKey, enforcedCuboidTableName, options, psc);
+            closeables.addFirst(register(scanner));
+            scanners.add(scanner);
         } catch (IOException exc) {
             lastExc = exc;
             s_log.error(lastExc);
-        } 
+        }
 
-        // wait for all other parallel dudes to complete.
-        for (Future<FilteringScanSpecScanner> fsss : filteringScannerConstructors) {
+        /*
+         * wait for all other parallel dudes to complete (or the deadline).
+         * constructors the executor hasn't got to yet are taken over by this
+         * thread (running a task that has already started is a no-op). This
+         * thread may be an executor thread itself (asynchronous executions),
+         * and then the queue behind it is not guaranteed to drain otherwise.
+         */
+        for (FutureTask<ScanSpecScanner> fsss : scannerConstructors) {
             try {
-                FilteringScanSpecScanner fscanner = fsss.get();
-                closeables.addFirst(fscanner);
-                filteringScanners.add(fscanner);
+                fsss.run();
+                ScanSpecScanner scanner = fsss.get(control.getRemainingNanos(), TimeUnit.NANOSECONDS);
+                closeables.addFirst(scanner);
+                scanners.add(scanner);
             } catch (ExecutionException exc) {
                 Throwable thr = exc.getCause();
                 if (thr instanceof IOException)
@@ -151,6 +338,11 @@ public class AggregateResultSetImpl implements AggregateResultSet, AggregateResu
                 else
                     lastExc = new IOException(thr.getMessage(), thr);
                 s_log.error(lastExc);
+            } catch (TimeoutException exc) {
+                // cancels the rest of them, too
+                lastExc = control.expire();
+            } catch (CancellationException exc) {
+                lastExc = control.translate(new IOException("Scanner construction cancelled", exc));
             } catch (InterruptedException exc) {
                 lastExc = new IOException("Interrupted", exc);
             }
@@ -158,26 +350,64 @@ public class AggregateResultSetImpl implements AggregateResultSet, AggregateResu
 
         /*
          * done initializing the scanners. if any of initialization generated at
-         * least one error, re-throw the last one.
+         * least one error, re-throw the last one (or the cancellation, if that
+         * is what caused it).
          */
         if (lastExc != null) {
             IOUtil.closeAllQuietly(closeables);
+            if (control.isCancelled())
+                throw control.translate(lastExc);
             throw new IOException("Errors during parallel scanners. One of exceptions enclosed.", lastExc);
         }
+        return scanners;
+    }
+
+    /**
+     * Hand the scanner over to the query control, so that it gets closed if
+     * the query is cancelled. If it is already cancelled, the scanner is
+     * closed right away.
+     */
+    private ScanSpecScanner register(ScanSpecScanner scanner) throws IOException {
+        if (!control.register(scanner)) {
+            try {
+                scanner.close();
+            } catch (IOException exc) {
+                s_log.warn("Error while closing scanner of a cancelled query.", exc);
+            }
+            control.check();
+            throw new IOException("Query closed");
+        }
+        return scanner;
+    }
+
+    /**
+     * Group each of the scanners, merge them and group the merge applying
+     * slice operations of the scans.
+     */
+    private InputIterator<RawScanResult> mergeAndGroup(List<ScanSpecScanner> scanners,
+                                                       ScanSpec spec,
+                                                       ExecutionOptions options) throws IOException {
 
         @SuppressWarnings("unchecked")
-        InputIterator<RawScanResult>[] inputs = new InputIterator[filteringScanners.size()];
+        InputIterator<RawScanResult>[] inputs = new InputIterator[scanners.size()];
 
         int i = 0;
-        for (FilteringScanSpecScanner filteredScanner : filteringScanners) {
-
-            GroupingScanStrategy gsc = new GroupingScanStrategy(filteredScanner.getScanSpec(), afr, false);
-            final InputIterator<RawScanResult> groupingScanner =
-                new GroupingIterator<RawScanResult, RawScanResult>(filteredScanner, gsc);
+        for (ScanSpecScanner scanner : scanners) {
+
+            GroupingScanStrategy gsc = new GroupingScanStrategy(scanner.getScanSpec(), afr, false);
+            final InputIterator<RawScanResult> groupingScanner;
+            if (scanner.getScanSpec().getGroupKeyFields() == null)
+                groupingScanner = new GroupingIterator<RawScanResult, RawScanResult>(scanner, gsc);
+            else
+                groupingScanner =
+                    new HashGroupingIterator(scanner,
+                                             scanner.getScanSpec(),
+                                             gsc,
+                                             options.getHashGroupingMemoryLimit(),
+                                             options.getSpillDir());
             closeables.addFirst(groupingScanner);
             inputs[i++] = groupingScanner;
         }
-        filteringScanners = null;
 
         InputIterator<RawScanResult> mergingIter;
 
@@ -188,8 +418,8 @@ public class AggregateResultSetImpl implements AggregateResultSet, AggregateResu
              * merge in order to proceed.
              */
 
-            StatefulHeapSortMergeStrategy<RawScanResult> sortMergeStrategy =
-                new StatefulHeapSortMergeStrategy<RawScanResult>(new RawScanResult.GroupComparator());
+            LoserTreeMergeStrategy<RawScanResult> sortMergeStrategy =
+                new LoserTreeMergeStrategy<RawScanResult>(new RawScanResult.GroupComparator());
             mergingIter = new NWayMergingIterator<RawScanResult>(inputs, sortMergeStrategy, false);
             closeables.addFirst(mergingIter);
         } else {
@@ -200,33 +430,154 @@ public class AggregateResultSetImpl implements AggregateResultSet, AggregateResu
 
         /*
          * final grouping decoration -- we need to add this if we have merging
-         * AND grouping is enabled. The following condition checks just for
-         * that.
+         * (a single input is already grouped, either while streaming or in a
+         * hash table).
          */
-        if (!(mergingIter instanceof GroupingIterator)) {
+        if (inputs.length > 1) {
 
             // grouping enabled. Decorate with grouping iterator.
             GroupingScanStrategy gsc = new GroupingScanStrategy(spec, afr, true);
-            delegate = new GroupingIterator<RawScanResult, RawScanResult>(mergingIter, gsc);
-            closeables.addFirst(delegate);
+            InputIterator<RawScanResult> groupingIter =
+                new GroupingIterator<RawScanResult, RawScanResult>(mergingIter, gsc);
+            closeables.addFirst(groupingIter);
+            return groupingIter;
         } else {
             // no grouping. no decoration.
-            delegate = mergingIter;
+            return mergingIter;
+        }
+    }
+
+    /**
+     * Create scanner for the scan spec: region-side aggregating one if
+     * requested, falling back to the client-side filtering scan only if the
+     * endpoint is not deployed for the cuboid table (or is too old for the
+     * call). Decorate it with prefetching, if requested.
+     * <P>
+     * 
+     * Client side scans spanning more than one region are split at the region
+     * boundaries if the query asks for parallel scans (region parts are then
+     * prefetched anyway). Scan specs shared with the other queries of a batch
+     * are served by the shared scan instead, and are never split.
+     */
+    private ScanSpecScanner createScanner(ScanSpec scanSpec,
+                                          ExecutorService es,
+                                          HTablePool tpool,
+                                          byte[] startSplitKey,
+                                          byte[] endSplitKey,
+                                          String enforcedCuboidTableName,
+                                          ExecutionOptions options,
+                                          ParallelScanContext psc) throws IOException {
+        SharedScans sharedScans = options.getSharedScans();
+        boolean shared = sharedScans != null && sharedScans.isShared(scanSpec);
+        if (psc != null && !shared && !isRegionSide(scanSpec, options)) {
+            List<ScanSplit> splits =
+                SplitScanSpecScanner.split(scanSpec, tpool, psc, startSplitKey, endSplitKey, enforcedCuboidTableName);
+            if (splits.size() > 1)
+                return new SplitScanSpecScanner(
+                    scanSpec,
+                    es,
+                    tpool,
+                    options.getScanCaching(),
+                    options.getCachingPolicy(),
+                    splits,
+                    psc,
+                    options.getPrefetchDepth(),
+                    options.getPrefetchMemoryLimit());
+        }
+
+        AbstractScanSpecScanner scanner;
+        if (shared)
+            scanner = sharedScans.open(scanSpec);
+        else
+            scanner = createRawScanner(scanSpec, tpool, startSplitKey, endSplitKey, enforcedCuboidTableName, options);
+        if (options.getPrefetchDepth() <= 0)
+            return scanner;
+        try {
+            int batchSize = scanner.getScanStatistics().getCaching();
+            return new PrefetchingScanSpecScanner(
+                scanner,
+                es,
+                options.getPrefetchDepth(),
+                batchSize > 0 ? batchSize : FilteringScanSpecScanner.CACHING,
+                options.getPrefetchMemoryLimit());
+        } catch (RejectedExecutionException exc) {
+            s_log.warn("Unable to schedule prefetching, continuing without it.");
+            return scanner;
         }
     }
 
+    private AbstractScanSpecScanner createRawScanner(ScanSpec scanSpec,
+                                                     HTablePool tpool,
+                                                     byte[] startSplitKey,
+                                                     byte[] endSplitKey,
+                                                     String enforcedCuboidTableName,
+                                                     ExecutionOptions options) throws IOException {
+        if (isRegionSide(scanSpec, options)) {
+            try {
+                return new RegionAggregatingScanner(
+                    scanSpec,
+                    tpool,
+                    options.getCubeModelYaml(),
+                    startSplitKey,
+                    endSplitKey,
+                    enforcedCuboidTableName);
+            } catch (IOException exc) {
+                /*
+                 * timeouts, cancellations and region server failures would
+                 * only get worse with a full client-side scan.
+                 */
+                if (control.isCancelled())
+                    throw control.translate(exc);
+                if (!RegionAggregatingScanner.isEndpointUnavailable(exc))
+                    throw exc;
+                s_log.warn(String.format("Region-side aggregation is not available for cuboid %s, falling back to client side.",
+                                         scanSpec.getCuboid().getCuboidTableName()),
+                           exc);
+            }
+        }
+        return new FilteringScanSpecScanner(
+            scanSpec,
+            tpool,
+            options.getScanCaching(),
+            options.getCachingPolicy(),
+            startSplitKey,
+            endSplitKey,
+            enforcedCuboidTableName);
+    }
+
+    /**
+     * the endpoint only groups by the key prefix, so hash grouped scans are
+     * always aggregated on the client.
+     */
+    static boolean isRegionSide(ScanSpec scanSpec, ExecutionOptions options) {
+        return options.isRegionSideAggregation() && options.getCubeModelYaml() != null
+            && scanSpec.getGroupKeyFields() == null;
+    }
+
     @Override
     public boolean hasNext() throws IOException {
-        return delegate.hasNext();
+        control.check();
+        try {
+            return delegate.hasNext();
+        } catch (IOException exc) {
+            throw control.translate(exc);
+        }
     }
 
     @Override
     public void next() throws IOException {
-        delegate.next();
+        control.check();
+        try {
+            delegate.next();
+        } catch (IOException exc) {
+            throw control.translate(exc);
+        }
         if (result == null)
-            result = new Aggregation[delegate.current().getMeasures().length];
+            result = new Aggregation[delegate.current().getMeasureCount()];
         else
             Arrays.fill(result, null);
+        for (int i = 0; i < memberHandles.size(); i++)
+            memberHandles.get(i).decoded = false;
 
     }
 
@@ -245,47 +596,300 @@ public class AggregateResultSetImpl implements AggregateResultSet, AggregateResu
         IOUtil.closeAll(closeables);
     }
 
+    @Override
+    public void cancel() {
+        control.cancel();
+    }
+
+    @Override
+    public List<ScanStatistics> getScanStatistics() {
+        List<ScanStatistics> stats = new ArrayList<ScanStatistics>(scanSpecScanners.size());
+        for (ScanSpecScanner scanner : scanSpecScanners) {
+            ScanStatistics ss = scanner.getScanStatistics();
+            if (ss != null)
+                stats.add(ss);
+        }
+        return stats;
+    }
+
     @Override
     public Object getAggregate(String measure, String functionName) throws HblException {
-        try {
-            Integer index = measureName2IndexMap.get(measure);
+        Integer index = measureName2IndexMap.get(measure);
+        if (index == null)
+            throw new HblException(String.format("Invalid measure name:%s.", measure));
+        AggregateFunction af = afr.findFunction(functionName);
+        if (af == null)
+            throw new HblException(String.format("Invalid function name:%s.", functionName));
+        return getAggrValue(index, af);
+    }
+
+    @Override
+    public Object getGroupMember(String dimensionName) throws HblException {
+        return getGroupMember(resolveGroupMember(dimensionName));
+    }
+
+    @Override
+    public int resolveAggregate(String measure, String functionName) throws HblException {
+        Integer index = measureName2IndexMap.get(measure);
+        if (index == null)
+            throw new HblException(String.format("Invalid measure name:%s.", measure));
+        AggregateFunction af = afr.findFunction(functionName);
+        if (af == null)
+            throw new HblException(String.format("Invalid function name:%s.", functionName));
+        for (int i = 0; i < aggregateHandles.size(); i++) {
+            AggregateHandle ah = aggregateHandles.get(i);
+            if (ah.index == index && ah.af == af)
+                return i;
+        }
+        aggregateHandles.add(new AggregateHandle(index, af));
+        return aggregateHandles.size() - 1;
+    }
+
+    @Override
+    public int resolveGroupMember(String dimensionName) throws HblException {
+        for (int i = 0; i < memberHandles.size(); i++)
+            if (memberHandles.get(i).dimensionName.equals(dimensionName))
+                return i;
+        Integer offset = dim2GroupKeyOffsetMap.get(dimensionName);
+        if (offset == null)
+            throw new HblException(String.format("Dimension '%s' is not part of the group.", dimensionName));
+
+        Dimension dim = groupDimName2Dimension.get(dimensionName);
+        Validate.notNull(dim);
+
+        memberHandles.add(new GroupMemberHandle(dimensionName, dim, offset));
+        return memberHandles.size() - 1;
+    }
+
+    @Override
+    public Object getAggregate(int handle) throws HblException {
+        AggregateHandle ah = aggregateHandles.get(handle);
+        return getAggrValue(ah.index, ah.af);
+    }
+
+    @Override
+    public double getDouble(int handle) throws HblException {
+        AggregateHandle ah = aggregateHandles.get(handle);
+        RawScanResult row = currentRow();
+        if (ah.af instanceof PrimitiveAggregateFunction && row.isPrimitive(ah.index))
+            return row.getDoubleValue(ah.index, (PrimitiveAggregateFunction) ah.af);
+        Object value = getAggrValue(ah.index, ah.af);
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+
+    @Override
+    public long getLong(int handle) throws HblException {
+        AggregateHandle ah = aggregateHandles.get(handle);
+        RawScanResult row = currentRow();
+        if (ah.af instanceof PrimitiveAggregateFunction && row.isPrimitive(ah.index))
+            return (long) row.getDoubleValue(ah.index, (PrimitiveAggregateFunction) ah.af); // NaN is 0
+        Object value = getAggrValue(ah.index, ah.af);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    @Override
+    public Object getGroupMember(int handle) throws HblException {
+        GroupMemberHandle mh = memberHandles.get(handle);
+        if (!mh.decoded) {
+            mh.member = mh.dimension.getMember(currentRow().getGroup(), mh.offset);
+            mh.decoded = true;
+        }
+        return mh.member;
+    }
+
+    @Override
+    public long getEpochMillis(int handle) throws HblException {
+        GroupMemberHandle mh = memberHandles.get(handle);
+        if (mh.dimension instanceof SimpleTimeHourHierarchy)
+            return ((SimpleTimeHourHierarchy) mh.dimension).getEpochMillis(currentRow().getGroup(), mh.offset);
+        if (mh.dimension instanceof SimpleDateHierarchy)
+            return ((SimpleDateHierarchy) mh.dimension).getEpochMillis(currentRow().getGroup(), mh.offset);
+        Object member = getGroupMember(handle);
+        if (member instanceof Calendar)
+            return ((Calendar) member).getTimeInMillis();
+        if (member instanceof Date)
+            return ((Date) member).getTime();
+        throw new HblException(String.format("Dimension '%s' is not a time dimension.", mh.dimensionName));
+    }
+
+    /**
+     * Order the results by a function of a measure and/or cut them off after
+     * a limit. Must be called before iteration starts.
+     * 
+     * @param measure
+     *            measure to order by, null if no order is required.
+     * @param functionName
+     *            function of the measure to order by.
+     * @param descending
+     * @param limit
+     *            max number of results, negative if unlimited.
+     */
+    void orderByAggregate(final String measure, String functionName, boolean descending, int limit)
+        throws HblException {
+        TopNIterator.SortKey sortKey = null;
+        if (measure != null) {
+            final Integer index = measureName2IndexMap.get(measure);
             if (index == null)
                 throw new HblException(String.format("Invalid measure name:%s.", measure));
-            AggregateFunction af = afr.findFunction(functionName);
+            final AggregateFunction af = afr.findFunction(functionName);
             if (af == null)
                 throw new HblException(String.format("Invalid function name:%s.", functionName));
-            if (result == null)
-                throw new HblException("no current result");
-            Aggregation measureAggr = result[index];
-            if (measureAggr == null) {
-                Aggregation.Builder b = delegate.current().getMeasures()[index];
-                result[index] = b == null ? null : (measureAggr = b.build()); // cache
-            }
+            sortKey = new TopNIterator.SortKey() {
 
-            return af.getAggrValue(measureAggr);
-        } catch (IOException exc) {
-            throw new HblException(exc.getMessage(), exc);
+                @Override
+                public Object evaluate(RawScanResult row) throws IOException {
+                    return row.getAggrValue(index, af);
+                }
+            };
         }
+        orderBy(sortKey, descending, limit);
+    }
 
+    /**
+     * Order the results by a group member and/or cut them off after a limit.
+     * Must be called before iteration starts.
+     * 
+     * @param dimensionName
+     *            dimension of the group to order by.
+     * @param descending
+     * @param limit
+     *            max number of results, negative if unlimited.
+     */
+    void orderByGroupMember(final String dimensionName, boolean descending, int limit) throws HblException {
+        if (!dim2GroupKeyOffsetMap.containsKey(dimensionName))
+            throw new HblException(String.format("Dimension '%s' is not part of the group.", dimensionName));
+        orderBy(new TopNIterator.SortKey() {
+
+            @Override
+            public Object evaluate(RawScanResult row) throws IOException {
+                try {
+                    return getGroupMember(row, dimensionName);
+                } catch (HblException exc) {
+                    throw new IOException(exc);
+                }
+            }
+        }, descending, limit);
     }
 
-    @Override
-    public Object getGroupMember(String dimensionName) throws HblException {
+    private void orderBy(TopNIterator.SortKey sortKey, boolean descending, int limit) {
+        Validate.isTrue(result == null, "iteration has already started");
+        delegate = new TopNIterator(delegate, sortKey, descending, limit);
+        closeables.addFirst(delegate);
+    }
+
+    /**
+     * Snapshot of the current result that stays valid after the result set
+     * has moved on or has been closed.
+     */
+    AggregateResult detach() throws IOException {
+        return new DetachedResult(detachRow());
+    }
+
+    RawScanResult detachRow() throws IOException {
         if (result == null)
-            throw new HblException("no current result");
+            throw new IOException("no current result");
         try {
-            Integer offset = dim2GroupKeyOffsetMap.get(dimensionName);
-            if (offset == null)
-                throw new HblException(String.format("Dimension '%s' is not part of the group.", dimensionName));
-
-            byte[] group = delegate.current().getGroup();
-            Dimension dim = groupDimName2Dimension.get(dimensionName);
-            Validate.notNull(dim);
+            return (RawScanResult) delegate.current().clone();
+        } catch (CloneNotSupportedException exc) {
+            throw new IOException(exc.getMessage(), exc);
+        }
+    }
 
-            return dim.getMember(group, offset);
+    private RawScanResult currentRow() throws HblException {
+        if (result == null)
+            throw new HblException("no current result");
+        try {
+            return delegate.current();
         } catch (IOException exc) {
             throw new HblException(exc.getMessage(), exc);
         }
+    }
+
+    private Object getAggrValue(int index, AggregateFunction af) throws HblException {
+        RawScanResult row = currentRow();
+        if (af instanceof PrimitiveAggregateFunction && row.isPrimitive(index))
+            return row.getAggrValue(index, af);
+        Aggregation measureAggr = result[index];
+        if (measureAggr == null) {
+            Aggregation.Builder b = row.getMeasure(index);
+            result[index] = b == null ? null : (measureAggr = b.build()); // cache
+        }
+        return af.getAggrValue(measureAggr);
+    }
+
+    private Object getAggregate(RawScanResult row, String measure, String functionName) throws HblException {
+        Integer index = measureName2IndexMap.get(measure);
+        if (index == null)
+            throw new HblException(String.format("Invalid measure name:%s.", measure));
+        AggregateFunction af = afr.findFunction(functionName);
+        if (af == null)
+            throw new HblException(String.format("Invalid function name:%s.", functionName));
+        return row.getAggrValue(index, af);
+    }
+
+    private Object getGroupMember(RawScanResult row, String dimensionName) throws HblException {
+        Integer offset = dim2GroupKeyOffsetMap.get(dimensionName);
+        if (offset == null)
+            throw new HblException(String.format("Dimension '%s' is not part of the group.", dimensionName));
+
+        Dimension dim = groupDimName2Dimension.get(dimensionName);
+        Validate.notNull(dim);
+
+        return dim.getMember(row.getGroup(), offset);
+    }
+
+    private static class AggregateHandle {
+        private final int               index;
+        private final AggregateFunction af;
+
+        AggregateHandle(int index, AggregateFunction af) {
+            super();
+            this.index = index;
+            this.af = af;
+        }
+    }
+
+    /**
+     * Group dimension of a handle and its member decoded for the current
+     * result, if any.
+     */
+    private static class GroupMemberHandle {
+        private final String    dimensionName;
+        private final Dimension dimension;
+        private final int       offset;
+        private Object          member;
+        private boolean         decoded;
+
+        GroupMemberHandle(String dimensionName, Dimension dimension, int offset) {
+            super();
+            this.dimensionName = dimensionName;
+            this.dimension = dimension;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * Result detached from the result set, see {@link #detach()}.
+     * 
+     */
+    class DetachedResult implements AggregateResult {
+
+        private final RawScanResult row;
+
+        DetachedResult(RawScanResult row) {
+            super();
+            this.row = row;
+        }
+
+        @Override
+        public Object getAggregate(String measure, String functionName) throws HblException {
+            return AggregateResultSetImpl.this.getAggregate(row, measure, functionName);
+        }
+
+        @Override
+        public Object getGroupMember(String dimensionName) throws HblException {
+            return AggregateResultSetImpl.this.getGroupMember(row, dimensionName);
+        }
 
     }
 
@@ -0,0 +1,103 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import org.apache.log4j.Logger;
+
+import com.inadco.hbl.client.AggregateResultSet;
+
+/**
+ * Future of an asynchronous query execution. Knows the result set of the
+ * execution once it is there, so that cancelling the future cancels the
+ * query.
+ * <P>
+ * 
+ * The execution thread is never interrupted, whatever the caller asks for
+ * (see {@link QueryControl}): if the result set is there, it is cancelled,
+ * which closes its scanners; otherwise the execution closes it as soon as it
+ * is opened.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ * @param <V>
+ *            result of the execution
+ */
+public class AsyncExecution<V> extends FutureTask<V> {
+
+    private static final Logger s_log = Logger.getLogger(AsyncExecution.class);
+
+    private final boolean       resultSetReturned;
+    private AggregateResultSet  resultSet;
+
+    /**
+     * 
+     * @param callable
+     *            the execution
+     * @param resultSetReturned
+     *            true if the execution returns the result set (and hence the
+     *            result set is lost if the future is cancelled), false if the
+     *            execution closes it itself.
+     */
+    public AsyncExecution(Callable<V> callable, boolean resultSetReturned) {
+        super(callable);
+        this.resultSetReturned = resultSetReturned;
+    }
+
+    /**
+     * Hand the result set of the execution over to the future.
+     * 
+     * @return false if the future has already been cancelled, in which case
+     *         the result set is closed.
+     */
+    public synchronized boolean started(AggregateResultSet resultSet) throws IOException {
+        if (isCancelled()) {
+            resultSet.close();
+            return false;
+        }
+        this.resultSet = resultSet;
+        return true;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(false);
+        if (cancelled) {
+            synchronized (this) {
+                if (resultSet != null) {
+                    if (!resultSetReturned)
+                        resultSet.cancel();
+                    else {
+                        try {
+                            resultSet.close();
+                        } catch (IOException exc) {
+                            s_log.warn("Error while closing result set of a cancelled execution.", exc);
+                        }
+                    }
+                }
+            }
+        }
+        return cancelled;
+    }
+
+}
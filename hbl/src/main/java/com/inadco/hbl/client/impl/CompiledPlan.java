@@ -0,0 +1,117 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl;
+
+import java.util.Map;
+
+import com.inadco.hbl.api.Cuboid;
+
+/**
+ * Part of the query plan that doesn't depend on the slice bounds: the cuboid
+ * chosen, the group key layout and the measures requested. Only the scan
+ * ranges need to be generated again to execute the same query with different
+ * slice bounds.
+ * <P>
+ * 
+ * Shared by the executions, so none of it may be changed once compiled.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+class CompiledPlan {
+
+    private final Cuboid               cuboid;
+    private final Map<String, Integer> dimName2GroupKeyOffsetMap;
+    private final Map<String, Integer> measureName2indexMap;
+    private final int                  groupKeyLen;
+    private final int[]                groupKeyFields;
+    private final byte[][]             measureQualifiers;
+    private final String[][]           measureFunctions;
+    private final HavingPredicate[]    having;
+    private final boolean              havingPushdown;
+
+    CompiledPlan(Cuboid cuboid,
+                 Map<String, Integer> dimName2GroupKeyOffsetMap,
+                 Map<String, Integer> measureName2indexMap,
+                 int groupKeyLen,
+                 int[] groupKeyFields,
+                 byte[][] measureQualifiers,
+                 String[][] measureFunctions,
+                 HavingPredicate[] having,
+                 boolean havingPushdown) {
+        super();
+        this.cuboid = cuboid;
+        this.dimName2GroupKeyOffsetMap = dimName2GroupKeyOffsetMap;
+        this.measureName2indexMap = measureName2indexMap;
+        this.groupKeyLen = groupKeyLen;
+        this.groupKeyFields = groupKeyFields;
+        this.measureQualifiers = measureQualifiers;
+        this.measureFunctions = measureFunctions;
+        this.having = having;
+        this.havingPushdown = havingPushdown;
+    }
+
+    Cuboid getCuboid() {
+        return cuboid;
+    }
+
+    Map<String, Integer> getDimName2GroupKeyOffsetMap() {
+        return dimName2GroupKeyOffsetMap;
+    }
+
+    Map<String, Integer> getMeasureName2indexMap() {
+        return measureName2indexMap;
+    }
+
+    int getGroupKeyLen() {
+        return groupKeyLen;
+    }
+
+    /**
+     * @return group key fields (see
+     *         {@link com.inadco.hbl.client.impl.scanner.ScanSpec#getGroupKeyFields()}
+     *         ), null if the groups come out of the scans in order.
+     */
+    int[] getGroupKeyFields() {
+        return groupKeyFields;
+    }
+
+    byte[][] getMeasureQualifiers() {
+        return measureQualifiers;
+    }
+
+    String[][] getMeasureFunctions() {
+        return measureFunctions;
+    }
+
+    HavingPredicate[] getHaving() {
+        return having;
+    }
+
+    /**
+     * @return true if every group is a single cuboid row, so HAVING may be
+     *         evaluated on the region side as long as nothing is subtracted
+     *         from the groups by complement scans.
+     */
+    boolean isHavingPushdown() {
+        return havingPushdown;
+    }
+
+}
@@ -0,0 +1,288 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.inadco.hbl.client.QueryMetrics;
+import com.inadco.hbl.client.QueryPriority;
+import com.inadco.hbl.client.ScannerCachingPolicy;
+import com.inadco.hbl.client.impl.scanner.SharedScans;
+
+/**
+ * Per-query execution settings passed on to the result set at the time of
+ * execution.
+ * <P>
+ * 
+ * Query objects keep their own instance and hand off a copy to each result
+ * set they create, so that changing query settings doesn't affect result sets
+ * already running.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class ExecutionOptions implements Cloneable {
+
+    private boolean                  regionSideAggregation;
+    private String                   cubeModelYaml;
+    private int                      prefetchDepth;
+    private long                     prefetchMemoryLimit;
+    private int                      scanCaching;
+    private ScannerCachingPolicy     cachingPolicy;
+    private QueryResultCache         resultCache;
+    private boolean                  hashGrouping;
+    private long                     hashGroupingMemoryLimit;
+    private File                     spillDir;
+    private int                      scanParallelism;
+    private int                      regionServerScanParallelism;
+    private long                     timeout;
+    private ScheduledExecutorService deadlineTimer;
+    private QueryMetrics             queryMetrics;
+    private QueryPriority            priority = QueryPriority.INTERACTIVE;
+    private Closeable                admission;
+    private SharedScans              sharedScans;
+
+    public ExecutionOptions() {
+        super();
+    }
+
+    /**
+     * @return true if scans are to be partially aggregated on the region side
+     *         (if the cuboid tables have the endpoint deployed).
+     */
+    public boolean isRegionSideAggregation() {
+        return regionSideAggregation;
+    }
+
+    public void setRegionSideAggregation(boolean regionSideAggregation) {
+        this.regionSideAggregation = regionSideAggregation;
+    }
+
+    /**
+     * @return the cube model the region side is to re-create aggregate
+     *         functions from.
+     */
+    public String getCubeModelYaml() {
+        return cubeModelYaml;
+    }
+
+    public void setCubeModelYaml(String cubeModelYaml) {
+        this.cubeModelYaml = cubeModelYaml;
+    }
+
+    /**
+     * @return max number of batches each scan is fetched ahead of the merge
+     *         (0 if prefetching is off).
+     */
+    public int getPrefetchDepth() {
+        return prefetchDepth;
+    }
+
+    public void setPrefetchDepth(int prefetchDepth) {
+        this.prefetchDepth = prefetchDepth;
+    }
+
+    /**
+     * @return approximate limit of bytes each scan may fetch ahead of the
+     *         merge (0 means unlimited, i.e. limited by the depth only).
+     */
+    public long getPrefetchMemoryLimit() {
+        return prefetchMemoryLimit;
+    }
+
+    public void setPrefetchMemoryLimit(long prefetchMemoryLimit) {
+        this.prefetchMemoryLimit = prefetchMemoryLimit;
+    }
+
+    /**
+     * @return scanner caching requested by the query (0 if not requested).
+     */
+    public int getScanCaching() {
+        return scanCaching;
+    }
+
+    public void setScanCaching(int scanCaching) {
+        this.scanCaching = scanCaching;
+    }
+
+    /**
+     * @return client's caching policy for the scans whose caching isn't
+     *         requested by either the query or the cuboid model.
+     */
+    public ScannerCachingPolicy getCachingPolicy() {
+        return cachingPolicy;
+    }
+
+    public void setCachingPolicy(ScannerCachingPolicy cachingPolicy) {
+        this.cachingPolicy = cachingPolicy;
+    }
+
+    /**
+     * @return client's result cache if the query is to use one, or null.
+     */
+    public QueryResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public void setResultCache(QueryResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * @return true if the query may be answered from cuboids that need hash
+     *         grouping.
+     */
+    public boolean isHashGrouping() {
+        return hashGrouping;
+    }
+
+    public void setHashGrouping(boolean hashGrouping) {
+        this.hashGrouping = hashGrouping;
+    }
+
+    /**
+     * @return approximate number of bytes of groups each hash grouped scan may
+     *         keep in memory before it spills them to disk (0 for default).
+     */
+    public long getHashGroupingMemoryLimit() {
+        return hashGroupingMemoryLimit;
+    }
+
+    public void setHashGroupingMemoryLimit(long hashGroupingMemoryLimit) {
+        this.hashGroupingMemoryLimit = hashGroupingMemoryLimit;
+    }
+
+    /**
+     * @return directory for the hash grouping spills, null for the default
+     *         temporary directory.
+     */
+    public File getSpillDir() {
+        return spillDir;
+    }
+
+    public void setSpillDir(File spillDir) {
+        this.spillDir = spillDir;
+    }
+
+    /**
+     * @return max number of region parts of the query's scans running
+     *         concurrently (scans are not split at the region boundaries
+     *         unless it is more than 1).
+     */
+    public int getScanParallelism() {
+        return scanParallelism;
+    }
+
+    public void setScanParallelism(int scanParallelism) {
+        this.scanParallelism = scanParallelism;
+    }
+
+    /**
+     * @return max number of region parts of the query's scans running
+     *         concurrently on the same region server (0 if not limited other
+     *         than by the scan parallelism).
+     */
+    public int getRegionServerScanParallelism() {
+        return regionServerScanParallelism;
+    }
+
+    public void setRegionServerScanParallelism(int regionServerScanParallelism) {
+        this.regionServerScanParallelism = regionServerScanParallelism;
+    }
+
+    /**
+     * @return time the query may take, ms (0 if unlimited).
+     */
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @return client's scheduler for the query deadlines.
+     */
+    public ScheduledExecutorService getDeadlineTimer() {
+        return deadlineTimer;
+    }
+
+    public void setDeadlineTimer(ScheduledExecutorService deadlineTimer) {
+        this.deadlineTimer = deadlineTimer;
+    }
+
+    /**
+     * @return client's query metrics, may be null.
+     */
+    public QueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    public void setQueryMetrics(QueryMetrics queryMetrics) {
+        this.queryMetrics = queryMetrics;
+    }
+
+    public QueryPriority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(QueryPriority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * @return admission of the execution (a {@link QueryScheduler.Ticket} or
+     *         a share of one), released once the result set is closed. null
+     *         if the execution didn't go thru the scheduler.
+     */
+    public Closeable getAdmission() {
+        return admission;
+    }
+
+    public void setAdmission(Closeable admission) {
+        this.admission = admission;
+    }
+
+    /**
+     * @return scans shared with the other queries of the batch the execution
+     *         is part of, null if none.
+     */
+    public SharedScans getSharedScans() {
+        return sharedScans;
+    }
+
+    public void setSharedScans(SharedScans sharedScans) {
+        this.sharedScans = sharedScans;
+    }
+
+    @Override
+    public ExecutionOptions clone() {
+        try {
+            return (ExecutionOptions) super.clone();
+        } catch (CloneNotSupportedException exc) {
+            // should not happen
+            throw new IllegalStateException(exc);
+        }
+    }
+
+}
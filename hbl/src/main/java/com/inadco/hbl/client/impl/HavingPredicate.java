@@ -0,0 +1,178 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * HAVING predicate: comparison of a function of a measure to a constant,
+ * e.g. <code>SUM(click) &gt; 100</code>.
+ * <P>
+ * 
+ * Function values are compared as doubles. Comparison to an undefined (null)
+ * function value never holds, same as with SQL nulls.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class HavingPredicate {
+
+    public enum Op {
+        GT(">"), GE(">="), LT("<"), LE("<="), EQ("="), NE("<>");
+
+        private String symbol;
+
+        private Op(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        boolean holds(int cmp) {
+            switch (this) {
+            case GT:
+                return cmp > 0;
+            case GE:
+                return cmp >= 0;
+            case LT:
+                return cmp < 0;
+            case LE:
+                return cmp <= 0;
+            case EQ:
+                return cmp == 0;
+            default:
+                return cmp != 0;
+            }
+        }
+
+        public static Op fromSymbol(String symbol) {
+            for (Op op : values())
+                if (op.symbol.equals(symbol))
+                    return op;
+            throw new IllegalArgumentException(String.format("Invalid comparison operator '%s'.", symbol));
+        }
+    }
+
+    private String functionName;
+    private String measure;
+    private Op     op;
+    private double value;
+    private int    measureIndex = -1;
+
+    public HavingPredicate(String functionName, String measure, Op op, double value) {
+        super();
+        Validate.notNull(functionName);
+        Validate.notNull(measure);
+        Validate.notNull(op);
+        this.functionName = functionName;
+        this.measure = measure;
+        this.op = op;
+        this.value = value;
+    }
+
+    public String getFunctionName() {
+        return functionName;
+    }
+
+    public String getMeasure() {
+        return measure;
+    }
+
+    public Op getOp() {
+        return op;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * @return index of the measure in the scan specs, -1 if not planned yet.
+     */
+    public int getMeasureIndex() {
+        return measureIndex;
+    }
+
+    public void setMeasureIndex(int measureIndex) {
+        this.measureIndex = measureIndex;
+    }
+
+    /**
+     * @param aggrValue
+     *            value of the function of the measure for a group
+     * @return true if the group passes
+     */
+    public boolean holds(Object aggrValue) {
+        if (aggrValue == null)
+            return false;
+        return op.holds(Double.compare(((Number) aggrValue).doubleValue(), value));
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeUTF(functionName);
+        out.writeUTF(measure);
+        out.writeByte(op.ordinal());
+        out.writeDouble(value);
+        out.writeInt(measureIndex);
+    }
+
+    public static HavingPredicate read(DataInput in) throws IOException {
+        String functionName = in.readUTF();
+        String measure = in.readUTF();
+        Op op = Op.values()[in.readByte()];
+        HavingPredicate predicate = new HavingPredicate(functionName, measure, op, in.readDouble());
+        predicate.setMeasureIndex(in.readInt());
+        return predicate;
+    }
+
+    public static byte[] toBytes(HavingPredicate[] predicates) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        dos.writeInt(predicates.length);
+        for (HavingPredicate predicate : predicates)
+            predicate.write(dos);
+        dos.close();
+        return bos.toByteArray();
+    }
+
+    public static HavingPredicate[] fromBytes(byte[] bytes) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(bytes));
+        HavingPredicate[] predicates = new HavingPredicate[dis.readInt()];
+        for (int i = 0; i < predicates.length; i++)
+            predicates[i] = read(dis);
+        return predicates;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s(%s) %s %s", functionName, measure, op.getSymbol(), value);
+    }
+
+}
@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 
 import org.antlr.runtime.ANTLRStringStream;
@@ -64,6 +65,14 @@ public class PreparedAggregateQueryImpl extends AggregateQueryImpl implements Pr
     private Map<Integer, Object> parameters        = new HashMap<Integer, Object>();
     private Map<Integer, Object> resultDefsByIndex = new HashMap<Integer, Object>();
     private Map<String, Object>  resultDefsByAlias = new LinkedHashMap<String, Object>();
+    private String               orderBy;
+    private boolean              orderDescending;
+    private int                  limit             = -1;
+    private long                 statementTimeout;
+    /**
+     * plan of the last execution, reused while only slice bounds change.
+     */
+    private CompiledPlan         compiledPlan;
 
     public PreparedAggregateQueryImpl(HblQueryClient client, ExecutorService es, HTablePool tpool) {
         super(client, es, tpool);
@@ -76,23 +85,32 @@ public class PreparedAggregateQueryImpl extends AggregateQueryImpl implements Pr
         // reset query params, etc.
         reset();
         selectAST = null;
+        qVisitor.reset();
+        compiledPlan = null;
 
         Validate.notNull(statement);
+        StatementCache statementCache = client.getStatementCache();
+        if (statementCache != null && (selectAST = statementCache.get(statement)) != null)
+            return;
+
         lexer.reset();
         lexer.setCharStream(new ANTLRStringStream(statement));
         parser.reset();
         parser.setTokenStream(new CommonTokenStream(lexer));
         try {
             HBLQueryASTParser.select_return r = parser.select();
-            selectAST = (Tree) r.getTree();
+            Tree ast = (Tree) r.getTree();
             // if (parser.getNumberOfSyntaxErrors() > 0)
             if (errors.getErrors().size() > 0) {
                 throw new HblException(errors.formatErrors());
             }
+            selectAST = ast;
 
         } catch (RecognitionException exc) {
             throw new HblException(exc.getMessage());
         }
+        if (statementCache != null)
+            statementCache.put(statement, selectAST);
 
     }
 
@@ -101,9 +119,26 @@ public class PreparedAggregateQueryImpl extends AggregateQueryImpl implements Pr
         parameters.put(param, value);
     }
 
+    @Override
+    public PreparedAggregateQuery setOrderBy(String alias, boolean descending) {
+        orderBy = alias;
+        orderDescending = descending;
+        return this;
+    }
+
+    @Override
+    public PreparedAggregateQuery setLimit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
     protected void reset() {
         super.reset();
         parameters.clear();
+        orderBy = null;
+        orderDescending = false;
+        limit = -1;
+        statementTimeout = 0;
 
         /*
          * this kind of better be part of prepare() step although right now we
@@ -123,6 +158,25 @@ public class PreparedAggregateQueryImpl extends AggregateQueryImpl implements Pr
 
     }
 
+    /**
+     * Timeout of the statement's TIMEOUT clause. Takes precedence over
+     * {@link #setTimeout(long)} for this execution only.
+     * 
+     * @param timeout
+     *            ms
+     */
+    void setStatementTimeout(long timeout) {
+        statementTimeout = timeout;
+    }
+
+    @Override
+    protected ExecutionOptions executionOptions() {
+        ExecutionOptions execOptions = super.executionOptions();
+        if (statementTimeout > 0)
+            execOptions.setTimeout(statementTimeout);
+        return execOptions;
+    }
+
     void assignASTParams() throws HblException {
         Validate.notNull(selectAST, "statement not prepared");
         if (prepper == null) {
@@ -139,6 +193,7 @@ public class PreparedAggregateQueryImpl extends AggregateQueryImpl implements Pr
             prepper.select();
             if (prepperErrors.getErrors().size() > 0)
                 throw new HblException(prepperErrors.formatErrors());
+            qVisitor.captureParameters(parameters, prepper.getHblParamCount());
         } catch (RecognitionException exc) {
             throw new HblException(exc.getMessage(), exc);
         }
@@ -148,32 +203,61 @@ public class PreparedAggregateQueryImpl extends AggregateQueryImpl implements Pr
     @Override
     public List<ScanSpec> generateScanSpecs(Map<String, Integer> dimName2GroupKeyOffsetMap,
                                             Map<String, Integer> measureName2indexMap) throws IOException, HblException {
-        assignASTParams();
-        return super.generateScanSpecs(dimName2GroupKeyOffsetMap, measureName2indexMap);
+        /*
+         * re-executing the statement with only the slice bounds changed
+         * doesn't need to walk the tree or plan again, just to generate the
+         * scans for the new bounds.
+         */
+        if (!qVisitor.replay(parameters)) {
+            assignASTParams();
+            compiledPlan = null;
+        }
+        Validate.notNull(cube, "A cube not set");
+        normalizeSlices();
+        if (compiledPlan == null || !isApplicable(compiledPlan))
+            compiledPlan = compile();
+        return generateScanSpecs(compiledPlan, dimName2GroupKeyOffsetMap, measureName2indexMap);
     }
 
     @Override
-    protected AggregateResultSetImpl createResultSet(List<ScanSpec> scanSpecs,
-                                                     ExecutorService es,
-                                                     HTablePool tpool,
-                                                     AggregateFunctionRegistry afr,
-                                                     Map<String, Integer> measureName2IndexMap,
-                                                     Map<String, Integer> dimName2GroupKeyOffsetMap,
-                                                     byte[] startSplitKey,
-                                                     byte[] endSplitKey,
-                                                     String enforcedCuboidTableName) throws IOException {
-        return new PreparedAggregateResultSetImpl(
-            scanSpecs,
-            es,
-            tpool,
-            afr,
-            measureName2IndexMap,
-            dimName2GroupKeyOffsetMap,
-            resultDefsByIndex,
-            resultDefsByAlias,
-            startSplitKey,
-            endSplitKey,
-            enforcedCuboidTableName);
+    protected Callable<AggregateResultSetImpl>
+        createResultSetFactory(final List<ScanSpec> scanSpecs,
+                               final ExecutorService es,
+                               final HTablePool tpool,
+                               final AggregateFunctionRegistry afr,
+                               final Map<String, Integer> measureName2IndexMap,
+                               final Map<String, Integer> dimName2GroupKeyOffsetMap,
+                               final byte[] startSplitKey,
+                               final byte[] endSplitKey,
+                               final String enforcedCuboidTableName,
+                               final ExecutionOptions options) {
+        final Map<Integer, Object> resultDefsByIndex = this.resultDefsByIndex;
+        final Map<String, Object> resultDefsByAlias = this.resultDefsByAlias;
+        final String orderBy = this.orderBy;
+        final boolean orderDescending = this.orderDescending;
+        final int limit = this.limit;
+        return new Callable<AggregateResultSetImpl>() {
+
+            @Override
+            public AggregateResultSetImpl call() throws IOException {
+                return new PreparedAggregateResultSetImpl(
+                    scanSpecs,
+                    es,
+                    tpool,
+                    afr,
+                    measureName2IndexMap,
+                    dimName2GroupKeyOffsetMap,
+                    resultDefsByIndex,
+                    resultDefsByAlias,
+                    startSplitKey,
+                    endSplitKey,
+                    enforcedCuboidTableName,
+                    options,
+                    orderBy,
+                    orderDescending,
+                    limit);
+            }
+        };
     }
 
     /**
@@ -200,6 +284,7 @@ public class PreparedAggregateQueryImpl extends AggregateQueryImpl implements Pr
         def[1] = funcName;
         resultDefsByIndex.put(index, def);
         resultDefsByAlias.put(alias, def);
+        addMeasureFunction(measure, funcName);
     }
 
     /**
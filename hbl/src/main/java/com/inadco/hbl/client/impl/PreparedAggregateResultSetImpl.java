@@ -29,8 +29,12 @@ import org.apache.commons.lang.Validate;
 import org.apache.hadoop.hbase.client.HTablePool;
 
 import com.inadco.hbl.api.AggregateFunctionRegistry;
+import com.inadco.hbl.client.AggregateResult;
+import com.inadco.hbl.client.ColumnarBatch;
 import com.inadco.hbl.client.HblException;
 import com.inadco.hbl.client.PreparedAggregateResult;
+import com.inadco.hbl.client.PreparedAggregateResultSet;
+import com.inadco.hbl.client.impl.scanner.RawScanResult;
 import com.inadco.hbl.client.impl.scanner.ScanSpec;
 
 /**
@@ -41,7 +45,7 @@ import com.inadco.hbl.client.impl.scanner.ScanSpec;
  * @author dmitriy
  * 
  */
-public class PreparedAggregateResultSetImpl extends AggregateResultSetImpl implements PreparedAggregateResult {
+public class PreparedAggregateResultSetImpl extends AggregateResultSetImpl implements PreparedAggregateResultSet {
 
     private Map<String, Object>  resultDefByAlias;
     private Map<Integer, Object> resultDefByIndex;
@@ -57,7 +61,11 @@ public class PreparedAggregateResultSetImpl extends AggregateResultSetImpl imple
                                    Map<String, Object> resultDefByAlias,
                                    byte[] splitStartKey,
                                    byte[] splitEndKey,
-                                   String splitCuboidTableName) throws IOException {
+                                   String splitCuboidTableName,
+                                   ExecutionOptions options,
+                                   String orderBy,
+                                   boolean orderDescending,
+                                   int limit) throws IOException {
         super(scanSpecs,
               es,
               tpool,
@@ -66,9 +74,31 @@ public class PreparedAggregateResultSetImpl extends AggregateResultSetImpl imple
               dimName2GroupKeyOffsetMap,
               splitStartKey,
               splitEndKey,
-              splitCuboidTableName);
+              splitCuboidTableName,
+              options);
         this.resultDefByAlias = resultDefByAlias;
         this.resultDefByIndex = resultDefByIndex;
+
+        if (orderBy != null || limit >= 0) {
+            try {
+                Object def = null;
+                if (orderBy != null) {
+                    def = resultDefByAlias.get(orderBy);
+                    if (def == null)
+                        throw new HblException(String.format("Invalid order by alias:%s.", orderBy));
+                }
+                if (def instanceof String)
+                    orderByGroupMember((String) def, orderDescending, limit);
+                else if (def != null) {
+                    String[] aggrDef = (String[]) def;
+                    orderByAggregate(aggrDef[0], aggrDef[1], orderDescending, limit);
+                } else
+                    orderByAggregate(null, null, false, limit);
+            } catch (HblException exc) {
+                close();
+                throw new IOException(exc.getMessage(), exc);
+            }
+        }
     }
 
     @Override
@@ -98,6 +128,47 @@ public class PreparedAggregateResultSetImpl extends AggregateResultSetImpl imple
         return super.getGroupMember(dim);
     }
 
+    @Override
+    public ColumnarBatch nextBatch(int maxRows) throws IOException, HblException {
+        ColumnarBatch batch = new ColumnarBatch(getAliases(), maxRows);
+        nextBatch(batch);
+        return batch;
+    }
+
+    @Override
+    public int nextBatch(ColumnarBatch batch) throws IOException, HblException {
+        int fieldCnt = getFieldCount();
+        Validate.isTrue(batch.getColumnCount() == fieldCnt, "batch was not created for this result set");
+        // resolve the fields once per batch rather than per row
+        int[] handles = new int[fieldCnt];
+        boolean[] aggregates = new boolean[fieldCnt];
+        for (int i = 0; i < fieldCnt; i++) {
+            Object def = resultDefByIndex.get(i);
+            aggregates[i] = def instanceof String[];
+            if (aggregates[i]) {
+                String[] aggrDef = (String[]) def;
+                handles[i] = resolveAggregate(aggrDef[0], aggrDef[1]);
+            } else
+                handles[i] = resolveGroupMember((String) def);
+        }
+
+        batch.clear();
+        Object[] row = new Object[fieldCnt];
+        while (batch.getRowCount() < batch.getCapacity() && hasNext()) {
+            next();
+            for (int i = 0; i < fieldCnt; i++)
+                row[i] = aggregates[i] ? getAggregate(handles[i]) : getGroupMember(handles[i]);
+            batch.add(row);
+        }
+        batch.pack();
+        return batch.getRowCount();
+    }
+
+    @Override
+    AggregateResult detach() throws IOException {
+        return new PreparedDetachedResult(detachRow());
+    }
+
     @Override
     public List<String> getAliases() throws HblException {
         if (aliasCache == null) {
@@ -111,4 +182,50 @@ public class PreparedAggregateResultSetImpl extends AggregateResultSetImpl imple
         return resultDefByIndex.size();
     }
 
+    /**
+     * Detached result that also answers requests by alias and index.
+     * 
+     */
+    class PreparedDetachedResult extends DetachedResult implements PreparedAggregateResult {
+
+        PreparedDetachedResult(RawScanResult row) {
+            super(row);
+        }
+
+        @Override
+        public Object getObject(String alias) throws HblException {
+            Object def = resultDefByAlias.get(alias);
+            Validate.notNull(def, "Invalid attribute alias requested.");
+
+            return getObject(def);
+        }
+
+        @Override
+        public Object getObject(int index) throws HblException {
+            Object def = resultDefByIndex.get(index);
+            Validate.notNull(def, "Invalid attribute index supplied.");
+
+            return getObject(def);
+        }
+
+        private Object getObject(Object def) throws HblException {
+            if (def instanceof String[]) {
+                String[] aggrDef = (String[]) def;
+                return getAggregate(aggrDef[0], aggrDef[1]);
+            }
+            return getGroupMember((String) def);
+        }
+
+        @Override
+        public List<String> getAliases() throws HblException {
+            return PreparedAggregateResultSetImpl.this.getAliases();
+        }
+
+        @Override
+        public int getFieldCount() throws HblException {
+            return PreparedAggregateResultSetImpl.this.getFieldCount();
+        }
+
+    }
+
 }
@@ -0,0 +1,166 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+import org.apache.hadoop.hbase.client.HTablePool;
+
+import com.inadco.hbl.client.AggregateQuery;
+import com.inadco.hbl.client.AggregateResultSet;
+import com.inadco.hbl.client.HblException;
+import com.inadco.hbl.client.PreparedAggregateQuery;
+import com.inadco.hbl.client.impl.scanner.ScanSpec;
+import com.inadco.hbl.client.impl.scanner.SharedScans;
+import com.inadco.hbl.util.IOUtil;
+
+/**
+ * Execution of a batch of queries sharing the scans: all the queries are
+ * planned first, then client side scan specs of the same cuboid table (across
+ * all the queries) are coalesced into a single hbase scan over the union of
+ * their key ranges (see {@link SharedScans}), and then the queries are started
+ * one by one, each with its own grouping pipeline fed by the shared scans.
+ * <P>
+ * 
+ * The client's scheduler admits the batch as a whole, as a query of the cube
+ * and the priority of the first one, needing the scans and the memory of all
+ * of them. The admission is given back once the last result set of the batch
+ * is closed.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public final class QueryBatch {
+
+    private QueryBatch() {
+    }
+
+    /**
+     * Execute the queries together.
+     * 
+     * @param queries
+     *            queries created by the same client.
+     * @param tablePool
+     * @return result sets, in the order of the queries. Each is expected to
+     *         be closed by the user.
+     * @throws HblException
+     */
+    public static List<AggregateResultSet> execute(List<? extends AggregateQuery> queries, HTablePool tablePool)
+        throws HblException {
+        Validate.notEmpty(queries);
+        List<AggregateQueryImpl.Execution> executions = new ArrayList<AggregateQueryImpl.Execution>(queries.size());
+        for (AggregateQuery query : queries) {
+            Validate.isTrue(query instanceof AggregateQueryImpl, "query is not created by the client");
+            executions.add(((AggregateQueryImpl) query).plan(null, null, null));
+        }
+        return start(executions, tablePool);
+    }
+
+    /**
+     * Execute the prepared query once per parameter set, all executions
+     * together. Settings that are reset after each execution (such as
+     * {@link PreparedAggregateQuery#setOrderBy(String, boolean)}) only apply
+     * to the first parameter set; ORDER BY and LIMIT of the statement apply to
+     * all of them.
+     * 
+     * @param query
+     *            prepared query created by the client.
+     * @param parameterSets
+     *            values of the parameters, by parameter index.
+     * @param tablePool
+     * @return result sets, in the order of the parameter sets. Each is
+     *         expected to be closed by the user.
+     * @throws HblException
+     */
+    public static List<AggregateResultSet> execute(PreparedAggregateQuery query,
+                                                   List<Object[]> parameterSets,
+                                                   HTablePool tablePool) throws HblException {
+        Validate.notEmpty(parameterSets);
+        Validate.isTrue(query instanceof PreparedAggregateQueryImpl, "query is not created by the client");
+        PreparedAggregateQueryImpl paq = (PreparedAggregateQueryImpl) query;
+        List<AggregateQueryImpl.Execution> executions =
+            new ArrayList<AggregateQueryImpl.Execution>(parameterSets.size());
+        for (Object[] parameters : parameterSets) {
+            for (int i = 0; i < parameters.length; i++)
+                paq.setHblParameter(i, parameters[i]);
+            executions.add(paq.plan(null, null, null));
+        }
+        return start(executions, tablePool);
+    }
+
+    private static List<AggregateResultSet> start(List<AggregateQueryImpl.Execution> executions,
+                                                  HTablePool tablePool) throws HblException {
+        /*
+         * scans aggregated on the region side are run by the endpoint, so
+         * there's nothing to share there.
+         */
+        List<ScanSpec> scanSpecs = new ArrayList<ScanSpec>();
+        for (AggregateQueryImpl.Execution execution : executions)
+            for (ScanSpec scanSpec : execution.getScanSpecs())
+                if (!AggregateResultSetImpl.isRegionSide(scanSpec, execution.getExecOptions()))
+                    scanSpecs.add(scanSpec);
+
+        List<AggregateResultSet> resultSets = new ArrayList<AggregateResultSet>(executions.size());
+        SharedScans sharedScans = null;
+        boolean ok = false;
+        try {
+            sharedScans =
+                new SharedScans(scanSpecs,
+                                tablePool,
+                                executions.get(0).getExecOptions().getScanCaching(),
+                                SharedScans.DEFAULT_MEMORY_LIMIT);
+            if (!sharedScans.isEmpty())
+                for (AggregateQueryImpl.Execution execution : executions)
+                    execution.getExecOptions().setSharedScans(sharedScans);
+
+            /*
+             * the batch goes thru the scheduler as a whole, or else its
+             * queries could end up waiting for each other. Each result set
+             * holds a share of the admission.
+             */
+            QueryScheduler.Ticket admission = executions.get(0).admit(executions);
+            try {
+                for (AggregateQueryImpl.Execution execution : executions)
+                    resultSets.add(execution.start(admission.share()));
+            } finally {
+                admission.close();
+            }
+            sharedScans.seal();
+            ok = true;
+            return resultSets;
+        } catch (IOException exc) {
+            throw new HblException(exc.getMessage(), exc);
+        } finally {
+            if (!ok) {
+                try {
+                    IOUtil.closeAllQuietly(resultSets);
+                    if (sharedScans != null)
+                        sharedScans.seal();
+                } catch (IOException exc) {
+                    // the original failure is what's reported.
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,242 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.inadco.hbl.client.QueryCancelledException;
+import com.inadco.hbl.client.QueryMetrics;
+import com.inadco.hbl.client.QueryTimeoutException;
+
+/**
+ * Cancellation and deadline of a single query execution.
+ * <P>
+ * 
+ * Result set registers its scanners and pending scanner constructions here.
+ * Once the query is cancelled (by the caller or by the deadline timer), the
+ * pending constructions are cancelled and the scanners are closed right away,
+ * from whatever thread cancelled the query, so that the consumer blocked in a
+ * scan fails promptly instead of waiting for the region server. The
+ * consumer's failure is then reported as {@link QueryCancelledException} (or
+ * {@link QueryTimeoutException}).
+ * <P>
+ * 
+ * No thread is interrupted, same as with the prefetching scanners: an
+ * interrupt in the middle of an HBase client call may tear down the
+ * connection other queries share. A construction already under way runs to
+ * completion, and the scanner it makes is closed as soon as it is registered
+ * with the cancelled query.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class QueryControl implements Closeable {
+
+    private static final Logger      s_log     = Logger.getLogger(QueryControl.class);
+
+    private static final int         RUNNING   = 0;
+    private static final int         CANCELLED = 1;
+    private static final int         TIMED_OUT = 2;
+    private static final int         CLOSED    = 3;
+
+    private final long               timeout;
+    private final long               deadline;
+    private final QueryMetrics       metrics;
+    private final List<Closeable>    resources = new ArrayList<Closeable>();
+    private final List<Future<?>>    futures   = new ArrayList<Future<?>>();
+    private final ScheduledFuture<?> timer;
+    private volatile int             state;
+
+    /**
+     * 
+     * @param timeout
+     *            time the query may take from now on, ms. 0 if unlimited.
+     * @param timerService
+     *            optional: scheduler to run the deadline timer in. Without
+     *            it, the deadline is only noticed by {@link #check()}.
+     * @param metrics
+     *            optional: metrics to count cancellations in.
+     */
+    public QueryControl(long timeout, ScheduledExecutorService timerService, QueryMetrics metrics) {
+        super();
+        this.timeout = timeout;
+        this.metrics = metrics;
+        deadline = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+        if (timeout > 0 && timerService != null)
+            timer = timerService.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    terminate(TIMED_OUT);
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        else
+            timer = null;
+    }
+
+    /**
+     * Register a resource to close once the query is cancelled.
+     * 
+     * @param resource
+     * @return false if the query has already been cancelled (or closed), in
+     *         which case the resource is not registered and the caller has to
+     *         dispose of it.
+     */
+    public synchronized boolean register(Closeable resource) {
+        if (state != RUNNING)
+            return false;
+        resources.add(resource);
+        return true;
+    }
+
+    /**
+     * Register a pending task to cancel (without interrupting it) once the
+     * query is cancelled. If it has been cancelled already, the task is
+     * cancelled right away.
+     * 
+     * @param future
+     */
+    public void register(Future<?> future) {
+        synchronized (this) {
+            if (state == RUNNING) {
+                futures.add(future);
+                return;
+            }
+        }
+        future.cancel(false);
+    }
+
+    public void cancel() {
+        terminate(CANCELLED);
+    }
+
+    /**
+     * @return true if the query has been cancelled or ran out of time.
+     */
+    public boolean isCancelled() {
+        int s = state;
+        return s == CANCELLED || s == TIMED_OUT;
+    }
+
+    /**
+     * @return time left till the deadline, nanoseconds ({@link Long#MAX_VALUE}
+     *         if there's no deadline).
+     */
+    public long getRemainingNanos() {
+        return deadline == 0 ? Long.MAX_VALUE : deadline - System.nanoTime();
+    }
+
+    /**
+     * Fail if the query has been cancelled or is past its deadline.
+     * 
+     * @throws QueryCancelledException
+     */
+    public void check() throws QueryCancelledException {
+        if (state == RUNNING && deadline != 0 && getRemainingNanos() <= 0)
+            terminate(TIMED_OUT);
+        if (isCancelled())
+            throw createException(null);
+    }
+
+    /**
+     * Time out the query now (e.g. once a wait for the deadline expired).
+     * 
+     * @return exception to report
+     */
+    public QueryCancelledException expire() {
+        terminate(TIMED_OUT);
+        return createException(null);
+    }
+
+    /**
+     * Errors that happen after the query has been cancelled are most likely
+     * consequences of the cancellation (scanners closed under the consumer).
+     * 
+     * @param exc
+     *            the error
+     * @return the error to report: the cancellation if the query has been
+     *         cancelled, the error itself otherwise.
+     */
+    public IOException translate(IOException exc) {
+        if (!isCancelled() || exc instanceof QueryCancelledException)
+            return exc;
+        return createException(exc);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (state == RUNNING)
+                state = CLOSED;
+            resources.clear();
+            futures.clear();
+        }
+        if (timer != null)
+            timer.cancel(false);
+    }
+
+    private QueryCancelledException createException(Throwable cause) {
+        if (state == TIMED_OUT)
+            return new QueryTimeoutException(String.format("Query timed out after %d ms.", timeout), cause);
+        return new QueryCancelledException("Query cancelled.", cause);
+    }
+
+    private void terminate(int newState) {
+        List<Closeable> toClose;
+        List<Future<?>> toCancel;
+        synchronized (this) {
+            if (state != RUNNING)
+                return;
+            state = newState;
+            toClose = new ArrayList<Closeable>(resources);
+            toCancel = new ArrayList<Future<?>>(futures);
+            resources.clear();
+            futures.clear();
+        }
+        if (metrics != null) {
+            if (newState == TIMED_OUT)
+                metrics.addTimeout();
+            else
+                metrics.addCancellation();
+        }
+        if (timer != null && newState != TIMED_OUT)
+            timer.cancel(false);
+
+        for (Future<?> future : toCancel)
+            future.cancel(false);
+        for (Closeable resource : toClose) {
+            try {
+                resource.close();
+            } catch (Throwable thr) {
+                s_log.warn("Error while closing cancelled query's scanner.", thr);
+            }
+        }
+    }
+
+}
@@ -19,14 +19,26 @@
 package com.inadco.hbl.client.impl;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.antlr.runtime.tree.CommonTree;
+import org.apache.commons.lang.ObjectUtils;
 
 import com.inadco.hbl.client.HblException;
 
 /**
  * Query AST tree visitor.
+ * <P>
+ * 
+ * Remembers what it has visited, so that the walk may be replayed with
+ * different slice bounds without walking the tree again (see
+ * {@link #replay(Map)}).
  * 
  * @author dmitriy
  * 
@@ -34,7 +46,20 @@ import com.inadco.hbl.client.HblException;
 public class QueryPrepVisitor implements QueryVisitor {
 
     private PreparedAggregateQueryImpl query;
-    private Deque<String[]>            selectExpr = new ArrayDeque<String[]>();
+    private Deque<String[]>            selectExpr      = new ArrayDeque<String[]>();
+    private List<Object[]>             having          = new ArrayList<Object[]>();
+    private String                     orderBy;
+    private boolean                    orderDescending;
+    private int                        limit           = -1;
+    private long                       timeout;
+    private String                     cubeName;
+    private List<String>               groupDimensions = new ArrayList<String>();
+    private List<Object[]>             slices          = new ArrayList<Object[]>();
+    /**
+     * parameters other than slice bounds consumed by the last complete walk,
+     * null if there's none.
+     */
+    private Map<Integer, Object>       boundParams;
 
     public QueryPrepVisitor(PreparedAggregateQueryImpl query) {
         super();
@@ -44,6 +69,68 @@ public class QueryPrepVisitor implements QueryVisitor {
     @Override
     public void reset() {
         selectExpr.clear();
+        having.clear();
+        orderBy = null;
+        orderDescending = false;
+        limit = -1;
+        timeout = 0;
+        cubeName = null;
+        groupDimensions.clear();
+        slices.clear();
+        boundParams = null;
+    }
+
+    /**
+     * Remember the parameters the walk just completed has consumed. As long
+     * as the ones that are not slice bounds stay the same, the walk may be
+     * replayed.
+     * 
+     * @param params
+     *            parameters of the walk
+     * @param paramCnt
+     *            number of parameters the walk consumed
+     */
+    void captureParameters(Map<Integer, Object> params, int paramCnt) {
+        Set<Integer> sliceParams = new HashSet<Integer>();
+        for (Object[] slice : slices) {
+            // dim, leftOpen, left, leftParam, rightOpen, right, rightParam
+            if (slice[3] != null)
+                sliceParams.add((Integer) slice[3]);
+            if (slice[6] != null)
+                sliceParams.add((Integer) slice[6]);
+        }
+        boundParams = new HashMap<Integer, Object>();
+        for (int i = 0; i < paramCnt; i++)
+            if (!sliceParams.contains(i))
+                boundParams.put(i, params.get(i));
+    }
+
+    /**
+     * Replay the last complete walk on the query, taking parameterized slice
+     * bounds from the given parameters.
+     * 
+     * @param params
+     * @return false if the walk can't be replayed with these parameters, i.e.
+     *         the tree needs to be walked again.
+     * @throws HblException
+     */
+    boolean replay(Map<Integer, Object> params) throws HblException {
+        if (boundParams == null)
+            return false;
+        for (Map.Entry<Integer, Object> param : boundParams.entrySet())
+            if (!ObjectUtils.equals(param.getValue(), params.get(param.getKey())))
+                return false;
+
+        query.setCube(cubeName);
+        for (Object[] slice : slices) {
+            Object left = slice[3] == null ? slice[2] : params.get(slice[3]);
+            Object right = slice[6] == null ? slice[5] : params.get(slice[6]);
+            addSlice((String) slice[0], (Boolean) slice[1], left, (Boolean) slice[4], right);
+        }
+        for (String dim : groupDimensions)
+            query.addGroupBy(dim);
+        visitSelect(null, null, null, null);
+        return true;
     }
 
     @Override
@@ -62,6 +149,15 @@ public class QueryPrepVisitor implements QueryVisitor {
                 query.addAggregateResultDef(i++, expr[0], expr[1], expr[2]);
             }
         }
+        for (Object[] predicate : having)
+            // func, measure, op, value
+            query.addHaving((String) predicate[0], (String) predicate[1], (String) predicate[2], predicate[3]);
+        if (orderBy != null)
+            query.setOrderBy(orderBy, orderDescending);
+        if (limit >= 0)
+            query.setLimit(limit);
+        if (timeout > 0)
+            query.setStatementTimeout(timeout);
     }
 
     @Override
@@ -70,11 +166,22 @@ public class QueryPrepVisitor implements QueryVisitor {
         // System.out.printf("Adding group dimension %s.\n", dim);
 
         query.addGroupBy(dim);
+        groupDimensions.add(dim);
     }
 
     @Override
-    public void visitSlice(String dimension, boolean leftOpen, Object left, boolean rightOpen, Object right) {
+    public void visitSlice(String dimension,
+                           boolean leftOpen,
+                           Object left,
+                           Integer leftParam,
+                           boolean rightOpen,
+                           Object right,
+                           Integer rightParam) {
+        addSlice(dimension, leftOpen, left, rightOpen, right);
+        slices.add(new Object[] { dimension, leftOpen, left, leftParam, rightOpen, right, rightParam });
+    }
 
+    private void addSlice(String dimension, boolean leftOpen, Object left, boolean rightOpen, Object right) {
         if (right == null)
             // cause nothing else makes sense here
             query.addClosedSlice(dimension, left, left);
@@ -105,6 +212,36 @@ public class QueryPrepVisitor implements QueryVisitor {
     @Override
     public void visitCube(String cubeName) throws HblException {
         query.setCube(cubeName);
+        this.cubeName = cubeName;
+    }
+
+    @Override
+    public void visitHavingPredicate(String func, String measure, String op, Object value) {
+        having.add(new Object[] { func, measure, op, value });
+    }
+
+    @Override
+    public void visitOrderBy(String alias, boolean descending) {
+        /*
+         * aliases are not known until the select expressions are added to
+         * the query (see visitSelect()).
+         */
+        orderBy = alias;
+        orderDescending = descending;
+    }
+
+    @Override
+    public void visitLimit(int limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException(String.format("Invalid limit %d.", limit));
+        this.limit = limit;
+    }
+
+    @Override
+    public void visitTimeout(long timeout) {
+        if (timeout <= 0)
+            throw new IllegalArgumentException(String.format("Invalid timeout %d.", timeout));
+        this.timeout = timeout;
     }
 
 }
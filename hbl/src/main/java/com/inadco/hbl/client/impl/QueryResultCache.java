@@ -0,0 +1,391 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.Validate;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.inadco.hbl.api.Range;
+import com.inadco.hbl.client.impl.scanner.RawScanResultCodec;
+import com.inadco.hbl.client.impl.scanner.ScanSpec;
+import com.inadco.hbl.util.HblUtil;
+
+/**
+ * Client-side cache of fully grouped query results.
+ * <P>
+ * 
+ * Results are keyed by the normalized plan (the scan specs with their cuboid
+ * tables, ranges, slice operations, measures and group key length, plus split
+ * constraints if any), so the same statement with the same parameters hits the
+ * same entry regardless of the statement text. Values are the result rows in
+ * the {@link RawScanResultCodec} form.
+ * <P>
+ * 
+ * Entries are evicted in LRU order once the total size exceeds the bound, and
+ * expire after the TTL. Entries of a cuboid are dropped as soon as the cuboid
+ * is known to have been compiled again ({@link #invalidate(String)}); results
+ * computed concurrently with an invalidation of any of the cuboids they read
+ * are not cached. Invalidations of the other cuboids don't affect them.
+ * <P>
+ * 
+ * Hits and misses count the lookups of the whole query results only; lookups
+ * of the sealed parts that follow a miss are counted separately.
+ * <P>
+ * 
+ * Sealed entries hold results of the data older than cube's sealing horizon
+ * which compilations don't change any more, so they survive invalidations of
+ * their cuboids (but not {@link #invalidateAll()}).
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class QueryResultCache {
+
+    private final LinkedHashMap<Key, Entry> entries       = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private final long                      maxBytes;
+    private final long                      ttl;
+    private long                            bytes;
+
+    /*
+     * invalidation generations: per cuboid table, bumped whenever the cuboid
+     * is invalidated, and of the entire cache. Guarded by the entries.
+     */
+    private final Map<String, Long>         generations   = new HashMap<String, Long>();
+    private long                            generation;
+
+    private final AtomicLong                hits          = new AtomicLong();
+    private final AtomicLong                misses        = new AtomicLong();
+    private final AtomicLong                sealedHits    = new AtomicLong();
+    private final AtomicLong                sealedMisses  = new AtomicLong();
+    private final AtomicLong                evictions     = new AtomicLong();
+    private final AtomicLong                invalidations = new AtomicLong();
+
+    /**
+     * 
+     * @param maxBytes
+     *            bound on the total size of cached results
+     * @param ttl
+     *            max time to keep an entry, ms. 0 means indefinitely (i.e.
+     *            until invalidated or evicted).
+     */
+    public QueryResultCache(long maxBytes, long ttl) {
+        super();
+        Validate.isTrue(maxBytes > 0, "cache size must be positive");
+        Validate.isTrue(ttl >= 0, "ttl must not be negative");
+        this.maxBytes = maxBytes;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Create cache key for the plan.
+     * 
+     * @param scanSpecs
+     * @param startSplitKey
+     *            optional
+     * @param endSplitKey
+     *            optional
+     * @param enforcedCuboidTableName
+     *            optional
+     * @return the key
+     * @throws IOException
+     */
+    public static Key createKey(List<ScanSpec> scanSpecs,
+                                byte[] startSplitKey,
+                                byte[] endSplitKey,
+                                String enforcedCuboidTableName) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        String[] tableNames = new String[scanSpecs.size()];
+        int i = 0;
+
+        HblUtil.writeVarUint32(dos, scanSpecs.size());
+        for (ScanSpec ss : scanSpecs) {
+            String tableName = ss.getCuboid().getCuboidTableName();
+            tableNames[i++] = tableName;
+            dos.writeUTF(tableName);
+            dos.writeByte(ss.getSliceOperation().ordinal());
+            HblUtil.writeVarUint32(dos, ss.getGroupKeyLen());
+            int[] groupKeyFields = ss.getGroupKeyFields();
+            dos.writeBoolean(groupKeyFields != null);
+            if (groupKeyFields != null) {
+                HblUtil.writeVarUint32(dos, groupKeyFields.length);
+                for (int field : groupKeyFields)
+                    HblUtil.writeVarUint32(dos, field);
+            }
+            HblUtil.writeVarUint32(dos, ss.getMeasureQualifiers().length);
+            for (byte[] q : ss.getMeasureQualifiers())
+                writeBytes(dos, q);
+            // merged function subsets are not interchangeable
+            String[][] measureFunctions = ss.getMeasureFunctions();
+            dos.writeBoolean(measureFunctions != null);
+            if (measureFunctions != null)
+                for (String[] funcs : measureFunctions) {
+                    HblUtil.writeVarUint32(dos, funcs.length);
+                    for (String func : funcs)
+                        dos.writeUTF(func);
+                }
+            // results are filtered by the predicates
+            HavingPredicate[] having = ss.getHaving();
+            dos.writeBoolean(having != null);
+            if (having != null) {
+                HblUtil.writeVarUint32(dos, having.length);
+                for (HavingPredicate predicate : having)
+                    predicate.write(dos);
+            }
+            HblUtil.writeVarUint32(dos, ss.getRanges().length);
+            for (Range r : ss.getRanges())
+                r.write(dos);
+        }
+        writeBytes(dos, startSplitKey);
+        writeBytes(dos, endSplitKey);
+        writeBytes(dos, enforcedCuboidTableName == null ? null : Bytes.toBytes(enforcedCuboidTableName));
+        dos.close();
+
+        return new Key(bos.toByteArray(), tableNames);
+    }
+
+    /**
+     * @param key
+     * @return current invalidation generation of the cuboids the key reads.
+     *         Pass it back to {@link #put(Key, byte[], long, boolean)} so the
+     *         results computed concurrently with an invalidation of any of
+     *         them don't get cached.
+     */
+    public long getGeneration(Key key) {
+        synchronized (entries) {
+            // generations only grow, so the sum only stays the same if none of them changed.
+            long sum = generation;
+            for (String tableName : new HashSet<String>(Arrays.asList(key.tableNames))) {
+                Long g = generations.get(tableName);
+                if (g != null)
+                    sum += g;
+            }
+            return sum;
+        }
+    }
+
+    /**
+     * Look up results of the whole query.
+     * 
+     * @param key
+     * @return cached result rows, or null
+     */
+    public byte[] get(Key key) {
+        return get(key, false);
+    }
+
+    /**
+     * 
+     * @param key
+     * @param sealed
+     *            true if it's a lookup of a sealed part of the query, counted
+     *            apart from the whole query lookups.
+     * @return cached result rows, or null
+     */
+    public byte[] get(Key key, boolean sealed) {
+        synchronized (entries) {
+            Entry e = entries.get(key);
+            if (e != null && ttl > 0 && System.currentTimeMillis() - e.created >= ttl) {
+                remove(key);
+                e = null;
+            }
+            if (sealed)
+                (e == null ? sealedMisses : sealedHits).incrementAndGet();
+            else
+                (e == null ? misses : hits).incrementAndGet();
+            return e == null ? null : e.rows;
+        }
+    }
+
+    /**
+     * 
+     * @param key
+     * @param rows
+     *            result rows
+     * @param generation
+     *            generation of the key ({@link #getGeneration(Key)}) observed
+     *            before the result computation started.
+     * @param sealed
+     *            if the rows are of the sealed data.
+     */
+    public void put(Key key, byte[] rows, long generation, boolean sealed) {
+        if (rows.length > maxBytes)
+            return;
+        synchronized (entries) {
+            if (!sealed && getGeneration(key) != generation)
+                return;
+            remove(key);
+            entries.put(key, new Entry(rows, sealed));
+            bytes += rows.length;
+            for (Iterator<Entry> iter = entries.values().iterator(); bytes > maxBytes && iter.hasNext();) {
+                bytes -= iter.next().rows.length;
+                iter.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drop all (not sealed) entries that read given cuboid table. To be called
+     * whenever the cuboid is compiled again.
+     * 
+     * @param cuboidTableName
+     */
+    public void invalidate(String cuboidTableName) {
+        synchronized (entries) {
+            Long g = generations.get(cuboidTableName);
+            generations.put(cuboidTableName, g == null ? 1 : g + 1);
+            invalidations.incrementAndGet();
+            for (Iterator<Map.Entry<Key, Entry>> iter = entries.entrySet().iterator(); iter.hasNext();) {
+                Map.Entry<Key, Entry> me = iter.next();
+                if (!me.getValue().sealed && Arrays.asList(me.getKey().tableNames).contains(cuboidTableName)) {
+                    bytes -= me.getValue().rows.length;
+                    iter.remove();
+                }
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            generation++;
+            invalidations.incrementAndGet();
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public long getBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getSealedHits() {
+        return sealedHits.get();
+    }
+
+    public long getSealedMisses() {
+        return sealedMisses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    private void remove(Key key) {
+        Entry e = entries.remove(key);
+        if (e != null)
+            bytes -= e.rows.length;
+    }
+
+    private static void writeBytes(DataOutputStream dos, byte[] bytes) throws IOException {
+        if (bytes == null)
+            HblUtil.writeVarUint32(dos, 0);
+        else {
+            HblUtil.writeVarUint32(dos, bytes.length + 1);
+            dos.write(bytes);
+        }
+    }
+
+    /**
+     * Normalized plan.
+     * 
+     * @author dmitriy
+     * 
+     */
+    public static final class Key {
+        private final byte[]   plan;
+        private final String[] tableNames;
+        private final int      hash;
+
+        private Key(byte[] plan, String[] tableNames) {
+            super();
+            this.plan = plan;
+            this.tableNames = tableNames;
+            this.hash = Arrays.hashCode(plan);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            return Arrays.equals(plan, ((Key) obj).plan);
+        }
+    }
+
+    private static final class Entry {
+        private final byte[]  rows;
+        private final boolean sealed;
+        private final long    created = System.currentTimeMillis();
+
+        private Entry(byte[] rows, boolean sealed) {
+            super();
+            this.rows = rows;
+            this.sealed = sealed;
+        }
+    }
+
+}
@@ -0,0 +1,413 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+import com.inadco.hbl.client.HblException;
+import com.inadco.hbl.client.QueryMetrics;
+import com.inadco.hbl.client.QueryPriority;
+import com.inadco.hbl.client.QueryRejectedException;
+import com.inadco.hbl.client.QueryTimeoutException;
+
+/**
+ * Admission control of the client's queries.
+ * <P>
+ * 
+ * A query is admitted for execution once it fits into all of the limits: max
+ * number of queries running per cube, total number of scanners and total
+ * (estimated) memory of the running queries. Until then it waits in its
+ * priority lane. Interactive queries are admitted ahead of the batch ones,
+ * except that every {@link #getBatchShare()}-th admission goes to a waiting
+ * batch query, so that batch queries make progress under a steady
+ * interactive load. Within a lane, queries are admitted in the order they
+ * came; a query that is only held back by its cube's limit doesn't hold back
+ * the queries of other cubes behind it.
+ * <P>
+ * 
+ * A query that asks for more than the whole budget is admitted once nothing
+ * else is running.
+ * <P>
+ * 
+ * All limits are off by default, and may be changed at any time.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class QueryScheduler {
+
+    private final QueryMetrics                      metrics;
+    private final Map<QueryPriority, Deque<Ticket>> lanes       = new HashMap<QueryPriority, Deque<Ticket>>();
+    private final Map<String, Integer>              cubeQueries = new HashMap<String, Integer>();
+
+    private int                                     maxQueriesPerCube;
+    private int                                     maxScans;
+    private long                                    memoryBudget;
+    private int                                     maxQueued;
+    private int                                     batchShare  = 4;
+
+    private int                                     running;
+    private int                                     scans;
+    private long                                    memory;
+    private int                                     interactiveStreak;
+
+    public QueryScheduler(QueryMetrics metrics) {
+        super();
+        this.metrics = metrics;
+        for (QueryPriority priority : QueryPriority.values())
+            lanes.put(priority, new ArrayDeque<Ticket>());
+    }
+
+    public synchronized int getMaxQueriesPerCube() {
+        return maxQueriesPerCube;
+    }
+
+    /**
+     * @param maxQueriesPerCube
+     *            max number of queries of the same cube running at the same
+     *            time, 0 if not limited.
+     */
+    public synchronized void setMaxQueriesPerCube(int maxQueriesPerCube) {
+        Validate.isTrue(maxQueriesPerCube >= 0, "max queries per cube must not be negative");
+        this.maxQueriesPerCube = maxQueriesPerCube;
+        dispatch();
+    }
+
+    public synchronized int getMaxScans() {
+        return maxScans;
+    }
+
+    /**
+     * @param maxScans
+     *            max number of scanners all running queries may have open at
+     *            the same time, 0 if not limited.
+     */
+    public synchronized void setMaxScans(int maxScans) {
+        Validate.isTrue(maxScans >= 0, "max scans must not be negative");
+        this.maxScans = maxScans;
+        dispatch();
+    }
+
+    public synchronized long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @param memoryBudget
+     *            approximate max number of bytes all running queries may buffer
+     *            (prefetching and hash grouping), 0 if not limited.
+     */
+    public synchronized void setMemoryBudget(long memoryBudget) {
+        Validate.isTrue(memoryBudget >= 0, "memory budget must not be negative");
+        this.memoryBudget = memoryBudget;
+        dispatch();
+    }
+
+    public synchronized int getMaxQueued() {
+        return maxQueued;
+    }
+
+    /**
+     * @param maxQueued
+     *            max number of queries waiting for admission in each lane.
+     *            Queries beyond that are rejected. 0 if not limited.
+     */
+    public synchronized void setMaxQueued(int maxQueued) {
+        Validate.isTrue(maxQueued >= 0, "max queued must not be negative");
+        this.maxQueued = maxQueued;
+    }
+
+    public synchronized int getBatchShare() {
+        return batchShare;
+    }
+
+    /**
+     * @param batchShare
+     *            every batchShare-th admission goes to a batch query if one is
+     *            waiting (default 4). 0 means batch queries only run when no
+     *            interactive query is waiting.
+     */
+    public synchronized void setBatchShare(int batchShare) {
+        Validate.isTrue(batchShare >= 0, "batch share must not be negative");
+        this.batchShare = batchShare;
+    }
+
+    /**
+     * @return number of queries running (admitted and not closed yet).
+     */
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    /**
+     * @return number of scanners the running queries may have open.
+     */
+    public synchronized int getScans() {
+        return scans;
+    }
+
+    /**
+     * @return memory the running queries may buffer, bytes.
+     */
+    public synchronized long getMemory() {
+        return memory;
+    }
+
+    /**
+     * @return number of queries waiting for admission.
+     */
+    public synchronized int getQueued() {
+        int queued = 0;
+        for (Deque<Ticket> lane : lanes.values())
+            queued += lane.size();
+        return queued;
+    }
+
+    /**
+     * Wait for admission of a query.
+     * 
+     * @param cubeName
+     * @param priority
+     * @param scans
+     *            number of scanners the query may have open at once
+     * @param memory
+     *            approximate number of bytes the query may buffer
+     * @param timeout
+     *            max time to wait, ms. 0 if unlimited.
+     * @return admission ticket. Query has to close it once done.
+     * @throws QueryRejectedException
+     *             if too many queries are waiting in the lane already
+     * @throws HblException
+     *             if the wait timed out (caused by
+     *             {@link QueryTimeoutException}) or was interrupted.
+     */
+    public Ticket admit(String cubeName, QueryPriority priority, int scans, long memory, long timeout)
+        throws HblException {
+        Validate.notNull(priority);
+        Ticket ticket = new Ticket(cubeName, priority, scans, memory);
+        long start = System.nanoTime();
+        synchronized (this) {
+            Deque<Ticket> lane = lanes.get(priority);
+            if (maxQueued > 0 && lane.size() >= maxQueued && !fits(ticket)) {
+                if (metrics != null)
+                    metrics.addRejection();
+                throw new QueryRejectedException(String.format("Too many %s queries waiting for admission (%d).",
+                                                               priority,
+                                                               lane.size()));
+            }
+            lane.addLast(ticket);
+            dispatch();
+            if (ticket.admitted)
+                return ticket;
+
+            try {
+                long deadline = timeout > 0 ? start + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+                while (!ticket.admitted) {
+                    if (deadline == 0)
+                        wait();
+                    else {
+                        long left = deadline - System.nanoTime();
+                        if (left <= 0) {
+                            if (metrics != null)
+                                metrics.addTimeout();
+                            QueryTimeoutException cause =
+                                new QueryTimeoutException(String.format("Query timed out after %d ms.", timeout));
+                            throw new HblException("Query timed out waiting for admission.", cause);
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, left);
+                    }
+                }
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                throw new HblException("Interrupted while waiting for admission.", exc);
+            } finally {
+                if (!ticket.admitted)
+                    lane.remove(ticket);
+                if (metrics != null)
+                    metrics.addQueued(System.nanoTime() - start);
+            }
+            return ticket;
+        }
+    }
+
+    private synchronized void release(Ticket ticket) {
+        running--;
+        scans -= ticket.scans;
+        memory -= ticket.memory;
+        if (ticket.cubeName != null) {
+            int count = cubeQueries.get(ticket.cubeName);
+            if (count == 1)
+                cubeQueries.remove(ticket.cubeName);
+            else
+                cubeQueries.put(ticket.cubeName, count - 1);
+        }
+        dispatch();
+    }
+
+    /**
+     * Admit whatever can be admitted now.
+     */
+    private void dispatch() {
+        Deque<Ticket> interactive = lanes.get(QueryPriority.INTERACTIVE);
+        Deque<Ticket> batch = lanes.get(QueryPriority.BATCH);
+        boolean admitted = false;
+        for (;;) {
+            boolean batchTurn = batchShare > 0 && interactiveStreak >= batchShare - 1;
+            Ticket ticket;
+            if (batchTurn) {
+                ticket = next(batch);
+                if (ticket == null)
+                    ticket = next(interactive);
+            } else {
+                ticket = next(interactive);
+                if (ticket == null)
+                    ticket = next(batch);
+            }
+            if (ticket == null)
+                break;
+
+            if (ticket.priority == QueryPriority.INTERACTIVE)
+                interactiveStreak++;
+            else
+                interactiveStreak = 0;
+            ticket.admitted = true;
+            running++;
+            scans += ticket.scans;
+            memory += ticket.memory;
+            if (ticket.cubeName != null) {
+                Integer count = cubeQueries.get(ticket.cubeName);
+                cubeQueries.put(ticket.cubeName, count == null ? 1 : count + 1);
+            }
+            admitted = true;
+        }
+        if (admitted)
+            notifyAll();
+    }
+
+    /**
+     * Take the first query of the lane that can be admitted now, if any. The
+     * lane stops at the first query that doesn't fit into the budgets, so
+     * that bigger queries don't starve.
+     */
+    private Ticket next(Deque<Ticket> lane) {
+        for (Iterator<Ticket> iter = lane.iterator(); iter.hasNext();) {
+            Ticket ticket = iter.next();
+            if (!fits(ticket))
+                return null;
+            if (maxQueriesPerCube > 0 && ticket.cubeName != null) {
+                Integer count = cubeQueries.get(ticket.cubeName);
+                if (count != null && count >= maxQueriesPerCube)
+                    continue;
+            }
+            iter.remove();
+            return ticket;
+        }
+        return null;
+    }
+
+    private boolean fits(Ticket ticket) {
+        if (running == 0)
+            return true;
+        if (maxScans > 0 && scans + ticket.scans > maxScans)
+            return false;
+        if (memoryBudget > 0 && memory + ticket.memory > memoryBudget)
+            return false;
+        return true;
+    }
+
+    /**
+     * Admission of a query. Closing it gives the query's share of the budgets
+     * back. Closing more than once has no effect.
+     * <P>
+     * 
+     * The admission may be held by several holders (see {@link #share()}),
+     * in which case the budgets are given back once the ticket and all of its
+     * shares are closed.
+     */
+    public class Ticket implements Closeable {
+
+        private final String        cubeName;
+        private final QueryPriority priority;
+        private final int           scans;
+        private final long          memory;
+        private boolean             admitted;
+        private boolean             closed;
+        private int                 holders = 1;
+
+        Ticket(String cubeName, QueryPriority priority, int scans, long memory) {
+            super();
+            this.cubeName = cubeName;
+            this.priority = priority;
+            this.scans = scans;
+            this.memory = memory;
+        }
+
+        /**
+         * @return another hold on the admission, e.g. for each query of a
+         *         batch admitted as a whole. Closing it more than once has no
+         *         effect.
+         */
+        public Closeable share() {
+            synchronized (QueryScheduler.this) {
+                Validate.isTrue(holders > 0, "admission has been given back already");
+                holders++;
+            }
+            return new Closeable() {
+
+                private boolean closed;
+
+                @Override
+                public void close() throws IOException {
+                    synchronized (QueryScheduler.this) {
+                        if (closed)
+                            return;
+                        closed = true;
+                        unhold();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (QueryScheduler.this) {
+                if (closed)
+                    return;
+                closed = true;
+                unhold();
+            }
+        }
+
+        private void unhold() {
+            if (--holders == 0 && admitted)
+                release(this);
+        }
+    }
+
+}
@@ -16,8 +16,30 @@ public interface QueryVisitor {
 
     void visitGroupDimension(String dim);
 
-    void visitSlice(String dim, boolean leftOpen, Object left, boolean rightOpen, Object right);
+    /**
+     * @param leftParam
+     *            index of the parameter the left bound came from, null if it
+     *            is a literal.
+     * @param rightParam
+     *            index of the parameter the right bound came from, null if it
+     *            is a literal or there's no right bound.
+     */
+    void visitSlice(String dim,
+                    boolean leftOpen,
+                    Object left,
+                    Integer leftParam,
+                    boolean rightOpen,
+                    Object right,
+                    Integer rightParam);
 
     void visitCube(String cubeName) throws HblException;
 
+    void visitHavingPredicate(String func, String measure, String op, Object value);
+
+    void visitOrderBy(String alias, boolean descending);
+
+    void visitLimit(int limit);
+
+    void visitTimeout(long timeout);
+
 }
@@ -0,0 +1,180 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.inadco.hbl.api.Dimension;
+
+/**
+ * Plan-time normalization of multiple slices on the same dimension: sorts
+ * them, drops empty ones and merges overlapping (or touching) ones, so that
+ * the result is a minimal set of disjoint slices covering the same members.
+ * Otherwise overlapping slices would have been scanned (and counted) more than
+ * once.
+ * <P>
+ * 
+ * Slice bounds are compared by their dimension keys, which is the order the
+ * dimension scans them in anyway.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public final class SliceNormalizer {
+
+    private SliceNormalizer() {
+    }
+
+    /**
+     * 
+     * @param slices
+     *            slices on the dimension, in any order
+     * @param dim
+     *            the dimension
+     * @return disjoint slices in the key order. If all slices are empty, the
+     *         first one is returned as is (there's still something to plan
+     *         the scan with).
+     */
+    public static List<Slice> normalize(List<Slice> slices, Dimension dim) {
+        Validate.notEmpty(slices);
+        Validate.notNull(dim);
+        if (slices.size() == 1)
+            return slices;
+
+        List<KeyedSlice> keyed = new ArrayList<KeyedSlice>(slices.size());
+        for (Slice slice : slices) {
+            KeyedSlice ks = new KeyedSlice(slice, dim);
+            if (!ks.isEmpty())
+                keyed.add(ks);
+        }
+        if (keyed.isEmpty())
+            return Collections.singletonList(slices.get(0));
+
+        Collections.sort(keyed, new Comparator<KeyedSlice>() {
+
+            @Override
+            public int compare(KeyedSlice o1, KeyedSlice o2) {
+                int c = compareLeft(o1, o2);
+                return c != 0 ? c : -compareRight(o1, o2);
+            }
+        });
+
+        List<Slice> result = new ArrayList<Slice>(keyed.size());
+        KeyedSlice current = keyed.get(0);
+        for (int i = 1; i < keyed.size(); i++) {
+            KeyedSlice next = keyed.get(i);
+            if (touches(current, next)) {
+                if (compareRight(next, current) > 0)
+                    current = new KeyedSlice(current, next);
+            } else {
+                result.add(current.toSlice());
+                current = next;
+            }
+        }
+        result.add(current.toSlice());
+        return result;
+    }
+
+    /**
+     * left bounds order: unbounded first, then by key, closed before open.
+     */
+    private static int compareLeft(KeyedSlice o1, KeyedSlice o2) {
+        if (o1.leftKey == null || o2.leftKey == null)
+            return o1.leftKey == null ? (o2.leftKey == null ? 0 : -1) : 1;
+        int c = Bytes.compareTo(o1.leftKey, o2.leftKey);
+        if (c != 0)
+            return c;
+        return o1.leftOpen == o2.leftOpen ? 0 : o1.leftOpen ? 1 : -1;
+    }
+
+    /**
+     * right bounds order: by key, open before closed, then unbounded.
+     */
+    private static int compareRight(KeyedSlice o1, KeyedSlice o2) {
+        if (o1.rightKey == null || o2.rightKey == null)
+            return o1.rightKey == null ? (o2.rightKey == null ? 0 : 1) : -1;
+        int c = Bytes.compareTo(o1.rightKey, o2.rightKey);
+        if (c != 0)
+            return c;
+        return o1.rightOpen == o2.rightOpen ? 0 : o1.rightOpen ? -1 : 1;
+    }
+
+    /**
+     * @return true if the next slice (which starts no earlier than the
+     *         current) overlaps the current or continues it without a gap.
+     */
+    private static boolean touches(KeyedSlice current, KeyedSlice next) {
+        if (current.rightKey == null || next.leftKey == null)
+            return true;
+        int c = Bytes.compareTo(next.leftKey, current.rightKey);
+        return c < 0 || c == 0 && !(next.leftOpen && current.rightOpen);
+    }
+
+    private static class KeyedSlice {
+        private Object  leftBound, rightBound;
+        private byte[]  leftKey, rightKey;
+        private boolean leftOpen, rightOpen;
+
+        KeyedSlice(Slice slice, Dimension dim) {
+            leftBound = slice.getLeftBound();
+            rightBound = slice.getRightBound();
+            if (leftBound != null) {
+                leftKey = new byte[dim.getKeyLen()];
+                dim.getKey(leftBound, leftKey, 0);
+                leftOpen = slice.isLeftOpen();
+            }
+            if (rightBound != null) {
+                rightKey = new byte[dim.getKeyLen()];
+                dim.getKey(rightBound, rightKey, 0);
+                rightOpen = slice.isRightOpen();
+            }
+        }
+
+        /**
+         * span of both
+         */
+        KeyedSlice(KeyedSlice left, KeyedSlice right) {
+            leftBound = left.leftBound;
+            leftKey = left.leftKey;
+            leftOpen = left.leftOpen;
+            rightBound = right.rightBound;
+            rightKey = right.rightKey;
+            rightOpen = right.rightOpen;
+        }
+
+        boolean isEmpty() {
+            if (leftKey == null || rightKey == null)
+                return false;
+            int c = Bytes.compareTo(leftKey, rightKey);
+            return c > 0 || c == 0 && (leftOpen || rightOpen);
+        }
+
+        Slice toSlice() {
+            return new Slice(leftBound, leftOpen, rightBound, rightOpen);
+        }
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.antlr.runtime.tree.Tree;
+import org.apache.commons.lang.Validate;
+
+/**
+ * Cache of parsed statements of prepared queries, so that queries preparing
+ * the same statement share one parse.
+ * <P>
+ * 
+ * Statements are keyed by their text with insignificant whitespace collapsed.
+ * Values are the syntax trees the parser produced. Nobody changes them once
+ * parsed, so any number of queries may walk the same tree at the same time.
+ * Result definitions are not cached, as they may depend on the parameters;
+ * the queries keep them along with their plans.
+ * <P>
+ * 
+ * Parsing doesn't depend on the cube models, so by default clients share one
+ * cache per process ({@link #getShared()}). Statements are evicted in LRU
+ * order once there are more than the bound.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class StatementCache {
+
+    public static final int                   DEFAULT_MAX_STATEMENTS = 256;
+
+    private static final StatementCache       s_shared               = new StatementCache(DEFAULT_MAX_STATEMENTS);
+
+    private final LinkedHashMap<String, Tree> statements             = new LinkedHashMap<String, Tree>(16, 0.75f, true);
+    private final int                         maxStatements;
+
+    private final AtomicLong                  hits                   = new AtomicLong();
+    private final AtomicLong                  misses                 = new AtomicLong();
+    private final AtomicLong                  evictions              = new AtomicLong();
+
+    /**
+     * @param maxStatements
+     *            max number of statements to keep
+     */
+    public StatementCache(int maxStatements) {
+        super();
+        Validate.isTrue(maxStatements > 0, "cache size must be positive");
+        this.maxStatements = maxStatements;
+    }
+
+    /**
+     * @return cache shared by the clients of this process.
+     */
+    public static StatementCache getShared() {
+        return s_shared;
+    }
+
+    /**
+     * @param statement
+     * @return syntax tree of the statement, or null if it is not cached.
+     */
+    public Tree get(String statement) {
+        String key = normalize(statement);
+        Tree ast;
+        synchronized (statements) {
+            ast = statements.get(key);
+        }
+        (ast == null ? misses : hits).incrementAndGet();
+        return ast;
+    }
+
+    /**
+     * @param statement
+     * @param ast
+     *            syntax tree of the statement. Must not be changed from now
+     *            on.
+     */
+    public void put(String statement, Tree ast) {
+        Validate.notNull(ast);
+        String key = normalize(statement);
+        synchronized (statements) {
+            statements.put(key, ast);
+            for (Iterator<String> iter = statements.keySet().iterator(); statements.size() > maxStatements;) {
+                iter.next();
+                iter.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (statements) {
+            statements.clear();
+        }
+    }
+
+    public int getMaxStatements() {
+        return maxStatements;
+    }
+
+    public int getSize() {
+        synchronized (statements) {
+            return statements.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("StatementCache [size=%d, maxStatements=%d, hits=%d, misses=%d, evictions=%d]",
+                             getSize(),
+                             maxStatements,
+                             getHits(),
+                             getMisses(),
+                             getEvictions());
+    }
+
+    /**
+     * Collapse whitespace runs outside of string literals and comments into
+     * a single space, or a single line feed if there's a line break among
+     * them (a line comment may end there). Leading and trailing whitespace is
+     * dropped.
+     * 
+     * @param statement
+     * @return normalized statement text.
+     */
+    static String normalize(String statement) {
+        Validate.notNull(statement);
+        int len = statement.length();
+        StringBuilder sb = new StringBuilder(len);
+        int i = 0;
+        while (i < len) {
+            char c = statement.charAt(i);
+            int end = i + 1;
+            if (c == '\'') {
+                // string literal, verbatim.
+                end = statement.indexOf('\'', end);
+                end = end < 0 ? len : end + 1;
+            } else if (c == '/' && statement.startsWith("//", i)) {
+                // line comment, verbatim up to the line break.
+                while (end < len && statement.charAt(end) != '\n' && statement.charAt(end) != '\r')
+                    end++;
+            } else if (c == '/' && statement.startsWith("/*", i)) {
+                end = statement.indexOf("*/", i + 2);
+                end = end < 0 ? len : end + 2;
+            } else if (isWhitespace(c)) {
+                boolean lineBreak = false;
+                for (end = i; end < len && isWhitespace(statement.charAt(end)); end++)
+                    if (statement.charAt(end) == '\n' || statement.charAt(end) == '\r')
+                        lineBreak = true;
+                if (sb.length() > 0 && end < len)
+                    sb.append(lineBreak ? '\n' : ' ');
+                i = end;
+                continue;
+            }
+            sb.append(statement, i, end);
+            i = end;
+        }
+        return sb.toString();
+    }
+
+    // same as the lexer's
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+}
@@ -0,0 +1,242 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Executor starting a new thread for each task, with the number of tasks
+ * running at the same time capped by a semaphore rather than by a pool size.
+ * <P>
+ * 
+ * Meant for virtual threads (see {@link #newVirtualThreadExecutor(int)}):
+ * scanner constructors and prefetchers spend most of their time blocked in
+ * hbase RPCs, which costs virtual threads next to nothing, so the cap may be
+ * orders of magnitude higher than a platform thread pool would bear.
+ * <P>
+ * 
+ * Tasks over the cap wait for a permit up to the acquire timeout, and are
+ * rejected after that, so the client falls back to running them in the
+ * current thread, same as with the default pool. Running over the cap inline
+ * would add to the very load the cap is there to bound, so the virtual thread
+ * executor waits ({@link #DEFAULT_VIRTUAL_ACQUIRE_TIMEOUT}). It still doesn't
+ * wait forever: tasks may be submitted by tasks (a scanner constructor starts
+ * its prefetcher), and with all permits held by the submitters, waiting
+ * forever would deadlock them.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class ThreadPerTaskExecutor extends AbstractExecutorService {
+
+    /**
+     * ms a task over the cap waits for a permit on the virtual thread
+     * executor.
+     */
+    public static final long    DEFAULT_VIRTUAL_ACQUIRE_TIMEOUT = 1000;
+
+    private final ThreadFactory threadFactory;
+    private final Semaphore     permits;
+    private final long          acquireTimeout;
+    private final Set<Thread>   threads                         = new HashSet<Thread>();
+    private boolean             shutdown;
+
+    /**
+     * Executor rejecting tasks over the cap right away.
+     */
+    public ThreadPerTaskExecutor(int maxConcurrency, ThreadFactory threadFactory) {
+        this(maxConcurrency, threadFactory, 0);
+    }
+
+    /**
+     * 
+     * @param maxConcurrency
+     *            max number of tasks running at the same time
+     * @param threadFactory
+     *            factory of the task threads
+     * @param acquireTimeout
+     *            ms a task over the cap waits for a permit before it is
+     *            rejected, 0 to reject it right away.
+     */
+    public ThreadPerTaskExecutor(int maxConcurrency, ThreadFactory threadFactory, long acquireTimeout) {
+        super();
+        Validate.isTrue(maxConcurrency > 0, "max concurrency must be positive");
+        Validate.isTrue(acquireTimeout >= 0, "acquire timeout must not be negative");
+        Validate.notNull(threadFactory);
+        this.threadFactory = threadFactory;
+        this.acquireTimeout = acquireTimeout;
+        permits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * @return executor running each task on a new virtual thread, tasks over
+     *         the cap waiting {@link #DEFAULT_VIRTUAL_ACQUIRE_TIMEOUT} for a
+     *         permit.
+     * @throws UnsupportedOperationException
+     *             if the JVM has no virtual threads (before java 21).
+     */
+    public static ThreadPerTaskExecutor newVirtualThreadExecutor(int maxConcurrency) {
+        return newVirtualThreadExecutor(maxConcurrency, DEFAULT_VIRTUAL_ACQUIRE_TIMEOUT);
+    }
+
+    /**
+     * @return executor running each task on a new virtual thread.
+     * @throws UnsupportedOperationException
+     *             if the JVM has no virtual threads (before java 21).
+     */
+    public static ThreadPerTaskExecutor newVirtualThreadExecutor(int maxConcurrency, long acquireTimeout) {
+        return new ThreadPerTaskExecutor(maxConcurrency, virtualThreadFactory(), acquireTimeout);
+    }
+
+    /**
+     * @return true if the JVM has virtual threads.
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            virtualThreadFactory();
+            return true;
+        } catch (UnsupportedOperationException exc) {
+            return false;
+        }
+    }
+
+    /*
+     * Thread.ofVirtual().factory(), thru reflection since we still compile for
+     * older JVMs.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Exception exc) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM.", exc);
+        }
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        Validate.notNull(command);
+        if (!acquire())
+            throw new RejectedExecutionException("Max concurrency reached.");
+        Thread t = null;
+        boolean started = false;
+        try {
+            t = threadFactory.newThread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        command.run();
+                    } finally {
+                        // the permit is back by the time the task is not active
+                        permits.release();
+                        synchronized (ThreadPerTaskExecutor.this) {
+                            threads.remove(Thread.currentThread());
+                            ThreadPerTaskExecutor.this.notifyAll();
+                        }
+                    }
+                }
+            });
+            synchronized (this) {
+                if (shutdown)
+                    throw new RejectedExecutionException("Executor has been shut down.");
+                threads.add(t);
+            }
+            t.start();
+            started = true;
+        } finally {
+            if (!started) {
+                synchronized (this) {
+                    threads.remove(t);
+                }
+                permits.release();
+            }
+        }
+    }
+
+    private boolean acquire() {
+        if (acquireTimeout == 0)
+            return permits.tryAcquire();
+        try {
+            return permits.tryAcquire(acquireTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        shutdown = true;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        synchronized (this) {
+            shutdown = true;
+            for (Thread t : threads)
+                t.interrupt();
+        }
+        // tasks are never queued.
+        return Collections.emptyList();
+    }
+
+    @Override
+    public synchronized boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public synchronized boolean isTerminated() {
+        return shutdown && threads.isEmpty();
+    }
+
+    @Override
+    public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!isTerminated()) {
+            long nanos = deadline - System.nanoTime();
+            if (nanos <= 0)
+                return false;
+            TimeUnit.NANOSECONDS.timedWait(this, nanos);
+        }
+        return true;
+    }
+
+    /**
+     * @return number of tasks running right now.
+     */
+    public synchronized int getActiveCount() {
+        return threads.size();
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import com.inadco.hbl.api.Dimension;
+import com.inadco.hbl.model.SimpleDateHierarchy;
+import com.inadco.hbl.model.SimpleTimeHourHierarchy;
+
+/**
+ * Splits a time slice into the sealed part (older than the cube's sealing
+ * horizon) and the live part.
+ * <P>
+ * 
+ * Only whole sealed UTC months get segments of their own: they stay the same
+ * from one query to another as the query window slides, and hence their
+ * results can be cached and reused. The part of the window before its first
+ * whole month is a single (sealed) segment. The sealed days of the month the
+ * horizon is in would only be reusable till the horizon moves on, so they are
+ * scanned along with the live part, as a single segment. A window thus takes
+ * a few scans more than it would unsegmented, not a scan per day.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public final class TimeSliceSegmenter {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private TimeSliceSegmenter() {
+    }
+
+    public static boolean isTimeDimension(Dimension dim) {
+        return dim instanceof SimpleTimeHourHierarchy || dim instanceof SimpleDateHierarchy;
+    }
+
+    /**
+     * 
+     * @param slice
+     *            time slice
+     * @param sealedBefore
+     *            data before this time (epoch ms) is sealed
+     * @return null if the slice doesn't have a sealed part worth a segment of
+     *         its own (or its bounds are not something we can tell time of).
+     *         Otherwise, sealed segments followed by the live part of the
+     *         slice (the last element, null if the slice is sealed entirely).
+     */
+    public static List<Slice> segment(Slice slice, long sealedBefore) {
+        Long left = toMillis(slice.getLeftBound());
+        Long right = toMillis(slice.getRightBound());
+        if (slice.getLeftBound() != null && left == null || slice.getRightBound() != null && right == null)
+            return null;
+
+        long horizon = truncate(sealedBefore, Calendar.DATE);
+        if (left != null && left >= horizon)
+            return null;
+
+        /*
+         * sealed segments end at the right bound if the slice is sealed
+         * entirely, and at the start of the horizon's month otherwise.
+         */
+        boolean sealedEntirely = right != null && (right < horizon || right == horizon && slice.isRightOpen());
+        long end;
+        boolean endOpen;
+        if (sealedEntirely) {
+            end = right;
+            endOpen = slice.isRightOpen();
+        } else {
+            end = truncate(horizon, Calendar.MONTH);
+            endOpen = true;
+            if (left != null && left >= end)
+                return null;
+        }
+
+        List<Slice> segments = new ArrayList<Slice>();
+        long cursor;
+        boolean leftOpen = false;
+        if (left == null) {
+            cursor = truncate(end, Calendar.MONTH);
+            segments.add(new Slice(null, false, cursor, true));
+        } else {
+            cursor = left;
+            leftOpen = slice.isLeftOpen();
+            // head: till the first whole month, if there's one.
+            long month = truncate(cursor, Calendar.MONTH);
+            if (month != cursor) {
+                long next = add(month, Calendar.MONTH);
+                if (next < end) {
+                    segments.add(new Slice(cursor, leftOpen, next, true));
+                    cursor = next;
+                    leftOpen = false;
+                }
+            }
+        }
+
+        // whole months
+        while (true) {
+            long next = add(cursor, Calendar.MONTH);
+            if (next > end || next == end && !endOpen)
+                break;
+            segments.add(new Slice(cursor, leftOpen, next, true));
+            cursor = next;
+            leftOpen = false;
+        }
+
+        // what's left of a slice sealed entirely
+        if (cursor < end || cursor == end && !endOpen && !leftOpen)
+            segments.add(new Slice(cursor, leftOpen, end, endOpen));
+
+        segments.add(sealedEntirely ? null : new Slice(end, false, right, slice.isRightOpen()));
+        return segments;
+    }
+
+    private static Long toMillis(Object member) {
+        if (member instanceof Calendar)
+            return ((Calendar) member).getTimeInMillis();
+        if (member instanceof Number)
+            return ((Number) member).longValue();
+        return null;
+    }
+
+    /**
+     * @return start of the UTC day or month the time falls in.
+     */
+    private static long truncate(long millis, int field) {
+        GregorianCalendar gcal = new GregorianCalendar(UTC);
+        gcal.setTimeInMillis(millis);
+        if (field == Calendar.MONTH)
+            gcal.set(Calendar.DATE, 1);
+        gcal.set(Calendar.HOUR_OF_DAY, 0);
+        gcal.set(Calendar.MINUTE, 0);
+        gcal.set(Calendar.SECOND, 0);
+        gcal.set(Calendar.MILLISECOND, 0);
+        return gcal.getTimeInMillis();
+    }
+
+    private static long add(long millis, int field) {
+        GregorianCalendar gcal = new GregorianCalendar(UTC);
+        gcal.setTimeInMillis(millis);
+        gcal.add(field, 1);
+        return gcal.getTimeInMillis();
+    }
+
+}
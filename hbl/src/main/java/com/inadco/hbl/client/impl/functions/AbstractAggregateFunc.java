@@ -18,14 +18,27 @@
  */
 package com.inadco.hbl.client.impl.functions;
 
+import java.util.Collection;
+import java.util.Collections;
+
 import com.inadco.hbl.api.AggregateFunction;
 import com.inadco.hbl.api.AggregateFunctionRegistry;
+import com.inadco.hbl.api.AggregationView;
+import com.inadco.hbl.api.PrimitiveAccumulator;
+import com.inadco.hbl.api.PrimitiveAggregateFunction;
 import com.inadco.hbl.client.impl.SliceOperation;
 import com.inadco.hbl.protocodegen.Cells.Aggregation;
 import com.inadco.hbl.protocodegen.Cells.Aggregation.Builder;
 
 /**
  * common suggested base for all aggregate function implementations
+ * <P>
+ * 
+ * Functions that keep their own state in the aggregation must override both
+ * merge methods; functions derived from other functions' states (such as
+ * average) don't need to merge anything. Default {@link PrimitiveAggregateFunction}
+ * methods are there for the latter, too: such functions just need to declare
+ * the interface.
  * 
  * @author dmitriy
  * 
@@ -50,6 +63,11 @@ public abstract class AbstractAggregateFunc implements AggregateFunction {
         return name;
     }
 
+    @Override
+    public Collection<String> getDependencies() {
+        return Collections.emptyList();
+    }
+
     @Override
     public boolean supportsComplementScan() {
         return true;
@@ -65,4 +83,29 @@ public abstract class AbstractAggregateFunc implements AggregateFunction {
 
     }
 
+    @Override
+    public void merge(Builder accumulator, AggregationView source, SliceOperation operation) {
+
+    }
+
+    public void merge(PrimitiveAccumulator accumulator, int slot, AggregationView source, SliceOperation operation) {
+
+    }
+
+    public void merge(PrimitiveAccumulator accumulator,
+                      int slot,
+                      PrimitiveAccumulator source,
+                      int sourceSlot,
+                      SliceOperation operation) {
+
+    }
+
+    public Object getAggrValue(PrimitiveAccumulator accumulator, int slot) {
+        if (!accumulator.isTouched(slot))
+            return getAggrValue((Aggregation) null);
+        Aggregation.Builder b = Aggregation.newBuilder();
+        accumulator.save(slot, b);
+        return getAggrValue(b.build());
+    }
+
 }
@@ -18,9 +18,14 @@
  */
 package com.inadco.hbl.client.impl.functions;
 
+import java.util.Arrays;
+import java.util.Collection;
+
 import org.apache.commons.lang.Validate;
 
 import com.inadco.hbl.api.AggregateFunction;
+import com.inadco.hbl.api.PrimitiveAccumulator;
+import com.inadco.hbl.api.PrimitiveAggregateFunction;
 import com.inadco.hbl.protocodegen.Cells.Aggregation;
 
 /**
@@ -29,7 +34,7 @@ import com.inadco.hbl.protocodegen.Cells.Aggregation;
  * @author dmitriy
  * 
  */
-public class FAvg extends AbstractAggregateFunc {
+public class FAvg extends AbstractAggregateFunc implements PrimitiveAggregateFunction {
 
     private AggregateFunction countFunc;
     private AggregateFunction sumFunc;
@@ -38,6 +43,11 @@ public class FAvg extends AbstractAggregateFunc {
         super("AVG");
     }
 
+    @Override
+    public Collection<String> getDependencies() {
+        return Arrays.asList(FCount.FNAME, FSum.FNAME);
+    }
+
     @Override
     public Object getAggrValue(Aggregation source) {
         // avg is not defined on nulls since sum is not defined, either.
@@ -53,6 +63,30 @@ public class FAvg extends AbstractAggregateFunc {
         return sum.doubleValue() / cnt.doubleValue();
     }
 
+    @Override
+    public Object getAggrValue(PrimitiveAccumulator accumulator, int slot) {
+        if (!accumulator.isTouched(slot))
+            return null;
+        initDependencies();
+        Number sum = (Number) ((PrimitiveAggregateFunction) sumFunc).getAggrValue(accumulator, slot);
+        if (sum == null)
+            return null;
+        Number cnt = (Number) ((PrimitiveAggregateFunction) countFunc).getAggrValue(accumulator, slot);
+        if (cnt == null)
+            return null; // should not happen
+        return sum.doubleValue() / cnt.doubleValue();
+    }
+
+    @Override
+    public double getDoubleValue(PrimitiveAccumulator accumulator, int slot) {
+        if (!accumulator.isTouched(slot))
+            return Double.NaN;
+        initDependencies();
+        // undefined sum is NaN and stays so
+        return ((PrimitiveAggregateFunction) sumFunc).getDoubleValue(accumulator, slot)
+            / ((PrimitiveAggregateFunction) countFunc).getDoubleValue(accumulator, slot);
+    }
+
     private void initDependencies() {
         if (countFunc == null) {
             countFunc = parent.findFunction(FCount.FNAME);
@@ -20,6 +20,7 @@ package com.inadco.hbl.client.impl.functions;
 
 import java.io.IOException;
 
+import com.inadco.hbl.api.AggregationView;
 import com.inadco.hbl.client.impl.SliceOperation;
 import com.inadco.hbl.math.aggregators.OnlineCannyAvgSummarizer;
 import com.inadco.hbl.model.IrregularSample;
@@ -94,30 +95,43 @@ public class FCannyAvgSum extends FCustomFunc {
         try {
             OnlineCannyAvgSummarizer s1 = super.extractState(accumulator, sumBuf);
             OnlineCannyAvgSummarizer s2 = super.extractState(source, sumBuf1);
-
-            switch (operation) {
-            case ADD:
-                if (s1 != null && s2 != null)
-                    s1.combine(s2);
-                else if (s1 == null)
-                    s1 = s2;
-                break;
-            case COMPLEMENT:
-                if (s2 != null && s1 != null)
-                    s1.complement(s2, true);
-                break;
-            default:
-                throw new RuntimeException("Unsupported slice operation");
-            }
-            if (s1 != null)
-                super.saveState(accumulator, s1);
-
+            merge(accumulator, s1, s2, operation);
         } catch (IOException exc) {
             // should not happen .
             // otherwise, probably a bad practice.
             throw new RuntimeException(exc);
         }
+    }
+
+    @Override
+    public void merge(Builder accumulator, AggregationView source, SliceOperation operation) {
+        try {
+            OnlineCannyAvgSummarizer s1 = super.extractState(accumulator, sumBuf);
+            OnlineCannyAvgSummarizer s2 = super.extractState(source, sumBuf1);
+            merge(accumulator, s1, s2, operation);
+        } catch (IOException exc) {
+            throw new RuntimeException(exc);
+        }
+    }
 
+    private void merge(Builder accumulator, OnlineCannyAvgSummarizer s1, OnlineCannyAvgSummarizer s2, SliceOperation operation)
+        throws IOException {
+        switch (operation) {
+        case ADD:
+            if (s1 != null && s2 != null)
+                s1.combine(s2);
+            else if (s1 == null)
+                s1 = s2;
+            break;
+        case COMPLEMENT:
+            if (s2 != null && s1 != null)
+                s1.complement(s2, true);
+            break;
+        default:
+            throw new RuntimeException("Unsupported slice operation");
+        }
+        if (s1 != null)
+            super.saveState(accumulator, s1);
     }
 
     @Override
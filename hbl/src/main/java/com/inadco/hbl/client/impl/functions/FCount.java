@@ -18,11 +18,14 @@
  */
 package com.inadco.hbl.client.impl.functions;
 
+import com.inadco.hbl.api.AggregationView;
+import com.inadco.hbl.api.PrimitiveAccumulator;
+import com.inadco.hbl.api.PrimitiveAggregateFunction;
 import com.inadco.hbl.client.impl.SliceOperation;
 import com.inadco.hbl.protocodegen.Cells.Aggregation;
 import com.inadco.hbl.protocodegen.Cells.Aggregation.Builder;
 
-public class FCount extends AbstractAggregateFunc {
+public class FCount extends AbstractAggregateFunc implements PrimitiveAggregateFunction {
 
     public static final String FNAME = "COUNT";
 
@@ -44,15 +47,50 @@ public class FCount extends AbstractAggregateFunc {
 
     @Override
     public void merge(Builder accumulator, Aggregation source, SliceOperation operation) {
-        if (!source.hasCnt())
-            return;
+        if (source.hasCnt())
+            merge(accumulator, source.getCnt(), operation);
+    }
+
+    @Override
+    public void merge(Builder accumulator, AggregationView source, SliceOperation operation) {
+        if (source.hasCnt())
+            merge(accumulator, source.getCnt(), operation);
+    }
+
+    private static void merge(Builder accumulator, long cnt, SliceOperation operation) {
+        switch (operation) {
+        case ADD:
+            accumulator.setCnt(accumulator.hasCnt() ? accumulator.getCnt() + cnt : cnt);
+            break;
+        case COMPLEMENT:
+            accumulator.setCnt(accumulator.hasCnt() ? accumulator.getCnt() - cnt : -cnt);
+            break;
+        }
+    }
+
+    @Override
+    public void merge(PrimitiveAccumulator accumulator, int slot, AggregationView source, SliceOperation operation) {
+        if (source.hasCnt())
+            merge(accumulator, slot, source.getCnt(), operation);
+    }
 
+    @Override
+    public void merge(PrimitiveAccumulator accumulator,
+                      int slot,
+                      PrimitiveAccumulator source,
+                      int sourceSlot,
+                      SliceOperation operation) {
+        if (source.hasCnt(sourceSlot))
+            merge(accumulator, slot, source.getCnt(sourceSlot), operation);
+    }
+
+    private static void merge(PrimitiveAccumulator accumulator, int slot, long cnt, SliceOperation operation) {
         switch (operation) {
         case ADD:
-            accumulator.setCnt(accumulator.hasCnt() ? accumulator.getCnt() + source.getCnt() : source.getCnt());
+            accumulator.setCnt(slot, accumulator.hasCnt(slot) ? accumulator.getCnt(slot) + cnt : cnt);
             break;
         case COMPLEMENT:
-            accumulator.setCnt(accumulator.hasCnt() ? accumulator.getCnt() - source.getCnt() : -source.getCnt());
+            accumulator.setCnt(slot, accumulator.hasCnt(slot) ? accumulator.getCnt(slot) - cnt : -cnt);
             break;
         }
     }
@@ -65,4 +103,18 @@ public class FCount extends AbstractAggregateFunc {
         return source.hasCnt() ? source.getCnt() : 0;
     }
 
+    @Override
+    public Object getAggrValue(PrimitiveAccumulator accumulator, int slot) {
+        if (!accumulator.isTouched(slot))
+            return 0;
+        return accumulator.hasCnt(slot) ? accumulator.getCnt(slot) : 0;
+    }
+
+    @Override
+    public double getDoubleValue(PrimitiveAccumulator accumulator, int slot) {
+        if (!accumulator.isTouched(slot))
+            return 0;
+        return accumulator.hasCnt(slot) ? accumulator.getCnt(slot) : 0;
+    }
+
 }
@@ -25,6 +25,8 @@ import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.Writable;
 
 import com.google.protobuf.ByteString;
+import com.inadco.hbl.api.AggregationView;
+import com.inadco.hbl.client.impl.SliceOperation;
 import com.inadco.hbl.protocodegen.Cells.Aggregation;
 
 public abstract class FCustomFunc extends AbstractAggregateFunc {
@@ -81,6 +83,31 @@ public abstract class FCustomFunc extends AbstractAggregateFunc {
         return recipient;
     }
 
+    protected <T extends Writable> T extractState(AggregationView source, T recipient) throws IOException {
+
+        if (source.getCustomStatesCount() <= ordinal)
+            return null;
+        int len = source.getCustomStateLength(ordinal);
+        if (len == 0)
+            return null;
+
+        // read in place
+        DataInputBuffer dib = new DataInputBuffer();
+        dib.reset(source.getBuffer(), source.getCustomStateOffset(ordinal), len);
+        recipient.readFields(dib);
+        return recipient;
+    }
+
+    /**
+     * Falls back on the decoded aggregation. Functions should rather override
+     * it and read their state in place with
+     * {@link #extractState(AggregationView, Writable)}.
+     */
+    @Override
+    public void merge(Aggregation.Builder accumulator, AggregationView source, SliceOperation operation) {
+        merge(accumulator, source.toAggregation(), operation);
+    }
+
     private void readState(ByteString bs, Writable recipient) throws IOException {
         DataInputBuffer dib = new DataInputBuffer();
         dib.reset(bs.toByteArray(), bs.size());
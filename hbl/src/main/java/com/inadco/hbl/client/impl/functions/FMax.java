@@ -18,6 +18,9 @@
  */
 package com.inadco.hbl.client.impl.functions;
 
+import com.inadco.hbl.api.AggregationView;
+import com.inadco.hbl.api.PrimitiveAccumulator;
+import com.inadco.hbl.api.PrimitiveAggregateFunction;
 import com.inadco.hbl.client.impl.SliceOperation;
 import com.inadco.hbl.protocodegen.Cells.Aggregation;
 import com.inadco.hbl.protocodegen.Cells.Aggregation.Builder;
@@ -28,7 +31,7 @@ import com.inadco.hbl.protocodegen.Cells.Aggregation.Builder;
  * @author dmitriy
  * 
  */
-public class FMax extends AbstractAggregateFunc {
+public class FMax extends AbstractAggregateFunc implements PrimitiveAggregateFunction {
 
     public static final String FNAME = "MAX";
 
@@ -43,13 +46,46 @@ public class FMax extends AbstractAggregateFunc {
 
     @Override
     public void merge(Builder accumulator, Aggregation source, SliceOperation operation) {
-        if (!source.hasMax())
-            return;
+        if (source.hasMax())
+            merge(accumulator, source.getMax(), operation);
+    }
+
+    @Override
+    public void merge(Builder accumulator, AggregationView source, SliceOperation operation) {
+        if (source.hasMax())
+            merge(accumulator, source.getMax(), operation);
+    }
+
+    private static void merge(Builder accumulator, double max, SliceOperation operation) {
+        switch (operation) {
+        case ADD:
+            if (!accumulator.hasMax() || accumulator.getMax() < max)
+                accumulator.setMax(max);
+            break;
+        }
+    }
+
+    @Override
+    public void merge(PrimitiveAccumulator accumulator, int slot, AggregationView source, SliceOperation operation) {
+        if (source.hasMax())
+            merge(accumulator, slot, source.getMax(), operation);
+    }
+
+    @Override
+    public void merge(PrimitiveAccumulator accumulator,
+                      int slot,
+                      PrimitiveAccumulator source,
+                      int sourceSlot,
+                      SliceOperation operation) {
+        if (source.hasMax(sourceSlot))
+            merge(accumulator, slot, source.getMax(sourceSlot), operation);
+    }
 
+    private static void merge(PrimitiveAccumulator accumulator, int slot, double max, SliceOperation operation) {
         switch (operation) {
         case ADD:
-            if (!accumulator.hasMax() || accumulator.getMax() < source.getMax())
-                accumulator.setMax(source.getMax());
+            if (!accumulator.hasMax(slot) || accumulator.getMax(slot) < max)
+                accumulator.setMax(slot, max);
             break;
         }
     }
@@ -77,4 +113,18 @@ public class FMax extends AbstractAggregateFunc {
         return source.hasMax() ? source.getMax() : null;
     }
 
+    @Override
+    public Object getAggrValue(PrimitiveAccumulator accumulator, int slot) {
+        if (!accumulator.isTouched(slot))
+            return null;
+        return accumulator.hasMax(slot) ? accumulator.getMax(slot) : null;
+    }
+
+    @Override
+    public double getDoubleValue(PrimitiveAccumulator accumulator, int slot) {
+        if (!accumulator.isTouched(slot))
+            return Double.NaN;
+        return accumulator.hasMax(slot) ? accumulator.getMax(slot) : Double.NaN;
+    }
+
 }
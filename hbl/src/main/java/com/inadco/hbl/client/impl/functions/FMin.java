@@ -18,6 +18,9 @@
  */
 package com.inadco.hbl.client.impl.functions;
 
+import com.inadco.hbl.api.AggregationView;
+import com.inadco.hbl.api.PrimitiveAccumulator;
+import com.inadco.hbl.api.PrimitiveAggregateFunction;
 import com.inadco.hbl.client.impl.SliceOperation;
 import com.inadco.hbl.protocodegen.Cells.Aggregation;
 import com.inadco.hbl.protocodegen.Cells.Aggregation.Builder;
@@ -28,7 +31,7 @@ import com.inadco.hbl.protocodegen.Cells.Aggregation.Builder;
  * @author dmitriy
  * 
  */
-public class FMin extends AbstractAggregateFunc {
+public class FMin extends AbstractAggregateFunc implements PrimitiveAggregateFunction {
 
     public static final String FNAME = "MIN";
 
@@ -43,13 +46,46 @@ public class FMin extends AbstractAggregateFunc {
 
     @Override
     public void merge(Builder accumulator, Aggregation source, SliceOperation operation) {
-        if (!source.hasMin())
-            return;
+        if (source.hasMin())
+            merge(accumulator, source.getMin(), operation);
+    }
+
+    @Override
+    public void merge(Builder accumulator, AggregationView source, SliceOperation operation) {
+        if (source.hasMin())
+            merge(accumulator, source.getMin(), operation);
+    }
+
+    private static void merge(Builder accumulator, double min, SliceOperation operation) {
+        switch (operation) {
+        case ADD:
+            if (!accumulator.hasMin() || accumulator.getMin() > min)
+                accumulator.setMin(min);
+            break;
+        }
+    }
+
+    @Override
+    public void merge(PrimitiveAccumulator accumulator, int slot, AggregationView source, SliceOperation operation) {
+        if (source.hasMin())
+            merge(accumulator, slot, source.getMin(), operation);
+    }
+
+    @Override
+    public void merge(PrimitiveAccumulator accumulator,
+                      int slot,
+                      PrimitiveAccumulator source,
+                      int sourceSlot,
+                      SliceOperation operation) {
+        if (source.hasMin(sourceSlot))
+            merge(accumulator, slot, source.getMin(sourceSlot), operation);
+    }
 
+    private static void merge(PrimitiveAccumulator accumulator, int slot, double min, SliceOperation operation) {
         switch (operation) {
         case ADD:
-            if (!accumulator.hasMin() || accumulator.getMin() > source.getMin())
-                accumulator.setMin(source.getMin());
+            if (!accumulator.hasMin(slot) || accumulator.getMin(slot) > min)
+                accumulator.setMin(slot, min);
             break;
         }
     }
@@ -77,4 +113,18 @@ public class FMin extends AbstractAggregateFunc {
         return source.hasMin() ? source.getMin() : null;
     }
 
+    @Override
+    public Object getAggrValue(PrimitiveAccumulator accumulator, int slot) {
+        if (!accumulator.isTouched(slot))
+            return null;
+        return accumulator.hasMin(slot) ? accumulator.getMin(slot) : null;
+    }
+
+    @Override
+    public double getDoubleValue(PrimitiveAccumulator accumulator, int slot) {
+        if (!accumulator.isTouched(slot))
+            return Double.NaN;
+        return accumulator.hasMin(slot) ? accumulator.getMin(slot) : Double.NaN;
+    }
+
 }
@@ -18,9 +18,14 @@
  */
 package com.inadco.hbl.client.impl.functions;
 
+import java.util.Arrays;
+import java.util.Collection;
+
 import org.apache.commons.lang.Validate;
 
 import com.inadco.hbl.api.AggregateFunction;
+import com.inadco.hbl.api.PrimitiveAccumulator;
+import com.inadco.hbl.api.PrimitiveAggregateFunction;
 import com.inadco.hbl.protocodegen.Cells.Aggregation;
 
 /**
@@ -29,7 +34,7 @@ import com.inadco.hbl.protocodegen.Cells.Aggregation;
  * @author dmitriy
  * 
  */
-public class FStdDev extends AbstractAggregateFunc {
+public class FStdDev extends AbstractAggregateFunc implements PrimitiveAggregateFunction {
 
     private AggregateFunction varFunc;
 
@@ -37,6 +42,11 @@ public class FStdDev extends AbstractAggregateFunc {
         super("SD");
     }
 
+    @Override
+    public Collection<String> getDependencies() {
+        return Arrays.asList(FStdVar.FNAME);
+    }
+
     @Override
     public Object getAggrValue(Aggregation source) {
         /*
@@ -50,6 +60,25 @@ public class FStdDev extends AbstractAggregateFunc {
         return variance == null ? null : Math.sqrt(variance.doubleValue());
     }
 
+    @Override
+    public Object getAggrValue(PrimitiveAccumulator accumulator, int slot) {
+        if (!accumulator.isTouched(slot))
+            return null;
+
+        initDependencies();
+        Number variance = (Number) ((PrimitiveAggregateFunction) varFunc).getAggrValue(accumulator, slot);
+        return variance == null ? null : Math.sqrt(variance.doubleValue());
+    }
+
+    @Override
+    public double getDoubleValue(PrimitiveAccumulator accumulator, int slot) {
+        if (!accumulator.isTouched(slot))
+            return Double.NaN;
+
+        initDependencies();
+        return Math.sqrt(((PrimitiveAggregateFunction) varFunc).getDoubleValue(accumulator, slot));
+    }
+
     private void initDependencies() {
         if (varFunc == null) {
             varFunc = parent.findFunction(FStdVar.FNAME);
@@ -18,9 +18,14 @@
  */
 package com.inadco.hbl.client.impl.functions;
 
+import java.util.Arrays;
+import java.util.Collection;
+
 import org.apache.commons.lang.Validate;
 
 import com.inadco.hbl.api.AggregateFunction;
+import com.inadco.hbl.api.PrimitiveAccumulator;
+import com.inadco.hbl.api.PrimitiveAggregateFunction;
 import com.inadco.hbl.protocodegen.Cells.Aggregation;
 
 /**
@@ -29,7 +34,7 @@ import com.inadco.hbl.protocodegen.Cells.Aggregation;
  * @author dmitriy
  * 
  */
-public class FStdVar extends AbstractAggregateFunc {
+public class FStdVar extends AbstractAggregateFunc implements PrimitiveAggregateFunction {
 
     public static final String FNAME = "VAR";
 
@@ -41,6 +46,11 @@ public class FStdVar extends AbstractAggregateFunc {
         super(FNAME);
     }
 
+    @Override
+    public Collection<String> getDependencies() {
+        return Arrays.asList(FCount.FNAME, FSum.FNAME, FSumSq.FNAME);
+    }
+
     @Override
     public Object getAggrValue(Aggregation source) {
         /*
@@ -66,6 +76,41 @@ public class FStdVar extends AbstractAggregateFunc {
         return dsumSq - davg * davg;
     }
 
+    @Override
+    public Object getAggrValue(PrimitiveAccumulator accumulator, int slot) {
+        if (!accumulator.isTouched(slot))
+            return null;
+
+        initDependencies();
+        Number avg = (Number) ((PrimitiveAggregateFunction) avgFunc).getAggrValue(accumulator, slot);
+        if (avg == null)
+            return null;
+        Number sumSq = (Number) ((PrimitiveAggregateFunction) sumSqFunc).getAggrValue(accumulator, slot);
+        if (sumSq == null)
+            return null;
+
+        Number cnt = (Number) ((PrimitiveAggregateFunction) countFunc).getAggrValue(accumulator, slot);
+        if (cnt == null)
+            return null; // should not happen
+
+        double dsumSq = sumSq.doubleValue() / cnt.doubleValue();
+        double davg = avg.doubleValue();
+        return dsumSq - davg * davg;
+    }
+
+    @Override
+    public double getDoubleValue(PrimitiveAccumulator accumulator, int slot) {
+        if (!accumulator.isTouched(slot))
+            return Double.NaN;
+
+        initDependencies();
+        double davg = ((PrimitiveAggregateFunction) avgFunc).getDoubleValue(accumulator, slot);
+        double dsumSq = ((PrimitiveAggregateFunction) sumSqFunc).getDoubleValue(accumulator, slot);
+        double cnt = ((PrimitiveAggregateFunction) countFunc).getDoubleValue(accumulator, slot);
+        dsumSq /= cnt;
+        return dsumSq - davg * davg;
+    }
+
     private void initDependencies() {
         if (countFunc == null) {
             countFunc = parent.findFunction(FCount.FNAME);
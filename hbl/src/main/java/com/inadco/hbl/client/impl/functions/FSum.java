@@ -18,6 +18,9 @@
  */
 package com.inadco.hbl.client.impl.functions;
 
+import com.inadco.hbl.api.AggregationView;
+import com.inadco.hbl.api.PrimitiveAccumulator;
+import com.inadco.hbl.api.PrimitiveAggregateFunction;
 import com.inadco.hbl.client.impl.SliceOperation;
 import com.inadco.hbl.protocodegen.Cells.Aggregation;
 import com.inadco.hbl.protocodegen.Cells.Aggregation.Builder;
@@ -28,7 +31,7 @@ import com.inadco.hbl.protocodegen.Cells.Aggregation.Builder;
  * @author dmitriy
  * 
  */
-public class FSum extends AbstractAggregateFunc {
+public class FSum extends AbstractAggregateFunc implements PrimitiveAggregateFunction {
 
     public static final String FNAME = "SUM";
 
@@ -38,15 +41,49 @@ public class FSum extends AbstractAggregateFunc {
 
     @Override
     public void merge(Builder accumulator, Aggregation source, SliceOperation operation) {
-        if (!source.hasSum())
-            return;
+        if (source.hasSum())
+            merge(accumulator, source.getSum(), operation);
+    }
 
+    @Override
+    public void merge(Builder accumulator, AggregationView source, SliceOperation operation) {
+        if (source.hasSum())
+            merge(accumulator, source.getSum(), operation);
+    }
+
+    private static void merge(Builder accumulator, double sum, SliceOperation operation) {
         switch (operation) {
         case ADD:
-            accumulator.setSum(accumulator.hasSum() ? accumulator.getSum() + source.getSum() : source.getSum());
+            accumulator.setSum(accumulator.hasSum() ? accumulator.getSum() + sum : sum);
             break;
         case COMPLEMENT:
-            accumulator.setSum(accumulator.hasSum() ? accumulator.getSum() - source.getSum() : -source.getSum());
+            accumulator.setSum(accumulator.hasSum() ? accumulator.getSum() - sum : -sum);
+        }
+    }
+
+    @Override
+    public void merge(PrimitiveAccumulator accumulator, int slot, AggregationView source, SliceOperation operation) {
+        if (source.hasSum())
+            merge(accumulator, slot, source.getSum(), operation);
+    }
+
+    @Override
+    public void merge(PrimitiveAccumulator accumulator,
+                      int slot,
+                      PrimitiveAccumulator source,
+                      int sourceSlot,
+                      SliceOperation operation) {
+        if (source.hasSum(sourceSlot))
+            merge(accumulator, slot, source.getSum(sourceSlot), operation);
+    }
+
+    private static void merge(PrimitiveAccumulator accumulator, int slot, double sum, SliceOperation operation) {
+        switch (operation) {
+        case ADD:
+            accumulator.setSum(slot, accumulator.hasSum(slot) ? accumulator.getSum(slot) + sum : sum);
+            break;
+        case COMPLEMENT:
+            accumulator.setSum(slot, accumulator.hasSum(slot) ? accumulator.getSum(slot) - sum : -sum);
         }
     }
 
@@ -67,4 +104,18 @@ public class FSum extends AbstractAggregateFunc {
         return source.hasSum() ? source.getSum() : 0.0;
     }
 
+    @Override
+    public Object getAggrValue(PrimitiveAccumulator accumulator, int slot) {
+        if (!accumulator.isTouched(slot))
+            return null;
+        return accumulator.hasSum(slot) ? accumulator.getSum(slot) : 0.0;
+    }
+
+    @Override
+    public double getDoubleValue(PrimitiveAccumulator accumulator, int slot) {
+        if (!accumulator.isTouched(slot))
+            return Double.NaN;
+        return accumulator.hasSum(slot) ? accumulator.getSum(slot) : 0.0;
+    }
+
 }
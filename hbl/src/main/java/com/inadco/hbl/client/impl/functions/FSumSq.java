@@ -18,6 +18,9 @@
  */
 package com.inadco.hbl.client.impl.functions;
 
+import com.inadco.hbl.api.AggregationView;
+import com.inadco.hbl.api.PrimitiveAccumulator;
+import com.inadco.hbl.api.PrimitiveAggregateFunction;
 import com.inadco.hbl.client.impl.SliceOperation;
 import com.inadco.hbl.protocodegen.Cells.Aggregation;
 import com.inadco.hbl.protocodegen.Cells.Aggregation.Builder;
@@ -28,7 +31,7 @@ import com.inadco.hbl.protocodegen.Cells.Aggregation.Builder;
  * @author dmitriy
  * 
  */
-public class FSumSq extends AbstractAggregateFunc {
+public class FSumSq extends AbstractAggregateFunc implements PrimitiveAggregateFunction {
 
     public static final String FNAME = "SUM_SQ";
 
@@ -38,17 +41,49 @@ public class FSumSq extends AbstractAggregateFunc {
 
     @Override
     public void merge(Builder accumulator, Aggregation source, SliceOperation operation) {
-        if (!source.hasSumSq())
-            return;
+        if (source.hasSumSq())
+            merge(accumulator, source.getSumSq(), operation);
+    }
 
-        double sq = source.getSumSq();
+    @Override
+    public void merge(Builder accumulator, AggregationView source, SliceOperation operation) {
+        if (source.hasSumSq())
+            merge(accumulator, source.getSumSq(), operation);
+    }
 
+    private static void merge(Builder accumulator, double sq, SliceOperation operation) {
         switch (operation) {
         case ADD:
             accumulator.setSumSq(accumulator.hasSumSq() ? accumulator.getSumSq() + sq : sq);
             break;
         case COMPLEMENT:
-            accumulator.setSum(accumulator.hasSum() ? accumulator.getSum() - sq : -sq);
+            accumulator.setSumSq(accumulator.hasSumSq() ? accumulator.getSumSq() - sq : -sq);
+        }
+    }
+
+    @Override
+    public void merge(PrimitiveAccumulator accumulator, int slot, AggregationView source, SliceOperation operation) {
+        if (source.hasSumSq())
+            merge(accumulator, slot, source.getSumSq(), operation);
+    }
+
+    @Override
+    public void merge(PrimitiveAccumulator accumulator,
+                      int slot,
+                      PrimitiveAccumulator source,
+                      int sourceSlot,
+                      SliceOperation operation) {
+        if (source.hasSumSq(sourceSlot))
+            merge(accumulator, slot, source.getSumSq(sourceSlot), operation);
+    }
+
+    private static void merge(PrimitiveAccumulator accumulator, int slot, double sq, SliceOperation operation) {
+        switch (operation) {
+        case ADD:
+            accumulator.setSumSq(slot, accumulator.hasSumSq(slot) ? accumulator.getSumSq(slot) + sq : sq);
+            break;
+        case COMPLEMENT:
+            accumulator.setSumSq(slot, accumulator.hasSumSq(slot) ? accumulator.getSumSq(slot) - sq : -sq);
         }
     }
 
@@ -71,4 +106,18 @@ public class FSumSq extends AbstractAggregateFunc {
         return source.hasSumSq() ? source.getSumSq() : 0.0;
     }
 
+    @Override
+    public Object getAggrValue(PrimitiveAccumulator accumulator, int slot) {
+        if (!accumulator.isTouched(slot))
+            return null;
+        return accumulator.hasSumSq(slot) ? accumulator.getSumSq(slot) : 0.0;
+    }
+
+    @Override
+    public double getDoubleValue(PrimitiveAccumulator accumulator, int slot) {
+        if (!accumulator.isTouched(slot))
+            return Double.NaN;
+        return accumulator.hasSumSq(slot) ? accumulator.getSumSq(slot) : 0.0;
+    }
+
 }
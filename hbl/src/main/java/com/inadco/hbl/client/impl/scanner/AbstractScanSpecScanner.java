@@ -0,0 +1,124 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import java.io.IOException;
+
+import com.inadco.hbl.client.ScanStatistics;
+
+/**
+ * Common iteration mechanics of scan spec scanners. Implementations just need
+ * to fetch the next raw result, optionally into a recycled holder.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public abstract class AbstractScanSpecScanner implements ScanSpecScanner {
+
+    protected ScanSpec       scanSpec;
+
+    private RawScanResult    next;
+    private RawScanResult    current;
+    private RawScanResult    holder;
+
+    private int              currentIndex = -1;
+    private boolean          reuseResults = true;
+
+    /**
+     * what has been fetched so far, as accounted by the implementation.
+     */
+    protected ScanStatistics stats;
+
+    protected AbstractScanSpecScanner(ScanSpec scanSpec) {
+        super();
+        this.scanSpec = scanSpec;
+    }
+
+    /**
+     * fetch next result.
+     * 
+     * @param holder
+     *            the holder to recycle, may be null.
+     * @return the next result or null if there are no more.
+     * @throws IOException
+     */
+    protected abstract RawScanResult fetchNextRawResult(RawScanResult holder) throws IOException;
+
+    @Override
+    public boolean hasNext() throws IOException {
+        if (next != null)
+            return true;
+        next = fetchNextRawResult(holder);
+        if (next == null)
+            return false;
+        holder = null;
+        return true;
+    }
+
+    @Override
+    public void next() throws IOException {
+        if (!hasNext())
+            throw new IOException("At the end of the iterator");
+        holder = reuseResults ? current : null;
+        current = next;
+        next = null;
+        currentIndex++;
+    }
+
+    @Override
+    public RawScanResult current() throws IOException {
+        return current;
+    }
+
+    @Override
+    public int getCurrentIndex() throws IOException {
+        return currentIndex;
+    }
+
+    @Override
+    public ScanSpec getScanSpec() {
+        return scanSpec;
+    }
+
+    public boolean isReuseResults() {
+        return reuseResults;
+    }
+
+    /**
+     * By default, result object is recycled as soon as the iterator moves on.
+     * Consumers that retain results (such as prefetching) need to switch that
+     * off.
+     * 
+     * @param reuseResults
+     */
+    public void setReuseResults(boolean reuseResults) {
+        this.reuseResults = reuseResults;
+    }
+
+    public long getBytesFetched() {
+        return stats == null ? 0 : stats.getBytes();
+    }
+
+    @Override
+    public ScanStatistics getScanStatistics() {
+        return stats;
+    }
+
+}
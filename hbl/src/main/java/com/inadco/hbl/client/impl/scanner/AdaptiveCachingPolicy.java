@@ -0,0 +1,238 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.Validate;
+
+import com.inadco.hbl.api.Range;
+import com.inadco.hbl.client.ScanStatistics;
+import com.inadco.hbl.client.ScannerCachingPolicy;
+
+/**
+ * Caching policy that learns from the previous scans of the same cuboid table.
+ * <P>
+ * 
+ * For each table, it keeps moving averages of bytes per row and RPC time per
+ * row, and, for each scan shape of the table, of rows per scan. Caching is
+ * then sized so that a single RPC brings about the target number of bytes and
+ * doesn't take more than the target time, small scans (typical for point
+ * lookups) are not given more caching than they are likely to need, and the
+ * caches of all concurrently running scans of the client together stay within
+ * the client memory bound.
+ * <P>
+ * 
+ * Shape of a scan is the number of leading dimensions it fixes to a single
+ * key. Rows per scan are only comparable between scans of the same shape, so
+ * that a few point lookups don't shrink caching of the range scans of the same
+ * table that follow them, and vice versa.
+ * <P>
+ * 
+ * Until a table is seen at least once, the initial caching is used.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class AdaptiveCachingPolicy implements ScannerCachingPolicy {
+
+    public static final int                        DEFAULT_MIN_CACHING        = 10;
+    public static final int                        DEFAULT_MAX_CACHING        = 10000;
+    public static final long                       DEFAULT_TARGET_RPC_BYTES   = 1 << 21;
+    public static final long                       DEFAULT_TARGET_RPC_NANOS   = TimeUnit.MILLISECONDS.toNanos(500);
+    public static final long                       DEFAULT_MAX_SCANNER_MEMORY = 1 << 28;
+
+    /**
+     * moving average weight of the latest observation
+     */
+    private static final double                    ALPHA                      = 0.3;
+
+    private final ConcurrentMap<String, TableStats> tableStats                 =
+                                                                                  new ConcurrentHashMap<String, TableStats>();
+    private final AtomicInteger                    activeScans                = new AtomicInteger();
+
+    private volatile int                           minCaching                 = DEFAULT_MIN_CACHING;
+    private volatile int                           maxCaching                 = DEFAULT_MAX_CACHING;
+    private volatile int                           initialCaching             = FilteringScanSpecScanner.CACHING;
+    private volatile long                          targetRpcBytes             = DEFAULT_TARGET_RPC_BYTES;
+    private volatile long                          targetRpcNanos             = DEFAULT_TARGET_RPC_NANOS;
+    private volatile long                          maxScannerMemory           = DEFAULT_MAX_SCANNER_MEMORY;
+
+    @Override
+    public int scanStarted(ScanSpec scanSpec, String tableName) {
+        int active = activeScans.incrementAndGet();
+        TableStats ts = tableStats.get(tableName);
+        if (ts == null)
+            return initialCaching;
+
+        double bytesPerRow, nanosPerRow, rowsPerScan;
+        synchronized (ts) {
+            bytesPerRow = ts.bytesPerRow;
+            nanosPerRow = ts.nanosPerRow;
+            Double rps = ts.rowsPerScan.get(getScanShape(scanSpec));
+            rowsPerScan = rps == null ? -1 : rps;
+        }
+
+        double caching = initialCaching;
+        if (bytesPerRow > 0) {
+            caching = targetRpcBytes / bytesPerRow;
+            // everybody's caches together within the client bound
+            caching = Math.min(caching, maxScannerMemory / (active * bytesPerRow));
+        }
+        if (nanosPerRow > 0)
+            caching = Math.min(caching, targetRpcNanos / nanosPerRow);
+
+        // don't ask for (much) more than the scans of this shape used to return
+        if (rowsPerScan >= 0)
+            caching = Math.min(caching, rowsPerScan * 1.25 + 1);
+
+        return (int) Math.max(minCaching, Math.min(maxCaching, caching));
+    }
+
+    @Override
+    public void scanCompleted(ScanSpec scanSpec, ScanStatistics stats) {
+        activeScans.decrementAndGet();
+
+        TableStats ts = tableStats.get(stats.getTableName());
+        if (ts == null) {
+            TableStats newTs = new TableStats();
+            ts = tableStats.putIfAbsent(stats.getTableName(), newTs);
+            if (ts == null)
+                ts = newTs;
+        }
+
+        long rows = stats.getRows();
+        Integer shape = getScanShape(scanSpec);
+        synchronized (ts) {
+            Double rowsPerScan = ts.rowsPerScan.get(shape);
+            ts.rowsPerScan.put(shape, rowsPerScan == null ? rows : ewma(rowsPerScan, rows));
+            if (rows > 0) {
+                ts.bytesPerRow = ts.bytesPerRow > 0 ? ewma(ts.bytesPerRow, (double) stats.getBytes() / rows) : (double) stats.getBytes() / rows;
+                if (stats.getRpcs() > 0)
+                    ts.nanosPerRow =
+                        ts.nanosPerRow > 0 ? ewma(ts.nanosPerRow, (double) stats.getRpcNanos() / rows) : (double) stats
+                            .getRpcNanos() / rows;
+            }
+        }
+    }
+
+    /**
+     * @return number of leading dimensions the scan fixes to a single key
+     *         (closed range with the same left and right bound), 0 if it
+     *         doesn't have any ranges.
+     */
+    static int getScanShape(ScanSpec scanSpec) {
+        Range[] ranges = scanSpec == null ? null : scanSpec.getRanges();
+        if (ranges == null)
+            return 0;
+        int points = 0;
+        for (Range range : ranges) {
+            if (range == null || range.isLeftOpen() || range.isRightOpen()
+                || !Arrays.equals(range.getLeftBound(), range.getRightBound()))
+                break;
+            points++;
+        }
+        return points;
+    }
+
+    public int getMinCaching() {
+        return minCaching;
+    }
+
+    public void setMinCaching(int minCaching) {
+        Validate.isTrue(minCaching > 0);
+        this.minCaching = minCaching;
+    }
+
+    public int getMaxCaching() {
+        return maxCaching;
+    }
+
+    public void setMaxCaching(int maxCaching) {
+        Validate.isTrue(maxCaching > 0);
+        this.maxCaching = maxCaching;
+    }
+
+    public int getInitialCaching() {
+        return initialCaching;
+    }
+
+    public void setInitialCaching(int initialCaching) {
+        Validate.isTrue(initialCaching > 0);
+        this.initialCaching = initialCaching;
+    }
+
+    public long getTargetRpcBytes() {
+        return targetRpcBytes;
+    }
+
+    /**
+     * @param targetRpcBytes
+     *            how many bytes a single scanner RPC should ideally bring.
+     */
+    public void setTargetRpcBytes(long targetRpcBytes) {
+        Validate.isTrue(targetRpcBytes > 0);
+        this.targetRpcBytes = targetRpcBytes;
+    }
+
+    public long getTargetRpcNanos() {
+        return targetRpcNanos;
+    }
+
+    /**
+     * @param targetRpcNanos
+     *            how long a single scanner RPC should take at most.
+     */
+    public void setTargetRpcNanos(long targetRpcNanos) {
+        Validate.isTrue(targetRpcNanos > 0);
+        this.targetRpcNanos = targetRpcNanos;
+    }
+
+    public long getMaxScannerMemory() {
+        return maxScannerMemory;
+    }
+
+    /**
+     * @param maxScannerMemory
+     *            bound on the memory of scanner caches of all concurrently
+     *            running scans of the client.
+     */
+    public void setMaxScannerMemory(long maxScannerMemory) {
+        Validate.isTrue(maxScannerMemory > 0);
+        this.maxScannerMemory = maxScannerMemory;
+    }
+
+    private static double ewma(double avg, double observation) {
+        return avg + ALPHA * (observation - avg);
+    }
+
+    private static class TableStats {
+        private final Map<Integer, Double> rowsPerScan = new HashMap<Integer, Double>();
+        private double                     bytesPerRow;
+        private double                     nanosPerRow;
+    }
+
+}
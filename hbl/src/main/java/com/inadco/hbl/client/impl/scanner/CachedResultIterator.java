@@ -0,0 +1,80 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.inadco.datastructs.InputIterator;
+
+/**
+ * Iterates over the result rows that have been cached in the
+ * {@link RawScanResultCodec} form.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class CachedResultIterator implements InputIterator<RawScanResult> {
+
+    private ByteBuffer    rows;
+    private RawScanResult current;
+    private int           currentIndex = -1;
+
+    /**
+     * 
+     * @param rows
+     *            encoded rows
+     * @param scanSpec
+     *            any of the scan specs the rows were produced for (to tell
+     *            group key length and number of measures).
+     */
+    public CachedResultIterator(byte[] rows, ScanSpec scanSpec) {
+        super();
+        this.rows = ByteBuffer.wrap(rows);
+        this.current = new RawScanResult(scanSpec);
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        return rows.hasRemaining();
+    }
+
+    @Override
+    public void next() throws IOException {
+        if (!RawScanResultCodec.readGroup(rows, current))
+            throw new IOException("At the end of the iterator");
+        currentIndex++;
+    }
+
+    @Override
+    public RawScanResult current() throws IOException {
+        return current;
+    }
+
+    @Override
+    public int getCurrentIndex() throws IOException {
+        return currentIndex;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+}
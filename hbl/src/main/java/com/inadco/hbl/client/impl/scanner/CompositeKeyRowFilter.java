@@ -66,6 +66,7 @@ public class CompositeKeyRowFilter extends FilterBase {
     private transient byte[]     nextKeyHint;
     private transient ReturnCode nextKeyCode;
     private transient int        rowsSeen;
+    private transient boolean    exhausted;
 
     public CompositeKeyRowFilter(Range[] pathRange) throws IOException {
         super();
@@ -144,8 +145,10 @@ public class CompositeKeyRowFilter extends FilterBase {
             }
             comp = Bytes.BYTES_RAWCOMPARATOR.compare(buffer, keyOffset, keyLen, r.getRightBound(), 0, keyLen);
             if (comp > 0 || comp == 0 && r.isRightOpen()) {
-                if (setHint2LowerBound(i, buffer, rowKeyOffset, rowLength, true))
+                if (setHint2LowerBound(i, buffer, rowKeyOffset, rowLength, true)) {
+                    exhausted = true;
                     return true;
+                }
                 nextKeyCode = ReturnCode.SEEK_NEXT_USING_HINT;
                 return false;
             }
@@ -230,6 +233,41 @@ public class CompositeKeyRowFilter extends FilterBase {
         return rowsSeen;
     }
 
+    /**
+     * Test a row key against the ranges without seeking anywhere (used to
+     * tell which of the ranges of a shared scan a row belongs to).
+     * 
+     * @return true if the key is within all of the ranges.
+     */
+    public boolean matches(byte[] buffer, int rowKeyOffset, int rowLength) {
+        if (keyOffsets == null)
+            initTransients();
+        return !filterRowKey(buffer, rowKeyOffset, rowLength) && nextKeyCode == ReturnCode.INCLUDE;
+    }
+
+    /**
+     * @return true if no key past the last one filtered can be within the
+     *         ranges any more.
+     */
+    boolean isExhausted() {
+        return exhausted;
+    }
+
+    /**
+     * @return what the last key filtered is to be done with, if it was not
+     *         skipped outright.
+     */
+    ReturnCode getNextKeyCode() {
+        return nextKeyCode;
+    }
+
+    /**
+     * @return the key to seek to, if the last key filtered asked for a seek.
+     */
+    byte[] getNextKeyHintRow() {
+        return nextKeyHint;
+    }
+
     /**
      * Adjust hint to the next hierarchy member key (assuming level < maxdepth).
      * 
@@ -32,9 +32,9 @@ import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.util.Bytes;
 
-import com.inadco.datastructs.InputIterator;
 import com.inadco.hbl.client.HblAdmin;
-import com.inadco.hbl.protocodegen.Cells.Aggregation;
+import com.inadco.hbl.client.ScanStatistics;
+import com.inadco.hbl.client.ScannerCachingPolicy;
 import com.inadco.hbl.util.HblUtil;
 import com.inadco.hbl.util.IOUtil;
 
@@ -49,27 +49,56 @@ import com.inadco.hbl.util.IOUtil;
  * @author dmitriy
  * 
  */
-public class FilteringScanSpecScanner implements InputIterator<RawScanResult> {
+public class FilteringScanSpecScanner extends AbstractScanSpecScanner {
 
-    // caching. TODO: make this configurable.
-    public static final int  CACHING      = 1000;
-
-    private ScanSpec         scanSpec;
+    /**
+     * default caching, if neither query, cuboid model nor caching policy say
+     * otherwise.
+     */
+    public static final int      CACHING    = 1000;
 
-    private RawScanResult    next;
-    private RawScanResult    current;
-    private RawScanResult    holder;
+    private ResultScanner        scanner;
 
-    private ResultScanner    scanner;
+    private Deque<Closeable>     closeables = new ArrayDeque<Closeable>();
 
-    private Deque<Closeable> closeables   = new ArrayDeque<Closeable>();
+    /**
+     * the policy that decided caching for us, if any. We report back to it
+     * when done.
+     */
+    private ScannerCachingPolicy cachingPolicy;
 
-    private int              currentIndex = -1;
+    /**
+     * 
+     * @param scanSpec
+     * @param tablePool
+     * @param splitStartKey
+     *            optional: input split's requested beginning of the table
+     * @param splitEndKey
+     *            optional: input split's requested end of the table (half-open;
+     *            null value means till the end of the table)
+     * @param inputFormatTableName
+     *            optional: input format's table name used to assert idempotency
+     *            of execution accross all split tasks.
+     * @throws IOException
+     */
+    public FilteringScanSpecScanner(ScanSpec scanSpec,
+                                    HTablePool tablePool,
+                                    byte[] splitStartKey,
+                                    byte[] splitEndKey,
+                                    String inputFormatTableName) throws IOException {
+        this(scanSpec, tablePool, 0, null, splitStartKey, splitEndKey, inputFormatTableName);
+    }
 
     /**
      * 
      * @param scanSpec
      * @param tablePool
+     * @param caching
+     *            caching requested by the query. If not positive, cuboid's
+     *            caching is used, if that's not set either, caching policy is
+     *            consulted, and if none is given, {@link #CACHING} is used.
+     * @param cachingPolicy
+     *            optional: client's caching policy
      * @param splitStartKey
      *            optional: input split's requested beginning of the table
      * @param splitEndKey
@@ -82,14 +111,81 @@ public class FilteringScanSpecScanner implements InputIterator<RawScanResult> {
      */
     public FilteringScanSpecScanner(ScanSpec scanSpec,
                                     HTablePool tablePool,
+                                    int caching,
+                                    ScannerCachingPolicy cachingPolicy,
                                     byte[] splitStartKey,
                                     byte[] splitEndKey,
                                     String inputFormatTableName) throws IOException {
-        super();
-        this.scanSpec = scanSpec;
+        super(scanSpec);
         Validate.notNull(scanSpec);
         Validate.notEmpty(scanSpec.getMeasureQualifiers(), "scan requested no measures");
 
+        String tableName = checkTableName(scanSpec, inputFormatTableName);
+        if (caching <= 0)
+            caching = scanSpec.getCuboid().getScanCaching();
+        if (caching <= 0 && cachingPolicy != null) {
+            caching = cachingPolicy.scanStarted(scanSpec, tableName);
+            this.cachingPolicy = cachingPolicy;
+        }
+        if (caching <= 0)
+            caching = CACHING;
+        stats = new ScanStatistics(tableName, caching);
+
+        boolean ok = false;
+        try {
+            Scan scan = createScan(scanSpec, caching, splitStartKey, splitEndKey);
+
+            HTableInterface table = tablePool.getTable(Bytes.toBytes(tableName));
+            Validate.notNull(table);
+            closeables.addFirst(new IOUtil.PoolableHtableCloseable(tablePool, table));
+
+            scanner = table.getScanner(scan);
+            closeables.addFirst(scanner);
+
+            closeables.remove(table);
+            /*
+             * this has been deprecated in 0.92. use close() instead.
+             * 
+             * tablePool.putTable(table);
+             */
+            table.close();
+            ok = true;
+        } finally {
+            if (!ok) {
+                IOUtil.closeAllQuietly(closeables);
+                reportCompleted();
+            }
+        }
+
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            IOUtil.closeAll(closeables);
+        } finally {
+            reportCompleted();
+        }
+    }
+
+    private void reportCompleted() {
+        if (cachingPolicy != null) {
+            cachingPolicy.scanCompleted(scanSpec, stats);
+            cachingPolicy = null;
+        }
+    }
+
+    /**
+     * Validates cuboid table name of the scan spec against the table name
+     * enforced by the input format (if any).
+     * 
+     * @param scanSpec
+     * @param inputFormatTableName
+     *            optional: table name that is expected by the front end.
+     * @return cuboid table name of the scan spec
+     * @throws IOException
+     */
+    static String checkTableName(ScanSpec scanSpec, String inputFormatTableName) throws IOException {
         String tableName = scanSpec.getCuboid().getCuboidTableName();
 
         if (inputFormatTableName != null && !tableName.equals(inputFormatTableName))
@@ -97,8 +193,36 @@ public class FilteringScanSpecScanner implements InputIterator<RawScanResult> {
             throw new IOException(
                 String.format("Input format validation failed: expected table name %s from front end "
                     + "but different in the back end: %s.", inputFormatTableName, tableName));
+        return tableName;
+    }
 
-        byte[] tableNameBytes = Bytes.toBytes(scanSpec.getCuboid().getCuboidTableName());
+    /**
+     * Create hbase scan for the scan spec: the composite key filter and
+     * start/stop rows derived from it, corrected for the split constraints, if
+     * any.
+     * <P>
+     * 
+     * The scan only asks for the measure columns the scan spec needs, so the
+     * rest of the measures never leave the region server. (Which also means
+     * that the groups that have none of the requested measures don't come
+     * back at all, but they wouldn't have contributed anything to the
+     * aggregates anyway.) Since the number of columns per row is thus bounded
+     * by the number of requested measures, there's no need for
+     * {@link Scan#setBatch(int)}; and 0.92 has no means to bound RPC result
+     * size in bytes, so caching is what we tune.
+     * 
+     * @param scanSpec
+     * @param caching
+     *            rows per RPC
+     * @param splitStartKey
+     *            optional: input split's requested beginning of the table
+     * @param splitEndKey
+     *            optional: input split's requested end of the table
+     *            (half-open; null value means till the end of the table)
+     * @return the scan
+     */
+    static Scan createScan(ScanSpec scanSpec, int caching, byte[] splitStartKey, byte[] splitEndKey)
+        throws IOException {
         CompositeKeyRowFilter krf = new CompositeKeyRowFilter(scanSpec.getRanges());
         byte[] startRow = krf.getCompositeBound(true);
         byte[] endRow = krf.getCompositeBound(false);
@@ -130,97 +254,94 @@ public class FilteringScanSpecScanner implements InputIterator<RawScanResult> {
         }
 
         Scan scan = new Scan();
-        scan.setCaching(CACHING);
+        scan.setCaching(caching);
         scan.setStartRow(startRow);
         if (endRow != null)
             scan.setStopRow(endRow);
+        for (byte[] measureQualifier : scanSpec.getMeasureQualifiers())
+            scan.addColumn(HblAdmin.HBL_METRIC_FAMILY, measureQualifier);
 
         scan.setFilter(krf);
-
-        HTableInterface table = tablePool.getTable(tableNameBytes);
-        Validate.notNull(table);
-        closeables.addFirst(new IOUtil.PoolableHtableCloseable(tablePool, table));
-
-        scanner = table.getScanner(scan);
-        closeables.addFirst(scanner);
-
-        closeables.remove(table);
-        /*
-         * this has been deprecated in 0.92. use close() instead.
-         * 
-         * tablePool.putTable(table);
-         */
-        table.close();
-
-    }
-
-    @Override
-    public void close() throws IOException {
-        IOUtil.closeAll(closeables);
-    }
-
-    @Override
-    public boolean hasNext() throws IOException {
-        if (next != null)
-            return true;
-        next = fetchNextRawResult(holder);
-        if (next == null)
-            return false;
-        holder = null;
-        return true;
-
-    }
-
-    @Override
-    public void next() throws IOException {
-        if (!hasNext())
-            throw new IOException("At the end of the iterator");
-        holder = current;
-        current = next;
-        next = null;
-        currentIndex++;
-
+        return scan;
     }
 
     @Override
-    public RawScanResult current() throws IOException {
-        return current;
-    }
-
-    @Override
-    public int getCurrentIndex() throws IOException {
-        return currentIndex;
-    }
-
-    public ScanSpec getScanSpec() {
-        return scanSpec;
-    }
-
-    private RawScanResult fetchNextRawResult(RawScanResult holder) throws IOException {
+    protected RawScanResult fetchNextRawResult(RawScanResult holder) throws IOException {
+        /*
+         * hbase scanner goes to the region server whenever it runs out of the
+         * cached rows, so that's the call we time.
+         */
+        boolean rpc = stats.getRows() % stats.getCaching() == 0;
+        long start = rpc ? System.nanoTime() : 0;
         Result r = scanner.next();
+        if (rpc)
+            stats.addRpc(System.nanoTime() - start);
         if (r == null)
             return null;
 
+        KeyValue[] kvs = r.raw();
+        long rowBytes = 0;
+        for (KeyValue kv : kvs)
+            rowBytes += kv.getLength();
+        stats.addRow(rowBytes);
+
         if (holder == null)
             holder = new RawScanResult(scanSpec);
+        setRawResult(scanSpec, kvs, holder);
+        return holder;
+    }
 
-        byte[] row = r.getRow();
-        Validate.isTrue(row.length >= scanSpec.getGroupKeyLen());
-        System.arraycopy(row, 0, holder.getGroup(), 0, scanSpec.getGroupKeyLen());
-
-        int i = 0;
-        for (byte[] measureQualifier : scanSpec.getMeasureQualifiers()) {
-            KeyValue kv = r.getColumnLatest(HblAdmin.HBL_METRIC_FAMILY, measureQualifier);
-            if (kv == null)
-                holder.getMeasures()[i++] = null;
-            else {
-                Aggregation.Builder aggrB = Aggregation.newBuilder();
-                aggrB.mergeFrom(kv.getBuffer(), kv.getValueOffset(), kv.getValueLength());
-                holder.getMeasures()[i++] = aggrB;
+    /**
+     * Set group key and measures of the scan spec from the row.
+     * 
+     * @return false if the row has none of the scan spec's measures.
+     */
+    static boolean setRawResult(ScanSpec scanSpec, KeyValue[] kvs, RawScanResult holder) {
+        /*
+         * this is the hot path, so we don't copy anything we don't need to:
+         * group key is taken straight from the key value buffer and measures
+         * are just referenced in place, to be decoded as they are merged into
+         * the groups.
+         */
+        int groupKeyLen = scanSpec.getGroupKeyLen();
+        int[] groupKeyFields = scanSpec.getGroupKeyFields();
+        KeyValue first = kvs[0];
+        if (groupKeyFields == null) {
+            Validate.isTrue(first.getRowLength() >= groupKeyLen);
+            System.arraycopy(first.getBuffer(), first.getRowOffset(), holder.getGroup(), 0, groupKeyLen);
+        } else {
+            // packed group key
+            byte[] group = holder.getGroup();
+            for (int i = 0, groupOffset = 0; i < groupKeyFields.length; i += 2) {
+                int fieldLen = groupKeyFields[i + 1];
+                Validate.isTrue(first.getRowLength() >= groupKeyFields[i] + fieldLen);
+                System.arraycopy(first.getBuffer(),
+                                 first.getRowOffset() + groupKeyFields[i],
+                                 group,
+                                 groupOffset,
+                                 fieldLen);
+                groupOffset += fieldLen;
             }
         }
 
-        return holder;
+        /*
+         * the scan only asks for the measure columns, and only for their
+         * latest versions.
+         */
+        byte[][] measureQualifiers = scanSpec.getMeasureQualifiers();
+        for (int i = 0; i < measureQualifiers.length; i++)
+            holder.clearMeasure(i);
+        boolean found = false;
+        for (KeyValue kv : kvs) {
+            for (int i = 0; i < measureQualifiers.length; i++) {
+                if (kv.matchingQualifier(measureQualifiers[i])) {
+                    holder.setRawMeasure(i, kv.getBuffer(), kv.getValueOffset(), kv.getValueLength());
+                    found = true;
+                    break;
+                }
+            }
+        }
+        return found;
     }
 
 }
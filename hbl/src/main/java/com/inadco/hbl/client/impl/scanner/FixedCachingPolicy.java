@@ -0,0 +1,56 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import org.apache.commons.lang.Validate;
+
+import com.inadco.hbl.client.ScanStatistics;
+import com.inadco.hbl.client.ScannerCachingPolicy;
+
+/**
+ * Same caching for all scans (that's how it all used to be).
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class FixedCachingPolicy implements ScannerCachingPolicy {
+
+    private final int caching;
+
+    public FixedCachingPolicy() {
+        this(FilteringScanSpecScanner.CACHING);
+    }
+
+    public FixedCachingPolicy(int caching) {
+        super();
+        Validate.isTrue(caching > 0, "caching must be positive");
+        this.caching = caching;
+    }
+
+    @Override
+    public int scanStarted(ScanSpec scanSpec, String tableName) {
+        return caching;
+    }
+
+    @Override
+    public void scanCompleted(ScanSpec scanSpec, ScanStatistics stats) {
+    }
+
+}
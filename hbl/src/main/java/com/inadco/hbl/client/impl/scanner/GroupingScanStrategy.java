@@ -37,14 +37,14 @@ import com.inadco.hbl.client.impl.SliceOperation;
 public class GroupingScanStrategy implements GroupingStrategy<RawScanResult, RawScanResult> {
 
     private ScanSpec                  scanSpec;
-    private AggregateFunctionRegistry afr;
+    private MeasureFunctions          measureFunctions;
     private boolean                   applySliceOperation;
     private int                       groupKeyLen;
 
     public GroupingScanStrategy(ScanSpec scanSpec, AggregateFunctionRegistry afr, boolean applySliceOperation) {
         super();
         this.scanSpec = scanSpec;
-        this.afr = afr;
+        measureFunctions = new MeasureFunctions(scanSpec, afr);
         this.applySliceOperation = applySliceOperation;
         groupKeyLen = scanSpec.getGroupKeyLen();
     }
@@ -65,7 +65,9 @@ public class GroupingScanStrategy implements GroupingStrategy<RawScanResult, Raw
 
     @Override
     public void aggregate(RawScanResult groupTo, RawScanResult item) {
-        groupTo.mergeMeasures(item, afr, applySliceOperation ? item.getSliceOperation() : SliceOperation.ADD);
+        groupTo.mergeMeasures(item,
+                              measureFunctions,
+                              applySliceOperation ? item.getSliceOperation() : SliceOperation.ADD);
     }
 
     @Override
@@ -0,0 +1,374 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+import org.apache.log4j.Logger;
+
+import com.inadco.datastructs.InputIterator;
+import com.inadco.datastructs.adapters.GroupingIterator;
+import com.inadco.datastructs.adapters.NWayMergingIterator;
+import com.inadco.datastructs.util.LoserTreeMergeStrategy;
+import com.inadco.hbl.util.HblUtil;
+import com.inadco.hbl.util.IOUtil;
+
+/**
+ * Groups a scan whose group keys don't come in order (see
+ * {@link ScanSpec#getGroupKeyFields()}) in an open addressing hash table keyed
+ * by the packed group key, and outputs the groups sorted by the group key, so
+ * that they can be merged with other scans same way as streaming grouped ones.
+ * <P>
+ * 
+ * Once the groups exceed the memory limit, they are sorted and spilled to a
+ * local file as a run, and the table starts over. Runs are then merged back
+ * (along with whatever is left in memory) and the groups that ended up in
+ * several runs are combined again.
+ * <P>
+ * 
+ * The whole input is consumed on the first call to {@link #hasNext()} or
+ * {@link #next()}.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class HashGroupingIterator implements InputIterator<RawScanResult> {
+
+    public static final long             DEFAULT_MEMORY_LIMIT = 64L << 20;
+
+    private static final Logger          s_log                = Logger.getLogger(HashGroupingIterator.class);
+
+    /*
+     * rough estimate of memory taken by a group: the holder with its key and
+     * slot, and the accumulated measures.
+     */
+    private static final int             GROUP_OVERHEAD       = 64;
+    private static final int             MEASURE_SIZE         = 128;
+    private static final int             INITIAL_SLOTS        = 1 << 10;
+
+    private InputIterator<RawScanResult> input;
+    private GroupingScanStrategy         groupingStrategy;
+    private long                         maxGroups;
+    private File                         spillDir;
+
+    /*
+     * hash table slots hold group index + 1, 0 for empty slots.
+     */
+    private int[]                        slots                = new int[INITIAL_SLOTS];
+    private List<RawScanResult>          groups               = new ArrayList<RawScanResult>();
+    private List<File>                   runs                 = new ArrayList<File>();
+    private List<Integer>                runSizes             = new ArrayList<Integer>();
+    private Deque<Closeable>             closeables           = new ArrayDeque<Closeable>();
+    private InputIterator<RawScanResult> output;
+    private int                          currentIndex         = -1;
+
+    /**
+     * 
+     * @param input
+     *            the scan. Closed along with this iterator.
+     * @param scanSpec
+     *            the scan spec
+     * @param groupingStrategy
+     *            strategy to combine the items into the groups
+     * @param memoryLimit
+     *            approximate limit of bytes the groups may take in memory, 0
+     *            for {@link #DEFAULT_MEMORY_LIMIT}.
+     * @param spillDir
+     *            directory for the spilled runs, null for the default
+     *            temporary directory.
+     */
+    public HashGroupingIterator(InputIterator<RawScanResult> input,
+                                ScanSpec scanSpec,
+                                GroupingScanStrategy groupingStrategy,
+                                long memoryLimit,
+                                File spillDir) {
+        super();
+        Validate.notNull(input);
+        Validate.notNull(groupingStrategy);
+        this.input = input;
+        this.groupingStrategy = groupingStrategy;
+        this.spillDir = spillDir;
+        closeables.add(input);
+
+        if (memoryLimit <= 0)
+            memoryLimit = DEFAULT_MEMORY_LIMIT;
+        int groupSize =
+            GROUP_OVERHEAD + scanSpec.getGroupKeyLen() + MEASURE_SIZE * scanSpec.getMeasureQualifiers().length;
+        maxGroups = Math.max(1, memoryLimit / groupSize);
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        if (output == null)
+            output = group();
+        return output.hasNext();
+    }
+
+    @Override
+    public void next() throws IOException {
+        if (!hasNext())
+            throw new IOException("at the end of the iterator.");
+        output.next();
+        currentIndex++;
+    }
+
+    @Override
+    public RawScanResult current() throws IOException {
+        return output.current();
+    }
+
+    @Override
+    public int getCurrentIndex() throws IOException {
+        return currentIndex;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            IOUtil.closeAll(closeables);
+        } finally {
+            for (File run : runs)
+                if (!run.delete())
+                    s_log.warn(String.format("Unable to delete spilled groups %s.", run));
+            runs.clear();
+        }
+    }
+
+    /**
+     * @return number of runs spilled so far.
+     */
+    public int getSpillCount() {
+        return runs.size();
+    }
+
+    private InputIterator<RawScanResult> group() throws IOException {
+        while (input.hasNext()) {
+            input.next();
+            RawScanResult item = input.current();
+            int slot = findSlot(item.getGroup());
+            RawScanResult group;
+            if (slots[slot] == 0) {
+                if (groups.size() >= maxGroups) {
+                    spill();
+                    slot = findSlot(item.getGroup());
+                }
+                group = groupingStrategy.newGroupHolder(null);
+                groupingStrategy.initGroup(group, item);
+                groups.add(group);
+                slots[slot] = groups.size();
+                if (groups.size() << 1 > slots.length)
+                    rehash();
+            } else
+                group = groups.get(slots[slot] - 1);
+            groupingStrategy.aggregate(group, item);
+        }
+        slots = null;
+
+        Collections.sort(groups, new RawScanResult.GroupComparator());
+        InputIterator<RawScanResult> inMemory = new GroupListIterator(groups);
+        if (runs.isEmpty())
+            return inMemory;
+
+        @SuppressWarnings("unchecked")
+        InputIterator<RawScanResult>[] inputs = new InputIterator[runs.size() + 1];
+        for (int i = 0; i < runs.size(); i++) {
+            inputs[i] = new RunIterator(runs.get(i), runSizes.get(i), groupingStrategy);
+            closeables.addFirst(inputs[i]);
+        }
+        inputs[runs.size()] = inMemory;
+
+        LoserTreeMergeStrategy<RawScanResult> sortMergeStrategy =
+            new LoserTreeMergeStrategy<RawScanResult>(new RawScanResult.GroupComparator());
+        NWayMergingIterator<RawScanResult> merged =
+            new NWayMergingIterator<RawScanResult>(inputs, sortMergeStrategy, false);
+        closeables.addFirst(merged);
+        return new GroupingIterator<RawScanResult, RawScanResult>(merged, groupingStrategy);
+    }
+
+    private int findSlot(byte[] key) {
+        int mask = slots.length - 1;
+        for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+            if (index < 0 || Arrays.equals(groups.get(index).getGroup(), key))
+                return slot;
+        }
+    }
+
+    private void rehash() {
+        slots = new int[slots.length << 1];
+        int mask = slots.length - 1;
+        for (int i = 0; i < groups.size(); i++) {
+            int slot = hash(groups.get(i).getGroup()) & mask;
+            while (slots[slot] != 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = i + 1;
+        }
+    }
+
+    private static int hash(byte[] key) {
+        int h = Arrays.hashCode(key);
+        // spread the bits, linear probing doesn't like clusters.
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    private void spill() throws IOException {
+        Collections.sort(groups, new RawScanResult.GroupComparator());
+        File run = File.createTempFile("hbl-groups", ".run", spillDir);
+        runs.add(run);
+        runSizes.add(groups.size());
+
+        ByteArrayOutputStream rowBytes = new ByteArrayOutputStream();
+        DataOutputStream row = new DataOutputStream(rowBytes);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+        try {
+            for (RawScanResult group : groups) {
+                RawScanResultCodec.writeGroup(row, group.getGroup(), group.getMeasures());
+                row.flush();
+                HblUtil.writeVarUint32(out, rowBytes.size());
+                rowBytes.writeTo(out);
+                rowBytes.reset();
+            }
+        } finally {
+            out.close();
+        }
+        if (s_log.isDebugEnabled())
+            s_log.debug(String.format("Spilled %d groups to %s.", groups.size(), run));
+
+        groups.clear();
+        Arrays.fill(slots, 0);
+    }
+
+    /**
+     * groups kept in memory, in order.
+     */
+    private static class GroupListIterator implements InputIterator<RawScanResult> {
+        private List<RawScanResult> groups;
+        private int                 currentIndex = -1;
+
+        GroupListIterator(List<RawScanResult> groups) {
+            super();
+            this.groups = groups;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return currentIndex + 1 < groups.size();
+        }
+
+        @Override
+        public void next() throws IOException {
+            if (!hasNext())
+                throw new IOException("at the end of the iterator.");
+            // let go of groups already seen
+            if (currentIndex >= 0)
+                groups.set(currentIndex, null);
+            currentIndex++;
+        }
+
+        @Override
+        public RawScanResult current() {
+            return groups.get(currentIndex);
+        }
+
+        @Override
+        public int getCurrentIndex() {
+            return currentIndex;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * groups of a spilled run. Each group is prefixed with the length of its
+     * {@link RawScanResultCodec} form.
+     */
+    private static class RunIterator implements InputIterator<RawScanResult> {
+        private DataInputStream in;
+        private int             size;
+        private ByteBuffer      row          = ByteBuffer.allocate(1 << 10);
+        private RawScanResult   current;
+        private int             currentIndex = -1;
+
+        RunIterator(File run, int size, GroupingScanStrategy groupingStrategy) throws IOException {
+            super();
+            this.size = size;
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+            current = groupingStrategy.newGroupHolder(null);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return currentIndex + 1 < size;
+        }
+
+        @Override
+        public void next() throws IOException {
+            if (!hasNext())
+                throw new IOException("at the end of the iterator.");
+            int len = HblUtil.readVarUint32(in);
+            if (row.capacity() < len)
+                row = ByteBuffer.allocate(Math.max(len, row.capacity() << 1));
+            in.readFully(row.array(), 0, len);
+            row.clear();
+            row.limit(len);
+            RawScanResultCodec.readGroup(row, current);
+            currentIndex++;
+        }
+
+        @Override
+        public RawScanResult current() {
+            return current;
+        }
+
+        @Override
+        public int getCurrentIndex() {
+            return currentIndex;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import java.io.IOException;
+
+import org.apache.commons.lang.Validate;
+
+import com.inadco.datastructs.InputIterator;
+import com.inadco.hbl.api.AggregateFunction;
+import com.inadco.hbl.api.AggregateFunctionRegistry;
+import com.inadco.hbl.client.impl.HavingPredicate;
+
+/**
+ * Skips the groups that don't pass all of the HAVING predicates of the query.
+ * <P>
+ * 
+ * Groups are expected to be final. Predicates are evaluated on the group
+ * accumulators as they come (see
+ * {@link RawScanResult#getAggrValue(int, AggregateFunction)}), so groups that
+ * are filtered out are never decoded.
+ * <P>
+ * 
+ * Finding out whether there's a next group advances the delegate, so the
+ * current group is copied out of the delegate's holder first.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class HavingFilterIterator implements InputIterator<RawScanResult> {
+
+    private InputIterator<RawScanResult> delegate;
+    private HavingPredicate[]            predicates;
+    private AggregateFunction[]          functions;
+    private RawScanResult                current;
+    private boolean                      lookedAhead;
+    private int                          currentIndex = -1;
+
+    public HavingFilterIterator(InputIterator<RawScanResult> delegate,
+                                HavingPredicate[] predicates,
+                                AggregateFunctionRegistry afr) {
+        super();
+        Validate.notNull(delegate);
+        Validate.notEmpty(predicates);
+        this.delegate = delegate;
+        this.predicates = predicates;
+        functions = new AggregateFunction[predicates.length];
+        for (int i = 0; i < predicates.length; i++) {
+            functions[i] = afr.findFunction(predicates[i].getFunctionName());
+            Validate.notNull(functions[i], "unknown function in the predicate");
+            Validate.isTrue(predicates[i].getMeasureIndex() >= 0, "predicate measure not planned");
+        }
+    }
+
+    /**
+     * @return true if the group passes all of the predicates.
+     */
+    public static boolean holds(RawScanResult group, HavingPredicate[] predicates, AggregateFunction[] functions) {
+        for (int i = 0; i < predicates.length; i++)
+            if (!predicates[i].holds(group.getAggrValue(predicates[i].getMeasureIndex(), functions[i])))
+                return false;
+        return true;
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        if (lookedAhead)
+            return true;
+        /*
+         * looking ahead advances the delegate, which may recycle the holder of
+         * the current group, while the current group may still be read.
+         */
+        if (current != null && current == delegate.current())
+            current = snapshot(current);
+        while (delegate.hasNext()) {
+            delegate.next();
+            if (holds(delegate.current(), predicates, functions))
+                return lookedAhead = true;
+        }
+        return false;
+    }
+
+    @Override
+    public void next() throws IOException {
+        if (!hasNext())
+            throw new IOException("At the end of the iterator");
+        lookedAhead = false;
+        current = delegate.current();
+        currentIndex++;
+    }
+
+    @Override
+    public RawScanResult current() throws IOException {
+        return current;
+    }
+
+    @Override
+    public int getCurrentIndex() throws IOException {
+        return currentIndex;
+    }
+
+    private static RawScanResult snapshot(RawScanResult group) throws IOException {
+        try {
+            return (RawScanResult) group.clone();
+        } catch (CloneNotSupportedException exc) {
+            throw new IOException(exc);
+        }
+    }
+
+    /**
+     * Doesn't close the delegate, the owner of the delegate does.
+     */
+    @Override
+    public void close() throws IOException {
+        current = null;
+    }
+
+}
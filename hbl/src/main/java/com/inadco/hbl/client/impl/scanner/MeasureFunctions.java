@@ -0,0 +1,88 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import java.util.Arrays;
+
+import com.inadco.hbl.api.AggregateFunction;
+import com.inadco.hbl.api.AggregateFunctionRegistry;
+import com.inadco.hbl.api.PrimitiveAggregateFunction;
+
+/**
+ * Functions to merge per measure of a scan spec, i.e. functions the query
+ * actually asked for plus whatever they depend on (see
+ * {@link ScanSpec#getMeasureFunctions()}). Without any restrictions it is all
+ * functions of the registry for every measure.
+ * <P>
+ * 
+ * Merges go to primitive accumulators whenever all selected functions can do
+ * that, even if the registry has custom functions the query doesn't use.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class MeasureFunctions {
+
+    private final AggregateFunctionRegistry afr;
+    private final AggregateFunction[][]     functions;
+    private final boolean                   primitive;
+
+    public MeasureFunctions(ScanSpec scanSpec, AggregateFunctionRegistry afr) {
+        super();
+        this.afr = afr;
+        int measureCnt = scanSpec.getMeasureQualifiers().length;
+        String[][] measureFunctions = scanSpec.getMeasureFunctions();
+        functions = new AggregateFunction[measureCnt][];
+        if (measureFunctions == null) {
+            Arrays.fill(functions, afr.getFunctions());
+        } else {
+            for (int i = 0; i < measureCnt; i++)
+                functions[i] = afr.resolveFunctions(Arrays.asList(measureFunctions[i]));
+        }
+
+        boolean primitive = true;
+        for (AggregateFunction[] funcs : functions)
+            for (AggregateFunction af : funcs)
+                if (!(af instanceof PrimitiveAggregateFunction))
+                    primitive = false;
+        this.primitive = primitive;
+    }
+
+    public AggregateFunctionRegistry getRegistry() {
+        return afr;
+    }
+
+    /**
+     * @param measure
+     *            measure index in the scan spec
+     * @return functions to merge for the measure
+     */
+    public AggregateFunction[] getFunctions(int measure) {
+        return functions[measure];
+    }
+
+    /**
+     * @return true if all the functions merge into primitive accumulators.
+     */
+    public boolean isPrimitive() {
+        return primitive;
+    }
+
+}
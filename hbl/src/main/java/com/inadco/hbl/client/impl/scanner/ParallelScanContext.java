@@ -0,0 +1,160 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.client.HConnection;
+import org.apache.hadoop.hbase.client.HConnectionManager;
+import org.apache.hadoop.hbase.client.HConnectionManager.HConnectable;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTablePool;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * State shared by the region-split scans of a single query: the caps on the
+ * number of region scans running concurrently (overall and per region server)
+ * and the lookup of the region boundaries of the cuboid tables.
+ * <P>
+ * 
+ * Permits are only ever tried, never waited for: a region scan that doesn't
+ * get one is simply run in the consumer's thread once the consumer gets to
+ * it.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class ParallelScanContext {
+
+    private final int                  maxScans;
+    private final int                  maxScansPerServer;
+
+    private int                        scans;
+    private final Map<String, Integer> serverScans = new HashMap<String, Integer>();
+
+    /**
+     * 
+     * @param maxScans
+     *            max number of region scans of the query running in the
+     *            background at the same time.
+     * @param maxScansPerServer
+     *            max number of those that may go to the same region server, 0
+     *            if not limited.
+     */
+    public ParallelScanContext(int maxScans, int maxScansPerServer) {
+        super();
+        Validate.isTrue(maxScans > 0, "scan parallelism must be positive");
+        Validate.isTrue(maxScansPerServer >= 0, "region server scan parallelism must not be negative");
+        this.maxScans = maxScans;
+        this.maxScansPerServer = maxScansPerServer;
+    }
+
+    public synchronized boolean tryAcquire(String server) {
+        if (scans >= maxScans)
+            return false;
+        Integer count = serverScans.get(server);
+        int c = count == null ? 0 : count;
+        if (maxScansPerServer > 0 && c >= maxScansPerServer)
+            return false;
+        scans++;
+        serverScans.put(server, c + 1);
+        return true;
+    }
+
+    public synchronized void release(String server) {
+        Integer count = serverScans.get(server);
+        Validate.isTrue(count != null && scans > 0, "release without acquire");
+        scans--;
+        if (count == 1)
+            serverScans.remove(server);
+        else
+            serverScans.put(server, count - 1);
+    }
+
+    /**
+     * @return true if no more permits can be acquired for any server.
+     */
+    public synchronized boolean isSaturated() {
+        return scans >= maxScans;
+    }
+
+    /**
+     * Regions of the table touching the key range, in the key order.
+     * <P>
+     * 
+     * Region locations come from the location cache of the client's HBase
+     * connection rather than a scan of .META. per query; a stale location
+     * only affects which server's permit a region scan takes, since the
+     * connection drops it (and the scan itself relocates) on the first
+     * NotServingRegionException.
+     * <P>
+     * 
+     * @param tablePool
+     * @param tableName
+     * @param startRow
+     *            inclusive start of the range
+     * @param stopRow
+     *            exclusive end of the range, null or empty if till the end of
+     *            the table.
+     * @return regions, as splits with the region boundaries and the server
+     *         hosting the region.
+     * @throws IOException
+     */
+    public List<ScanSplit> getRegions(HTablePool tablePool,
+                                      String tableName,
+                                      final byte[] startRow,
+                                      final byte[] stopRow) throws IOException {
+        HTableInterface table = tablePool.getTable(Bytes.toBytes(tableName));
+        Validate.notNull(table);
+        Configuration conf;
+        try {
+            conf = table.getConfiguration();
+        } finally {
+            table.close();
+        }
+
+        final byte[] tableNameBytes = Bytes.toBytes(tableName);
+        return HConnectionManager.execute(new HConnectable<List<ScanSplit>>(conf) {
+            @Override
+            public List<ScanSplit> connect(HConnection connection) throws IOException {
+                List<ScanSplit> regions = new ArrayList<ScanSplit>();
+                byte[] key = startRow == null ? HConstants.EMPTY_START_ROW : startRow;
+                boolean tillEnd = stopRow == null || stopRow.length == 0;
+                do {
+                    HRegionLocation location = connection.getRegionLocation(tableNameBytes, key, false);
+                    HRegionInfo hri = location.getRegionInfo();
+                    regions.add(new ScanSplit(hri.getStartKey(), hri.getEndKey(), location.getHostnamePort()));
+                    key = hri.getEndKey();
+                } while (key.length != 0 && (tillEnd || Bytes.compareTo(key, stopRow) < 0));
+                return regions;
+            }
+        });
+    }
+
+}
@@ -0,0 +1,330 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.Validate;
+import org.apache.log4j.Logger;
+
+import com.inadco.hbl.client.ScanStatistics;
+
+/**
+ * Scanner decorator that fetches batches of the delegate's results in a
+ * background task while the consumer works on the current batch.
+ * <P>
+ * 
+ * Batches are handed over thru a bounded queue (prefetch depth). In addition,
+ * producer would not run ahead of the consumer by more than the memory limit
+ * (as far as the delegate accounts for the bytes it fetches).
+ * <P>
+ * 
+ * The delegate is owned by this scanner from now on and is closed by it.
+ * <P>
+ * 
+ * If the consumer gets ahead of the producer before the executor has even
+ * started it, the consumer takes the scan over in its own thread. That way
+ * prefetching can never deadlock merges on a busy executor, it just degrades
+ * into a plain scan.
+ * <P>
+ * 
+ * The scanner may be closed from another thread (e.g. when the query is
+ * cancelled) while the consumer waits for the next batch. The consumer then
+ * fails right away. Close doesn't wait for the producer either: the producer
+ * notices the close once its current fetch returns, and whichever of the two
+ * finishes last closes the delegate.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class PrefetchingScanSpecScanner implements ScanSpecScanner {
+
+    private static final Logger           s_log         = Logger.getLogger(PrefetchingScanSpecScanner.class);
+
+    /** ms, how often blocked producer and consumer re-check the state */
+    private static final long             POLL_INTERVAL = 100;
+
+    private static final Batch            EOF           = new Batch(Collections.<RawScanResult> emptyList(), 0);
+    private static final Batch            CLOSED        = new Batch(Collections.<RawScanResult> emptyList(), 0);
+
+    private final AbstractScanSpecScanner delegate;
+    private final int                     batchSize;
+    private final int                     memoryLimitKb;
+    private final BlockingQueue<Batch>    queue;
+    private final Semaphore               memoryPermits;
+
+    private final AtomicBoolean           started       = new AtomicBoolean();
+    private final AtomicBoolean           closed        = new AtomicBoolean();
+    /** consumer's and producer's shares of the delegate */
+    private final AtomicInteger           delegateRefs  = new AtomicInteger(2);
+    private volatile boolean              finished;
+    private volatile Throwable            producerError;
+    private Future<?>                     producer;
+
+    private Batch                         batch;
+    private int                           batchPos;
+    private RawScanResult                 current;
+    private int                           currentIndex  = -1;
+    private boolean                       eof;
+    private boolean                       direct;
+
+    /**
+     * 
+     * @param delegate
+     *            the scanner to prefetch from.
+     * @param es
+     *            executor to run producer in.
+     * @param depth
+     *            max number of batches fetched ahead of consumer.
+     * @param batchSize
+     *            number of results per batch.
+     * @param memoryLimit
+     *            approximate limit of bytes fetched ahead of consumer.
+     * @throws RejectedExecutionException
+     *             if producer could not be scheduled. Delegate is not closed in
+     *             this case, so the caller may continue with the delegate
+     *             instead.
+     */
+    public PrefetchingScanSpecScanner(AbstractScanSpecScanner delegate,
+                                      ExecutorService es,
+                                      int depth,
+                                      int batchSize,
+                                      long memoryLimit) {
+        super();
+        Validate.notNull(delegate);
+        Validate.isTrue(depth > 0, "prefetch depth must be positive");
+        Validate.isTrue(batchSize > 0, "prefetch batch size must be positive");
+
+        this.delegate = delegate;
+        this.batchSize = batchSize;
+        memoryLimitKb = memoryLimit <= 0 ? Integer.MAX_VALUE : (int) Math.min(Integer.MAX_VALUE, memoryLimit >>> 10);
+        queue = new ArrayBlockingQueue<Batch>(depth + 1);
+        memoryPermits = new Semaphore(memoryLimitKb);
+
+        delegate.setReuseResults(false);
+        try {
+            producer = es.submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    produce();
+                }
+            });
+        } catch (RejectedExecutionException exc) {
+            delegate.setReuseResults(true);
+            throw exc;
+        }
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        if (closed.get())
+            throw new IOException("Scanner is closed.");
+        if (direct)
+            return delegate.hasNext();
+        if (eof)
+            return false;
+        while (batch == null || batchPos >= batch.results.size()) {
+            if (batch != null) {
+                memoryPermits.release(batch.kb);
+                batch = null;
+            }
+            Batch b = queue.poll();
+            if (b == null && started.compareAndSet(false, true)) {
+                /*
+                 * producer is still waiting in the executor queue (it is
+                 * possible that the executor is busy with other producers which
+                 * in turn wait for the consumer). Don't wait for it, do the
+                 * work in the consumer's thread instead.
+                 */
+                producer.cancel(false);
+                direct = true;
+                delegate.setReuseResults(true);
+                releaseDelegate();
+                return delegate.hasNext();
+            }
+            while (b == null) {
+                if (finished) {
+                    // all batches are in the queue by now, with or without the end marker.
+                    b = queue.poll();
+                    if (b == null)
+                        b = EOF;
+                } else {
+                    try {
+                        b = queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException exc) {
+                        throw new InterruptedIOException("Interrupted while waiting for prefetched results.");
+                    }
+                    if (b == null && closed.get())
+                        b = CLOSED;
+                }
+            }
+            if (b == CLOSED)
+                throw new IOException("Scanner is closed.");
+            if (b == EOF) {
+                eof = true;
+                if (producerError != null) {
+                    if (producerError instanceof IOException)
+                        throw (IOException) producerError;
+                    throw new IOException(producerError.getMessage(), producerError);
+                }
+                return false;
+            }
+            batch = b;
+            batchPos = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public void next() throws IOException {
+        if (!hasNext())
+            throw new IOException("At the end of the iterator");
+        if (direct) {
+            delegate.next();
+            current = delegate.current();
+        } else
+            current = batch.results.get(batchPos++);
+        currentIndex++;
+    }
+
+    @Override
+    public RawScanResult current() throws IOException {
+        return current;
+    }
+
+    @Override
+    public int getCurrentIndex() throws IOException {
+        return currentIndex;
+    }
+
+    @Override
+    public ScanSpec getScanSpec() {
+        return delegate.getScanSpec();
+    }
+
+    /**
+     * Note: as long as the producer runs, these are updated by the producer
+     * thread.
+     */
+    @Override
+    public ScanStatistics getScanStatistics() {
+        return delegate.getScanStatistics();
+    }
+
+    @Override
+    public void close() throws IOException {
+        /*
+         * the cancelling thread and the consumer may close at the same time,
+         * and only one of them may give up the consumer's share.
+         */
+        if (!closed.compareAndSet(false, true))
+            return;
+
+        if (started.compareAndSet(false, true)) {
+            // producer never got to run, and now it won't.
+            producer.cancel(false);
+            releaseDelegate();
+        }
+        /*
+         * The producer is not interrupted: interrupting HBase client calls
+         * may tear down the connection shared by other queries. It stops
+         * once the current fetch returns, or within the poll interval if it
+         * waits for the consumer.
+         */
+        queue.clear();
+        // wake up the consumer if it waits
+        queue.offer(CLOSED);
+        releaseDelegate();
+    }
+
+    private void produce() {
+        if (!started.compareAndSet(false, true))
+            return;
+        try {
+            boolean more = true;
+            while (more && !closed.get()) {
+                List<RawScanResult> results = new ArrayList<RawScanResult>(batchSize);
+                long bytes = delegate.getBytesFetched();
+                while (results.size() < batchSize && (more = delegate.hasNext())) {
+                    delegate.next();
+                    results.add(delegate.current());
+                }
+                if (results.isEmpty())
+                    break;
+
+                int kb = (int) Math.min(memoryLimitKb, ((delegate.getBytesFetched() - bytes) >>> 10) + 1);
+                while (!memoryPermits.tryAcquire(kb, POLL_INTERVAL, TimeUnit.MILLISECONDS))
+                    if (closed.get())
+                        return;
+                Batch b = new Batch(results, kb);
+                while (!queue.offer(b, POLL_INTERVAL, TimeUnit.MILLISECONDS))
+                    if (closed.get())
+                        return;
+            }
+        } catch (InterruptedException exc) {
+            producerError = new InterruptedIOException("Prefetching interrupted.");
+        } catch (Throwable thr) {
+            producerError = thr;
+        } finally {
+            /*
+             * the consumer never waits for the end marker once it sees the
+             * flag, so it doesn't matter if the queue is full right now.
+             */
+            finished = true;
+            queue.offer(EOF);
+            try {
+                releaseDelegate();
+            } catch (IOException exc) {
+                s_log.warn("Error while closing prefetched scanner.", exc);
+            }
+        }
+    }
+
+    private void releaseDelegate() throws IOException {
+        if (delegateRefs.decrementAndGet() == 0)
+            delegate.close();
+    }
+
+    private static class Batch {
+        private final List<RawScanResult> results;
+        private final int                 kb;
+
+        Batch(List<RawScanResult> results, int kb) {
+            super();
+            this.results = results;
+            this.kb = kb;
+        }
+    }
+
+}
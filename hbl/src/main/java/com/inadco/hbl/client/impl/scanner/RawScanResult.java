@@ -23,7 +23,11 @@ import java.util.Comparator;
 
 import org.apache.hadoop.hbase.util.Bytes;
 
+import com.inadco.hbl.api.AggregateFunction;
 import com.inadco.hbl.api.AggregateFunctionRegistry;
+import com.inadco.hbl.api.AggregationView;
+import com.inadco.hbl.api.PrimitiveAccumulator;
+import com.inadco.hbl.api.PrimitiveAggregateFunction;
 import com.inadco.hbl.client.impl.SliceOperation;
 import com.inadco.hbl.protocodegen.Cells.Aggregation;
 
@@ -33,6 +37,18 @@ import com.inadco.hbl.protocodegen.Cells.Aggregation;
  * actual end-user result contracts.
  * <P>
  * 
+ * A measure is either an aggregation builder (an accumulator) or a raw
+ * serialized aggregation straight from the hbase cell (see
+ * {@link #setRawMeasure(int, byte[], int, int)}). Raw measures are merged into
+ * group accumulators without being decoded into messages first, and are only
+ * decoded if someone asks for {@link #getMeasures()}.
+ * <P>
+ * 
+ * Unless the query needs custom functions, groups are accumulated in a
+ * {@link PrimitiveAccumulator} rather than in the builders, which are then
+ * built only if someone asks for them, too.
+ * <P>
+ * 
  * @author dmitriy
  * 
  */
@@ -40,6 +56,9 @@ public class RawScanResult implements Cloneable {
 
     private byte[]                group;
     private Aggregation.Builder[] measures;
+    private AggregationView[]     rawMeasures;
+    private boolean               hasRawMeasures;
+    private PrimitiveAccumulator  accumulator;
     private SliceOperation        sliceOperation;
 
     public RawScanResult(ScanSpec ss) {
@@ -58,10 +77,95 @@ public class RawScanResult implements Cloneable {
         this.group = group;
     }
 
+    /**
+     * @return measure accumulators. Raw and primitive measures, if any, are
+     *         decoded at this point.
+     */
     public Aggregation.Builder[] getMeasures() {
+        for (int i = 0; i < measures.length; i++)
+            getMeasure(i);
+        hasRawMeasures = false;
         return measures;
     }
 
+    /**
+     * @return measure accumulator, decoded if needed, or null if there's
+     *         nothing in this measure.
+     */
+    public Aggregation.Builder getMeasure(int index) {
+        if (measures[index] != null)
+            return measures[index];
+        if (hasRawMeasures) {
+            AggregationView raw = rawMeasures[index];
+            if (raw != null && raw.isSet()) {
+                measures[index] = Aggregation.newBuilder();
+                raw.mergeTo(measures[index]);
+                raw.clear();
+                return measures[index];
+            }
+        }
+        if (accumulator != null && accumulator.isTouched(index)) {
+            measures[index] = Aggregation.newBuilder();
+            accumulator.save(index, measures[index]);
+        }
+        return measures[index];
+    }
+
+    /**
+     * Evaluate a function of a measure. Measures accumulated in primitive
+     * slots are evaluated in place if the function allows, without decoding
+     * them into builders.
+     */
+    public Object getAggrValue(int index, AggregateFunction af) {
+        if (isPrimitive(index) && af instanceof PrimitiveAggregateFunction)
+            return ((PrimitiveAggregateFunction) af).getAggrValue(accumulator, index);
+        Aggregation.Builder measure = getMeasure(index);
+        // the builder may be needed later
+        return af.getAggrValue(measure == null ? null : measure.clone().build());
+    }
+
+    /**
+     * @return true if the measure is in a primitive slot (and has not been
+     *         decoded), so primitive functions can be evaluated in place.
+     */
+    public boolean isPrimitive(int index) {
+        return measures[index] == null && accumulator != null
+            && !(hasRawMeasures && rawMeasures[index] != null && rawMeasures[index].isSet());
+    }
+
+    /**
+     * Unboxed {@link #getAggrValue(int, AggregateFunction)} of a measure in a
+     * primitive slot, see {@link #isPrimitive(int)}.
+     */
+    public double getDoubleValue(int index, PrimitiveAggregateFunction af) {
+        return af.getDoubleValue(accumulator, index);
+    }
+
+    public int getMeasureCount() {
+        return measures.length;
+    }
+
+    /**
+     * Set measure to reference serialized aggregation in place. The buffer is
+     * expected to stay intact for as long as this result is in use.
+     */
+    public void setRawMeasure(int index, byte[] buffer, int offset, int length) {
+        if (rawMeasures == null)
+            rawMeasures = new AggregationView[measures.length];
+        AggregationView raw = rawMeasures[index];
+        if (raw == null)
+            rawMeasures[index] = raw = new AggregationView();
+        raw.reset(buffer, offset, length);
+        measures[index] = null;
+        hasRawMeasures = true;
+    }
+
+    public void clearMeasure(int index) {
+        measures[index] = null;
+        if (rawMeasures != null && rawMeasures[index] != null)
+            rawMeasures[index].clear();
+    }
+
     public void setMeasures(Aggregation.Builder[] measures) {
         this.measures = measures;
     }
@@ -70,25 +174,96 @@ public class RawScanResult implements Cloneable {
     public Object clone() throws CloneNotSupportedException {
         RawScanResult result = (RawScanResult) super.clone();
         result.group = group.clone();
-        // TODO
-        // result.measures=
-        throw new CloneNotSupportedException();
+        // the copy holds decoded builders only.
+        result.measures = new Aggregation.Builder[measures.length];
+        for (int i = 0; i < measures.length; i++) {
+            Aggregation.Builder measure = getMeasure(i);
+            if (measure != null)
+                result.measures[i] = measure.clone();
+        }
+        result.rawMeasures = null;
+        result.hasRawMeasures = false;
+        result.accumulator = null;
+        return result;
     }
 
     public void reset() {
         Arrays.fill(measures, null);
+        if (accumulator != null)
+            accumulator.clear();
+        if (hasRawMeasures) {
+            for (AggregationView raw : rawMeasures)
+                if (raw != null)
+                    raw.clear();
+            hasRawMeasures = false;
+        }
     }
 
-    void mergeMeasures(RawScanResult other, AggregateFunctionRegistry afr, SliceOperation so) {
-        for (int i = 0; i < measures.length; i++) {
-            if (other.measures[i] != null) {
-                if (measures[i] == null)
-                    measures[i] = other.measures[i];
-                else {
-                    afr.mergeAll(measures[i], other.measures[i].clone().build(), so);
-                }
+    void mergeMeasures(RawScanResult other, MeasureFunctions mf, SliceOperation so) {
+        if (mf.isPrimitive()) {
+            mergePrimitiveMeasures(other, mf, so);
+            return;
+        }
+        AggregateFunctionRegistry afr = mf.getRegistry();
+        Aggregation.Builder[] accumulators = getMeasures();
+        for (int i = 0; i < accumulators.length; i++) {
+            AggregationView raw = other.hasRawMeasures ? other.rawMeasures[i] : null;
+            if (raw != null && raw.isSet()) {
+                if (accumulators[i] == null)
+                    accumulators[i] = Aggregation.newBuilder();
+                afr.mergeFunctions(mf.getFunctions(i), accumulators[i], raw, so);
+                continue;
+            }
+            Aggregation.Builder measure = other.getMeasure(i);
+            if (measure == null)
+                continue;
+            if (accumulators[i] == null && so == SliceOperation.ADD)
+                accumulators[i] = measure;
+            else {
+                /*
+                 * complement of nothing is still to be negated, so it can't
+                 * just be adopted.
+                 */
+                if (accumulators[i] == null)
+                    accumulators[i] = Aggregation.newBuilder();
+                afr.mergeFunctions(mf.getFunctions(i), accumulators[i], measure.clone().build(), so);
+            }
+        }
+    }
+
+    private void mergePrimitiveMeasures(RawScanResult other, MeasureFunctions mf, SliceOperation so) {
+        AggregateFunctionRegistry afr = mf.getRegistry();
+        if (accumulator == null) {
+            accumulator = new PrimitiveAccumulator(measures.length);
+            // whatever was in the builders so far, goes into the accumulator.
+            for (int i = 0; i < measures.length; i++) {
+                Aggregation.Builder measure = getMeasure(i);
+                if (measure != null)
+                    afr.mergeFunctions(mf.getFunctions(i), accumulator, i, viewOf(measure), SliceOperation.ADD);
             }
         }
+
+        for (int i = 0; i < measures.length; i++) {
+            AggregationView raw = other.hasRawMeasures ? other.rawMeasures[i] : null;
+            if (raw != null && raw.isSet())
+                afr.mergeFunctions(mf.getFunctions(i), accumulator, i, raw, so);
+            else if (other.accumulator != null && other.accumulator.isTouched(i))
+                afr.mergeFunctions(mf.getFunctions(i), accumulator, i, other.accumulator, i, so);
+            else if (other.measures[i] != null)
+                afr.mergeFunctions(mf.getFunctions(i), accumulator, i, viewOf(other.measures[i]), so);
+            else
+                continue;
+            // builder, if any, is stale now.
+            measures[i] = null;
+        }
+    }
+
+    /*
+     * rare case of builders merged into primitive accumulators.
+     */
+    private static AggregationView viewOf(Aggregation.Builder measure) {
+        byte[] bytes = measure.clone().build().toByteArray();
+        return new AggregationView(bytes, 0, bytes.length);
     }
 
     /**
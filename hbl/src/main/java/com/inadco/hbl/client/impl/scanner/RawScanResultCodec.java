@@ -0,0 +1,90 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.inadco.hbl.protocodegen.Cells.Aggregation;
+import com.inadco.hbl.util.HblUtil;
+
+/**
+ * Compact binary form of a sequence of (partially) aggregated groups.
+ * <P>
+ * 
+ * Each group is written as its group key (fixed length, known to both sides)
+ * followed by the measure aggregations in the scan spec order. Each measure is
+ * prefixed with var-encoded length of its serialized {@link Aggregation}
+ * incremented by 1, so that 0 stands for a missing (null) measure.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public final class RawScanResultCodec {
+
+    private RawScanResultCodec() {
+    }
+
+    public static void writeGroup(DataOutput out, byte[] group, Aggregation.Builder[] measures) throws IOException {
+        out.write(group);
+        for (Aggregation.Builder measure : measures) {
+            if (measure == null)
+                HblUtil.writeVarUint32(out, 0);
+            else {
+                byte[] bytes = measure.clone().build().toByteArray();
+                HblUtil.writeVarUint32(out, bytes.length + 1);
+                out.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * read next group into the holder.
+     * 
+     * @param bb
+     *            array-backed buffer positioned at the beginning of the group.
+     * @param holder
+     *            the holder to read group into. Group key length and number of
+     *            measures are assumed from the holder. Measures reference the
+     *            buffer in place, so it must stay intact while the holder is in
+     *            use.
+     * @return false if there are no more groups in the buffer.
+     * @throws IOException
+     */
+    public static boolean readGroup(ByteBuffer bb, RawScanResult holder) throws IOException {
+        if (!bb.hasRemaining())
+            return false;
+        bb.get(holder.getGroup());
+        int numMeasures = holder.getMeasureCount();
+        for (int i = 0; i < numMeasures; i++) {
+            int len = HblUtil.getVarUint32(bb);
+            if (len == 0) {
+                holder.clearMeasure(i);
+                continue;
+            }
+            len--;
+            holder.setRawMeasure(i, bb.array(), bb.arrayOffset() + bb.position(), len);
+            bb.position(bb.position() + len);
+        }
+        return true;
+    }
+
+}
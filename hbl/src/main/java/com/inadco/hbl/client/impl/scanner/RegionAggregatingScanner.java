@@ -0,0 +1,317 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTablePool;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.coprocessor.Batch;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.ipc.RemoteException;
+
+import com.inadco.hbl.client.ScanStatistics;
+import com.inadco.hbl.client.impl.HavingPredicate;
+import com.inadco.hbl.coprocessor.AggregationPage;
+import com.inadco.hbl.coprocessor.CuboidAggregationEndpoint;
+import com.inadco.hbl.coprocessor.CuboidAggregationProtocol;
+
+/**
+ * Scanner that asks regions to run the scan spec and partially aggregate it (
+ * {@link CuboidAggregationProtocol}) and then just iterates over the partial
+ * groups returned, in group order.
+ * <P>
+ * 
+ * Same group may be returned by more than one region if it spans region
+ * boundaries, but such partials are always adjacent, so the regular grouping
+ * decoration on top of this scanner takes care of them.
+ * <P>
+ * 
+ * Regions return their groups in pages of bounded size. The first pages of
+ * all regions are fetched in parallel up front; the next page of a region is
+ * only asked for once the consumer has iterated thru the previous one, so at
+ * most a page per region is held at a time.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class RegionAggregatingScanner extends AbstractScanSpecScanner {
+
+    /**
+     * region response size asked for, bytes
+     */
+    public static final int    PAGE_SIZE = CuboidAggregationEndpoint.DEFAULT_PAGE_SIZE;
+
+    private final HTablePool   tablePool;
+    private final byte[]       tableName;
+    private final String       cubeModelYaml;
+    private final Scan         scan;
+    private final byte[]       having;
+    private final int          pageSize;
+
+    private List<RegionCursor> cursors;
+    private int                cursorIndex;
+
+    /**
+     * 
+     * @param scanSpec
+     * @param tablePool
+     * @param cubeModelYaml
+     *            the cube model to re-create aggregate functions from on the
+     *            region side.
+     * @param splitStartKey
+     *            optional: see {@link FilteringScanSpecScanner}
+     * @param splitEndKey
+     *            optional: see {@link FilteringScanSpecScanner}
+     * @param inputFormatTableName
+     *            optional: see {@link FilteringScanSpecScanner}
+     * @throws IOException
+     *             if the scan failed, including the case when the endpoint is
+     *             not deployed on the cuboid table (see
+     *             {@link #isEndpointUnavailable(Throwable)}).
+     */
+    public RegionAggregatingScanner(ScanSpec scanSpec,
+                                    HTablePool tablePool,
+                                    String cubeModelYaml,
+                                    byte[] splitStartKey,
+                                    byte[] splitEndKey,
+                                    String inputFormatTableName) throws IOException {
+        this(scanSpec, tablePool, cubeModelYaml, splitStartKey, splitEndKey, inputFormatTableName, PAGE_SIZE);
+    }
+
+    /**
+     * 
+     * @param pageSize
+     *            max size of a region response (the endpoint may cap it
+     *            further). The rest as above.
+     */
+    public RegionAggregatingScanner(ScanSpec scanSpec,
+                                    HTablePool tablePool,
+                                    String cubeModelYaml,
+                                    byte[] splitStartKey,
+                                    byte[] splitEndKey,
+                                    String inputFormatTableName,
+                                    int pageSize) throws IOException {
+        super(scanSpec);
+        Validate.notNull(scanSpec);
+        Validate.notNull(cubeModelYaml);
+        Validate.notEmpty(scanSpec.getMeasureQualifiers(), "scan requested no measures");
+
+        String tableName = FilteringScanSpecScanner.checkTableName(scanSpec, inputFormatTableName);
+        this.tablePool = tablePool;
+        this.tableName = Bytes.toBytes(tableName);
+        this.cubeModelYaml = cubeModelYaml;
+        this.pageSize = pageSize;
+        int caching = scanSpec.getCuboid().getScanCaching();
+        if (caching <= 0)
+            caching = FilteringScanSpecScanner.CACHING;
+        scan = FilteringScanSpecScanner.createScan(scanSpec, caching, splitStartKey, splitEndKey);
+        having =
+            scanSpec.isHavingPushdown() && scanSpec.getHaving() != null ? HavingPredicate.toBytes(scanSpec.getHaving())
+                : null;
+        stats = new ScanStatistics(tableName, caching);
+
+        HTableInterface table = tablePool.getTable(this.tableName);
+        Validate.notNull(table);
+        Map<byte[], AggregationPage> firstPages;
+        long start = System.nanoTime();
+        try {
+            firstPages =
+                table.coprocessorExec(CuboidAggregationProtocol.class,
+                                      scan.getStartRow(),
+                                      scan.getStopRow(),
+                                      new Batch.Call<CuboidAggregationProtocol, AggregationPage>() {
+
+                                          @Override
+                                          public AggregationPage call(CuboidAggregationProtocol instance)
+                                              throws IOException {
+                                              return fetchPage(instance, scan);
+                                          }
+                                      });
+        } catch (IOException exc) {
+            throw exc;
+        } catch (Throwable thr) {
+            throw new IOException(thr.getMessage(), thr);
+        } finally {
+            table.close();
+        }
+
+        /*
+         * region calls run in parallel, so we attribute the total wait evenly
+         * to each of them.
+         */
+        long nanos = System.nanoTime() - start;
+        for (int i = 0; i < firstPages.size(); i++)
+            stats.addRpc(nanos / firstPages.size());
+
+        /*
+         * results are keyed by region names which don't necessarily sort the
+         * same way as the keys do, so we order them by the region start keys
+         * the pages report. Since regions don't overlap, that's the key order.
+         */
+        cursors = new ArrayList<RegionCursor>(firstPages.size());
+        for (AggregationPage page : firstPages.values())
+            if (page != null)
+                cursors.add(new RegionCursor(page, bound(page.getRegionEndKey(), scan.getStopRow())));
+
+        Collections.sort(cursors, new Comparator<RegionCursor>() {
+
+            @Override
+            public int compare(RegionCursor o1, RegionCursor o2) {
+                return Bytes.compareTo(o1.regionStartKey, o2.regionStartKey);
+            }
+        });
+    }
+
+    /**
+     * Tell failures caused by the endpoint not being there (not loaded for the
+     * table, or an older version without the method called) from the failures
+     * of the scan itself.
+     * 
+     * @param thr
+     *            failure of the region-side scan
+     * @return true if it makes sense to retry the scan on the client side.
+     */
+    public static boolean isEndpointUnavailable(Throwable thr) {
+        for (; thr != null; thr = thr.getCause()) {
+            String className =
+                thr instanceof RemoteException ? ((RemoteException) thr).getClassName() : thr.getClass().getName();
+            if (className.endsWith("UnknownProtocolException") || className.equals(NoSuchMethodException.class.getName()))
+                return true;
+            if (thr instanceof DoNotRetryIOException || className.equals(DoNotRetryIOException.class.getName()))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        cursors = null;
+    }
+
+    @Override
+    protected RawScanResult fetchNextRawResult(RawScanResult holder) throws IOException {
+        if (cursors == null)
+            throw new IOException("scanner closed");
+
+        while (cursorIndex < cursors.size()) {
+            RegionCursor cursor = cursors.get(cursorIndex);
+            ByteBuffer bb = cursor.page;
+            if (!bb.hasRemaining()) {
+                if (cursor.resumeKey == null)
+                    cursorIndex++;
+                else
+                    nextPage(cursor);
+                continue;
+            }
+
+            if (holder == null)
+                holder = new RawScanResult(scanSpec);
+            int pos = bb.position();
+            RawScanResultCodec.readGroup(bb, holder);
+            stats.addRow(bb.position() - pos);
+            return holder;
+        }
+        return null;
+    }
+
+    private AggregationPage fetchPage(CuboidAggregationProtocol instance, Scan pageScan) throws IOException {
+        return instance.aggregate(pageScan,
+                                  scanSpec.getMeasureQualifiers(),
+                                  scanSpec.getGroupKeyLen(),
+                                  cubeModelYaml,
+                                  having,
+                                  pageSize);
+    }
+
+    /**
+     * Ask the region for the groups starting at the resume key of the cursor.
+     * If the region has been split in the meanwhile, the daughter region
+     * holding the resume key only returns its own part, so the cursor then
+     * resumes at the daughter's end key till the original region's end is
+     * reached.
+     */
+    private void nextPage(RegionCursor cursor) throws IOException {
+        Scan pageScan = new Scan(scan);
+        pageScan.setStartRow(cursor.resumeKey);
+        pageScan.setStopRow(cursor.stopRow);
+
+        HTableInterface table = tablePool.getTable(tableName);
+        Validate.notNull(table);
+        AggregationPage page;
+        long start = System.nanoTime();
+        try {
+            page = fetchPage(table.coprocessorProxy(CuboidAggregationProtocol.class, cursor.resumeKey), pageScan);
+        } finally {
+            table.close();
+        }
+        stats.addRpc(System.nanoTime() - start);
+
+        cursor.page = ByteBuffer.wrap(page.getGroups());
+        cursor.resumeKey = page.getResumeKey();
+        byte[] regionEnd = page.getRegionEndKey();
+        if (cursor.resumeKey == null && regionEnd.length > 0
+            && (cursor.stopRow.length == 0 || Bytes.compareTo(regionEnd, cursor.stopRow) < 0))
+            cursor.resumeKey = regionEnd;
+    }
+
+    /**
+     * @return the lesser of the two exclusive ends, empty standing for the end
+     *         of the table.
+     */
+    private static byte[] bound(byte[] end1, byte[] end2) {
+        if (end1 == null || end1.length == 0)
+            return end2 == null ? HConstants.EMPTY_END_ROW : end2;
+        if (end2 == null || end2.length == 0)
+            return end1;
+        return Bytes.compareTo(end1, end2) <= 0 ? end1 : end2;
+    }
+
+    /**
+     * Groups of a single region: the current page and where to ask for the
+     * next one.
+     */
+    private static class RegionCursor {
+
+        private final byte[] regionStartKey;
+        private final byte[] stopRow;
+        private ByteBuffer   page;
+        private byte[]       resumeKey;
+
+        RegionCursor(AggregationPage firstPage, byte[] stopRow) {
+            super();
+            regionStartKey = firstPage.getRegionStartKey();
+            this.stopRow = stopRow;
+            page = ByteBuffer.wrap(firstPage.getGroups());
+            resumeKey = firstPage.getResumeKey();
+        }
+    }
+
+}
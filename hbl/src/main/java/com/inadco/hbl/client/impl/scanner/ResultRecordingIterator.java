@@ -0,0 +1,113 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import com.inadco.datastructs.InputIterator;
+import com.inadco.hbl.client.impl.QueryResultCache;
+
+/**
+ * Decorator that records the result rows as they go by and puts them into the
+ * result cache once (and only if) the end of the results is reached.
+ * <P>
+ * 
+ * Recording is abandoned as soon as the rows outgrow the cache.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class ResultRecordingIterator implements InputIterator<RawScanResult> {
+
+    private InputIterator<RawScanResult> delegate;
+    private QueryResultCache             cache;
+    private QueryResultCache.Key         key;
+    private long                         generation;
+    private boolean                      sealed;
+    private ByteArrayOutputStream        bos = new ByteArrayOutputStream();
+    private DataOutputStream             dos = new DataOutputStream(bos);
+
+    /**
+     * 
+     * @param delegate
+     *            the result rows, fully grouped.
+     * @param cache
+     * @param key
+     * @param generation
+     *            cache generation observed before results started being
+     *            computed
+     * @param sealed
+     *            true if the results are of the sealed (immutable) data.
+     */
+    public ResultRecordingIterator(InputIterator<RawScanResult> delegate,
+                                   QueryResultCache cache,
+                                   QueryResultCache.Key key,
+                                   long generation,
+                                   boolean sealed) {
+        super();
+        this.delegate = delegate;
+        this.cache = cache;
+        this.key = key;
+        this.generation = generation;
+        this.sealed = sealed;
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        boolean hasNext = delegate.hasNext();
+        if (!hasNext && bos != null) {
+            cache.put(key, bos.toByteArray(), generation, sealed);
+            bos = null;
+        }
+        return hasNext;
+    }
+
+    @Override
+    public void next() throws IOException {
+        delegate.next();
+        if (bos != null) {
+            RawScanResult current = delegate.current();
+            RawScanResultCodec.writeGroup(dos, current.getGroup(), current.getMeasures());
+            if (bos.size() > cache.getMaxBytes())
+                bos = null;
+        }
+    }
+
+    @Override
+    public RawScanResult current() throws IOException {
+        return delegate.current();
+    }
+
+    @Override
+    public int getCurrentIndex() throws IOException {
+        return delegate.getCurrentIndex();
+    }
+
+    /**
+     * Doesn't close the delegate, the owner of the delegate does.
+     */
+    @Override
+    public void close() throws IOException {
+        bos = null;
+    }
+
+}
@@ -20,6 +20,7 @@ package com.inadco.hbl.client.impl.scanner;
 
 import com.inadco.hbl.api.Cuboid;
 import com.inadco.hbl.api.Range;
+import com.inadco.hbl.client.impl.HavingPredicate;
 import com.inadco.hbl.client.impl.SliceOperation;
 
 /**
@@ -30,17 +31,43 @@ import com.inadco.hbl.client.impl.SliceOperation;
  * 
  */
 public class ScanSpec {
-    private Range[]        ranges;
+    private Range[]           ranges;
 
     // need this to filter hierarchy keys for depth
-    private Cuboid         cuboid;
+    private Cuboid            cuboid;
 
     // this is not used by grouping scanner, but
     // it is subsequently used by group merging iterator
-    private SliceOperation sliceOperation;
+    private SliceOperation    sliceOperation;
 
-    private byte[][]       measureQualifiers;
-    private int            groupKeyLen;
+    private byte[][]          measureQualifiers;
+    private int               groupKeyLen;
+
+    /*
+     * (offset, length) pairs of the row key fields the group key is packed
+     * from, null if the group key is just the row key prefix.
+     */
+    private int[]             groupKeyFields;
+
+    /*
+     * names of the functions to merge per measure, null if all of them.
+     */
+    private String[][]        measureFunctions;
+
+    /*
+     * HAVING predicates of the query, null if none. If pushed down, they may
+     * be evaluated on the region side already.
+     */
+    private HavingPredicate[] having;
+    private boolean           havingPushdown;
+
+    /*
+     * specs of the same segment are merged and grouped together before they
+     * are merged with other segments. Sealed segments only read data that
+     * doesn't change anymore.
+     */
+    private int               segment;
+    private boolean           sealed;
 
     public ScanSpec(byte[][] measureQualifiers,
                     int groupKeyLen,
@@ -75,4 +102,73 @@ public class ScanSpec {
         return groupKeyLen;
     }
 
+    /**
+     * @return (offset, length) pairs of the row key fields the group key is
+     *         packed from, or null if the group key is the row key prefix of
+     *         {@link #getGroupKeyLen()} bytes. Packed group keys don't come out
+     *         of the scan in order, so they need hash grouping.
+     */
+    public int[] getGroupKeyFields() {
+        return groupKeyFields;
+    }
+
+    public void setGroupKeyFields(int[] groupKeyFields) {
+        this.groupKeyFields = groupKeyFields;
+    }
+
+    /**
+     * @return names of the functions the query needs per measure (in the
+     *         order of {@link #getMeasureQualifiers()}), or null if all of the
+     *         functions are to be merged.
+     */
+    public String[][] getMeasureFunctions() {
+        return measureFunctions;
+    }
+
+    public void setMeasureFunctions(String[][] measureFunctions) {
+        this.measureFunctions = measureFunctions;
+    }
+
+    /**
+     * @return HAVING predicates of the query, with measure indices in the
+     *         order of {@link #getMeasureQualifiers()}, or null.
+     */
+    public HavingPredicate[] getHaving() {
+        return having;
+    }
+
+    public void setHaving(HavingPredicate[] having) {
+        this.having = having;
+    }
+
+    /**
+     * @return true if the groups of this scan are final (every group is a
+     *         single row of the cuboid, and there are no complements), so the
+     *         HAVING predicates may be evaluated by the region side aggregation
+     *         already.
+     */
+    public boolean isHavingPushdown() {
+        return havingPushdown;
+    }
+
+    public void setHavingPushdown(boolean havingPushdown) {
+        this.havingPushdown = havingPushdown;
+    }
+
+    public int getSegment() {
+        return segment;
+    }
+
+    public void setSegment(int segment) {
+        this.segment = segment;
+    }
+
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    public void setSealed(boolean sealed) {
+        this.sealed = sealed;
+    }
+
 }
@@ -0,0 +1,43 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import com.inadco.datastructs.InputIterator;
+import com.inadco.hbl.client.ScanStatistics;
+
+/**
+ * Iterator over raw (not yet grouped) scan results produced for a single scan
+ * spec, regardless of where the scan is actually run (in the client or on the
+ * region side).
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public interface ScanSpecScanner extends InputIterator<RawScanResult> {
+
+    ScanSpec getScanSpec();
+
+    /**
+     * @return statistics of the scan so far, may be null if the scanner
+     *         doesn't keep them.
+     */
+    ScanStatistics getScanStatistics();
+
+}
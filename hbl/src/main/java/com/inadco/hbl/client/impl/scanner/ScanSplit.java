@@ -0,0 +1,108 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * A key range of a cuboid table scanned as a unit, along with the region
+ * server that hosts it (if known).
+ * <P>
+ * 
+ * Start key is inclusive, end key is exclusive; null (or empty) end key means
+ * till the end of the table.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class ScanSplit {
+
+    private final byte[] startKey;
+    private final byte[] endKey;
+    private final String server;
+
+    public ScanSplit(byte[] startKey, byte[] endKey, String server) {
+        super();
+        this.startKey = startKey == null ? new byte[0] : startKey;
+        this.endKey = endKey == null || endKey.length == 0 ? null : endKey;
+        this.server = server;
+    }
+
+    public byte[] getStartKey() {
+        return startKey;
+    }
+
+    /**
+     * @return end key, null if till the end of the table.
+     */
+    public byte[] getEndKey() {
+        return endKey;
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * Intersect the scan range with the regions.
+     * 
+     * @param startRow
+     *            inclusive start of the scan
+     * @param stopRow
+     *            exclusive end of the scan, null or empty if till the end of
+     *            the table.
+     * @param regions
+     *            regions of the table in the key order
+     * @return parts of the scan range falling into each of the regions the
+     *         range touches, in the key order.
+     */
+    public static List<ScanSplit> split(byte[] startRow, byte[] stopRow, List<ScanSplit> regions) {
+        if (startRow == null)
+            startRow = new byte[0];
+        if (stopRow != null && stopRow.length == 0)
+            stopRow = null;
+
+        List<ScanSplit> splits = new ArrayList<ScanSplit>();
+        for (ScanSplit region : regions) {
+            if (stopRow != null && Bytes.compareTo(region.startKey, stopRow) >= 0)
+                break;
+            if (region.endKey != null && Bytes.compareTo(region.endKey, startRow) <= 0)
+                continue;
+            byte[] start = Bytes.compareTo(region.startKey, startRow) < 0 ? startRow : region.startKey;
+            byte[] end = stopRow;
+            if (region.endKey != null && (stopRow == null || Bytes.compareTo(region.endKey, stopRow) < 0))
+                end = region.endKey;
+            splits.add(new ScanSplit(start, end, region.server));
+        }
+        return splits;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ScanSplit [start=%s, end=%s, server=%s]",
+                             Bytes.toStringBinary(startKey),
+                             endKey == null ? "" : Bytes.toStringBinary(endKey),
+                             server);
+    }
+
+}
@@ -0,0 +1,368 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTablePool;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.log4j.Logger;
+
+import com.inadco.hbl.client.HblAdmin;
+import com.inadco.hbl.client.ScanStatistics;
+import com.inadco.hbl.util.HblUtil;
+import com.inadco.hbl.util.IOUtil;
+
+/**
+ * A single hbase scan serving several scan specs of the same cuboid table
+ * (normally, of different queries executed together): the scan covers the
+ * union of the key ranges and each row it brings is handed to every scan spec
+ * whose ranges it falls into.
+ * <P>
+ * 
+ * Each scan spec gets its own scanner ({@link Member}) with a queue of the
+ * rows fetched for it but not consumed yet. Whichever member runs out of rows
+ * first drives the scan. A member whose queue grows over the memory limit
+ * (its consumer is lagging or hasn't started yet) stops being fed and, once
+ * its queue is drained, continues with a scan of its own from the row after
+ * the last one it got.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class SharedScan {
+
+    private static final Logger  s_log      = Logger.getLogger(SharedScan.class);
+
+    private final List<Member>   members    = new ArrayList<Member>();
+    private final HTablePool     tablePool;
+    private final String         tableName;
+    private final int            caching;
+    private final long           memoryLimit;
+    private final ScanStatistics stats;
+    private Deque<Closeable>     closeables = new ArrayDeque<Closeable>();
+    private ResultScanner        scanner;
+    private boolean              exhausted;
+
+    enum State {
+        SHARED, DETACHED, CLOSED
+    }
+
+    /**
+     * 
+     * @param scanSpecs
+     *            scan specs of the same cuboid
+     * @param tablePool
+     * @param caching
+     *            rows per RPC, if not positive, the cuboid's caching or
+     *            {@link FilteringScanSpecScanner#CACHING} is used.
+     * @param memoryLimit
+     *            approximate max number of bytes queued per scan spec.
+     */
+    public SharedScan(List<ScanSpec> scanSpecs, HTablePool tablePool, int caching, long memoryLimit)
+        throws IOException {
+        super();
+        Validate.notEmpty(scanSpecs);
+        Validate.notNull(tablePool);
+        this.tablePool = tablePool;
+        this.memoryLimit = memoryLimit;
+
+        tableName = scanSpecs.get(0).getCuboid().getCuboidTableName();
+        if (caching <= 0)
+            caching = scanSpecs.get(0).getCuboid().getScanCaching();
+        if (caching <= 0)
+            caching = FilteringScanSpecScanner.CACHING;
+        this.caching = caching;
+        stats = new ScanStatistics(tableName, caching);
+
+        for (ScanSpec scanSpec : scanSpecs) {
+            Validate.isTrue(tableName.equals(scanSpec.getCuboid().getCuboidTableName()),
+                            "scan specs of a shared scan must be of the same cuboid");
+            members.add(new Member(scanSpec));
+        }
+    }
+
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    /**
+     * @return statistics of the shared hbase scan.
+     */
+    public ScanStatistics getScanStatistics() {
+        return stats;
+    }
+
+    /**
+     * No more members will be opened: stop queueing rows for the ones that
+     * haven't been.
+     */
+    public synchronized void seal() throws IOException {
+        for (Member member : members) {
+            if (!member.opened && member.state != State.CLOSED) {
+                member.state = State.CLOSED;
+                member.clearQueue();
+            }
+        }
+        closeIfIdle();
+    }
+
+    private void open() throws IOException {
+        List<CompositeKeyRowFilter> filters = new ArrayList<CompositeKeyRowFilter>(members.size());
+        List<byte[]> measureQualifiers = new ArrayList<byte[]>();
+        byte[] startRow = null;
+        byte[] endRow = null;
+        boolean unbounded = false;
+        for (Member member : members) {
+            if (member.state != State.SHARED)
+                continue;
+            CompositeKeyRowFilter krf = new CompositeKeyRowFilter(member.scanSpec.getRanges());
+            filters.add(krf);
+
+            byte[] lower = krf.getCompositeBound(true);
+            byte[] upper = krf.getCompositeBound(false);
+            if (HblUtil.incrementKey(upper, 0, upper.length))
+                unbounded = true;
+            if (startRow == null || Bytes.compareTo(lower, startRow) < 0)
+                startRow = lower;
+            if (endRow == null || Bytes.compareTo(upper, endRow) > 0)
+                endRow = upper;
+
+            for (byte[] measureQualifier : member.scanSpec.getMeasureQualifiers()) {
+                boolean found = false;
+                for (byte[] mq : measureQualifiers)
+                    if (found = Bytes.equals(mq, measureQualifier))
+                        break;
+                if (!found)
+                    measureQualifiers.add(measureQualifier);
+            }
+        }
+
+        Scan scan = new Scan();
+        scan.setCaching(caching);
+        scan.setStartRow(startRow);
+        if (!unbounded)
+            scan.setStopRow(endRow);
+        for (byte[] measureQualifier : measureQualifiers)
+            scan.addColumn(HblAdmin.HBL_METRIC_FAMILY, measureQualifier);
+        scan.setFilter(new UnionKeyRowFilter(filters.toArray(new CompositeKeyRowFilter[filters.size()])));
+
+        HTableInterface table = tablePool.getTable(Bytes.toBytes(tableName));
+        Validate.notNull(table);
+        try {
+            scanner = table.getScanner(scan);
+            closeables.addFirst(scanner);
+        } finally {
+            table.close();
+        }
+    }
+
+    /**
+     * Fetch the next row and queue it for the members it belongs to. Called
+     * with the lock held.
+     * 
+     * @param driver
+     *            the member waiting for the row.
+     */
+    private void fetch(Member driver) throws IOException {
+        if (scanner == null)
+            open();
+
+        boolean rpc = stats.getRows() % stats.getCaching() == 0;
+        long start = rpc ? System.nanoTime() : 0;
+        Result r = scanner.next();
+        if (rpc) {
+            long nanos = System.nanoTime() - start;
+            stats.addRpc(nanos);
+            driver.stats.addRpc(nanos);
+        }
+        if (r == null) {
+            exhausted = true;
+            closeIfIdle();
+            return;
+        }
+
+        KeyValue[] kvs = r.raw();
+        long rowBytes = rowBytes(kvs);
+        stats.addRow(rowBytes);
+
+        KeyValue first = kvs[0];
+        for (Member member : members) {
+            if (member.state != State.SHARED)
+                continue;
+            if (!member.filter.matches(first.getBuffer(), first.getRowOffset(), first.getRowLength()))
+                continue;
+            if (!member.hasMeasures(kvs))
+                continue;
+            if (!member.queue.isEmpty() && member.queuedBytes + rowBytes > memoryLimit) {
+                if (s_log.isDebugEnabled())
+                    s_log.debug(String.format("Scan of %s detached from the shared scan after %d bytes queued.",
+                                              tableName,
+                                              member.queuedBytes));
+                member.state = State.DETACHED;
+                continue;
+            }
+            member.queue.add(kvs);
+            member.queuedBytes += rowBytes;
+            member.lastRow = first.getRow();
+        }
+        closeIfIdle();
+    }
+
+    /**
+     * close the hbase scan once no member is fed by it any more.
+     */
+    private void closeIfIdle() throws IOException {
+        if (closeables.isEmpty())
+            return;
+        if (!exhausted)
+            for (Member member : members)
+                if (member.state == State.SHARED)
+                    return;
+        IOUtil.closeAll(closeables);
+        if (s_log.isDebugEnabled())
+            s_log.debug(String.format("Shared scan of %s for %d scan specs done: %s.",
+                                      tableName,
+                                      members.size(),
+                                      stats));
+    }
+
+    private static long rowBytes(KeyValue[] kvs) {
+        long rowBytes = 0;
+        for (KeyValue kv : kvs)
+            rowBytes += kv.getLength();
+        return rowBytes;
+    }
+
+    /**
+     * Scanner of one of the scan specs of the shared scan.
+     * 
+     */
+    public class Member extends AbstractScanSpecScanner {
+
+        private final CompositeKeyRowFilter filter;
+        private final Deque<KeyValue[]>     queue = new ArrayDeque<KeyValue[]>();
+        private long                        queuedBytes;
+        private byte[]                      lastRow;
+        private State                       state = State.SHARED;
+        private boolean                     opened;
+        private FilteringScanSpecScanner    privateScanner;
+
+        Member(ScanSpec scanSpec) throws IOException {
+            super(scanSpec);
+            Validate.notEmpty(scanSpec.getMeasureQualifiers(), "scan requested no measures");
+            filter = new CompositeKeyRowFilter(scanSpec.getRanges());
+            stats = new ScanStatistics(tableName, caching);
+        }
+
+        /**
+         * Claim the member for a consumer.
+         * 
+         * @return self
+         */
+        public Member open() {
+            synchronized (SharedScan.this) {
+                Validate.isTrue(!opened && state != State.CLOSED, "shared scan member is not available");
+                opened = true;
+                return this;
+            }
+        }
+
+        @Override
+        protected RawScanResult fetchNextRawResult(RawScanResult holder) throws IOException {
+            KeyValue[] kvs;
+            FilteringScanSpecScanner ps;
+            synchronized (SharedScan.this) {
+                while (queue.isEmpty() && state == State.SHARED && !exhausted)
+                    fetch(this);
+                if (state == State.CLOSED)
+                    return null;
+                kvs = queue.poll();
+                if (kvs != null)
+                    queuedBytes -= rowBytes(kvs);
+                else if (state == State.SHARED)
+                    return null;
+                else if (privateScanner == null) {
+                    // detached: carry on from the row after the last one we got.
+                    byte[] startRow = lastRow == null ? null : Arrays.copyOf(lastRow, lastRow.length + 1);
+                    privateScanner =
+                        new FilteringScanSpecScanner(scanSpec, tablePool, caching, null, startRow, null, null);
+                }
+                ps = privateScanner;
+            }
+
+            if (kvs == null)
+                return ps.fetchNextRawResult(holder);
+
+            if (holder == null)
+                holder = new RawScanResult(scanSpec);
+            FilteringScanSpecScanner.setRawResult(scanSpec, kvs, holder);
+            stats.addRow(rowBytes(kvs));
+            return holder;
+        }
+
+        private boolean hasMeasures(KeyValue[] kvs) {
+            for (KeyValue kv : kvs)
+                for (byte[] measureQualifier : scanSpec.getMeasureQualifiers())
+                    if (kv.matchingQualifier(measureQualifier))
+                        return true;
+            return false;
+        }
+
+        private void clearQueue() {
+            queue.clear();
+            queuedBytes = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            FilteringScanSpecScanner ps;
+            synchronized (SharedScan.this) {
+                if (state == State.CLOSED)
+                    return;
+                state = State.CLOSED;
+                clearQueue();
+                ps = privateScanner;
+                closeIfIdle();
+            }
+            if (ps != null) {
+                try {
+                    ps.close();
+                } finally {
+                    stats.add(ps.getScanStatistics());
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+import org.apache.hadoop.hbase.client.HTablePool;
+
+import com.inadco.hbl.client.ScanStatistics;
+
+/**
+ * Shared scans of a batch of queries executed together: scan specs of the
+ * same cuboid table are served by a single {@link SharedScan}. Scan specs are
+ * told apart by identity, as different queries may well come up with equal
+ * ones.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class SharedScans {
+
+    /**
+     * default max number of bytes queued per scan spec before it gets its own
+     * scan.
+     */
+    public static final long                       DEFAULT_MEMORY_LIMIT = 1 << 24;
+
+    private final List<SharedScan>                 scans                = new ArrayList<SharedScan>();
+    private final Map<ScanSpec, SharedScan.Member> members              =
+        new IdentityHashMap<ScanSpec, SharedScan.Member>();
+
+    /**
+     * 
+     * @param scanSpecs
+     *            scan specs that may be shared. Those that are the only ones
+     *            of their cuboid table are left alone.
+     * @param tablePool
+     * @param caching
+     *            rows per RPC, 0 to let the cuboid decide.
+     * @param memoryLimit
+     *            approximate max number of bytes queued per scan spec.
+     * @throws IOException
+     */
+    public SharedScans(List<ScanSpec> scanSpecs, HTablePool tablePool, int caching, long memoryLimit)
+        throws IOException {
+        super();
+        Validate.notNull(scanSpecs);
+        Map<String, List<ScanSpec>> tableSpecs = new LinkedHashMap<String, List<ScanSpec>>();
+        for (ScanSpec scanSpec : scanSpecs) {
+            String tableName = scanSpec.getCuboid().getCuboidTableName();
+            List<ScanSpec> specs = tableSpecs.get(tableName);
+            if (specs == null)
+                tableSpecs.put(tableName, specs = new ArrayList<ScanSpec>());
+            specs.add(scanSpec);
+        }
+        for (List<ScanSpec> specs : tableSpecs.values()) {
+            if (specs.size() < 2)
+                continue;
+            SharedScan scan = new SharedScan(specs, tablePool, caching, memoryLimit);
+            scans.add(scan);
+            for (SharedScan.Member member : scan.getMembers())
+                members.put(member.getScanSpec(), member);
+        }
+    }
+
+    public boolean isEmpty() {
+        return scans.isEmpty();
+    }
+
+    public boolean isShared(ScanSpec scanSpec) {
+        return members.containsKey(scanSpec);
+    }
+
+    /**
+     * @return scanner of a shared scan spec.
+     */
+    public AbstractScanSpecScanner open(ScanSpec scanSpec) {
+        SharedScan.Member member = members.get(scanSpec);
+        Validate.notNull(member, "scan spec is not shared");
+        return member.open();
+    }
+
+    /**
+     * All the queries of the batch have started: the shared scan specs that
+     * haven't been opened by now (e.g. because the results came from the
+     * cache) won't be.
+     */
+    public void seal() throws IOException {
+        for (SharedScan scan : scans)
+            scan.seal();
+    }
+
+    /**
+     * @return statistics of the hbase scans actually run for the shared scan
+     *         specs (as opposed to the statistics of the queries).
+     */
+    public List<ScanStatistics> getScanStatistics() {
+        List<ScanStatistics> stats = new ArrayList<ScanStatistics>(scans.size());
+        for (SharedScan scan : scans)
+            stats.add(scan.getScanStatistics());
+        return stats;
+    }
+
+}
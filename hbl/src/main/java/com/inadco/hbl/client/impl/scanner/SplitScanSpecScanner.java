@@ -0,0 +1,387 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.lang.Validate;
+import org.apache.hadoop.hbase.client.HTablePool;
+import org.apache.hadoop.hbase.client.Scan;
+
+import com.inadco.hbl.client.ScanStatistics;
+import com.inadco.hbl.client.ScannerCachingPolicy;
+
+/**
+ * Scan of a single scan spec split at the region boundaries of the cuboid
+ * table.
+ * <P>
+ * 
+ * Region parts are scanned in the background on the client executor, as many
+ * at a time as the query's {@link ParallelScanContext} allows, and their
+ * outputs are concatenated in the key order. Since the parts are disjoint
+ * consecutive key ranges, the concatenation is exactly what a single scan
+ * would have produced, and groups that straddle a region boundary still come
+ * out adjacent for the downstream grouping to fold. Parts that couldn't get a
+ * permit (or an executor thread) by the time the consumer gets to them are
+ * scanned in the consumer's thread.
+ * <P>
+ * 
+ * The scanner may be closed from another thread (query cancellation) while
+ * the consumer is in the middle of a fetch; the consumer then fails with an
+ * IOException rather than seeing a truncated scan.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class SplitScanSpecScanner implements ScanSpecScanner {
+
+    /**
+     * batches fetched ahead per region part, unless query asks for prefetching
+     * explicitly.
+     */
+    public static final int            DEFAULT_DEPTH = 2;
+
+    private final ScanSpec             scanSpec;
+    private final ExecutorService      es;
+    private final HTablePool           tablePool;
+    private final int                  caching;
+    private final ScannerCachingPolicy cachingPolicy;
+    private final ParallelScanContext  context;
+    private final int                  depth;
+    private final int                  batchSize;
+    private final long                 memoryLimit;
+
+    private final List<ScanSplit>      splits;
+    private final ScanSpecScanner[]    parts;
+    private final boolean[]            permits;
+    private final List<PartScanner>    opened        = new ArrayList<PartScanner>();
+
+    private int                        part;
+    private volatile boolean           closed;
+
+    /*
+     * consumer's side
+     */
+    private ScanSpecScanner            active;
+    private RawScanResult              current;
+    private int                        currentIndex  = -1;
+
+    /**
+     * 
+     * @param scanSpec
+     * @param es
+     *            executor to run region parts in.
+     * @param tablePool
+     * @param caching
+     *            caching requested by the query (see
+     *            {@link FilteringScanSpecScanner}).
+     * @param cachingPolicy
+     *            optional: client's caching policy
+     * @param splits
+     *            region parts of the scan in the key order (see
+     *            {@link #split(ScanSpec, HTablePool, ParallelScanContext, byte[], byte[], String)}
+     *            ).
+     * @param context
+     *            parallel scan state of the query.
+     * @param depth
+     *            max number of batches fetched ahead per region part, 0 for
+     *            {@link #DEFAULT_DEPTH}.
+     * @param memoryLimit
+     *            approximate limit of bytes fetched ahead per region part, 0
+     *            if limited by the depth only.
+     */
+    public SplitScanSpecScanner(ScanSpec scanSpec,
+                                ExecutorService es,
+                                HTablePool tablePool,
+                                int caching,
+                                ScannerCachingPolicy cachingPolicy,
+                                List<ScanSplit> splits,
+                                ParallelScanContext context,
+                                int depth,
+                                long memoryLimit) {
+        super();
+        Validate.notNull(scanSpec);
+        Validate.notEmpty(splits);
+        Validate.notNull(context);
+
+        this.scanSpec = scanSpec;
+        this.es = es;
+        this.tablePool = tablePool;
+        this.caching = caching;
+        this.cachingPolicy = cachingPolicy;
+        this.splits = splits;
+        this.context = context;
+        this.depth = depth > 0 ? depth : DEFAULT_DEPTH;
+        this.memoryLimit = memoryLimit;
+
+        int bs = caching > 0 ? caching : scanSpec.getCuboid().getScanCaching();
+        batchSize = bs > 0 ? bs : FilteringScanSpecScanner.CACHING;
+
+        parts = new ScanSpecScanner[splits.size()];
+        permits = new boolean[splits.size()];
+        launch();
+    }
+
+    /**
+     * Split the scan of the scan spec at the region boundaries of its cuboid
+     * table.
+     * 
+     * @param scanSpec
+     * @param tablePool
+     * @param context
+     * @param splitStartKey
+     *            optional: input split's requested beginning of the table
+     * @param splitEndKey
+     *            optional: input split's requested end of the table (half-open;
+     *            null value means till the end of the table)
+     * @param inputFormatTableName
+     *            optional: input format's table name used to assert idempotency
+     *            of execution accross all split tasks.
+     * @return region parts of the scan, in the key order.
+     * @throws IOException
+     */
+    public static List<ScanSplit> split(ScanSpec scanSpec,
+                                        HTablePool tablePool,
+                                        ParallelScanContext context,
+                                        byte[] splitStartKey,
+                                        byte[] splitEndKey,
+                                        String inputFormatTableName) throws IOException {
+        String tableName = FilteringScanSpecScanner.checkTableName(scanSpec, inputFormatTableName);
+        Scan scan = FilteringScanSpecScanner.createScan(scanSpec, 1, splitStartKey, splitEndKey);
+        List<ScanSplit> regions = context.getRegions(tablePool, tableName, scan.getStartRow(), scan.getStopRow());
+        return ScanSplit.split(scan.getStartRow(), scan.getStopRow(), regions);
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        while (true) {
+            ScanSpecScanner scanner;
+            int i;
+            synchronized (this) {
+                if (closed)
+                    throw new IOException("Scanner is closed.");
+                if (part >= parts.length)
+                    return false;
+                i = part;
+                if (parts[i] == null)
+                    parts[i] = open(new PartScanner(splits.get(i)));
+                scanner = parts[i];
+            }
+            // fetch outside of the lock so that close() is never blocked by it.
+            if (scanner.hasNext()) {
+                active = scanner;
+                return true;
+            }
+            closePart(i);
+            synchronized (this) {
+                if (part == i)
+                    part++;
+                if (!closed)
+                    launch();
+            }
+        }
+    }
+
+    @Override
+    public void next() throws IOException {
+        if (!hasNext())
+            throw new IOException("At the end of the iterator");
+        active.next();
+        current = active.current();
+        currentIndex++;
+    }
+
+    @Override
+    public RawScanResult current() throws IOException {
+        return current;
+    }
+
+    @Override
+    public int getCurrentIndex() throws IOException {
+        return currentIndex;
+    }
+
+    @Override
+    public ScanSpec getScanSpec() {
+        return scanSpec;
+    }
+
+    /**
+     * Note: region parts running in background update their statistics in
+     * their own threads, so the totals are only consistent once the scan is
+     * over.
+     */
+    @Override
+    public synchronized ScanStatistics getScanStatistics() {
+        ScanStatistics total = null;
+        for (PartScanner scanner : opened) {
+            ScanStatistics ss = scanner.getScanStatistics();
+            if (ss == null)
+                continue;
+            if (total == null)
+                total = new ScanStatistics(ss.getTableName(), ss.getCaching());
+            total.add(ss);
+        }
+        return total;
+    }
+
+    @Override
+    public void close() throws IOException {
+        int from;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            from = part;
+        }
+        IOException lastExc = null;
+        for (int i = from; i < parts.length; i++) {
+            try {
+                closePart(i);
+            } catch (IOException exc) {
+                lastExc = exc;
+            }
+        }
+        if (lastExc != null)
+            throw lastExc;
+    }
+
+    /**
+     * Start background scans of the region parts ahead of the consumer, as
+     * far as the permits allow. Called with the lock held.
+     */
+    private void launch() {
+        for (int i = part; i < parts.length && !context.isSaturated(); i++) {
+            if (parts[i] != null)
+                continue;
+            String server = splits.get(i).getServer();
+            if (!context.tryAcquire(server))
+                continue;
+            PartScanner scanner = new PartScanner(splits.get(i));
+            try {
+                parts[i] = new PrefetchingScanSpecScanner(scanner, es, depth, batchSize, memoryLimit);
+            } catch (RejectedExecutionException exc) {
+                // executor is busy; the rest will be scanned directly.
+                context.release(server);
+                return;
+            }
+            permits[i] = true;
+            opened.add(scanner);
+        }
+    }
+
+    private ScanSpecScanner open(PartScanner scanner) {
+        opened.add(scanner);
+        return scanner;
+    }
+
+    /**
+     * Detach the region part under the lock, close it outside of it.
+     */
+    private void closePart(int i) throws IOException {
+        ScanSpecScanner scanner;
+        boolean permit;
+        synchronized (this) {
+            scanner = parts[i];
+            if (scanner == null)
+                return;
+            parts[i] = null;
+            permit = permits[i];
+            permits[i] = false;
+        }
+        try {
+            scanner.close();
+        } finally {
+            if (permit)
+                context.release(splits.get(i).getServer());
+        }
+    }
+
+    /**
+     * Scan of a single region part. The actual hbase scanner is opened with
+     * the first fetch, i.e. in the thread that is going to run the part, and
+     * may be closed concurrently from the consumer's or the cancelling thread.
+     */
+    private class PartScanner extends AbstractScanSpecScanner {
+
+        private final ScanSplit                   split;
+        private volatile FilteringScanSpecScanner delegate;
+        private volatile boolean                  done;
+
+        PartScanner(ScanSplit split) {
+            super(SplitScanSpecScanner.this.scanSpec);
+            this.split = split;
+        }
+
+        @Override
+        protected RawScanResult fetchNextRawResult(RawScanResult holder) throws IOException {
+            FilteringScanSpecScanner scanner = delegate;
+            if (scanner == null) {
+                if (done)
+                    throw new IOException("Scanner is closed.");
+                scanner =
+                    new FilteringScanSpecScanner(scanSpec,
+                                                 tablePool,
+                                                 caching,
+                                                 cachingPolicy,
+                                                 split.getStartKey(),
+                                                 split.getEndKey(),
+                                                 null);
+                boolean published;
+                synchronized (this) {
+                    published = !done;
+                    if (published)
+                        delegate = scanner;
+                }
+                if (!published) {
+                    // closed while opening
+                    scanner.close();
+                    throw new IOException("Scanner is closed.");
+                }
+                stats = scanner.getScanStatistics();
+            }
+            return scanner.fetchNextRawResult(holder);
+        }
+
+        @Override
+        public ScanStatistics getScanStatistics() {
+            FilteringScanSpecScanner scanner = delegate;
+            return scanner == null ? null : scanner.getScanStatistics();
+        }
+
+        @Override
+        public void close() throws IOException {
+            FilteringScanSpecScanner scanner;
+            synchronized (this) {
+                if (done)
+                    return;
+                done = true;
+                scanner = delegate;
+            }
+            if (scanner != null)
+                scanner.close();
+        }
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.inadco.datastructs.InputIterator;
+import com.inadco.datastructs.util.HeapUtils;
+
+/**
+ * Orders fully grouped results by a sort key and cuts them off after a limit
+ * (ORDER BY and LIMIT of the query).
+ * <P>
+ * 
+ * Sorted results have to be drained off the input first. Only the best
+ * {@code limit} of them are kept while doing so, in a bounded heap with the
+ * worst of them on top (see {@link HeapUtils}), so results are copied only if
+ * they make it into the heap and memory stays proportional to the limit. Ties
+ * are broken by group key so the order is deterministic. Null keys (e.g.
+ * functions of measures with nothing in them) order below any other key.
+ * <P>
+ * 
+ * Without a sort key the input is just cut off after the limit, nothing is
+ * materialized.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class TopNIterator implements InputIterator<RawScanResult> {
+
+    private InputIterator<RawScanResult> delegate;
+    private SortKey                      sortKey;
+    private Comparator<Entry>            ordering;
+    private int                          limit;
+    private List<Entry>                  rows;
+    private RawScanResult                current;
+    private int                          currentIndex = -1;
+
+    /**
+     * 
+     * @param delegate
+     *            fully grouped results
+     * @param sortKey
+     *            sort key of the results, or null to keep the input order.
+     * @param descending
+     *            true to order by descending key.
+     * @param limit
+     *            max number of results, negative if unlimited.
+     */
+    public TopNIterator(InputIterator<RawScanResult> delegate, SortKey sortKey, boolean descending, int limit) {
+        super();
+        Validate.notNull(delegate);
+        this.delegate = delegate;
+        this.sortKey = sortKey;
+        this.limit = limit < 0 ? Integer.MAX_VALUE : limit;
+        ordering = new EntryComparator(descending);
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        if (sortKey == null)
+            return currentIndex + 1 < limit && delegate.hasNext();
+        if (rows == null)
+            drain();
+        return currentIndex + 1 < rows.size();
+    }
+
+    @Override
+    public void next() throws IOException {
+        if (!hasNext())
+            throw new IOException("At the end of the iterator");
+        currentIndex++;
+        if (sortKey == null)
+            delegate.next();
+        else {
+            current = rows.get(currentIndex).row;
+            // not needed any more
+            rows.set(currentIndex, null);
+        }
+    }
+
+    @Override
+    public RawScanResult current() throws IOException {
+        /*
+         * when only cutting off, the delegate's current result is ours: the
+         * delegate may replace it when asked if there's a next one (see
+         * HavingFilterIterator).
+         */
+        return sortKey == null ? delegate.current() : current;
+    }
+
+    @Override
+    public int getCurrentIndex() throws IOException {
+        return currentIndex;
+    }
+
+    /**
+     * Doesn't close the delegate, the owner of the delegate does.
+     */
+    @Override
+    public void close() throws IOException {
+        rows = null;
+        current = null;
+    }
+
+    private void drain() throws IOException {
+        rows = new ArrayList<Entry>(Math.min(limit, 1 << 10));
+        if (limit == 0)
+            return;
+        Comparator<Entry> heapOrder = Collections.reverseOrder(ordering);
+        Entry candidate = new Entry(null, null);
+        while (delegate.hasNext()) {
+            delegate.next();
+            candidate.row = delegate.current();
+            candidate.key = sortKey.evaluate(candidate.row);
+            if (rows.size() < limit) {
+                rows.add(snapshot(candidate));
+                if (rows.size() == limit)
+                    HeapUtils.heapifyMin(rows, heapOrder);
+            } else if (ordering.compare(candidate, rows.get(0)) < 0) {
+                // evict the worst one
+                rows.set(0, snapshot(candidate));
+                HeapUtils.siftDownMin(rows, 0, limit, heapOrder);
+            }
+        }
+        Collections.sort(rows, ordering);
+    }
+
+    private static Entry snapshot(Entry candidate) throws IOException {
+        try {
+            return new Entry(candidate.key, (RawScanResult) candidate.row.clone());
+        } catch (CloneNotSupportedException exc) {
+            throw new IOException(exc);
+        }
+    }
+
+    /**
+     * Sort key of a result, e.g. a function of a measure or a group member.
+     * Keys are expected to be mutually {@link Comparable}.
+     */
+    public interface SortKey {
+        Object evaluate(RawScanResult row) throws IOException;
+    }
+
+    private static class Entry {
+        private Object        key;
+        private RawScanResult row;
+
+        Entry(Object key, RawScanResult row) {
+            super();
+            this.key = key;
+            this.row = row;
+        }
+    }
+
+    private static class EntryComparator implements Comparator<Entry> {
+        private boolean descending;
+
+        EntryComparator(boolean descending) {
+            super();
+            this.descending = descending;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public int compare(Entry e1, Entry e2) {
+            int result;
+            if (e1.key == null)
+                result = e2.key == null ? 0 : -1;
+            else if (e2.key == null)
+                result = 1;
+            else
+                result = ((Comparable<Object>) e1.key).compareTo(e2.key);
+            if (descending)
+                result = -result;
+            return result != 0 ? result : Bytes.BYTES_RAWCOMPARATOR.compare(e1.row.getGroup(), e2.row.getGroup());
+        }
+    }
+
+}
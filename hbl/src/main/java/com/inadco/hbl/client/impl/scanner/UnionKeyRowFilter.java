@@ -0,0 +1,147 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.client.impl.scanner;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.commons.lang.Validate;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.inadco.hbl.util.HblUtil;
+
+/**
+ * Union of {@link CompositeKeyRowFilter}s over the same composite key: lets in
+ * the rows any of them lets in, so that a single scan may serve the scan specs
+ * of several queries (see {@link SharedScan}).
+ * <P>
+ * 
+ * A row nobody lets in is skipped if any of the filters wants to look at the
+ * next row, otherwise the scan seeks to the nearest of their hints. Filters
+ * past the end of their ranges are not asked any more, and once all of them
+ * are, the scan is over.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class UnionKeyRowFilter extends FilterBase {
+
+    private CompositeKeyRowFilter[] filters;
+
+    private transient byte[]        nextKeyHint;
+    private transient ReturnCode    nextKeyCode;
+    private transient boolean       exhausted;
+
+    public UnionKeyRowFilter(CompositeKeyRowFilter[] filters) {
+        super();
+        Validate.notEmpty(filters);
+        this.filters = filters;
+        for (CompositeKeyRowFilter filter : filters)
+            filter.initTransients();
+    }
+
+    public UnionKeyRowFilter() {
+        super();
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int filterNum = HblUtil.readVarUint32(in);
+        filters = new CompositeKeyRowFilter[filterNum];
+        for (int i = 0; i < filterNum; i++) {
+            CompositeKeyRowFilter filter = new CompositeKeyRowFilter();
+            filter.readFields(in);
+            filters[i] = filter;
+        }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        HblUtil.writeVarUint32(out, filters.length);
+        for (CompositeKeyRowFilter filter : filters)
+            filter.write(out);
+    }
+
+    @Override
+    public boolean filterRowKey(byte[] buffer, int rowKeyOffset, int rowLength) {
+        boolean nextRow = false;
+        boolean hinted = false;
+        boolean allExhausted = true;
+        for (CompositeKeyRowFilter filter : filters) {
+            if (filter.isExhausted())
+                continue;
+            boolean skip = filter.filterRowKey(buffer, rowKeyOffset, rowLength);
+            if (filter.isExhausted())
+                continue;
+            allExhausted = false;
+            if (skip) {
+                nextRow = true;
+                continue;
+            }
+            if (filter.getNextKeyCode() == ReturnCode.INCLUDE) {
+                nextKeyCode = ReturnCode.INCLUDE;
+                return false;
+            }
+
+            // seek: keep the nearest hint
+            byte[] hint = filter.getNextKeyHintRow();
+            if (!hinted || Bytes.compareTo(hint, nextKeyHint) < 0) {
+                if (nextKeyHint == null || nextKeyHint.length != hint.length)
+                    nextKeyHint = new byte[hint.length];
+                System.arraycopy(hint, 0, nextKeyHint, 0, hint.length);
+                hinted = true;
+            }
+        }
+        if (allExhausted) {
+            exhausted = true;
+            return true;
+        }
+        if (nextRow)
+            return true;
+        nextKeyCode = ReturnCode.SEEK_NEXT_USING_HINT;
+        return false;
+    }
+
+    @Override
+    public boolean filterAllRemaining() {
+        return exhausted;
+    }
+
+    @Override
+    public ReturnCode filterKeyValue(KeyValue kv) {
+        if (nextKeyCode == ReturnCode.SEEK_NEXT_USING_HINT) {
+            // same safeguard as the composite key filter has.
+            if (Bytes.compareTo(kv.getRow(), nextKeyHint) < 0)
+                return nextKeyCode;
+            else
+                return ReturnCode.INCLUDE;
+        }
+        return nextKeyCode;
+    }
+
+    @Override
+    public KeyValue getNextKeyHint(KeyValue currentKV) {
+        return new KeyValue(nextKeyHint, 0l);
+    }
+
+}
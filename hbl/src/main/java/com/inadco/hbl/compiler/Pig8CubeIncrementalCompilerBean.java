@@ -255,6 +255,20 @@ public class Pig8CubeIncrementalCompilerBean {
 
     }
 
+    /**
+     * Bump "last compiled" markers of the cuboids included in the last
+     * prepared compilation (see {@link #preparePigSource(String)}), so that
+     * query clients drop results cached for them. Call once the compiled
+     * script has successfully committed.
+     * 
+     * @param conf
+     * @throws IOException
+     */
+    public void markCompiled(Configuration conf) throws IOException {
+        Validate.notNull(compilationCuboids, "compilation not prepared");
+        HblAdmin.markCompiled(conf, HblAdmin.HBL_DEFAULT_SYSTEM_TABLE, compilationCuboids);
+    }
+
     public String preparePigSource(String workDir) throws IOException {
 
         Deque<Closeable> closeables = new ArrayDeque<Closeable>();
@@ -0,0 +1,107 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.coprocessor;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.Writable;
+
+import com.inadco.hbl.client.impl.scanner.RawScanResultCodec;
+
+/**
+ * One response of {@link CuboidAggregationProtocol}: partial groups of a part
+ * of the region's scan and where to resume it.
+ * <P>
+ * 
+ * Pages are only ever cut at group boundaries, so a group never spans pages
+ * of the same region.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class AggregationPage implements Writable {
+
+    private byte[] groups;
+    private byte[] resumeKey;
+    private byte[] regionStartKey;
+    private byte[] regionEndKey;
+
+    public AggregationPage() {
+        super();
+    }
+
+    /**
+     * 
+     * @param groups
+     *            groups encoded with {@link RawScanResultCodec}
+     * @param resumeKey
+     *            first row of the next page, null if the scan of the region
+     *            is complete.
+     * @param regionStartKey
+     *            start key of the region that served the page
+     * @param regionEndKey
+     *            end key of the region that served the page
+     */
+    public AggregationPage(byte[] groups, byte[] resumeKey, byte[] regionStartKey, byte[] regionEndKey) {
+        super();
+        this.groups = groups;
+        this.resumeKey = resumeKey;
+        this.regionStartKey = regionStartKey;
+        this.regionEndKey = regionEndKey;
+    }
+
+    public byte[] getGroups() {
+        return groups;
+    }
+
+    public byte[] getResumeKey() {
+        return resumeKey;
+    }
+
+    public byte[] getRegionStartKey() {
+        return regionStartKey;
+    }
+
+    public byte[] getRegionEndKey() {
+        return regionEndKey;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        Bytes.writeByteArray(out, groups);
+        out.writeBoolean(resumeKey != null);
+        if (resumeKey != null)
+            Bytes.writeByteArray(out, resumeKey);
+        Bytes.writeByteArray(out, regionStartKey);
+        Bytes.writeByteArray(out, regionEndKey);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        groups = Bytes.readByteArray(in);
+        resumeKey = in.readBoolean() ? Bytes.readByteArray(in) : null;
+        regionStartKey = Bytes.readByteArray(in);
+        regionEndKey = Bytes.readByteArray(in);
+    }
+
+}
@@ -0,0 +1,260 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.coprocessor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.Validate;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.coprocessor.BaseEndpointCoprocessor;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+import com.inadco.hbl.api.AggregateFunction;
+import com.inadco.hbl.api.AggregateFunctionRegistry;
+import com.inadco.hbl.api.AggregationView;
+import com.inadco.hbl.client.HblAdmin;
+import com.inadco.hbl.client.impl.HavingPredicate;
+import com.inadco.hbl.client.impl.SliceOperation;
+import com.inadco.hbl.client.impl.scanner.RawScanResultCodec;
+import com.inadco.hbl.compiler.YamlModelParser;
+import com.inadco.hbl.protocodegen.Cells.Aggregation;
+import com.inadco.hbl.util.IOUtil;
+
+/**
+ * Region-side implementation of {@link CuboidAggregationProtocol}.
+ * <P>
+ * 
+ * Needs to be loaded on the region servers for the cuboid tables (either via
+ * <code>hbase.coprocessor.region.classes</code> or as a table attribute, see
+ * {@link HblAdmin#setDeployAggregationEndpoint(boolean)}). If it is not
+ * loaded, clients fall back to the client-side aggregation.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public class CuboidAggregationEndpoint extends BaseEndpointCoprocessor implements CuboidAggregationProtocol {
+
+    /**
+     * page size used if the client doesn't ask for one
+     */
+    public static final int                                    DEFAULT_PAGE_SIZE   = 1 << 22;
+    /**
+     * the most the endpoint is willing to buffer per call, whatever the client
+     * asks for.
+     */
+    public static final int                                    MAX_PAGE_SIZE       = 1 << 26;
+
+    private static final int                                   MAX_CACHED_MODELS   = 16;
+    private static final int                                   MAX_IDLE_REGISTRIES = 32;
+
+    /*
+     * function registries are not necessarily reentrant (custom functions may
+     * keep buffers), so each call borrows one of its own. Registries of the
+     * same model text are kept for reuse, so that calls don't have to parse
+     * the model.
+     */
+    private final Map<String, Deque<AggregateFunctionRegistry>> registries          = new RegistryCache();
+
+    @Override
+    public AggregationPage aggregate(Scan scan,
+                                     byte[][] measureQualifiers,
+                                     int groupKeyLen,
+                                     String cubeModelYaml,
+                                     byte[] having,
+                                     int maxPageSize) throws IOException {
+        Validate.notNull(scan);
+        Validate.notEmpty(measureQualifiers);
+        Validate.notNull(cubeModelYaml);
+
+        int pageSize = maxPageSize <= 0 ? DEFAULT_PAGE_SIZE : Math.min(maxPageSize, MAX_PAGE_SIZE);
+
+        AggregateFunctionRegistry afr = borrowRegistry(cubeModelYaml);
+        try {
+            return aggregate(scan, measureQualifiers, groupKeyLen, afr, having, pageSize);
+        } finally {
+            returnRegistry(cubeModelYaml, afr);
+        }
+    }
+
+    private AggregationPage aggregate(Scan scan,
+                                      byte[][] measureQualifiers,
+                                      int groupKeyLen,
+                                      AggregateFunctionRegistry afr,
+                                      byte[] having,
+                                      int pageSize) throws IOException {
+
+        HavingPredicate[] predicates = null;
+        AggregateFunction[] predicateFunctions = null;
+        if (having != null) {
+            predicates = HavingPredicate.fromBytes(having);
+            predicateFunctions = new AggregateFunction[predicates.length];
+            for (int i = 0; i < predicates.length; i++) {
+                predicateFunctions[i] = afr.findFunction(predicates[i].getFunctionName());
+                Validate.notNull(predicateFunctions[i], "unknown function in the predicate");
+            }
+        }
+
+        RegionCoprocessorEnvironment env = (RegionCoprocessorEnvironment) getEnvironment();
+        HRegion region = env.getRegion();
+
+        Deque<Closeable> closeables = new ArrayDeque<Closeable>();
+        try {
+            final InternalScanner scanner = region.getScanner(scan);
+            closeables.addFirst(new Closeable() {
+
+                @Override
+                public void close() throws IOException {
+                    scanner.close();
+                }
+            });
+
+            DataOutputBuffer dob = new DataOutputBuffer();
+            List<KeyValue> kvs = new ArrayList<KeyValue>();
+            Aggregation.Builder[] measures = new Aggregation.Builder[measureQualifiers.length];
+            AggregationView view = new AggregationView();
+            byte[] group = new byte[groupKeyLen];
+            byte[] resumeKey = null;
+            boolean inGroup = false;
+            boolean more;
+
+            do {
+                kvs.clear();
+                more = scanner.next(kvs);
+                if (kvs.isEmpty())
+                    continue;
+
+                KeyValue first = kvs.get(0);
+                Validate.isTrue(first.getRowLength() >= groupKeyLen);
+
+                if (inGroup
+                    && Bytes.compareTo(group, 0, groupKeyLen, first.getBuffer(), first.getRowOffset(), groupKeyLen) != 0) {
+                    if (holds(measures, predicates, predicateFunctions))
+                        RawScanResultCodec.writeGroup(dob, group, measures);
+                    Arrays.fill(measures, null);
+                    inGroup = false;
+
+                    /*
+                     * page is full: the next one starts with the first row of
+                     * this group.
+                     */
+                    if (dob.getLength() >= pageSize) {
+                        resumeKey = first.getRow();
+                        break;
+                    }
+                }
+                if (!inGroup) {
+                    System.arraycopy(first.getBuffer(), first.getRowOffset(), group, 0, groupKeyLen);
+                    inGroup = true;
+                }
+
+                for (KeyValue kv : kvs) {
+                    for (int i = 0; i < measureQualifiers.length; i++) {
+                        if (!kv.matchingColumn(HblAdmin.HBL_METRIC_FAMILY, measureQualifiers[i]))
+                            continue;
+                        if (measures[i] == null) {
+                            measures[i] = Aggregation.newBuilder();
+                            measures[i].mergeFrom(kv.getBuffer(), kv.getValueOffset(), kv.getValueLength());
+                        } else
+                            afr.mergeAll(measures[i],
+                                         view.reset(kv.getBuffer(), kv.getValueOffset(), kv.getValueLength()),
+                                         SliceOperation.ADD);
+                        break;
+                    }
+                }
+            } while (more);
+
+            if (resumeKey == null && inGroup && holds(measures, predicates, predicateFunctions))
+                RawScanResultCodec.writeGroup(dob, group, measures);
+
+            return new AggregationPage(
+                Arrays.copyOf(dob.getData(), dob.getLength()),
+                resumeKey,
+                region.getStartKey(),
+                region.getEndKey());
+
+        } finally {
+            IOUtil.closeAll(closeables);
+        }
+    }
+
+    private AggregateFunctionRegistry borrowRegistry(String cubeModelYaml) throws IOException {
+        synchronized (registries) {
+            Deque<AggregateFunctionRegistry> idle = registries.get(cubeModelYaml);
+            if (idle != null && !idle.isEmpty())
+                return idle.removeFirst();
+        }
+        return YamlModelParser.parseYamlModel(cubeModelYaml).getAggregateFunctionRegistry();
+    }
+
+    private void returnRegistry(String cubeModelYaml, AggregateFunctionRegistry afr) {
+        synchronized (registries) {
+            Deque<AggregateFunctionRegistry> idle = registries.get(cubeModelYaml);
+            if (idle == null)
+                registries.put(cubeModelYaml, idle = new ArrayDeque<AggregateFunctionRegistry>());
+            if (idle.size() < MAX_IDLE_REGISTRIES)
+                idle.addFirst(afr);
+        }
+    }
+
+    private static boolean holds(Aggregation.Builder[] measures,
+                                 HavingPredicate[] predicates,
+                                 AggregateFunction[] predicateFunctions) {
+        if (predicates == null)
+            return true;
+        for (int i = 0; i < predicates.length; i++) {
+            Aggregation.Builder measure = measures[predicates[i].getMeasureIndex()];
+            Object value = predicateFunctions[i].getAggrValue(measure == null ? null : measure.clone().build());
+            if (!predicates[i].holds(value))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Idle registries by the model text, least recently used models evicted.
+     */
+    private static class RegistryCache extends LinkedHashMap<String, Deque<AggregateFunctionRegistry>> {
+
+        private static final long serialVersionUID = 1L;
+
+        RegistryCache() {
+            super(MAX_CACHED_MODELS, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Deque<AggregateFunctionRegistry>> eldest) {
+            return size() > MAX_CACHED_MODELS;
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * 
+ *  Copyright © 2010, 2011 Inadco, Inc. All rights reserved.
+ *  
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *  
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *  
+ *  
+ */
+package com.inadco.hbl.coprocessor;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.ipc.CoprocessorProtocol;
+
+import com.inadco.hbl.client.impl.HavingPredicate;
+import com.inadco.hbl.client.impl.scanner.RawScanResultCodec;
+
+/**
+ * Region-side partial aggregation of a cuboid scan.
+ * <P>
+ * 
+ * The region runs the scan (including the composite key filter it carries),
+ * groups adjacent rows by the group key prefix and merges measures of each
+ * group using cube's aggregate function registry, so only one partial
+ * aggregate per group per region is shipped back to the client.
+ * <P>
+ * 
+ * Responses are bounded in size: the region returns its groups in pages, and
+ * the client asks for the next page starting with the resume key of the
+ * previous one.
+ * <P>
+ * 
+ * @author dmitriy
+ * 
+ */
+public interface CuboidAggregationProtocol extends CoprocessorProtocol {
+
+    /**
+     * 
+     * @param scan
+     *            the scan to run on the region. Start and stop rows are the
+     *            same as would be used by the client-side scan, or, for the
+     *            next page of the region, start at the resume key of the
+     *            previous one.
+     * @param measureQualifiers
+     *            measures to aggregate, in the order they are to be encoded in
+     *            the result.
+     * @param groupKeyLen
+     *            length of the group key prefix.
+     * @param cubeModelYaml
+     *            the cube model the aggregate function registry is to be
+     *            created from.
+     * @param having
+     *            optional: only return the groups that pass HAVING predicates
+     *            serialized with {@link HavingPredicate#toBytes(HavingPredicate[])}
+     *            , with measure indices in the order of the measure qualifiers.
+     *            Only makes sense if the groups are final by the time they
+     *            leave the region, i.e. the group key is the entire row key and
+     *            nothing is going to be subtracted from them.
+     * @param maxPageSize
+     *            the region stops at the first group boundary after this many
+     *            bytes of groups and returns a resume key. 0 or less for the
+     *            endpoint's default. The endpoint may cap it further.
+     * @return page of partial aggregates of the groups encoded with
+     *         {@link RawScanResultCodec}, in the group key order.
+     * @throws IOException
+     */
+    AggregationPage aggregate(Scan scan,
+                              byte[][] measureQualifiers,
+                              int groupKeyLen,
+                              String cubeModelYaml,
+                              byte[] having,
+                              int maxPageSize) throws IOException;
+
+}
@@ -159,9 +159,9 @@ public class OnlineCannyBiasedBinomialSummarizer extends OnlineCannyAvgSummarize
 
     @Override
     public void combine(IrregularSamplingSummarizer other) {
-        if (!(other instanceof OnlineExpBiasedBinomialSummarizer))
+        if (!(other instanceof OnlineCannyBiasedBinomialSummarizer))
             throw new IllegalArgumentException("attempt to combine an incompatible summarizer");
-        OnlineExpBiasedBinomialSummarizer oth = (OnlineExpBiasedBinomialSummarizer) other;
+        OnlineCannyBiasedBinomialSummarizer oth = (OnlineCannyBiasedBinomialSummarizer) other;
         if (bneg != oth.bneg || bpos != oth.bpos)
             throw new IllegalArgumentException(
                 "attempt to combine an incompatible summarizer with a differently preset bias");
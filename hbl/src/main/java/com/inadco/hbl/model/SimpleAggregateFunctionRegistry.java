@@ -18,12 +18,22 @@
  */
 package com.inadco.hbl.model;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.inadco.hbl.api.AggregateFunction;
 import com.inadco.hbl.api.AggregateFunctionRegistry;
+import com.inadco.hbl.api.AggregationView;
+import com.inadco.hbl.api.PrimitiveAccumulator;
+import com.inadco.hbl.api.PrimitiveAggregateFunction;
 import com.inadco.hbl.client.impl.SliceOperation;
 import com.inadco.hbl.client.impl.functions.FAvg;
 import com.inadco.hbl.client.impl.functions.FCount;
@@ -45,7 +55,9 @@ import com.inadco.hbl.protocodegen.Cells.Aggregation;
  */
 public class SimpleAggregateFunctionRegistry implements AggregateFunctionRegistry {
 
-    private final Map<String, AggregateFunction> functions = new HashMap<String, AggregateFunction>();
+    private final Map<String, AggregateFunction> functions    = new HashMap<String, AggregateFunction>();
+    private AggregateFunction[]                  allFunctions = new AggregateFunction[0];
+    private boolean                              primitive    = true;
 
     SimpleAggregateFunctionRegistry() {
         super();
@@ -61,7 +73,7 @@ public class SimpleAggregateFunctionRegistry implements AggregateFunctionRegistr
     }
 
     public void applyAll(Aggregation.Builder accumulator, Object measure) {
-        for (AggregateFunction af : functions.values())
+        for (AggregateFunction af : allFunctions)
             af.apply(accumulator, measure);
     }
 
@@ -80,14 +92,121 @@ public class SimpleAggregateFunctionRegistry implements AggregateFunctionRegistr
 
     }
 
-    public void mergeAll(Aggregation.Builder accumulator, Aggregation source, SliceOperation operation) {
-        for (AggregateFunction af : functions.values())
+    @Override
+    public void mergeFunctions(AggregateFunction[] funcs,
+                               Aggregation.Builder accumulator,
+                               Aggregation source,
+                               SliceOperation operation) {
+        for (AggregateFunction af : funcs)
+            af.merge(accumulator, source, operation);
+    }
+
+    @Override
+    public void mergeFunctions(AggregateFunction[] funcs,
+                               Aggregation.Builder accumulator,
+                               AggregationView source,
+                               SliceOperation operation) {
+        for (AggregateFunction af : funcs)
             af.merge(accumulator, source, operation);
     }
 
+    @Override
+    public void mergeFunctions(AggregateFunction[] funcs,
+                               PrimitiveAccumulator accumulator,
+                               int slot,
+                               AggregationView source,
+                               SliceOperation operation) {
+        accumulator.touch(slot);
+        for (AggregateFunction af : funcs)
+            ((PrimitiveAggregateFunction) af).merge(accumulator, slot, source, operation);
+    }
+
+    @Override
+    public void mergeFunctions(AggregateFunction[] funcs,
+                               PrimitiveAccumulator accumulator,
+                               int slot,
+                               PrimitiveAccumulator source,
+                               int sourceSlot,
+                               SliceOperation operation) {
+        if (!source.isTouched(sourceSlot))
+            return;
+        accumulator.touch(slot);
+        for (AggregateFunction af : funcs)
+            ((PrimitiveAggregateFunction) af).merge(accumulator, slot, source, sourceSlot, operation);
+    }
+
+    public void mergeAll(Aggregation.Builder accumulator, Aggregation source, SliceOperation operation) {
+        mergeFunctions(allFunctions, accumulator, source, operation);
+    }
+
+    public void mergeAll(Aggregation.Builder accumulator, AggregationView source, SliceOperation operation) {
+        mergeFunctions(allFunctions, accumulator, source, operation);
+    }
+
+    @Override
+    public boolean isPrimitive() {
+        return primitive;
+    }
+
+    @Override
+    public void mergeAll(PrimitiveAccumulator accumulator,
+                         int slot,
+                         AggregationView source,
+                         SliceOperation operation) {
+        mergeFunctions(allFunctions, accumulator, slot, source, operation);
+    }
+
+    @Override
+    public void mergeAll(PrimitiveAccumulator accumulator,
+                         int slot,
+                         PrimitiveAccumulator source,
+                         int sourceSlot,
+                         SliceOperation operation) {
+        mergeFunctions(allFunctions, accumulator, slot, source, sourceSlot, operation);
+    }
+
+    @Override
+    public AggregateFunction[] getFunctions() {
+        return allFunctions.clone();
+    }
+
+    @Override
+    public AggregateFunction[] resolveFunctions(Collection<String> funcNames) {
+        Set<String> resolved = new HashSet<String>();
+        Deque<String> toResolve = new ArrayDeque<String>(funcNames);
+        while (!toResolve.isEmpty()) {
+            String funcName = toResolve.removeFirst();
+            if (!resolved.add(funcName))
+                continue;
+            AggregateFunction func = functions.get(funcName);
+            if (func == null)
+                throw new UnsupportedOperationException(String.format("Unsupported aggregate function:\"%s\".",
+                                                                      funcName));
+            toResolve.addAll(func.getDependencies());
+        }
+
+        // keep registration order
+        List<AggregateFunction> funcs = new ArrayList<AggregateFunction>(resolved.size());
+        for (AggregateFunction af : allFunctions)
+            if (resolved.contains(af.getName()))
+                funcs.add(af);
+        return funcs.toArray(new AggregateFunction[funcs.size()]);
+    }
+
     void addFunction(AggregateFunction function) {
-        functions.put(function.getName()/* .toUpperCase() */, function);
+        AggregateFunction replaced = functions.put(function.getName()/* .toUpperCase() */, function);
         function.init(this);
+
+        List<AggregateFunction> funcs = new ArrayList<AggregateFunction>(Arrays.asList(allFunctions));
+        if (replaced != null)
+            funcs.remove(replaced);
+        funcs.add(function);
+        allFunctions = funcs.toArray(new AggregateFunction[funcs.size()]);
+
+        primitive = true;
+        for (AggregateFunction af : allFunctions)
+            if (!(af instanceof PrimitiveAggregateFunction))
+                primitive = false;
     }
 
     public AggregateFunction findFunction(String name) {
@@ -41,6 +41,11 @@ import com.inadco.hbl.api.Measure;
  */
 public class SimpleCube implements Cube {
 
+    /**
+     * cube property: sealing horizon, ms (see {@link #getSealingHorizon()}).
+     */
+    public static final String PROP_SEALING_HORIZON = "sealingHorizon";
+
     protected String                          name;
     protected Map<String, Dimension>          dimensions       = new HashMap<String, Dimension>();
     protected Map<String, Dimension>          readonlyDims     = Collections.unmodifiableMap(dimensions);
@@ -54,6 +59,7 @@ public class SimpleCube implements Cube {
     protected Map<String, Measure>            readonlyMeasures = Collections.unmodifiableMap(measures);
     protected SimpleAggregateFunctionRegistry afr;
     protected long                            ms;
+    protected long                            sealingHorizon;
 
     /**
      * constructor
@@ -94,6 +100,32 @@ public class SimpleCube implements Cube {
             afr.addFunction(cf);
     }
 
+    /**
+     * 
+     * @param name
+     * @param dimensions
+     * @param cuboids
+     * @param measures
+     * @param customFunctions
+     * @param properties
+     *            named cube properties. Supported: {@link #PROP_SEALING_HORIZON}.
+     */
+    public SimpleCube(String name,
+                      Dimension[] dimensions,
+                      Cuboid[] cuboids,
+                      Measure[] measures,
+                      AggregateFunction[] customFunctions,
+                      Map<String, Object> properties) {
+        this(name, dimensions, cuboids, measures, customFunctions);
+        for (Map.Entry<String, Object> prop : properties.entrySet()) {
+            if (PROP_SEALING_HORIZON.equals(prop.getKey())) {
+                Validate.isTrue(prop.getValue() instanceof Number, "sealing horizon must be a number of ms");
+                setSealingHorizon(((Number) prop.getValue()).longValue());
+            } else
+                throw new IllegalArgumentException("Unknown cube property: " + prop.getKey());
+        }
+    }
+
     public String getName() {
         return name;
     }
@@ -134,4 +166,14 @@ public class SimpleCube implements Cube {
         return ms;
     }
 
+    @Override
+    public long getSealingHorizon() {
+        return sealingHorizon;
+    }
+
+    public void setSealingHorizon(long sealingHorizon) {
+        Validate.isTrue(sealingHorizon >= 0, "sealing horizon must not be negative");
+        this.sealingHorizon = sealingHorizon;
+    }
+
 }
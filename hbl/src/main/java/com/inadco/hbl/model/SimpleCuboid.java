@@ -62,6 +62,8 @@ public class SimpleCuboid implements Cuboid {
 
     protected String          compilerGroup;
 
+    protected int             scanCaching;
+
     public SimpleCuboid() {
         super();
     }
@@ -137,6 +139,15 @@ public class SimpleCuboid implements Cuboid {
         this.compilerGroup = compilerGroup;
     }
 
+    @Override
+    public int getScanCaching() {
+        return scanCaching;
+    }
+
+    public void setScanCaching(int scanCaching) {
+        this.scanCaching = scanCaching;
+    }
+
     @Override
     public List<String> getCuboidPath() {
         return unmodifiablePath;
@@ -22,6 +22,7 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.Validate;
 
@@ -121,9 +122,7 @@ public class SimpleDateHierarchy extends AbstractHierarchy {
     public int keyDepth(byte[] buff, int offset) {
         if (buff[offset] == 0)
             return 0; // all-key
-        if (buff[offset + 6] == 0)
-            return 1; // monthly key
-        return 2; // hourly key otherwise.
+        return 1; // daily key otherwise.
     }
 
     public void getDailyKey(byte[] buff, int offset, GregorianCalendar gcal) {
@@ -148,6 +147,17 @@ public class SimpleDateHierarchy extends AbstractHierarchy {
 
     @Override
     public Object getMember(byte[] buff, int offset) throws HblException {
+        // we return stuff as calendar objects here.
+        GregorianCalendar gc = new GregorianCalendar(UTC);
+        gc.setTimeInMillis(getEpochMillis(buff, offset));
+        return gc;
+    }
+
+    /**
+     * Same instant as the calendar member {@link #getMember(byte[], int)}
+     * returns, without creating the calendar.
+     */
+    public long getEpochMillis(byte[] buff, int offset) throws HblException {
         int depth = keyDepth(buff, offset);
         int year = 0;
         int month = 0;
@@ -159,23 +169,13 @@ public class SimpleDateHierarchy extends AbstractHierarchy {
                 "Unable to make a presentation of an [ALL] hierarchy member in terms of concrete calendar.");
         case 1:
             year = HblUtil.readCompositeKeyDec(buff, offset, 4);
-            month = HblUtil.readCompositeKeyDec(buff, offset + 4, 2) - Calendar.JANUARY + 1;
+            month = HblUtil.readCompositeKeyDec(buff, offset + 4, 2);
             date = HblUtil.readCompositeKeyDec(buff, offset + 6, 2);
             break;
         default:
             throw new HblException("unexpected hierarchy depth in the key.");
         }
-        // we return stuff as calendar objects here.
-        GregorianCalendar gc = new GregorianCalendar(UTC);
-        gc.set(Calendar.YEAR, year);
-        gc.set(Calendar.MONTH, month);
-        gc.set(Calendar.DATE, date);
-        gc.set(Calendar.HOUR_OF_DAY, 0);
-        gc.set(Calendar.MINUTE, 0);
-        gc.set(Calendar.SECOND, 0);
-        gc.set(Calendar.MILLISECOND, 0);
-        return gc;
-
+        return TimeUnit.DAYS.toMillis(HblUtil.toEpochDays(year, month, date));
     }
 
     private static GregorianCalendar toGCal(Object member) {
@@ -22,6 +22,7 @@ import java.util.Arrays;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.Validate;
 
@@ -172,10 +173,22 @@ public class SimpleTimeHourHierarchy extends AbstractHierarchy {
 
     @Override
     public Object getMember(byte[] buff, int offset) throws HblException {
+        // we return stuff as calendar objects here.
+        GregorianCalendar gc = new GregorianCalendar(UTC);
+        gc.setTimeInMillis(getEpochMillis(buff, offset));
+        return gc;
+    }
+
+    /**
+     * Same instant as the calendar member {@link #getMember(byte[], int)}
+     * returns, without creating the calendar. Monthly members start on the
+     * 1st.
+     */
+    public long getEpochMillis(byte[] buff, int offset) throws HblException {
         int depth = keyDepth(buff, offset);
         int year = 0;
         int month = 0;
-        int date = 0;
+        int date = 1;
         int hour = 0;
 
         switch (depth) {
@@ -187,22 +200,12 @@ public class SimpleTimeHourHierarchy extends AbstractHierarchy {
             hour = HblUtil.readCompositeKeyDec(buff, offset + 8, 2);
         case 1:
             year = HblUtil.readCompositeKeyDec(buff, offset, 4);
-            month = HblUtil.readCompositeKeyDec(buff, offset + 4, 2) - Calendar.JANUARY + 1;
+            month = HblUtil.readCompositeKeyDec(buff, offset + 4, 2);
             break;
         default:
             throw new HblException("unexpected hierarchy depth in the key.");
         }
-        // we return stuff as calendar objects here.
-        GregorianCalendar gc = new GregorianCalendar(UTC);
-        gc.set(Calendar.YEAR, year);
-        gc.set(Calendar.MONTH, month);
-        gc.set(Calendar.DATE, date);
-        gc.set(Calendar.HOUR_OF_DAY, hour);
-        gc.set(Calendar.MINUTE, 0);
-        gc.set(Calendar.SECOND, 0);
-        gc.set(Calendar.MILLISECOND, 0);
-        return gc;
-
+        return TimeUnit.DAYS.toMillis(HblUtil.toEpochDays(year, month, date)) + TimeUnit.HOURS.toMillis(hour);
     }
 
     private static GregorianCalendar toGCal(Object member) {
@@ -153,6 +153,28 @@ public class HblUtil {
         return result;
     }
 
+    /**
+     * Days since the epoch of a proleptic Gregorian calendar date, computed
+     * without a {@link java.util.Calendar}. Date 0 is the last day of the
+     * previous month, same as with a lenient calendar.
+     * 
+     * @param year
+     * @param month
+     *            1-12
+     * @param date
+     *            day of month, 1-based
+     * @return days since 1970-01-01
+     */
+    public static long toEpochDays(int year, int month, int date) {
+        // march-based years so that the leap day is the last day of the year
+        long y = month > 2 ? year : year - 1;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yoe = y - era * 400;
+        long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + date - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
     // ///////////////////////////////////////////////////////////////////////////////
     // all the Var*** stuff is a shameless rip-off of the RLE + zigzag
     // encoding used in protobuf as well.
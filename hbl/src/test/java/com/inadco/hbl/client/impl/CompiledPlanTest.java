@@ -0,0 +1,220 @@
+package com.inadco.hbl.client.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.springframework.core.io.ClassPathResource;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.api.Range;
+import com.inadco.hbl.client.HblAdmin;
+import com.inadco.hbl.client.HblException;
+import com.inadco.hbl.client.HblQueryClient;
+import com.inadco.hbl.client.impl.scanner.ScanSpec;
+
+/**
+ * Re-execution of a prepared query with compiled plan reuse: only slice bounds
+ * changed must neither walk the tree nor choose the cuboid again, yet scan the
+ * new bounds; anything else, or bounds the plan no longer fits, must plan
+ * again.
+ * <P>
+ * 
+ * In the client impl package, to count the walks and the compilations.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class CompiledPlanTest {
+
+    private static final String STATEMENT =
+                                              "select dim2, SUM(impCnt) as ? from Example1 "
+                                                  + "where dim1 in [?, ?], dim2 in [?, ?] group by dim2";
+
+    private HBaseTestingUtility testUtil;
+    private HblQueryClient      client;
+
+    @BeforeClass
+    public void init() throws Exception {
+        testUtil = new HBaseTestingUtility();
+        testUtil.startMiniCluster();
+
+        HblAdmin hblAdmin = new HblAdmin(new ClassPathResource("testModel1.yaml"));
+        hblAdmin.deployCube(testUtil.getConfiguration());
+
+        client = new HblQueryClient(testUtil.getConfiguration());
+    }
+
+    @AfterClass
+    public void close() throws Exception {
+        try {
+            if (client != null)
+                client.close();
+        } finally {
+            testUtil.shutdownMiniCluster();
+        }
+    }
+
+    @Test
+    public void testSliceBoundsReuseThePlan() throws Exception {
+        CountingQuery query = new CountingQuery(client);
+        query.prepare(STATEMENT);
+
+        List<ScanSpec> scanSpecs = query.generateScanSpecs("imp", 5, 5, 1, 3);
+        Assert.assertEquals(query.walks, 1);
+        Assert.assertEquals(query.compilations, 1);
+        CompiledPlan plan = query.lastPlan;
+        // dim1 is degenerate, so dim2 groups stream out of [dim1, dim2].
+        Assert.assertEquals(plan.getCuboid().getCuboidPath(), Arrays.asList("dim1", "dim2"));
+        Assert.assertNull(plan.getGroupKeyFields());
+        assertSameScans(scanSpecs, standaloneScans(5, 5, 1, 3));
+
+        // new bounds of both slices, degenerate dim1 still.
+        scanSpecs = query.generateScanSpecs("imp", 7, 7, 2, 9);
+        Assert.assertEquals(query.walks, 1);
+        Assert.assertEquals(query.compilations, 1);
+        Assert.assertSame(query.lastPlan, plan);
+        assertSameScans(scanSpecs, standaloneScans(7, 7, 2, 9));
+
+        // the alias is not a slice bound.
+        scanSpecs = query.generateScanSpecs("impSum", 7, 7, 2, 9);
+        Assert.assertEquals(query.walks, 2);
+        Assert.assertEquals(query.compilations, 2);
+        assertSameScans(scanSpecs, standaloneScans(7, 7, 2, 9));
+    }
+
+    /**
+     * dim1 bounds that are no longer the same break the streaming grouping
+     * the cached plan relies on: it must be compiled again, even though only
+     * slice bounds have changed.
+     */
+    @Test
+    public void testSliceBoundsInvalidateThePlan() throws Exception {
+        CountingQuery query = new CountingQuery(client);
+        query.prepare(STATEMENT);
+
+        query.generateScanSpecs("imp", 5, 5, 1, 3);
+        CompiledPlan plan = query.lastPlan;
+        Assert.assertNull(plan.getGroupKeyFields());
+
+        List<ScanSpec> scanSpecs = query.generateScanSpecs("imp", 5, 8, 1, 3);
+        Assert.assertEquals(query.walks, 1, "only slice bounds have changed");
+        Assert.assertEquals(query.compilations, 2);
+        Assert.assertNotSame(query.lastPlan, plan);
+        Assert.assertNotNull(query.lastPlan.getGroupKeyFields(), "dim2 groups must be hashed now");
+        for (ScanSpec scanSpec : scanSpecs)
+            Assert.assertEquals(scanSpec.getGroupKeyFields(), query.lastPlan.getGroupKeyFields());
+        assertSameScans(scanSpecs, standaloneScans(5, 8, 1, 3));
+
+        // the new plan is reused in turn.
+        scanSpecs = query.generateScanSpecs("imp", 2, 4, 0, 6);
+        Assert.assertEquals(query.walks, 1);
+        Assert.assertEquals(query.compilations, 2);
+        assertSameScans(scanSpecs, standaloneScans(2, 4, 0, 6));
+    }
+
+    /**
+     * a null bound drops its slice, so the first plan may be on a cuboid
+     * without the dimension. Once the bound is there, the plan must not be
+     * reused, or the slice would be silently ignored.
+     */
+    @Test
+    public void testNullSliceBoundInvalidatesThePlan() throws Exception {
+        CountingQuery query = new CountingQuery(client);
+        query.prepare("select dim1, SUM(impCnt) as imp from Example1 where dim1 in [?, ?], dim2 in [?] group by dim1");
+
+        query.generateScanSpecs(1, 4, null);
+        Assert.assertFalse(query.lastPlan.getCuboid().getCuboidPath().contains("dim2"));
+
+        List<ScanSpec> scanSpecs = query.generateScanSpecs(1, 4, 3);
+        Assert.assertEquals(query.walks, 1, "only slice bounds have changed");
+        Assert.assertEquals(query.compilations, 2);
+        Assert.assertTrue(query.lastPlan.getCuboid().getCuboidPath().contains("dim2"));
+
+        AggregateQueryImpl standalone = (AggregateQueryImpl) client.createQuery();
+        standalone.setHashGrouping(true, 0);
+        standalone.setCube("Example1");
+        standalone.addMeasure("impCnt");
+        standalone.addGroupBy("dim1");
+        standalone.addClosedSlice("dim1", 1, 4);
+        standalone.addClosedSlice("dim2", 3, 3);
+        assertSameScans(scanSpecs, standalone.generateScanSpecs(null, null));
+    }
+
+    private List<ScanSpec> standaloneScans(int dim1Left, int dim1Right, int dim2Left, int dim2Right)
+        throws IOException, HblException {
+        AggregateQueryImpl query = (AggregateQueryImpl) client.createQuery();
+        query.setHashGrouping(true, 0);
+        query.setCube("Example1");
+        query.addMeasure("impCnt");
+        query.addGroupBy("dim2");
+        query.addClosedSlice("dim1", dim1Left, dim1Right);
+        query.addClosedSlice("dim2", dim2Left, dim2Right);
+        return query.generateScanSpecs(null, null);
+    }
+
+    private static void assertSameScans(List<ScanSpec> actual, List<ScanSpec> expected) {
+        Assert.assertEquals(actual.size(), expected.size());
+        for (int i = 0; i < actual.size(); i++) {
+            Assert.assertEquals(actual.get(i).getCuboid().getCuboidTableName(), expected.get(i)
+                .getCuboid()
+                .getCuboidTableName());
+            Assert.assertEquals(actual.get(i).getSliceOperation(), expected.get(i).getSliceOperation());
+            Range[] ranges = actual.get(i).getRanges(), expectedRanges = expected.get(i).getRanges();
+            Assert.assertEquals(ranges.length, expectedRanges.length);
+            for (int j = 0; j < ranges.length; j++) {
+                Assert.assertTrue(Arrays.equals(ranges[j].getLeftBound(), expectedRanges[j].getLeftBound()));
+                Assert.assertTrue(Arrays.equals(ranges[j].getRightBound(), expectedRanges[j].getRightBound()));
+                Assert.assertEquals(ranges[j].isLeftOpen(), expectedRanges[j].isLeftOpen());
+                Assert.assertEquals(ranges[j].isRightOpen(), expectedRanges[j].isRightOpen());
+            }
+        }
+    }
+
+    /**
+     * counts the tree walks and the compilations. Hash grouping is allowed
+     * so that dim1 ranges still have a cuboid to plan with.
+     */
+    private static class CountingQuery extends PreparedAggregateQueryImpl {
+
+        private int          walks;
+        private int          compilations;
+        private CompiledPlan lastPlan;
+
+        CountingQuery(HblQueryClient client) {
+            super(client, null, null);
+            setHashGrouping(true, 0);
+        }
+
+        @Override
+        void assignASTParams() throws HblException {
+            walks++;
+            super.assignASTParams();
+        }
+
+        @Override
+        protected CompiledPlan compile() throws IOException {
+            compilations++;
+            return lastPlan = super.compile();
+        }
+
+        /**
+         * generate the scans the way an execution does, resetting the query
+         * afterwards.
+         */
+        List<ScanSpec> generateScanSpecs(Object... params) throws IOException, HblException {
+            for (int i = 0; i < params.length; i++)
+                setHblParameter(i, params[i]);
+            try {
+                return generateScanSpecs(null, null);
+            } finally {
+                reset();
+            }
+        }
+    }
+
+}
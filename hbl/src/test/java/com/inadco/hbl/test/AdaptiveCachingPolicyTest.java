@@ -0,0 +1,99 @@
+package com.inadco.hbl.test;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.api.Range;
+import com.inadco.hbl.client.ScanStatistics;
+import com.inadco.hbl.client.impl.SliceOperation;
+import com.inadco.hbl.client.impl.scanner.AdaptiveCachingPolicy;
+import com.inadco.hbl.client.impl.scanner.FilteringScanSpecScanner;
+import com.inadco.hbl.client.impl.scanner.ScanSpec;
+
+/**
+ * Adaptive caching: sized by row bytes, bounded by the rows scans of the same
+ * shape used to return.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class AdaptiveCachingPolicyTest {
+
+    private static final String TABLE = "cuboid";
+
+    @Test
+    public void testInitialCaching() {
+        AdaptiveCachingPolicy policy = new AdaptiveCachingPolicy();
+        Assert.assertEquals(policy.scanStarted(rangeScan(), TABLE), FilteringScanSpecScanner.CACHING);
+    }
+
+    @Test
+    public void testSizedByRowBytes() {
+        AdaptiveCachingPolicy policy = new AdaptiveCachingPolicy();
+        policy.setMaxCaching(100000);
+        scan(policy, rangeScan(), 100000, 100);
+
+        // 2M per RPC of 100 byte rows
+        Assert.assertEquals(policy.scanStarted(rangeScan(), TABLE),
+                            (int) (AdaptiveCachingPolicy.DEFAULT_TARGET_RPC_BYTES / 100));
+    }
+
+    @Test
+    public void testPointLookupsDontShrinkRangeScans() {
+        AdaptiveCachingPolicy policy = new AdaptiveCachingPolicy();
+        scan(policy, rangeScan(), 100000, 100);
+        for (int i = 0; i < 10; i++)
+            scan(policy, pointLookup(), 1, 100);
+
+        Assert.assertEquals(policy.scanStarted(pointLookup(), TABLE), policy.getMinCaching());
+        Assert.assertEquals(policy.scanStarted(rangeScan(), TABLE), policy.getMaxCaching());
+    }
+
+    @Test
+    public void testUnseenShapeNotCapped() {
+        AdaptiveCachingPolicy policy = new AdaptiveCachingPolicy();
+        for (int i = 0; i < 10; i++)
+            scan(policy, pointLookup(), 1, 100);
+        Assert.assertEquals(policy.scanStarted(rangeScan(), TABLE), policy.getMaxCaching());
+    }
+
+    @Test
+    public void testMemoryBound() {
+        AdaptiveCachingPolicy policy = new AdaptiveCachingPolicy();
+        policy.setMaxScannerMemory(1 << 20);
+        scan(policy, rangeScan(), 100000, 100);
+
+        for (int i = 0; i < 3; i++)
+            policy.scanStarted(rangeScan(), TABLE);
+        // the 4th concurrent scan gets a quarter of 1M worth of 100 byte rows
+        Assert.assertEquals(policy.scanStarted(rangeScan(), TABLE), (1 << 20) / 4 / 100);
+    }
+
+    private static void scan(AdaptiveCachingPolicy policy, ScanSpec scanSpec, int rows, int rowBytes) {
+        int caching = policy.scanStarted(scanSpec, TABLE);
+        ScanStatistics stats = new ScanStatistics(TABLE, caching);
+        for (int i = 0; i < rows; i++)
+            stats.addRow(rowBytes);
+        stats.addRpc(1000);
+        policy.scanCompleted(scanSpec, stats);
+    }
+
+    private static ScanSpec rangeScan() {
+        return scanSpec(new Range(Bytes.toBytes(0), Bytes.toBytes(1000)), null);
+    }
+
+    private static ScanSpec pointLookup() {
+        return scanSpec(new Range(Bytes.toBytes(5)), new Range(Bytes.toBytes(7)));
+    }
+
+    private static ScanSpec scanSpec(Range first, Range second) {
+        Range all = new Range(Bytes.toBytes(0), Bytes.toBytes(Integer.MAX_VALUE));
+        return new ScanSpec(new byte[][] { Bytes.toBytes("m") },
+                            8,
+                            new Range[] { first, second == null ? all : second },
+                            null,
+                            SliceOperation.ADD);
+    }
+
+}
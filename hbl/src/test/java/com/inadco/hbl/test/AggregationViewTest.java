@@ -0,0 +1,66 @@
+package com.inadco.hbl.test;
+
+import org.springframework.core.io.ClassPathResource;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.google.protobuf.ByteString;
+import com.inadco.hbl.api.AggregateFunctionRegistry;
+import com.inadco.hbl.api.AggregationView;
+import com.inadco.hbl.client.HblAdmin;
+import com.inadco.hbl.client.impl.SliceOperation;
+import com.inadco.hbl.protocodegen.Cells.Aggregation;
+
+/**
+ * Zero-copy decoding of the aggregation cells: the views read the same as the
+ * messages, and merge the same (allocations are compared by
+ * AggregateFunctionRegistryBenchmark in hbl-benchmarks).
+ * 
+ * @author dmitriy
+ * 
+ */
+public class AggregationViewTest {
+
+    private AggregateFunctionRegistry afr;
+
+    @BeforeClass
+    public void init() throws Exception {
+        afr = new HblAdmin(new ClassPathResource("testModel2.yaml")).getCube().getAggregateFunctionRegistry();
+    }
+
+    @Test
+    public void testDecoding() throws Exception {
+        Aggregation aggr =
+            Aggregation.newBuilder()
+                .setCnt(300)
+                .setSum(-1.5)
+                .setMax(7)
+                .addCustomStates(ByteString.EMPTY)
+                .addCustomStates(ByteString.copyFromUtf8("state"))
+                .build();
+        byte[] bytes = new byte[aggr.getSerializedSize() + 3];
+        System.arraycopy(aggr.toByteArray(), 0, bytes, 3, bytes.length - 3);
+
+        AggregationView view = new AggregationView(bytes, 3, bytes.length - 3);
+        Assert.assertTrue(view.hasCnt());
+        Assert.assertEquals(view.getCnt(), 300);
+        Assert.assertEquals(view.getSum(), -1.5);
+        Assert.assertFalse(view.hasSumSq());
+        Assert.assertFalse(view.hasMin());
+        Assert.assertEquals(view.getMax(), 7.0);
+        Assert.assertEquals(view.getCustomStatesCount(), 2);
+        Assert.assertEquals(view.getCustomStateLength(0), 0);
+        Assert.assertEquals(new String(bytes, view.getCustomStateOffset(1), view.getCustomStateLength(1), "utf-8"),
+                            "state");
+        Assert.assertEquals(view.toAggregation(), aggr);
+
+        // merges must be the same as with the messages
+        Aggregation.Builder viaView = Aggregation.newBuilder().setCnt(1).setSum(1).setMax(8);
+        Aggregation.Builder viaMessage = viaView.clone();
+        afr.mergeAll(viaView, view, SliceOperation.COMPLEMENT);
+        afr.mergeAll(viaMessage, aggr, SliceOperation.COMPLEMENT);
+        Assert.assertEquals(viaView.build(), viaMessage.build());
+    }
+
+}
@@ -0,0 +1,192 @@
+package com.inadco.hbl.test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.client.AggregateResultSet;
+import com.inadco.hbl.client.impl.AsyncExecution;
+
+/**
+ * Asynchronous executions: completion, cancellation and handing the result
+ * set over to the future.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class AsyncExecutionTest {
+
+    @Test
+    public void testCompletion() throws Exception {
+        final StubResultSet rs = new StubResultSet();
+        final AsyncExecution<AggregateResultSet> future =
+            new AsyncExecution<AggregateResultSet>(new Callable<AggregateResultSet>() {
+
+                @Override
+                public AggregateResultSet call() throws Exception {
+                    return rs.proxy;
+                }
+            }, true);
+        future.run();
+        Assert.assertSame(future.get(), rs.proxy);
+
+        // too late to cancel: the result set is the caller's now
+        Assert.assertFalse(future.cancel(true));
+        Assert.assertEquals(rs.closed.get(), 0);
+        Assert.assertEquals(rs.cancelled.get(), 0);
+    }
+
+    /**
+     * cancelled before the execution opened the result set: the execution
+     * closes it, the future reports the cancellation.
+     */
+    @Test
+    public void testCancelledBeforeStart() throws Exception {
+        final StubResultSet rs = new StubResultSet();
+        final AtomicBoolean started = new AtomicBoolean(true);
+        final AsyncExecution<?>[] holder = new AsyncExecution<?>[1];
+        AsyncExecution<AggregateResultSet> future =
+            new AsyncExecution<AggregateResultSet>(new Callable<AggregateResultSet>() {
+
+                @Override
+                public AggregateResultSet call() throws Exception {
+                    started.set(holder[0].started(rs.proxy));
+                    return rs.proxy;
+                }
+            }, true);
+        holder[0] = future;
+
+        Assert.assertTrue(future.cancel(true));
+        // an executor thread taking the task anyway
+        future.run();
+        Assert.assertEquals(rs.closed.get(), 0, "cancelled execution ran");
+
+        // an execution already under way when the future was cancelled
+        future = new AsyncExecution<AggregateResultSet>(new Callable<AggregateResultSet>() {
+
+            @Override
+            public AggregateResultSet call() throws Exception {
+                holder[0].cancel(true);
+                started.set(holder[0].started(rs.proxy));
+                return rs.proxy;
+            }
+        }, true);
+        holder[0] = future;
+        future.run();
+        Assert.assertFalse(started.get());
+        Assert.assertEquals(rs.closed.get(), 1);
+        try {
+            future.get();
+            Assert.fail("cancelled future returned the result set");
+        } catch (CancellationException exc) {
+            // expected
+        }
+    }
+
+    /**
+     * cancelled while the execution delivers the results: the query is
+     * cancelled, and the execution thread is not interrupted.
+     */
+    @Test
+    public void testCancelledWhileDelivering() throws Exception {
+        final StubResultSet rs = new StubResultSet();
+        final CountDownLatch delivering = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        final AsyncExecution<?>[] holder = new AsyncExecution<?>[1];
+        AsyncExecution<Long> future = new AsyncExecution<Long>(new Callable<Long>() {
+
+            @Override
+            public Long call() throws Exception {
+                holder[0].started(rs.proxy);
+                delivering.countDown();
+                try {
+                    // the consumer fails once the query is cancelled
+                    Assert.assertTrue(rs.cancelLatch.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException exc) {
+                    interrupted.set(true);
+                }
+                rs.proxy.close();
+                return 0L;
+            }
+        }, false);
+        holder[0] = future;
+        Thread t = new Thread(future);
+        t.start();
+        Assert.assertTrue(delivering.await(5, TimeUnit.SECONDS));
+
+        Assert.assertTrue(future.cancel(true));
+        t.join(5000);
+        Assert.assertFalse(interrupted.get(), "execution thread was interrupted");
+        Assert.assertEquals(rs.cancelled.get(), 1);
+        Assert.assertEquals(rs.closed.get(), 1);
+    }
+
+    /**
+     * cancelled after the execution opened the result set it returns: nobody
+     * else would close it.
+     */
+    @Test
+    public void testCancelledAfterHandoff() throws Exception {
+        final StubResultSet rs = new StubResultSet();
+        final CountDownLatch handedOff = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AsyncExecution<?>[] holder = new AsyncExecution<?>[1];
+        AsyncExecution<AggregateResultSet> future =
+            new AsyncExecution<AggregateResultSet>(new Callable<AggregateResultSet>() {
+
+                @Override
+                public AggregateResultSet call() throws Exception {
+                    holder[0].started(rs.proxy);
+                    handedOff.countDown();
+                    release.await();
+                    return rs.proxy;
+                }
+            }, true);
+        holder[0] = future;
+        Thread t = new Thread(future);
+        t.start();
+        Assert.assertTrue(handedOff.await(5, TimeUnit.SECONDS));
+
+        Assert.assertTrue(future.cancel(false));
+        Assert.assertEquals(rs.closed.get(), 1);
+        Assert.assertEquals(rs.cancelled.get(), 0);
+        release.countDown();
+        t.join(5000);
+    }
+
+    private static class StubResultSet implements InvocationHandler {
+        private final AtomicInteger      closed      = new AtomicInteger();
+        private final AtomicInteger      cancelled   = new AtomicInteger();
+        private final CountDownLatch     cancelLatch = new CountDownLatch(1);
+        private final AggregateResultSet proxy;
+
+        StubResultSet() {
+            proxy =
+                (AggregateResultSet) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                            new Class<?>[] { AggregateResultSet.class },
+                                                            this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if ("close".equals(method.getName()))
+                closed.incrementAndGet();
+            else if ("cancel".equals(method.getName())) {
+                cancelled.incrementAndGet();
+                cancelLatch.countDown();
+            } else
+                throw new UnsupportedOperationException(method.getName());
+            return null;
+        }
+    }
+
+}
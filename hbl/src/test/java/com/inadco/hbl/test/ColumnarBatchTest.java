@@ -0,0 +1,55 @@
+package com.inadco.hbl.test;
+
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.client.ColumnarBatch;
+import com.inadco.hbl.client.ColumnarBatch.ColumnType;
+
+/**
+ * Packing of the columnar batches.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class ColumnarBatchTest {
+
+    @Test
+    public void testPack() throws Exception {
+        ColumnarBatch batch = new ColumnarBatch(Arrays.asList("cnt", "sum", "dim1", "dim2", "other"), 4);
+        batch.add(new Object[] { 1l, 1, "a", new byte[] { 1, 2 }, 1l });
+        batch.add(new Object[] { 2l, 2.5d, null, new byte[] { 3, 4 }, "b" });
+        batch.add(new Object[] { null, 3, "c", null, null });
+        batch.pack();
+
+        Assert.assertEquals(batch.getRowCount(), 3);
+
+        Assert.assertEquals(batch.getColumnType(0), ColumnType.LONG);
+        Assert.assertEquals(batch.getLongs(0).length, 3);
+        Assert.assertEquals(batch.getLongs(0)[1], 2l);
+        Assert.assertTrue(batch.getNulls(0)[2]);
+
+        // integral and not
+        Assert.assertEquals(batch.getColumnType(1), ColumnType.DOUBLE);
+        Assert.assertEquals(batch.getDoubles(1)[1], 2.5d);
+
+        Assert.assertEquals(batch.getColumnType(2), ColumnType.STRING);
+        Assert.assertNull(batch.getStrings(2)[1]);
+        Assert.assertTrue(batch.getNulls(2)[1]);
+
+        Assert.assertEquals(batch.getColumnType(3), ColumnType.BYTES);
+        Assert.assertEquals(batch.getByteWidth(3), 2);
+        Assert.assertEquals(batch.getBytes(3), new byte[] { 1, 2, 3, 4, 0, 0 });
+
+        Assert.assertEquals(batch.getColumnType(4), ColumnType.OBJECT);
+        Assert.assertEquals(batch.getObjects(4)[1], "b");
+
+        batch.clear();
+        Assert.assertEquals(batch.getRowCount(), 0);
+        batch.pack();
+        Assert.assertEquals(batch.getObjects(0).length, 0);
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.inadco.hbl.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+
+import org.apache.hadoop.io.WritableUtils;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.api.Dimension;
+import com.inadco.hbl.client.CuboidStatistics;
+import com.inadco.hbl.model.HexDimension;
+import com.inadco.hbl.model.SimpleCuboid;
+
+/**
+ * Cuboid statistics collection and row estimates.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class CuboidStatisticsTest {
+
+    private SimpleCuboid cuboid =
+        new SimpleCuboid(new Dimension[] { new HexDimension("a", 1), new HexDimension("b", 2) });
+
+    @Test
+    public void testEstimates() throws Exception {
+        CuboidStatistics.Collector collector = new CuboidStatistics.Collector(cuboid, 16);
+        for (int a = 0; a < 256; a++)
+            for (int b = 0; b < 2000; b++)
+                collector.add(key(a, b));
+
+        CuboidStatistics stats = collector.getStatistics();
+        Assert.assertEquals(stats.getRowCount(), 256 * 2000);
+        Assert.assertEquals(stats.getDistinct()[0], 256);
+        Assert.assertEquals(stats.getDistinct()[1], 2000, 200);
+
+        // a == 5
+        double rows = stats.estimateRows(key(5, 0), key(5, 0xffff));
+        Assert.assertEquals(rows, 2000, 2000);
+        // half of the table
+        rows = stats.estimateRows(key(0, 0), key(127, 0xffff));
+        Assert.assertEquals(rows, 128 * 2000, 256 * 2000 / 16);
+
+        CuboidStatistics copy = new CuboidStatistics();
+        copy.readFields(new DataInputStream(new ByteArrayInputStream(WritableUtils.toByteArray(stats))));
+        Assert.assertEquals(copy.getRowCount(), stats.getRowCount());
+        Assert.assertEquals(copy.estimateRows(key(0, 0), key(127, 0xffff)),
+                            stats.estimateRows(key(0, 0), key(127, 0xffff)));
+    }
+
+    private byte[] key(int a, int b) {
+        byte[] key = new byte[cuboid.getKeyLen()];
+        Dimension dimA = cuboid.getCuboidDimensions().get(0);
+        dimA.getKey(a, key, 0);
+        cuboid.getCuboidDimensions().get(1).getKey(b, key, dimA.getKeyLen());
+        return key;
+    }
+
+}
@@ -0,0 +1,117 @@
+package com.inadco.hbl.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.springframework.core.io.ClassPathResource;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inadco.datastructs.InputIterator;
+import com.inadco.hbl.api.AggregateFunctionRegistry;
+import com.inadco.hbl.client.HblAdmin;
+import com.inadco.hbl.client.impl.SliceOperation;
+import com.inadco.hbl.client.impl.scanner.GroupingScanStrategy;
+import com.inadco.hbl.client.impl.scanner.HashGroupingIterator;
+import com.inadco.hbl.client.impl.scanner.RawScanResult;
+import com.inadco.hbl.client.impl.scanner.ScanSpec;
+import com.inadco.hbl.protocodegen.Cells.Aggregation;
+
+/**
+ * Hash grouping of unordered group keys, in memory and with spills.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class HashGroupingTest {
+
+    private static final int ROWS = 20000;
+
+    @Test
+    public void testHashGrouping() throws Exception {
+        AggregateFunctionRegistry afr =
+            new HblAdmin(new ClassPathResource("testModel2.yaml")).getCube().getAggregateFunctionRegistry();
+        ScanSpec spec = new ScanSpec(new byte[][] { Bytes.toBytes("m") }, 2, null, null, SliceOperation.ADD);
+        spec.setGroupKeyFields(new int[] { 1, 1, 3, 1 });
+
+        Random rnd = new Random(1234);
+        List<RawScanResult> rows = new ArrayList<RawScanResult>();
+        Map<Integer, long[]> expected = new HashMap<Integer, long[]>();
+        for (int i = 0; i < ROWS; i++) {
+            RawScanResult row = new RawScanResult(spec);
+            int key = rnd.nextInt(1000);
+            Bytes.putShort(row.getGroup(), 0, (short) key);
+            row.setMeasures(new Aggregation.Builder[] { Aggregation.newBuilder().setCnt(1).setSum(i) });
+            rows.add(row);
+
+            long[] e = expected.get(key);
+            if (e == null)
+                expected.put(key, e = new long[2]);
+            e[0]++;
+            e[1] += i;
+        }
+
+        // everything in memory, then spilling every 100 groups or so
+        for (long memoryLimit : new long[] { 0, 20000 }) {
+            HashGroupingIterator iter =
+                new HashGroupingIterator(new ListIterator(rows),
+                                         spec,
+                                         new GroupingScanStrategy(spec, afr, false),
+                                         memoryLimit,
+                                         null);
+            int groups = 0, lastKey = -1;
+            while (iter.hasNext()) {
+                iter.next();
+                RawScanResult group = iter.current();
+                int key = Bytes.toShort(group.getGroup());
+                Assert.assertTrue(key > lastKey);
+                lastKey = key;
+                Aggregation.Builder measure = group.getMeasure(0);
+                Assert.assertEquals(measure.getCnt(), expected.get(key)[0]);
+                Assert.assertEquals(measure.getSum(), (double) expected.get(key)[1]);
+                groups++;
+            }
+            Assert.assertEquals(groups, expected.size());
+            Assert.assertEquals(iter.getSpillCount() > 0, memoryLimit > 0);
+            iter.close();
+        }
+    }
+
+    private static class ListIterator implements InputIterator<RawScanResult> {
+        private List<RawScanResult> rows;
+        private int                 index = -1;
+
+        ListIterator(List<RawScanResult> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index + 1 < rows.size();
+        }
+
+        @Override
+        public void next() {
+            index++;
+        }
+
+        @Override
+        public RawScanResult current() {
+            return rows.get(index);
+        }
+
+        @Override
+        public int getCurrentIndex() {
+            return index;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,256 @@
+package com.inadco.hbl.test;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTablePool;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.coprocessor.CoprocessorHost;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.springframework.core.io.ClassPathResource;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.api.Cuboid;
+import com.inadco.hbl.api.Dimension;
+import com.inadco.hbl.client.AggregateQuery;
+import com.inadco.hbl.client.AggregateResultSet;
+import com.inadco.hbl.client.HblAdmin;
+import com.inadco.hbl.client.HblQueryClient;
+import com.inadco.hbl.client.PreparedAggregateQuery;
+import com.inadco.hbl.client.PreparedAggregateResult;
+import com.inadco.hbl.client.impl.AggregateQueryImpl;
+import com.inadco.hbl.client.impl.HavingPredicate;
+import com.inadco.hbl.client.impl.scanner.RegionAggregatingScanner;
+import com.inadco.hbl.client.impl.scanner.ScanSpec;
+import com.inadco.hbl.coprocessor.CuboidAggregationEndpoint;
+import com.inadco.hbl.protocodegen.Cells.Aggregation;
+
+/**
+ * HAVING predicates: evaluated by the regions when every group is a single
+ * cuboid row, with the same results as on the client side.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class HavingPushdownTest {
+
+    private static final String CUBE_NAME = "RegionAggrTest";
+    private static final int    N         = 10;
+
+    private HBaseTestingUtility testUtil;
+    private Configuration       conf;
+    private HblQueryClient      client;
+
+    @BeforeClass
+    public void init() throws Exception {
+        testUtil = new HBaseTestingUtility();
+        testUtil.getConfiguration().set(CoprocessorHost.REGION_COPROCESSOR_CONF_KEY,
+                                        CuboidAggregationEndpoint.class.getName());
+        testUtil.startMiniCluster();
+        conf = testUtil.getConfiguration();
+
+        HblAdmin hblAdmin = new HblAdmin(new ClassPathResource("testModel2.yaml"));
+        hblAdmin.deployCube(conf);
+
+        Cuboid cuboid = hblAdmin.getCube().getCuboids().iterator().next();
+        Dimension dim1 = cuboid.getCuboidDimensions().get(0);
+        Dimension dim2 = cuboid.getCuboidDimensions().get(1);
+
+        HTable table = new HTable(conf, Bytes.toBytes(cuboid.getCuboidTableName()));
+        try {
+            for (int d1 = 0; d1 < N; d1++)
+                for (int d2 = 0; d2 < N; d2++) {
+                    byte[] key = new byte[cuboid.getKeyLen()];
+                    dim1.getKey(d1, key, 0);
+                    dim2.getKey(d2, key, dim1.getKeyLen());
+                    Aggregation aggr = Aggregation.newBuilder().setCnt(1).setSum(d1 * N + d2).build();
+                    table.put(new Put(key).add(HblAdmin.HBL_METRIC_FAMILY, Bytes.toBytes("impCnt"), aggr.toByteArray()));
+                }
+            table.flushCommits();
+        } finally {
+            table.close();
+        }
+
+        client = new HblQueryClient(conf);
+    }
+
+    @AfterClass
+    public void close() throws Exception {
+        try {
+            if (client != null)
+                client.close();
+        } finally {
+            testUtil.shutdownMiniCluster();
+        }
+    }
+
+    @Test
+    public void testPredicates() throws Exception {
+        HavingPredicate p = new HavingPredicate("SUM", "m", HavingPredicate.Op.GT, 2);
+        Assert.assertTrue(p.holds(3.0));
+        Assert.assertFalse(p.holds(2.0));
+        Assert.assertFalse(p.holds(null));
+        Assert.assertFalse(new HavingPredicate("COUNT", "m", HavingPredicate.Op.fromSymbol("<>"), 2).holds(2L));
+
+        p.setMeasureIndex(3);
+        HavingPredicate[] read = HavingPredicate.fromBytes(HavingPredicate.toBytes(new HavingPredicate[] { p }));
+        Assert.assertEquals(read.length, 1);
+        Assert.assertEquals(read[0].toString(), p.toString());
+        Assert.assertEquals(read[0].getMeasureIndex(), 3);
+    }
+
+    @Test
+    public void testPushedDownOnlyForSingleRowGroups() throws Exception {
+        Assert.assertTrue(scanSpec(true).isHavingPushdown());
+        Assert.assertFalse(scanSpec(false).isHavingPushdown());
+    }
+
+    /**
+     * the regions don't ship the groups that fail.
+     */
+    @Test
+    public void testRegionsFilter() throws Exception {
+        HTablePool tpool = new HTablePool(conf, 10);
+        RegionAggregatingScanner scanner =
+            new RegionAggregatingScanner(scanSpec(true),
+                                         tpool,
+                                         client.getCubeModelYaml(CUBE_NAME),
+                                         null,
+                                         null,
+                                         null,
+                                         RegionAggregatingScanner.PAGE_SIZE);
+        try {
+            int groups = 0;
+            while (scanner.hasNext()) {
+                scanner.next();
+                groups++;
+            }
+            Assert.assertEquals(groups, N * N / 2);
+        } finally {
+            scanner.close();
+            tpool.close();
+        }
+    }
+
+    @Test
+    public void testSameAsClientSide() throws Exception {
+        // single row groups: pushed down
+        Map<String, Double> clientSide = runQuery(false, true);
+        Assert.assertEquals(clientSide.size(), N * N / 2);
+        Assert.assertEquals(runQuery(true, true), clientSide);
+
+        // groups of N rows: filtered on the client
+        clientSide = runQuery(false, false);
+        Assert.assertEquals(clientSide.size(), N / 2);
+        Assert.assertEquals(runQuery(true, false), clientSide);
+    }
+
+    /**
+     * finding out whether there's a next group that passes must not change
+     * the current one.
+     */
+    @Test
+    public void testHasNextBeforeReading() throws Exception {
+        for (boolean singleRowGroups : new boolean[] { false, true }) {
+            AggregateResultSet rs = createQuery(singleRowGroups).execute();
+            try {
+                int groups = 0;
+                while (rs.hasNext()) {
+                    rs.next();
+                    rs.hasNext();
+                    rs.hasNext();
+                    int d1 = new BigInteger(1, (byte[]) rs.current().getGroupMember("dim1")).intValue();
+                    double sum = ((Number) rs.current().getAggregate("impCnt", "SUM")).doubleValue();
+                    if (singleRowGroups) {
+                        int d2 = new BigInteger(1, (byte[]) rs.current().getGroupMember("dim2")).intValue();
+                        Assert.assertEquals(sum, (double) d1 * N + d2);
+                    } else
+                        Assert.assertEquals(sum, (double) d1 * N * N + N * (N - 1) / 2);
+                    groups++;
+                }
+                Assert.assertEquals(groups, singleRowGroups ? N * N / 2 : N / 2);
+            } finally {
+                rs.close();
+            }
+        }
+    }
+
+    /**
+     * same, with the groups cut off after a limit.
+     */
+    @Test
+    public void testHasNextBeforeReadingLimited() throws Exception {
+        PreparedAggregateQuery query = client.createPreparedQuery();
+        query.prepare("select dim1, SUM(impCnt) as s from " + CUBE_NAME + " group by dim1 having SUM(impCnt) >= "
+            + N * N * N / 2 + " limit 3");
+        AggregateResultSet rs = query.execute();
+        try {
+            int groups = 0;
+            while (rs.hasNext()) {
+                rs.next();
+                rs.hasNext();
+                PreparedAggregateResult result = (PreparedAggregateResult) rs.current();
+                int d1 = new BigInteger(1, (byte[]) result.getObject("dim1")).intValue();
+                double sum = ((Number) result.getObject("s")).doubleValue();
+                Assert.assertEquals(sum, (double) d1 * N * N + N * (N - 1) / 2);
+                groups++;
+            }
+            Assert.assertEquals(groups, 3);
+        } finally {
+            rs.close();
+        }
+    }
+
+    /*
+     * groups of dim1, dim2 (single rows) having sum >= 50, or groups of dim1
+     * having sum >= 500
+     */
+    private AggregateQuery createQuery(boolean singleRowGroups) {
+        AggregateQuery query = client.createQuery();
+        query.setCube(CUBE_NAME);
+        query.addMeasure("impCnt");
+        query.addGroupBy("dim1");
+        if (singleRowGroups) {
+            query.addGroupBy("dim2");
+            query.addHaving("SUM", "impCnt", ">=", N * N / 2);
+        } else
+            query.addHaving("SUM", "impCnt", ">=", N * N * N / 2);
+        return query;
+    }
+
+    private ScanSpec scanSpec(boolean singleRowGroups) throws Exception {
+        List<ScanSpec> specs = ((AggregateQueryImpl) createQuery(singleRowGroups)).generateScanSpecs(null, null);
+        Assert.assertEquals(specs.size(), 1);
+        return specs.get(0);
+    }
+
+    private Map<String, Double> runQuery(boolean regionSide, boolean singleRowGroups) throws Exception {
+        AggregateQuery query = createQuery(singleRowGroups);
+        query.setRegionSideAggregation(regionSide);
+
+        Map<String, Double> result = new HashMap<String, Double>();
+        AggregateResultSet rs = query.execute();
+        try {
+            while (rs.hasNext()) {
+                rs.next();
+                String group = new BigInteger(1, (byte[]) rs.current().getGroupMember("dim1")).toString();
+                if (singleRowGroups)
+                    group += "," + new BigInteger(1, (byte[]) rs.current().getGroupMember("dim2"));
+                double sum = ((Number) rs.current().getAggregate("impCnt", "SUM")).doubleValue();
+                Assert.assertNull(result.put(group, sum));
+            }
+        } finally {
+            rs.close();
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.inadco.hbl.test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.springframework.core.io.ClassPathResource;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.api.AggregateFunction;
+import com.inadco.hbl.api.AggregateFunctionRegistry;
+import com.inadco.hbl.api.AggregationView;
+import com.inadco.hbl.api.PrimitiveAccumulator;
+import com.inadco.hbl.client.HblAdmin;
+import com.inadco.hbl.client.impl.SliceOperation;
+import com.inadco.hbl.protocodegen.Cells.Aggregation;
+
+/**
+ * Only the functions a query selects, and the ones they depend on, are
+ * merged.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class MeasureFunctionsTest {
+
+    private AggregateFunctionRegistry afr;
+
+    @BeforeClass
+    public void init() throws Exception {
+        afr = new HblAdmin(new ClassPathResource("testModel2.yaml")).getCube().getAggregateFunctionRegistry();
+    }
+
+    @Test
+    public void testFunctionPruning() throws Exception {
+        AggregateFunction[] funcs = afr.resolveFunctions(Arrays.asList("AVG", "MAX"));
+        Set<String> names = new HashSet<String>();
+        for (AggregateFunction af : funcs)
+            names.add(af.getName());
+        Assert.assertEquals(names, new HashSet<String>(Arrays.asList("AVG", "COUNT", "SUM", "MAX")));
+
+        byte[] bytes =
+            Aggregation.newBuilder().setCnt(2).setSum(3).setSumSq(5).setMin(1).setMax(2).build().toByteArray();
+        PrimitiveAccumulator acc = new PrimitiveAccumulator(1);
+        afr.mergeFunctions(funcs, acc, 0, new AggregationView(bytes, 0, bytes.length), SliceOperation.ADD);
+        Assert.assertEquals(acc.getCnt(0), 2);
+        Assert.assertEquals(acc.getSum(0), 3.0);
+        Assert.assertEquals(acc.getMax(0), 2.0);
+        Assert.assertFalse(acc.hasSumSq(0));
+        Assert.assertFalse(acc.hasMin(0));
+    }
+
+    @Test
+    public void testDependencies() throws Exception {
+        Assert.assertEquals(names(afr.resolveFunctions(Arrays.asList("SUM"))),
+                            new HashSet<String>(Arrays.asList("SUM")));
+        Assert.assertEquals(names(afr.resolveFunctions(Arrays.asList("SD"))),
+                            new HashSet<String>(Arrays.asList("SD", "VAR", "COUNT", "SUM", "SUM_SQ")));
+    }
+
+    private static Set<String> names(AggregateFunction[] funcs) {
+        Set<String> names = new HashSet<String>();
+        for (AggregateFunction af : funcs)
+            names.add(af.getName());
+        return names;
+    }
+
+}
@@ -0,0 +1,146 @@
+package com.inadco.hbl.test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inadco.datastructs.InputIterator;
+import com.inadco.datastructs.MergeStrategy;
+import com.inadco.datastructs.adapters.NWayMergingIterator;
+import com.inadco.datastructs.util.LoserTreeMergeStrategy;
+import com.inadco.datastructs.util.StatefulHeapSortMergeStrategy;
+
+/**
+ * Loser tree vs. heap merge: same output, and fewer comparisons per merged
+ * element for k = 2..256 inputs.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class MergeStrategyTest {
+
+    private static final int TOTAL = 1 << 16;
+
+    @Test
+    public void testSameAsHeap() throws Exception {
+        Random rnd = new Random(1234);
+        for (int k : new int[] { 1, 2, 3, 5, 17, 64 }) {
+            long[][] inputs = generate(rnd, k, 100 * k, 50);
+            CountingComparator cmp = new CountingComparator();
+            long[] heap = merge(inputs, new StatefulHeapSortMergeStrategy<long[]>(cmp));
+            long[] tree = merge(inputs, new LoserTreeMergeStrategy<long[]>(cmp));
+            Assert.assertEquals(tree, heap);
+            for (int i = 1; i < tree.length; i++)
+                Assert.assertTrue(tree[i - 1] <= tree[i]);
+        }
+    }
+
+    /**
+     * comparisons per merged element for k = 2..256 inputs (timing is in
+     * hbl-benchmarks' MergingIteratorBenchmark).
+     */
+    @Test
+    public void testComparisons() throws Exception {
+        Random rnd = new Random(4321);
+        for (int k = 2; k <= 256; k <<= 1) {
+            long[][] inputs = generate(rnd, k, TOTAL, Integer.MAX_VALUE);
+            long total = 0;
+            for (long[] input : inputs)
+                total += input.length;
+            CountingComparator heapCmp = new CountingComparator(), treeCmp = new CountingComparator();
+            long[] heap = merge(inputs, new StatefulHeapSortMergeStrategy<long[]>(heapCmp));
+            long[] tree = merge(inputs, new LoserTreeMergeStrategy<long[]>(treeCmp));
+            Assert.assertEquals(tree, heap);
+
+            // ceil(log2(k)) per element plus the initial tournament
+            int log2k = 32 - Integer.numberOfLeadingZeros(k - 1);
+            Assert.assertTrue(treeCmp.count <= log2k * total + k);
+            if (k > 2)
+                Assert.assertTrue(treeCmp.count < heapCmp.count);
+        }
+    }
+
+    /*
+     * k sorted inputs, about total elements in all; elements are {value,
+     * input} pairs.
+     */
+    private static long[][] generate(Random rnd, int k, int total, int maxValue) {
+        long[][] inputs = new long[k][];
+        for (int i = 0; i < k; i++) {
+            inputs[i] = new long[rnd.nextInt(2 * total / k + 1)];
+            for (int j = 0; j < inputs[i].length; j++)
+                inputs[i][j] = rnd.nextInt(maxValue);
+            Arrays.sort(inputs[i]);
+        }
+        return inputs;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long[] merge(long[][] inputs, MergeStrategy<long[]> strategy) throws IOException {
+        int total = 0;
+        InputIterator<long[]>[] iters = new InputIterator[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            iters[i] = new ArrayInput(inputs[i]);
+            total += inputs[i].length;
+        }
+        NWayMergingIterator<long[]> merged = new NWayMergingIterator<long[]>(iters, strategy, true);
+        long[] result = new long[total];
+        int n = 0;
+        while (merged.hasNext()) {
+            merged.next();
+            result[n++] = merged.current()[0];
+        }
+        merged.close();
+        Assert.assertEquals(n, total);
+        return result;
+    }
+
+    private static class CountingComparator implements Comparator<long[]> {
+        private long count;
+
+        @Override
+        public int compare(long[] o1, long[] o2) {
+            count++;
+            return o1[0] < o2[0] ? -1 : o1[0] == o2[0] ? 0 : 1;
+        }
+    }
+
+    private static class ArrayInput implements InputIterator<long[]> {
+        private final long[] values;
+        private final long[] current = new long[1];
+        private int          index   = -1;
+
+        ArrayInput(long[] values) {
+            this.values = values;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index + 1 < values.length;
+        }
+
+        @Override
+        public void next() {
+            current[0] = values[++index];
+        }
+
+        @Override
+        public long[] current() {
+            return current;
+        }
+
+        @Override
+        public int getCurrentIndex() {
+            return index;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+package com.inadco.hbl.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.client.impl.SliceOperation;
+import com.inadco.hbl.client.impl.scanner.AbstractScanSpecScanner;
+import com.inadco.hbl.client.impl.scanner.PrefetchingScanSpecScanner;
+import com.inadco.hbl.client.impl.scanner.RawScanResult;
+import com.inadco.hbl.client.impl.scanner.ScanSpec;
+
+/**
+ * Prefetching scanner: results come thru in order, and closing it from
+ * another thread releases a consumer waiting for the next batch.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class PrefetchingScannerTest {
+
+    private ExecutorService es;
+
+    @BeforeClass
+    public void setUp() {
+        es = Executors.newCachedThreadPool();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        es.shutdownNow();
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        CountingScanner delegate = new CountingScanner(1000, -1);
+        PrefetchingScanSpecScanner scanner = new PrefetchingScanSpecScanner(delegate, es, 2, 16, 0);
+        int n = 0;
+        while (scanner.hasNext()) {
+            scanner.next();
+            Assert.assertEquals(Bytes.toInt(scanner.current().getGroup()), n++);
+        }
+        Assert.assertEquals(n, 1000);
+        scanner.close();
+        scanner.close();
+        Assert.assertEquals(delegate.closed.get(), 1);
+    }
+
+    @Test
+    public void testCloseWhileConsumerWaits() throws Exception {
+        // the delegate gets stuck in a "fetch" after the first batch
+        final CountingScanner delegate = new CountingScanner(1000, 16);
+        final PrefetchingScanSpecScanner scanner = new PrefetchingScanSpecScanner(delegate, es, 2, 16, 0);
+        Assert.assertTrue(delegate.blocked.await(5, TimeUnit.SECONDS), "producer did not start");
+
+        final CountDownLatch waiting = new CountDownLatch(1);
+        Future<Integer> consumer = es.submit(new Callable<Integer>() {
+
+            @Override
+            public Integer call() throws Exception {
+                int n = 0;
+                try {
+                    while (true) {
+                        if (n == 16)
+                            waiting.countDown();
+                        if (!scanner.hasNext())
+                            return n;
+                        scanner.next();
+                        n++;
+                    }
+                } catch (IOException exc) {
+                    return -n;
+                }
+            }
+        });
+        Assert.assertTrue(waiting.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200);
+
+        long start = System.currentTimeMillis();
+        scanner.close();
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000, "close waited for the producer");
+
+        try {
+            Assert.assertEquals(consumer.get(5, TimeUnit.SECONDS).intValue(), -16, "consumer did not fail");
+        } catch (TimeoutException exc) {
+            Assert.fail("consumer hangs after close");
+        }
+
+        // the producer still owns the delegate, until its fetch returns.
+        Assert.assertEquals(delegate.closed.get(), 0);
+        delegate.release.countDown();
+        for (int i = 0; i < 50 && delegate.closed.get() == 0; i++)
+            Thread.sleep(100);
+        Assert.assertEquals(delegate.closed.get(), 1);
+    }
+
+    /**
+     * query cancellation and the consumer closing the result set at the same
+     * time must not close the delegate under the producer.
+     */
+    @Test
+    public void testConcurrentClose() throws Exception {
+        final CountingScanner delegate = new CountingScanner(1000, 16);
+        final PrefetchingScanSpecScanner scanner = new PrefetchingScanSpecScanner(delegate, es, 2, 16, 0);
+        Assert.assertTrue(delegate.blocked.await(5, TimeUnit.SECONDS), "producer did not start");
+
+        final int closers = 8;
+        final CyclicBarrier barrier = new CyclicBarrier(closers);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < closers; i++)
+            futures.add(es.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() throws Exception {
+                    barrier.await();
+                    scanner.close();
+                    return null;
+                }
+            }));
+        for (Future<Void> future : futures)
+            future.get(5, TimeUnit.SECONDS);
+
+        // the producer is still in its fetch and still owns the delegate.
+        Assert.assertEquals(delegate.closed.get(), 0);
+        delegate.release.countDown();
+        for (int i = 0; i < 50 && delegate.closed.get() == 0; i++)
+            Thread.sleep(100);
+        Thread.sleep(200);
+        Assert.assertEquals(delegate.closed.get(), 1);
+    }
+
+    @Test
+    public void testProducerError() throws Exception {
+        CountingScanner delegate = new CountingScanner(1000, -1);
+        delegate.failAt = 100;
+        PrefetchingScanSpecScanner scanner = new PrefetchingScanSpecScanner(delegate, es, 2, 16, 0);
+        // don't let the consumer take the scan over
+        Assert.assertTrue(delegate.fetching.await(5, TimeUnit.SECONDS), "producer did not start");
+        int n = 0;
+        try {
+            while (scanner.hasNext()) {
+                scanner.next();
+                n++;
+            }
+            Assert.fail("producer error was lost");
+        } catch (IOException exc) {
+            Assert.assertEquals(exc.getMessage(), "region server went away");
+        }
+        Assert.assertEquals(n, 96);
+        scanner.close();
+        Assert.assertEquals(delegate.closed.get(), 1);
+    }
+
+    private static class CountingScanner extends AbstractScanSpecScanner {
+
+        private final int            count;
+        private final int            blockAt;
+        private final CountDownLatch fetching = new CountDownLatch(1);
+        private final CountDownLatch blocked  = new CountDownLatch(1);
+        private final CountDownLatch release  = new CountDownLatch(1);
+        private final AtomicInteger  closed   = new AtomicInteger();
+        private int                  failAt   = -1;
+        private int                  n;
+
+        CountingScanner(int count, int blockAt) {
+            super(new ScanSpec(new byte[][] { Bytes.toBytes("m") }, 4, null, null, SliceOperation.ADD));
+            this.count = count;
+            this.blockAt = blockAt;
+        }
+
+        @Override
+        protected RawScanResult fetchNextRawResult(RawScanResult holder) throws IOException {
+            fetching.countDown();
+            if (n == blockAt) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException exc) {
+                    throw new IOException("Interrupted", exc);
+                }
+            }
+            if (n == failAt)
+                throw new IOException("region server went away");
+            if (n == count)
+                return null;
+            RawScanResult result = holder == null ? new RawScanResult(scanSpec) : holder;
+            result.setGroup(Bytes.toBytes(n++));
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed.incrementAndGet();
+        }
+    }
+
+}
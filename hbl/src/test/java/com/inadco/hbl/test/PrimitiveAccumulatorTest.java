@@ -0,0 +1,87 @@
+package com.inadco.hbl.test;
+
+import org.springframework.core.io.ClassPathResource;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.api.AggregateFunction;
+import com.inadco.hbl.api.AggregateFunctionRegistry;
+import com.inadco.hbl.api.AggregationView;
+import com.inadco.hbl.api.PrimitiveAccumulator;
+import com.inadco.hbl.api.PrimitiveAggregateFunction;
+import com.inadco.hbl.client.HblAdmin;
+import com.inadco.hbl.client.impl.SliceOperation;
+import com.inadco.hbl.protocodegen.Cells.Aggregation;
+
+/**
+ * Primitive accumulators must produce the same aggregations as the builders.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class PrimitiveAccumulatorTest {
+
+    private AggregateFunctionRegistry afr;
+
+    @BeforeClass
+    public void init() throws Exception {
+        afr = new HblAdmin(new ClassPathResource("testModel2.yaml")).getCube().getAggregateFunctionRegistry();
+        Assert.assertTrue(afr.isPrimitive());
+    }
+
+    @Test
+    public void testSameAsBuilders() throws Exception {
+        Aggregation[] rows =
+            new Aggregation[] { Aggregation.newBuilder().setCnt(2).setSum(3).setSumSq(5).setMin(1).setMax(2).build(),
+                Aggregation.newBuilder().setCnt(1).setSum(-4).setSumSq(16).setMin(-4).setMax(-4).build(),
+                Aggregation.newBuilder().build() };
+        SliceOperation[] ops =
+            new SliceOperation[] { SliceOperation.COMPLEMENT, SliceOperation.ADD, SliceOperation.ADD };
+
+        PrimitiveAccumulator acc = new PrimitiveAccumulator(2);
+        Aggregation.Builder builder = Aggregation.newBuilder();
+        AggregationView view = new AggregationView();
+        for (int i = 0; i < rows.length; i++) {
+            byte[] bytes = rows[i].toByteArray();
+            afr.mergeAll(acc, 1, view.reset(bytes, 0, bytes.length), ops[i]);
+            afr.mergeAll(builder, rows[i], ops[i]);
+        }
+        Assert.assertFalse(acc.isTouched(0));
+        Assert.assertTrue(acc.isTouched(1));
+
+        Aggregation.Builder saved = Aggregation.newBuilder();
+        acc.save(1, saved);
+        Assert.assertEquals(saved.build(), builder.build());
+
+        // group of groups
+        PrimitiveAccumulator total = new PrimitiveAccumulator(1);
+        afr.mergeAll(total, 0, acc, 0, SliceOperation.ADD);
+        Assert.assertFalse(total.isTouched(0));
+        afr.mergeAll(total, 0, acc, 1, SliceOperation.COMPLEMENT);
+        Assert.assertEquals(total.getCnt(0), -acc.getCnt(1));
+        Assert.assertEquals(total.getSum(0), -acc.getSum(1));
+
+        acc.clear();
+        Assert.assertFalse(acc.isTouched(1));
+        Assert.assertFalse(acc.hasCnt(1));
+    }
+
+    @Test
+    public void testValuesInPlace() throws Exception {
+        byte[] bytes =
+            Aggregation.newBuilder().setCnt(2).setSum(3).setSumSq(5).setMin(1).setMax(2).build().toByteArray();
+        PrimitiveAccumulator acc = new PrimitiveAccumulator(2);
+        afr.mergeAll(acc, 1, new AggregationView(bytes, 0, bytes.length), SliceOperation.ADD);
+        Aggregation.Builder saved = Aggregation.newBuilder();
+        acc.save(1, saved);
+        Aggregation aggr = saved.build();
+
+        for (AggregateFunction af : afr.getFunctions()) {
+            PrimitiveAggregateFunction paf = (PrimitiveAggregateFunction) af;
+            Assert.assertEquals(paf.getAggrValue(acc, 1), af.getAggrValue(aggr), af.getName());
+            Assert.assertEquals(paf.getAggrValue(acc, 0), af.getAggrValue(null), af.getName());
+        }
+    }
+
+}
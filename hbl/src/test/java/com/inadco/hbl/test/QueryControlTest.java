@@ -0,0 +1,149 @@
+package com.inadco.hbl.test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.client.QueryCancelledException;
+import com.inadco.hbl.client.QueryMetrics;
+import com.inadco.hbl.client.QueryTimeoutException;
+import com.inadco.hbl.client.impl.QueryControl;
+
+/**
+ * Query cancellation and deadlines.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class QueryControlTest {
+
+    @Test
+    public void testCancel() throws Exception {
+        QueryMetrics metrics = new QueryMetrics();
+        QueryControl control = new QueryControl(0, null, metrics);
+        CountingCloseable scanner = new CountingCloseable();
+        Assert.assertTrue(control.register(scanner));
+        control.check();
+
+        control.cancel();
+        control.cancel();
+        Assert.assertEquals(scanner.closed.get(), 1);
+        Assert.assertEquals(metrics.getCancellations(), 1);
+        Assert.assertEquals(metrics.getTimeouts(), 0);
+
+        // late scanners are refused
+        Assert.assertFalse(control.register(new CountingCloseable()));
+        try {
+            control.check();
+            Assert.fail("cancelled query passed the check");
+        } catch (QueryTimeoutException exc) {
+            Assert.fail("cancellation reported as timeout");
+        } catch (QueryCancelledException exc) {
+            // expected
+        }
+        IOException translated = control.translate(new IOException("scanner closed"));
+        Assert.assertTrue(translated instanceof QueryCancelledException);
+        control.close();
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        try {
+            QueryMetrics metrics = new QueryMetrics();
+            QueryControl control = new QueryControl(50, timer, metrics);
+            CountingCloseable scanner = new CountingCloseable();
+            Assert.assertTrue(control.register(scanner));
+
+            for (int i = 0; i < 100 && scanner.closed.get() == 0; i++)
+                Thread.sleep(50);
+            Assert.assertEquals(scanner.closed.get(), 1);
+            Assert.assertEquals(metrics.getTimeouts(), 1);
+            Assert.assertEquals(metrics.getCancellations(), 0);
+            try {
+                control.check();
+                Assert.fail("timed out query passed the check");
+            } catch (QueryTimeoutException exc) {
+                // expected
+            }
+            control.close();
+
+            // closed in time: the timer never fires
+            control = new QueryControl(50, timer, metrics);
+            control.close();
+            Thread.sleep(200);
+            control.check();
+            Assert.assertEquals(metrics.getTimeouts(), 1);
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+
+    /**
+     * pending constructions are cancelled, running ones are not interrupted.
+     */
+    @Test
+    public void testCancelDoesNotInterrupt() throws Exception {
+        QueryControl control = new QueryControl(0, null, null);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        FutureTask<Void> construction = new FutureTask<Void>(new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException exc) {
+                    interrupted.set(true);
+                }
+                return null;
+            }
+        });
+        Thread t = new Thread(construction);
+        t.start();
+        Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+        control.register(construction);
+
+        control.cancel();
+        Assert.assertTrue(construction.isCancelled());
+        release.countDown();
+        t.join(5000);
+        Assert.assertFalse(interrupted.get(), "construction was interrupted");
+
+        // registered late: cancelled before it gets to run
+        FutureTask<Void> late = new FutureTask<Void>(new Callable<Void>() {
+
+            @Override
+            public Void call() throws Exception {
+                Assert.fail("cancelled construction ran");
+                return null;
+            }
+        });
+        control.register(late);
+        Assert.assertTrue(late.isCancelled());
+        late.run();
+        control.close();
+    }
+
+    private static class CountingCloseable implements Closeable {
+        private final AtomicInteger closed = new AtomicInteger();
+
+        @Override
+        public void close() throws IOException {
+            closed.incrementAndGet();
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.inadco.hbl.test;
+
+import java.util.Collections;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.api.Dimension;
+import com.inadco.hbl.api.Range;
+import com.inadco.hbl.client.impl.QueryResultCache;
+import com.inadco.hbl.client.impl.SliceOperation;
+import com.inadco.hbl.client.impl.scanner.ScanSpec;
+import com.inadco.hbl.model.HexDimension;
+import com.inadco.hbl.model.SimpleCuboid;
+
+/**
+ * Query result cache: hit accounting, LRU eviction, per cuboid invalidation,
+ * keys.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class QueryResultCacheTest {
+
+    private final SimpleCuboid cuboidA = cuboid("a");
+    private final SimpleCuboid cuboidB = cuboid("b");
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        QueryResultCache cache = new QueryResultCache(1 << 20, 0);
+        QueryResultCache.Key key = key(cuboidA, 0);
+
+        Assert.assertNull(cache.get(key));
+        cache.put(key, new byte[10], cache.getGeneration(key), false);
+        Assert.assertNotNull(cache.get(key));
+
+        // lookups of the sealed parts are not the query's hits or misses
+        Assert.assertNull(cache.get(key(cuboidA, 1), true));
+        Assert.assertNotNull(cache.get(key, true));
+
+        Assert.assertEquals(cache.getHits(), 1);
+        Assert.assertEquals(cache.getMisses(), 1);
+        Assert.assertEquals(cache.getSealedHits(), 1);
+        Assert.assertEquals(cache.getSealedMisses(), 1);
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        QueryResultCache cache = new QueryResultCache(100, 0);
+        QueryResultCache.Key key0 = key(cuboidA, 0), key1 = key(cuboidA, 1), key2 = key(cuboidA, 2);
+        cache.put(key0, new byte[40], cache.getGeneration(key0), false);
+        cache.put(key1, new byte[40], cache.getGeneration(key1), false);
+        // touch the first one so the second one is the eldest
+        Assert.assertNotNull(cache.get(key0));
+        cache.put(key2, new byte[40], cache.getGeneration(key2), false);
+
+        Assert.assertEquals(cache.getSize(), 2);
+        Assert.assertEquals(cache.getBytes(), 80);
+        Assert.assertEquals(cache.getEvictions(), 1);
+        Assert.assertNotNull(cache.get(key0));
+        Assert.assertNull(cache.get(key1));
+
+        // too big to cache at all
+        cache.put(key1, new byte[101], cache.getGeneration(key1), false);
+        Assert.assertNull(cache.get(key1));
+    }
+
+    @Test
+    public void testInvalidationIsPerCuboid() throws Exception {
+        QueryResultCache cache = new QueryResultCache(1 << 20, 0);
+        QueryResultCache.Key keyA = key(cuboidA, 0), keyB = key(cuboidB, 0);
+        QueryResultCache.Key sealedA = key(cuboidA, 1);
+
+        cache.put(keyA, new byte[10], cache.getGeneration(keyA), false);
+        cache.put(sealedA, new byte[10], cache.getGeneration(sealedA), true);
+        cache.put(keyB, new byte[10], cache.getGeneration(keyB), false);
+
+        long generationA = cache.getGeneration(keyA);
+        long generationB = cache.getGeneration(keyB);
+        cache.invalidate(cuboidA.getCuboidTableName());
+
+        // sealed results survive recompilation
+        Assert.assertNull(cache.get(keyA));
+        Assert.assertNotNull(cache.get(sealedA));
+        Assert.assertNotNull(cache.get(keyB));
+
+        // results of A computed concurrently with the invalidation are not cached, B's are.
+        cache.put(keyA, new byte[10], generationA, false);
+        cache.put(keyB, new byte[20], generationB, false);
+        Assert.assertNull(cache.get(keyA));
+        Assert.assertEquals(cache.get(keyB).length, 20);
+
+        cache.invalidateAll();
+        Assert.assertEquals(cache.getSize(), 0);
+        cache.put(keyB, new byte[10], generationB, false);
+        Assert.assertNull(cache.get(keyB));
+    }
+
+    @Test
+    public void testKeyedByMergedFunctions() throws Exception {
+        ScanSpec all = scanSpec(cuboidA, 0);
+        ScanSpec sum = scanSpec(cuboidA, 0);
+        sum.setMeasureFunctions(new String[][] { { "SUM" } });
+        ScanSpec avg = scanSpec(cuboidA, 0);
+        avg.setMeasureFunctions(new String[][] { { "AVG", "COUNT", "SUM" } });
+        ScanSpec avg1 = scanSpec(cuboidA, 0);
+        avg1.setMeasureFunctions(new String[][] { { "AVG", "COUNT", "SUM" } });
+
+        Assert.assertFalse(key(all).equals(key(sum)));
+        Assert.assertFalse(key(sum).equals(key(avg)));
+        Assert.assertEquals(key(avg), key(avg1));
+    }
+
+    private static QueryResultCache.Key key(SimpleCuboid cuboid, int point) throws Exception {
+        return key(scanSpec(cuboid, point));
+    }
+
+    private static QueryResultCache.Key key(ScanSpec spec) throws Exception {
+        return QueryResultCache.createKey(Collections.singletonList(spec), null, null, null);
+    }
+
+    private static ScanSpec scanSpec(SimpleCuboid cuboid, int point) {
+        return new ScanSpec(new byte[][] { Bytes.toBytes("m") },
+                            cuboid.getKeyLen(),
+                            new Range[] { new Range(Bytes.toBytes(point)) },
+                            cuboid,
+                            SliceOperation.ADD);
+    }
+
+    private static SimpleCuboid cuboid(String dimName) {
+        SimpleCuboid cuboid = new SimpleCuboid(new Dimension[] { new HexDimension(dimName, 4) });
+        cuboid.setTablePrefix("test_");
+        return cuboid;
+    }
+
+}
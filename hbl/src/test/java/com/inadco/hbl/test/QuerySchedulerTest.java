@@ -0,0 +1,167 @@
+package com.inadco.hbl.test;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.client.HblException;
+import com.inadco.hbl.client.QueryMetrics;
+import com.inadco.hbl.client.QueryPriority;
+import com.inadco.hbl.client.QueryRejectedException;
+import com.inadco.hbl.client.QueryTimeoutException;
+import com.inadco.hbl.client.impl.QueryScheduler;
+
+/**
+ * Admission control of the queries.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class QuerySchedulerTest {
+
+    @Test
+    public void testLanes() throws Exception {
+        QueryMetrics metrics = new QueryMetrics();
+        final QueryScheduler scheduler = new QueryScheduler(metrics);
+        scheduler.setMaxScans(1);
+        scheduler.setBatchShare(3);
+
+        QueryScheduler.Ticket running = scheduler.admit("cube", QueryPriority.INTERACTIVE, 1, 0, 0);
+
+        // queue up batch queries first, then interactive ones.
+        final List<String> admitted = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 6; i++) {
+            final QueryPriority priority = i < 2 ? QueryPriority.BATCH : QueryPriority.INTERACTIVE;
+            final String name = priority.name().charAt(0) + "" + i;
+            final CountDownLatch queued = new CountDownLatch(1);
+            Thread t = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        queued.countDown();
+                        QueryScheduler.Ticket ticket = scheduler.admit("cube", priority, 1, 0, 0);
+                        admitted.add(name);
+                        ticket.close();
+                    } catch (Exception exc) {
+                        admitted.add(exc.toString());
+                    }
+                }
+            };
+            t.start();
+            threads.add(t);
+            queued.await();
+            while (scheduler.getQueued() < i + 1)
+                Thread.sleep(1);
+        }
+
+        running.close();
+        for (Thread t : threads)
+            t.join(TimeUnit.SECONDS.toMillis(10));
+
+        // every 3rd admission (counting the running one) goes to a batch query.
+        Assert.assertEquals(admitted.toString(), "[I2, B0, I3, I4, B1, I5]");
+        Assert.assertEquals(metrics.getQueued(), 6);
+        Assert.assertEquals(scheduler.getRunning(), 0);
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        QueryMetrics metrics = new QueryMetrics();
+        QueryScheduler scheduler = new QueryScheduler(metrics);
+        scheduler.setMaxQueriesPerCube(1);
+        scheduler.setMaxQueued(1);
+
+        QueryScheduler.Ticket a = scheduler.admit("a", QueryPriority.INTERACTIVE, 1, 0, 0);
+        // other cubes are not held back
+        QueryScheduler.Ticket b = scheduler.admit("b", QueryPriority.INTERACTIVE, 1, 0, 0);
+        try {
+            scheduler.admit("a", QueryPriority.INTERACTIVE, 1, 0, 50);
+            Assert.fail("second query of the cube admitted");
+        } catch (HblException exc) {
+            Assert.assertTrue(exc.getCause() instanceof QueryTimeoutException);
+        }
+        Assert.assertEquals(metrics.getTimeouts(), 1);
+
+        // big queries are admitted once nothing else runs.
+        a.close();
+        b.close();
+        b.close();
+        scheduler.setMaxQueriesPerCube(0);
+        scheduler.setMemoryBudget(100);
+        QueryScheduler.Ticket big = scheduler.admit("a", QueryPriority.BATCH, 1, 1000, 0);
+        Assert.assertEquals(scheduler.getRunning(), 1);
+        big.close();
+        Assert.assertEquals(scheduler.getRunning(), 0);
+    }
+
+    /**
+     * an admission shared by the queries of a batch is given back once the
+     * ticket and all of its shares are closed.
+     */
+    @Test
+    public void testShares() throws Exception {
+        QueryScheduler scheduler = new QueryScheduler(null);
+        scheduler.setMaxScans(3);
+
+        QueryScheduler.Ticket batch = scheduler.admit("a", QueryPriority.INTERACTIVE, 3, 300, 0);
+        Closeable first = batch.share(), second = batch.share();
+        batch.close();
+        first.close();
+        first.close();
+        Assert.assertEquals(scheduler.getRunning(), 1);
+        Assert.assertEquals(scheduler.getScans(), 3);
+        Assert.assertEquals(scheduler.getMemory(), 300);
+        try {
+            scheduler.admit("a", QueryPriority.INTERACTIVE, 1, 0, 50);
+            Assert.fail("admitted while the batch still holds the scans");
+        } catch (HblException exc) {
+            Assert.assertTrue(exc.getCause() instanceof QueryTimeoutException);
+        }
+
+        second.close();
+        Assert.assertEquals(scheduler.getRunning(), 0);
+        Assert.assertEquals(scheduler.getScans(), 0);
+        Assert.assertEquals(scheduler.getMemory(), 0);
+        try {
+            batch.share();
+            Assert.fail("shared an admission given back");
+        } catch (IllegalArgumentException exc) {
+            // expected
+        }
+    }
+
+    @Test(expectedExceptions = QueryRejectedException.class)
+    public void testRejection() throws Exception {
+        QueryScheduler scheduler = new QueryScheduler(null);
+        scheduler.setMaxScans(1);
+        scheduler.setMaxQueued(1);
+        scheduler.admit("a", QueryPriority.INTERACTIVE, 1, 0, 0);
+
+        final QueryScheduler s = scheduler;
+        Thread waiter = new Thread() {
+
+            @Override
+            public void run() {
+                try {
+                    s.admit("a", QueryPriority.INTERACTIVE, 1, 0, 1000);
+                } catch (HblException exc) {
+                    // times out
+                }
+            }
+        };
+        waiter.setDaemon(true);
+        waiter.start();
+        while (scheduler.getQueued() == 0)
+            Thread.sleep(1);
+        scheduler.admit("a", QueryPriority.INTERACTIVE, 1, 0, 0);
+    }
+
+}
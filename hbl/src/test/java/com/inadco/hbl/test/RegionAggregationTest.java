@@ -0,0 +1,239 @@
+package com.inadco.hbl.test;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTablePool;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.coprocessor.CoprocessorHost;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.ipc.RemoteException;
+import org.springframework.core.io.ClassPathResource;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.api.Cuboid;
+import com.inadco.hbl.api.Dimension;
+import com.inadco.hbl.client.AggregateQuery;
+import com.inadco.hbl.client.AggregateResultSet;
+import com.inadco.hbl.client.HblAdmin;
+import com.inadco.hbl.client.HblQueryClient;
+import com.inadco.hbl.client.QueryCancelledException;
+import com.inadco.hbl.client.impl.AggregateQueryImpl;
+import com.inadco.hbl.client.impl.scanner.RegionAggregatingScanner;
+import com.inadco.hbl.client.impl.scanner.ScanSpec;
+import com.inadco.hbl.coprocessor.CuboidAggregationEndpoint;
+import com.inadco.hbl.protocodegen.Cells.Aggregation;
+
+/**
+ * Region-side aggregation against in-process mini cluster: results must be the
+ * same as with the client-side aggregation.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class RegionAggregationTest {
+
+    private static final String CUBE_NAME = "RegionAggrTest";
+    private static final int    N         = 10;
+
+    private HBaseTestingUtility testUtil;
+    private Configuration       conf;
+    private HblQueryClient      client;
+
+    @BeforeClass
+    public void init() throws Exception {
+        testUtil = new HBaseTestingUtility();
+        testUtil.getConfiguration().set(CoprocessorHost.REGION_COPROCESSOR_CONF_KEY,
+                                        CuboidAggregationEndpoint.class.getName());
+        testUtil.startMiniCluster();
+        conf = testUtil.getConfiguration();
+
+        HblAdmin hblAdmin = new HblAdmin(new ClassPathResource("testModel2.yaml"));
+        hblAdmin.deployCube(conf);
+
+        Cuboid cuboid = hblAdmin.getCube().getCuboids().iterator().next();
+        Dimension dim1 = cuboid.getCuboidDimensions().get(0);
+        Dimension dim2 = cuboid.getCuboidDimensions().get(1);
+        byte[] tableName = Bytes.toBytes(cuboid.getCuboidTableName());
+
+        HTable table = new HTable(conf, tableName);
+        try {
+            for (int d1 = 0; d1 < N; d1++)
+                for (int d2 = 0; d2 < N; d2++) {
+                    byte[] key = new byte[cuboid.getKeyLen()];
+                    dim1.getKey(d1, key, 0);
+                    dim2.getKey(d2, key, dim1.getKeyLen());
+                    Aggregation aggr = Aggregation.newBuilder().setCnt(1).setSum(d1 * N + d2).build();
+                    table.put(new Put(key).add(HblAdmin.HBL_METRIC_FAMILY, Bytes.toBytes("impCnt"), aggr.toByteArray()));
+                }
+            table.flushCommits();
+
+            /*
+             * split in the middle of a group so partials of the same group come
+             * from more than one region.
+             */
+            byte[] splitKey = new byte[cuboid.getKeyLen()];
+            dim1.getKey(N / 2, splitKey, 0);
+            dim2.getKey(N / 2, splitKey, dim1.getKeyLen());
+
+            HBaseAdmin admin = new HBaseAdmin(conf);
+            admin.flush(tableName);
+            admin.split(tableName, splitKey);
+            for (int i = 0; i < 60 && table.getStartKeys().length < 2; i++) {
+                Thread.sleep(500);
+                table.clearRegionCache();
+            }
+            Assert.assertTrue(table.getStartKeys().length >= 2, "table didn't split");
+        } finally {
+            table.close();
+        }
+
+        client = new HblQueryClient(conf);
+    }
+
+    @AfterClass
+    public void close() throws Exception {
+        try {
+            if (client != null)
+                client.close();
+        } finally {
+            testUtil.shutdownMiniCluster();
+        }
+    }
+
+    @Test
+    public void testRegionSideSameAsClientSide() throws Exception {
+        Map<Integer, double[]> clientSide = runQuery(false);
+        Map<Integer, double[]> regionSide = runQuery(true);
+
+        Assert.assertEquals(clientSide.size(), N);
+        Assert.assertEquals(regionSide.size(), N);
+
+        for (int d1 = 0; d1 < N; d1++) {
+            double[] expected = new double[2];
+            for (int d2 = 2; d2 <= 7; d2++) {
+                expected[0]++;
+                expected[1] += d1 * N + d2;
+            }
+            Assert.assertEquals(clientSide.get(d1), expected);
+            Assert.assertEquals(regionSide.get(d1), expected);
+        }
+    }
+
+    @Test
+    public void testSplitScanSameAsSingleScan() throws Exception {
+        Map<Integer, double[]> single = runQuery(false);
+        Map<Integer, double[]> split = runQuery(false, 4);
+        Assert.assertEquals(split.size(), single.size());
+        for (Map.Entry<Integer, double[]> entry : single.entrySet())
+            Assert.assertEquals(split.get(entry.getKey()), entry.getValue());
+    }
+
+    @Test
+    public void testFallbackOnlyIfEndpointUnavailable() throws Exception {
+        Assert.assertTrue(RegionAggregatingScanner.isEndpointUnavailable(new IOException(new RemoteException(
+            "org.apache.hadoop.hbase.ipc.HBaseRPC$UnknownProtocolException",
+            "No matching handler"))));
+        Assert.assertTrue(RegionAggregatingScanner.isEndpointUnavailable(new DoNotRetryIOException("old endpoint")));
+        Assert.assertFalse(RegionAggregatingScanner.isEndpointUnavailable(new SocketTimeoutException()));
+        Assert.assertFalse(RegionAggregatingScanner.isEndpointUnavailable(new IOException(new InterruptedException())));
+        Assert.assertFalse(RegionAggregatingScanner.isEndpointUnavailable(new QueryCancelledException("cancelled",
+                                                                                                       null)));
+    }
+
+    @Test
+    public void testEndpointDeployed() throws Exception {
+        Assert.assertEquals(countRegionGroups(RegionAggregatingScanner.PAGE_SIZE), N);
+    }
+
+    /**
+     * one byte pages: every group comes in its own page, and regions are
+     * resumed till they are exhausted.
+     */
+    @Test
+    public void testPagedResponses() throws Exception {
+        Assert.assertEquals(countRegionGroups(1), N);
+    }
+
+    private int countRegionGroups(int pageSize) throws Exception {
+        AggregateQueryImpl query = (AggregateQueryImpl) client.createQuery();
+        query.setCube(CUBE_NAME);
+        query.addMeasure("impCnt");
+        query.addGroupBy("dim1");
+
+        List<ScanSpec> specs = query.generateScanSpecs(null, null);
+        Assert.assertEquals(specs.size(), 1);
+
+        HTablePool tpool = new HTablePool(conf, 10);
+        RegionAggregatingScanner scanner =
+            new RegionAggregatingScanner(specs.get(0),
+                                         tpool,
+                                         client.getCubeModelYaml(CUBE_NAME),
+                                         null,
+                                         null,
+                                         null,
+                                         pageSize);
+        try {
+            int groups = 0;
+            int partials = 0;
+            byte[] prev = null;
+            while (scanner.hasNext()) {
+                scanner.next();
+                partials++;
+                byte[] group = scanner.current().getGroup().clone();
+                if (prev == null || !Bytes.equals(prev, group))
+                    groups++;
+                prev = group;
+            }
+            if (pageSize == 1)
+                Assert.assertTrue(scanner.getScanStatistics().getRpcs() >= partials);
+            return groups;
+        } finally {
+            scanner.close();
+            tpool.close();
+        }
+    }
+
+    private Map<Integer, double[]> runQuery(boolean regionSide) throws Exception {
+        return runQuery(regionSide, 0);
+    }
+
+    private Map<Integer, double[]> runQuery(boolean regionSide, int scanParallelism) throws Exception {
+        AggregateQuery query = client.createQuery();
+        query.setCube(CUBE_NAME);
+        query.setRegionSideAggregation(regionSide);
+        if (scanParallelism > 0)
+            query.setScanParallelism(scanParallelism, 0);
+        query.addMeasure("impCnt");
+        query.addGroupBy("dim1");
+        query.addClosedSlice("dim2", 2, 7);
+
+        Map<Integer, double[]> result = new HashMap<Integer, double[]>();
+        AggregateResultSet rs = query.execute();
+        try {
+            while (rs.hasNext()) {
+                rs.next();
+                int d1 = new BigInteger(1, (byte[]) rs.current().getGroupMember("dim1")).intValue();
+                double cnt = ((Number) rs.current().getAggregate("impCnt", "COUNT")).doubleValue();
+                double sum = ((Number) rs.current().getAggregate("impCnt", "SUM")).doubleValue();
+                Assert.assertNull(result.put(d1, new double[] { cnt, sum }));
+            }
+        } finally {
+            rs.close();
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.inadco.hbl.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.client.impl.scanner.ScanSplit;
+
+/**
+ * Splitting scan ranges at the region boundaries.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class ScanSplitTest {
+
+    @Test
+    public void testSplit() throws Exception {
+        List<ScanSplit> regions = new ArrayList<ScanSplit>();
+        regions.add(new ScanSplit(new byte[0], Bytes.toBytes("c"), "rs1"));
+        regions.add(new ScanSplit(Bytes.toBytes("c"), Bytes.toBytes("f"), "rs2"));
+        regions.add(new ScanSplit(Bytes.toBytes("f"), Bytes.toBytes("k"), "rs1"));
+        regions.add(new ScanSplit(Bytes.toBytes("k"), new byte[0], "rs2"));
+
+        // whole table
+        List<ScanSplit> splits = ScanSplit.split(new byte[0], new byte[0], regions);
+        Assert.assertEquals(splits.size(), 4);
+        Assert.assertEquals(splits.get(0).getStartKey().length, 0);
+        Assert.assertNull(splits.get(3).getEndKey());
+
+        // range within one region
+        splits = ScanSplit.split(Bytes.toBytes("d"), Bytes.toBytes("e"), regions);
+        Assert.assertEquals(splits.size(), 1);
+        Assert.assertEquals(Bytes.toString(splits.get(0).getStartKey()), "d");
+        Assert.assertEquals(Bytes.toString(splits.get(0).getEndKey()), "e");
+        Assert.assertEquals(splits.get(0).getServer(), "rs2");
+
+        // range ending on a region boundary doesn't touch the next region
+        splits = ScanSplit.split(Bytes.toBytes("b"), Bytes.toBytes("f"), regions);
+        Assert.assertEquals(splits.size(), 2);
+        Assert.assertEquals(Bytes.toString(splits.get(0).getStartKey()), "b");
+        Assert.assertEquals(Bytes.toString(splits.get(0).getEndKey()), "c");
+        Assert.assertEquals(Bytes.toString(splits.get(1).getStartKey()), "c");
+        Assert.assertEquals(Bytes.toString(splits.get(1).getEndKey()), "f");
+
+        // open ended range
+        splits = ScanSplit.split(Bytes.toBytes("g"), null, regions);
+        Assert.assertEquals(splits.size(), 2);
+        Assert.assertEquals(Bytes.toString(splits.get(0).getStartKey()), "g");
+        Assert.assertEquals(Bytes.toString(splits.get(0).getEndKey()), "k");
+        Assert.assertNull(splits.get(1).getEndKey());
+    }
+
+}
@@ -0,0 +1,186 @@
+package com.inadco.hbl.test;
+
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.springframework.core.io.ClassPathResource;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.api.Cuboid;
+import com.inadco.hbl.api.Dimension;
+import com.inadco.hbl.api.Hierarchy;
+import com.inadco.hbl.client.AggregateQuery;
+import com.inadco.hbl.client.AggregateResultSet;
+import com.inadco.hbl.client.HblAdmin;
+import com.inadco.hbl.client.HblQueryClient;
+import com.inadco.hbl.client.impl.QueryResultCache;
+import com.inadco.hbl.compiler.YamlModelParser;
+import com.inadco.hbl.model.SimpleCube;
+import com.inadco.hbl.protocodegen.Cells.Aggregation;
+
+/**
+ * Sealed parts of time slices come from the result cache after the cuboid is
+ * recompiled, live parts are scanned again.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class SealedSegmentCacheTest {
+
+    private static final String CUBE_NAME = "SealedCacheTest";
+    private static final int    DAYS      = 120;
+    private static final long   DAY       = TimeUnit.DAYS.toMillis(1);
+
+    private HBaseTestingUtility testUtil;
+    private Configuration       conf;
+    private HblQueryClient      client;
+    private Cuboid              cuboid;
+    private long                now;
+
+    /*
+     * monthly rollups of what was written, as the compiler would keep them.
+     */
+    private Map<Long, Integer>  monthly   = new HashMap<Long, Integer>();
+
+    @BeforeClass
+    public void init() throws Exception {
+        testUtil = new HBaseTestingUtility();
+        testUtil.startMiniCluster();
+        conf = testUtil.getConfiguration();
+
+        HblAdmin hblAdmin = new HblAdmin(new ClassPathResource("testModel3.yaml"));
+        hblAdmin.deployCube(conf);
+        cuboid = hblAdmin.getCube().getCuboids().iterator().next();
+
+        // a row at noon of every day till today
+        now = System.currentTimeMillis();
+        long today = now - now % DAY;
+        for (int d = 0; d < DAYS; d++)
+            write(today - d * DAY + DAY / 2);
+
+        client = new HblQueryClient(conf);
+    }
+
+    @AfterClass
+    public void close() throws Exception {
+        try {
+            if (client != null)
+                client.close();
+        } finally {
+            testUtil.shutdownMiniCluster();
+        }
+    }
+
+    @Test
+    public void testSealingHorizonProperty() throws Exception {
+        Assert.assertEquals(client.getCube(CUBE_NAME).getSealingHorizon(), TimeUnit.DAYS.toMillis(2));
+        try {
+            YamlModelParser.parseYamlModel("[ c, [], [], [], [], { sealingHorizn: 1 } ]");
+            Assert.fail("unknown cube property accepted");
+        } catch (Exception exc) {
+            // expected
+        }
+        SimpleCube cube = (SimpleCube) YamlModelParser.parseYamlModel("[ c, [], [], [] ]");
+        Assert.assertEquals(cube.getSealingHorizon(), 0);
+    }
+
+    @Test
+    public void testSealedSegmentsCached() throws Exception {
+        long left = now - 90 * DAY;
+        long uncached = runQuery(left);
+
+        client.enableResultCache(1 << 20, 0);
+        try {
+            QueryResultCache cache = client.getResultCache();
+            Assert.assertEquals(runQuery(left), uncached);
+            Assert.assertTrue(cache.getSealedMisses() > 0, "query wasn't segmented");
+            Assert.assertEquals(cache.getSealedHits(), 0);
+            long sealedSegments = cache.getSealedMisses();
+
+            /*
+             * a late row in a sealed month (which compilations promise not to
+             * do) and a live one. Once the cuboid is invalidated, only the live
+             * part is scanned again.
+             */
+            long today = now - now % DAY;
+            write(today - 60 * DAY + DAY / 2 + 3600000);
+            write(today + DAY / 2 + 3600000);
+            client.invalidateResultCache(cuboid.getCuboidTableName());
+
+            Assert.assertEquals(runQuery(left), uncached + 1);
+            Assert.assertEquals(cache.getSealedHits(), sealedSegments);
+
+            // everything is scanned again after dropping the sealed results.
+            cache.invalidateAll();
+            Assert.assertEquals(runQuery(left), uncached + 2);
+        } finally {
+            client.disableResultCache();
+        }
+        Assert.assertEquals(runQuery(left), uncached + 2);
+    }
+
+    private long runQuery(long left) throws Exception {
+        AggregateQuery query = client.createQuery();
+        query.setCube(CUBE_NAME);
+        query.addMeasure("impCnt");
+        query.addGroupBy("dim1");
+        query.addSlice("time", left, false, null, false);
+
+        AggregateResultSet rs = query.execute();
+        try {
+            Assert.assertTrue(rs.hasNext());
+            rs.next();
+            long cnt = ((Number) rs.current().getAggregate("impCnt", "COUNT")).longValue();
+            Assert.assertFalse(rs.hasNext());
+            return cnt;
+        } finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * writes a row at an hour along with the updated rollup of its month.
+     */
+    private void write(long millis) throws Exception {
+        Dimension dim1 = cuboid.getCuboidDimensions().get(0);
+        Hierarchy time = (Hierarchy) cuboid.getCuboidDimensions().get(1);
+
+        GregorianCalendar gcal = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        gcal.setTimeInMillis(millis);
+        long month = gcal.get(GregorianCalendar.YEAR) * 12 + gcal.get(GregorianCalendar.MONTH);
+        Integer monthCnt = monthly.get(month);
+        monthly.put(month, monthCnt = monthCnt == null ? 1 : monthCnt + 1);
+
+        HTable table = new HTable(conf, cuboid.getCuboidTableName());
+        try {
+            byte[] key = new byte[cuboid.getKeyLen()];
+            dim1.getKey(0, key, 0);
+            time.getKey(gcal, 2, key, dim1.getKeyLen());
+            table.put(put(key, 1));
+
+            key = key.clone();
+            time.getKey(gcal, 1, key, dim1.getKeyLen());
+            table.put(put(key, monthCnt));
+            table.flushCommits();
+        } finally {
+            table.close();
+        }
+    }
+
+    private static Put put(byte[] key, int cnt) {
+        Aggregation aggr = Aggregation.newBuilder().setCnt(cnt).setSum(cnt).build();
+        return new Put(key).add(HblAdmin.HBL_METRIC_FAMILY, Bytes.toBytes("impCnt"), aggr.toByteArray());
+    }
+
+}
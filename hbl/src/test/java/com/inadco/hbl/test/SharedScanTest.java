@@ -0,0 +1,215 @@
+package com.inadco.hbl.test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTablePool;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.springframework.core.io.ClassPathResource;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.api.Cuboid;
+import com.inadco.hbl.api.Dimension;
+import com.inadco.hbl.client.AggregateQuery;
+import com.inadco.hbl.client.AggregateResultSet;
+import com.inadco.hbl.client.HblAdmin;
+import com.inadco.hbl.client.HblQueryClient;
+import com.inadco.hbl.client.impl.AggregateQueryImpl;
+import com.inadco.hbl.client.impl.QueryScheduler;
+import com.inadco.hbl.client.impl.scanner.ScanSpec;
+import com.inadco.hbl.client.impl.scanner.SharedScan;
+import com.inadco.hbl.client.impl.scanner.SharedScans;
+import com.inadco.hbl.protocodegen.Cells.Aggregation;
+
+/**
+ * Shared scans of query batches: each row goes to the queries whose ranges it
+ * falls into, each query gets what it would standalone, and the rows are
+ * fetched once for all of them.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class SharedScanTest {
+
+    private static final String  CUBE_NAME = "RegionAggrTest";
+    private static final int     N         = 10;
+
+    /*
+     * overlapping dim1 ranges of the queries.
+     */
+    private static final int[][] RANGES    = new int[][] { { 0, 5 }, { 3, 8 }, { 7, 9 } };
+
+    private HBaseTestingUtility  testUtil;
+    private Configuration        conf;
+    private HblQueryClient       client;
+
+    @BeforeClass
+    public void init() throws Exception {
+        testUtil = new HBaseTestingUtility();
+        testUtil.startMiniCluster();
+        conf = testUtil.getConfiguration();
+
+        HblAdmin hblAdmin = new HblAdmin(new ClassPathResource("testModel2.yaml"));
+        hblAdmin.deployCube(conf);
+
+        Cuboid cuboid = hblAdmin.getCube().getCuboids().iterator().next();
+        Dimension dim1 = cuboid.getCuboidDimensions().get(0);
+        Dimension dim2 = cuboid.getCuboidDimensions().get(1);
+
+        HTable table = new HTable(conf, Bytes.toBytes(cuboid.getCuboidTableName()));
+        try {
+            for (int d1 = 0; d1 < N; d1++)
+                for (int d2 = 0; d2 < N; d2++) {
+                    byte[] key = new byte[cuboid.getKeyLen()];
+                    dim1.getKey(d1, key, 0);
+                    dim2.getKey(d2, key, dim1.getKeyLen());
+                    Aggregation aggr = Aggregation.newBuilder().setCnt(1).setSum(d1 * N + d2).build();
+                    table.put(new Put(key).add(HblAdmin.HBL_METRIC_FAMILY, Bytes.toBytes("impCnt"), aggr.toByteArray()));
+                }
+            table.flushCommits();
+        } finally {
+            table.close();
+        }
+
+        client = new HblQueryClient(conf);
+    }
+
+    @AfterClass
+    public void close() throws Exception {
+        try {
+            if (client != null)
+                client.close();
+        } finally {
+            testUtil.shutdownMiniCluster();
+        }
+    }
+
+    /**
+     * rows go to the members whose ranges they fall into, and only the union
+     * of the ranges is fetched.
+     */
+    @Test
+    public void testFanOut() throws Exception {
+        List<ScanSpec> specs = new ArrayList<ScanSpec>();
+        for (int[] range : RANGES) {
+            List<ScanSpec> querySpecs = ((AggregateQueryImpl) createQuery(range)).generateScanSpecs(null, null);
+            Assert.assertEquals(querySpecs.size(), 1);
+            specs.addAll(querySpecs);
+        }
+
+        HTablePool tpool = new HTablePool(conf, 10);
+        try {
+            SharedScan sharedScan = new SharedScan(specs, tpool, 0, SharedScans.DEFAULT_MEMORY_LIMIT);
+            List<SharedScan.Member> members = sharedScan.getMembers();
+            Assert.assertEquals(members.size(), RANGES.length);
+
+            for (int i = 0; i < RANGES.length; i++) {
+                SharedScan.Member member = members.get(i).open();
+                int[] rowsPerDim1 = new int[N];
+                int rows = 0;
+                while (member.hasNext()) {
+                    member.next();
+                    int d1 = new BigInteger(1, member.current().getGroup()).intValue();
+                    Assert.assertTrue(d1 >= RANGES[i][0] && d1 <= RANGES[i][1], "row of another query");
+                    rowsPerDim1[d1]++;
+                    rows++;
+                }
+                member.close();
+                Assert.assertEquals(rows, (RANGES[i][1] - RANGES[i][0] + 1) * N);
+                for (int d1 = RANGES[i][0]; d1 <= RANGES[i][1]; d1++)
+                    Assert.assertEquals(rowsPerDim1[d1], N);
+            }
+
+            // the union is all N dim1 values; the sum would be 6 + 6 + 3.
+            Assert.assertEquals(sharedScan.getScanStatistics().getRows(), N * N);
+        } finally {
+            tpool.close();
+        }
+    }
+
+    @Test
+    public void testSameAsStandalone() throws Exception {
+        List<Map<Integer, double[]>> standalone = new ArrayList<Map<Integer, double[]>>();
+        List<AggregateQuery> queries = new ArrayList<AggregateQuery>();
+        for (int[] range : RANGES) {
+            standalone.add(read(createQuery(range).execute()));
+            queries.add(createQuery(range));
+        }
+
+        List<AggregateResultSet> resultSets = client.executeBatch(queries);
+        Assert.assertEquals(resultSets.size(), RANGES.length);
+        for (int i = 0; i < RANGES.length; i++) {
+            Map<Integer, double[]> batched = read(resultSets.get(i));
+            Assert.assertEquals(batched.size(), RANGES[i][1] - RANGES[i][0] + 1);
+            Assert.assertEquals(batched.keySet(), standalone.get(i).keySet());
+            for (Map.Entry<Integer, double[]> entry : standalone.get(i).entrySet())
+                Assert.assertTrue(Arrays.equals(batched.get(entry.getKey()), entry.getValue()));
+        }
+    }
+
+    /**
+     * the batch is admitted with the scans of all of its queries, and keeps
+     * them until its last result set is closed.
+     */
+    @Test
+    public void testBatchAdmission() throws Exception {
+        QueryScheduler scheduler = client.getQueryScheduler();
+        List<AggregateQuery> queries = new ArrayList<AggregateQuery>();
+        for (int[] range : RANGES)
+            queries.add(createQuery(range));
+
+        List<AggregateResultSet> resultSets = client.executeBatch(queries);
+        int closed = 0;
+        try {
+            Assert.assertEquals(scheduler.getRunning(), 1);
+            Assert.assertEquals(scheduler.getScans(), RANGES.length);
+            for (; closed < RANGES.length - 1; closed++) {
+                resultSets.get(closed).close();
+                Assert.assertEquals(scheduler.getRunning(), 1);
+                Assert.assertEquals(scheduler.getScans(), RANGES.length);
+            }
+        } finally {
+            for (; closed < RANGES.length; closed++)
+                resultSets.get(closed).close();
+        }
+        Assert.assertEquals(scheduler.getRunning(), 0);
+        Assert.assertEquals(scheduler.getScans(), 0);
+    }
+
+    private AggregateQuery createQuery(int[] range) {
+        AggregateQuery query = client.createQuery();
+        query.setCube(CUBE_NAME);
+        query.addMeasure("impCnt");
+        query.addGroupBy("dim1");
+        query.addClosedSlice("dim1", range[0], range[1]);
+        return query;
+    }
+
+    private static Map<Integer, double[]> read(AggregateResultSet rs) throws Exception {
+        Map<Integer, double[]> result = new HashMap<Integer, double[]>();
+        try {
+            while (rs.hasNext()) {
+                rs.next();
+                int d1 = new BigInteger(1, (byte[]) rs.current().getGroupMember("dim1")).intValue();
+                double cnt = ((Number) rs.current().getAggregate("impCnt", "COUNT")).doubleValue();
+                double sum = ((Number) rs.current().getAggregate("impCnt", "SUM")).doubleValue();
+                Assert.assertNull(result.put(d1, new double[] { cnt, sum }));
+            }
+        } finally {
+            rs.close();
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,88 @@
+package com.inadco.hbl.test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.api.Dimension;
+import com.inadco.hbl.client.impl.Slice;
+import com.inadco.hbl.client.impl.SliceNormalizer;
+import com.inadco.hbl.model.HexDimension;
+
+public class SliceNormalizerTest {
+
+    private Dimension dim = new HexDimension("dim", 1);
+
+    @Test
+    public void testOverlapping() {
+        List<Slice> r = SliceNormalizer.normalize(Arrays.asList(closed(1, 5), closed(3, 8)), dim);
+        Assert.assertEquals(r.size(), 1);
+        assertSlice(r.get(0), 1, false, 8, false);
+    }
+
+    @Test
+    public void testContained() {
+        List<Slice> r = SliceNormalizer.normalize(Arrays.asList(closed(2, 3), closed(1, 9)), dim);
+        Assert.assertEquals(r.size(), 1);
+        assertSlice(r.get(0), 1, false, 9, false);
+    }
+
+    @Test
+    public void testTouching() {
+        List<Slice> r = SliceNormalizer.normalize(Arrays.asList(slice(1, false, 3, true), closed(3, 5)), dim);
+        Assert.assertEquals(r.size(), 1);
+        assertSlice(r.get(0), 1, false, 5, false);
+
+        // both exclude 3, so the gap stays.
+        r = SliceNormalizer.normalize(Arrays.asList(slice(1, true, 3, true), slice(3, true, 5, true)), dim);
+        Assert.assertEquals(r.size(), 2);
+        assertSlice(r.get(0), 1, true, 3, true);
+        assertSlice(r.get(1), 3, true, 5, true);
+    }
+
+    @Test
+    public void testDisjointUnsorted() {
+        List<Slice> r = SliceNormalizer.normalize(Arrays.asList(closed(7, 9), closed(1, 2)), dim);
+        Assert.assertEquals(r.size(), 2);
+        assertSlice(r.get(0), 1, false, 2, false);
+        assertSlice(r.get(1), 7, false, 9, false);
+    }
+
+    @Test
+    public void testUnbounded() {
+        Slice left = new Slice(null, false, key(3), false);
+        Slice right = new Slice(key(2), false, null, false);
+        List<Slice> r = SliceNormalizer.normalize(Arrays.asList(left, right), dim);
+        Assert.assertEquals(r.size(), 1);
+        Assert.assertNull(r.get(0).getLeftBound());
+        Assert.assertNull(r.get(0).getRightBound());
+    }
+
+    @Test
+    public void testEmptyDropped() {
+        List<Slice> r = SliceNormalizer.normalize(Arrays.asList(slice(4, true, 4, false), closed(1, 2)), dim);
+        Assert.assertEquals(r.size(), 1);
+        assertSlice(r.get(0), 1, false, 2, false);
+    }
+
+    private static byte[] key(int b) {
+        return new byte[] { (byte) b };
+    }
+
+    private static Slice slice(int left, boolean leftOpen, int right, boolean rightOpen) {
+        return new Slice(key(left), leftOpen, key(right), rightOpen);
+    }
+
+    private static Slice closed(int left, int right) {
+        return slice(left, false, right, false);
+    }
+
+    private static void assertSlice(Slice s, int left, boolean leftOpen, int right, boolean rightOpen) {
+        Assert.assertEquals(((byte[]) s.getLeftBound())[0], (byte) left);
+        Assert.assertEquals(s.isLeftOpen(), leftOpen);
+        Assert.assertEquals(((byte[]) s.getRightBound())[0], (byte) right);
+        Assert.assertEquals(s.isRightOpen(), rightOpen);
+    }
+}
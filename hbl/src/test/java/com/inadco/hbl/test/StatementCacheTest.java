@@ -0,0 +1,57 @@
+package com.inadco.hbl.test;
+
+import org.antlr.runtime.tree.CommonTree;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.client.impl.StatementCache;
+
+/**
+ * Statement cache keys and eviction.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class StatementCacheTest {
+
+    @Test
+    public void testNormalization() throws Exception {
+        StatementCache cache = new StatementCache(10);
+        CommonTree ast = new CommonTree();
+
+        cache.put("select SUM(impCnt) from Example where dim1 in ['a  b'] ", ast);
+        Assert.assertSame(cache.get("  select SUM(impCnt)\tfrom Example   where dim1 in ['a  b']"), ast);
+        cache.put("select SUM(impCnt)\nfrom Example", ast);
+        Assert.assertSame(cache.get("select SUM(impCnt) \r\n  from Example"), ast);
+
+        // string literals are not normalized
+        Assert.assertNull(cache.get("select SUM(impCnt) from Example where dim1 in ['a b']"));
+
+        // line breaks end line comments
+        cache.put("// all\nselect SUM(impCnt) from Example", ast);
+        Assert.assertSame(cache.get("// all\n\n  select SUM(impCnt) from Example"), ast);
+        Assert.assertNull(cache.get("// all select SUM(impCnt) from Example"));
+
+        Assert.assertEquals(cache.getHits(), 3);
+        Assert.assertEquals(cache.getSize(), 3);
+        Assert.assertEquals(cache.getMisses(), 2);
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        StatementCache cache = new StatementCache(2);
+        CommonTree ast = new CommonTree();
+
+        cache.put("select a from c1", ast);
+        cache.put("select a from c2", ast);
+        Assert.assertNotNull(cache.get("select a from c1"));
+        cache.put("select a from c3", ast);
+
+        Assert.assertEquals(cache.getSize(), 2);
+        Assert.assertEquals(cache.getEvictions(), 1);
+        Assert.assertNull(cache.get("select a from c2"));
+        Assert.assertNotNull(cache.get("select a from c1"));
+        Assert.assertNotNull(cache.get("select a from c3"));
+    }
+
+}
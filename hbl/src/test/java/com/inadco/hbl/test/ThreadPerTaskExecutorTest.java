@@ -0,0 +1,257 @@
+package com.inadco.hbl.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.client.impl.SliceOperation;
+import com.inadco.hbl.client.impl.ThreadPerTaskExecutor;
+import com.inadco.hbl.client.impl.scanner.AbstractScanSpecScanner;
+import com.inadco.hbl.client.impl.scanner.PrefetchingScanSpecScanner;
+import com.inadco.hbl.client.impl.scanner.RawScanResult;
+import com.inadco.hbl.client.impl.scanner.ScanSpec;
+import com.inadco.hbl.client.impl.scanner.ScanSpecScanner;
+
+/**
+ * Concurrency cap of the thread-per-task executor, and queries under load
+ * thru it and thru the default pool.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class ThreadPerTaskExecutorTest {
+
+    private static final int  SCANS   = 4;
+    private static final int  ROWS    = 32;
+    private static final int  CACHING = 8;
+    private static final long LATENCY = 2;
+
+    @Test
+    public void testConcurrencyCap() throws Exception {
+        ThreadPerTaskExecutor es = new ThreadPerTaskExecutor(2, Executors.defaultThreadFactory());
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        Future<?> f1 = es.submit(blocked);
+        Future<?> f2 = es.submit(blocked);
+        try {
+            es.submit(blocked);
+            Assert.fail("expected rejection over the cap");
+        } catch (RejectedExecutionException exc) {
+            // expected
+        }
+        Assert.assertEquals(es.getActiveCount(), 2);
+
+        release.countDown();
+        f1.get();
+        f2.get();
+
+        // futures complete before the task threads let the permits go
+        awaitIdle(es);
+        es.submit(blocked).get();
+
+        es.shutdown();
+        Assert.assertTrue(es.awaitTermination(5, TimeUnit.SECONDS));
+        Assert.assertTrue(es.isTerminated());
+    }
+
+    @Test
+    public void testWaitForPermit() throws Exception {
+        ThreadPerTaskExecutor es = new ThreadPerTaskExecutor(1, Executors.defaultThreadFactory(), 5000);
+        final CountDownLatch release = new CountDownLatch(1);
+        es.submit(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        Timer timer = new Timer(true);
+        timer.schedule(new TimerTask() {
+
+            @Override
+            public void run() {
+                release.countDown();
+            }
+        }, 200);
+
+        // waits for the first one rather than being rejected
+        es.submit(new Runnable() {
+
+            @Override
+            public void run() {
+            }
+        }).get();
+        timer.cancel();
+
+        es.shutdown();
+        Assert.assertTrue(es.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        if (!ThreadPerTaskExecutor.isVirtualThreadSupported())
+            return;
+        ThreadPerTaskExecutor es = ThreadPerTaskExecutor.newVirtualThreadExecutor(1000);
+        Assert.assertEquals(es.submit(new Callable<Integer>() {
+
+            @Override
+            public Integer call() {
+                return 1;
+            }
+        }).get(), Integer.valueOf(1));
+        es.shutdownNow();
+        Assert.assertTrue(es.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 500 queries at the same time, each opening and prefetching scanners with
+     * a simulated RPC latency, thru the client's default pool and thru the
+     * thread-per-task executor (on virtual threads if the JVM has them). The
+     * timing comparison is hbl-benchmarks' ConcurrentQueryBenchmark.
+     */
+    @Test
+    public void testConcurrentQueries() throws Exception {
+        ThreadPoolExecutor pool =
+            new ThreadPoolExecutor(3, 50, 5, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(3));
+        pool.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        ThreadPerTaskExecutor perTask =
+            ThreadPerTaskExecutor.isVirtualThreadSupported() ? ThreadPerTaskExecutor.newVirtualThreadExecutor(4096)
+                : new ThreadPerTaskExecutor(1024, Executors.defaultThreadFactory(), 1000);
+        try {
+            runQueries(pool, 500);
+            runQueries(perTask, 500);
+        } finally {
+            pool.shutdownNow();
+            perTask.shutdownNow();
+        }
+        awaitIdle(perTask);
+    }
+
+    private static void runQueries(final ExecutorService es, int queries) throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(queries);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < queries; i++)
+                results.add(callers.submit(new Callable<Integer>() {
+
+                    @Override
+                    public Integer call() throws Exception {
+                        return runQuery(es);
+                    }
+                }));
+            for (Future<Integer> result : results)
+                Assert.assertEquals(result.get(60, TimeUnit.SECONDS).intValue(), SCANS * ROWS);
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    /*
+     * opens the scanners and prefetches them on the executor, running
+     * whatever it rejects in the current thread, as the result set does.
+     */
+    private static int runQuery(ExecutorService es) throws Exception {
+        List<FutureTask<AbstractScanSpecScanner>> opens = new ArrayList<FutureTask<AbstractScanSpecScanner>>();
+        for (int i = 0; i < SCANS; i++) {
+            FutureTask<AbstractScanSpecScanner> open =
+                new FutureTask<AbstractScanSpecScanner>(new Callable<AbstractScanSpecScanner>() {
+
+                    @Override
+                    public AbstractScanSpecScanner call() throws Exception {
+                        Thread.sleep(LATENCY);
+                        return new SlowScanner();
+                    }
+                });
+            try {
+                es.execute(open);
+            } catch (RejectedExecutionException exc) {
+                open.run();
+            }
+            opens.add(open);
+        }
+        int n = 0;
+        for (FutureTask<AbstractScanSpecScanner> open : opens) {
+            AbstractScanSpecScanner delegate = open.get();
+            ScanSpecScanner scanner;
+            try {
+                scanner = new PrefetchingScanSpecScanner(delegate, es, 2, CACHING, 0);
+            } catch (RejectedExecutionException exc) {
+                scanner = delegate;
+            }
+            while (scanner.hasNext()) {
+                scanner.next();
+                Assert.assertEquals(Bytes.toInt(scanner.current().getGroup()), n++ % ROWS);
+            }
+            scanner.close();
+        }
+        return n;
+    }
+
+    private static void awaitIdle(ThreadPerTaskExecutor es) throws InterruptedException {
+        for (int i = 0; i < 50 && es.getActiveCount() > 0; i++)
+            Thread.sleep(100);
+        Assert.assertEquals(es.getActiveCount(), 0);
+    }
+
+    /**
+     * blocks for an "RPC" on every caching rows.
+     */
+    private static class SlowScanner extends AbstractScanSpecScanner {
+
+        private int n;
+
+        SlowScanner() {
+            super(new ScanSpec(new byte[][] { Bytes.toBytes("m") }, 4, null, null, SliceOperation.ADD));
+        }
+
+        @Override
+        protected RawScanResult fetchNextRawResult(RawScanResult holder) throws IOException {
+            if (n == ROWS)
+                return null;
+            if (n % CACHING == 0)
+                try {
+                    Thread.sleep(LATENCY);
+                } catch (InterruptedException exc) {
+                    throw new IOException("Interrupted", exc);
+                }
+            RawScanResult result = holder == null ? new RawScanResult(scanSpec) : holder;
+            result.setGroup(Bytes.toBytes(n++));
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+}
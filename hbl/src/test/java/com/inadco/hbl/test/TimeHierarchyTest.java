@@ -0,0 +1,118 @@
+package com.inadco.hbl.test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.client.HblException;
+import com.inadco.hbl.model.SimpleDateHierarchy;
+import com.inadco.hbl.model.SimpleTimeHourHierarchy;
+
+/**
+ * Time hierarchy members decoded from the keys, as calendars and epoch
+ * milliseconds.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class TimeHierarchyTest {
+
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    @Test
+    public void testHourlyMembers() throws Exception {
+        SimpleTimeHourHierarchy h = new SimpleTimeHourHierarchy("time");
+        byte[] key = new byte[h.getKeyLen()];
+
+        // month ends, including the year's, so a shifted month can't hide.
+        int[][] hours = new int[][] { { 2012, Calendar.JANUARY, 31, 23 }, { 2012, Calendar.FEBRUARY, 29, 0 },
+            { 2011, Calendar.DECEMBER, 31, 12 }, { 2012, Calendar.JULY, 1, 5 } };
+        for (int[] hour : hours) {
+            GregorianCalendar gcal = calendar(hour[0], hour[1], hour[2], hour[3]);
+            h.getKey(gcal, 2, key, 0);
+            Assert.assertEquals(h.keyDepth(key, 0), 2);
+            assertMember(h.getMember(key, 0), gcal);
+            Assert.assertEquals(h.getEpochMillis(key, 0), gcal.getTimeInMillis());
+        }
+    }
+
+    /**
+     * monthly members start on the 1st, not on the last day of the previous
+     * month.
+     */
+    @Test
+    public void testMonthlyMembers() throws Exception {
+        SimpleTimeHourHierarchy h = new SimpleTimeHourHierarchy("time");
+        byte[] key = new byte[h.getKeyLen()];
+
+        for (int month = Calendar.JANUARY; month <= Calendar.DECEMBER; month++) {
+            h.getKey(calendar(2012, month, 15, 10), 1, key, 0);
+            Assert.assertEquals(h.keyDepth(key, 0), 1);
+            GregorianCalendar expected = calendar(2012, month, 1, 0);
+            assertMember(h.getMember(key, 0), expected);
+            Assert.assertEquals(h.getEpochMillis(key, 0), expected.getTimeInMillis());
+        }
+    }
+
+    @Test
+    public void testDailyMembers() throws Exception {
+        SimpleDateHierarchy h = new SimpleDateHierarchy("date");
+        byte[] key = new byte[h.getKeyLen()];
+
+        int[][] dates = new int[][] { { 2012, Calendar.FEBRUARY, 29 }, { 2011, Calendar.DECEMBER, 31 },
+            { 2012, Calendar.JANUARY, 1 }, { 1969, Calendar.DECEMBER, 31 } };
+        for (int[] date : dates) {
+            GregorianCalendar gcal = calendar(date[0], date[1], date[2], 0);
+            h.getKey(gcal, 1, key, 0);
+            // daily keys are the only ones below [ALL].
+            Assert.assertEquals(h.keyDepth(key, 0), 1);
+            assertMember(h.getMember(key, 0), gcal);
+            Assert.assertEquals(h.getEpochMillis(key, 0), gcal.getTimeInMillis());
+        }
+    }
+
+    @Test
+    public void testAllMembers() throws Exception {
+        SimpleTimeHourHierarchy hourly = new SimpleTimeHourHierarchy("time");
+        byte[] key = new byte[hourly.getKeyLen()];
+        hourly.getAllKey(key, 0);
+        Assert.assertEquals(hourly.keyDepth(key, 0), 0);
+        try {
+            hourly.getEpochMillis(key, 0);
+            Assert.fail("[ALL] has no instant");
+        } catch (HblException exc) {
+            // expected
+        }
+
+        SimpleDateHierarchy daily = new SimpleDateHierarchy("date");
+        key = new byte[daily.getKeyLen()];
+        daily.getAllKey(key, 0);
+        Assert.assertEquals(daily.keyDepth(key, 0), 0);
+        try {
+            daily.getEpochMillis(key, 0);
+            Assert.fail("[ALL] has no instant");
+        } catch (HblException exc) {
+            // expected
+        }
+    }
+
+    private static void assertMember(Object member, GregorianCalendar expected) {
+        Calendar actual = (Calendar) member;
+        Assert.assertEquals(actual.getTimeInMillis(), expected.getTimeInMillis());
+        Assert.assertEquals(actual.get(Calendar.YEAR), expected.get(Calendar.YEAR));
+        Assert.assertEquals(actual.get(Calendar.MONTH), expected.get(Calendar.MONTH));
+        Assert.assertEquals(actual.get(Calendar.DATE), expected.get(Calendar.DATE));
+        Assert.assertEquals(actual.get(Calendar.HOUR_OF_DAY), expected.get(Calendar.HOUR_OF_DAY));
+    }
+
+    private static GregorianCalendar calendar(int year, int month, int date, int hour) {
+        GregorianCalendar gcal = new GregorianCalendar(UTC);
+        gcal.clear();
+        gcal.set(year, month, date, hour, 0);
+        return gcal;
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.inadco.hbl.test;
+
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inadco.hbl.client.impl.Slice;
+import com.inadco.hbl.client.impl.TimeSliceSegmenter;
+
+/**
+ * Time slice segmentation: whole sealed months, a head segment and a single
+ * live tail.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class TimeSliceSegmenterTest {
+
+    // horizon is Oct 16, 2012 (the time of the day doesn't matter)
+    private static final long SEALED_BEFORE = utc(2012, 10, 16) + 5 * 3600 * 1000L;
+
+    @Test
+    public void testSlidingWindow() {
+        // 90 days back from the horizon
+        List<Slice> r = TimeSliceSegmenter.segment(new Slice(utc(2012, 7, 18), false, null, false), SEALED_BEFORE);
+        Assert.assertNotNull(r);
+        Assert.assertEquals(r.size(), 4);
+        assertSlice(r.get(0), utc(2012, 7, 18), false, utc(2012, 8, 1), true);
+        assertSlice(r.get(1), utc(2012, 8, 1), false, utc(2012, 9, 1), true);
+        assertSlice(r.get(2), utc(2012, 9, 1), false, utc(2012, 10, 1), true);
+        // sealed days of October are scanned along with the live part
+        assertSlice(r.get(3), utc(2012, 10, 1), false, null, false);
+
+        // the window moved on by a day: the whole months are the same
+        List<Slice> r1 =
+            TimeSliceSegmenter.segment(new Slice(utc(2012, 7, 19), true, null, false), SEALED_BEFORE + 86400000L);
+        Assert.assertEquals(r1.size(), 4);
+        assertSlice(r1.get(0), utc(2012, 7, 19), true, utc(2012, 8, 1), true);
+        assertSlice(r1.get(1), utc(2012, 8, 1), false, utc(2012, 9, 1), true);
+        assertSlice(r1.get(2), utc(2012, 9, 1), false, utc(2012, 10, 1), true);
+    }
+
+    @Test
+    public void testNothingToSeal() {
+        // starts after the horizon
+        Assert.assertNull(TimeSliceSegmenter.segment(new Slice(utc(2012, 10, 20), false, null, false), SEALED_BEFORE));
+        // starts within the horizon's month
+        Assert.assertNull(TimeSliceSegmenter.segment(new Slice(utc(2012, 10, 2), false, null, false), SEALED_BEFORE));
+        // not a time
+        Assert.assertNull(TimeSliceSegmenter.segment(new Slice("a", false, null, false), SEALED_BEFORE));
+    }
+
+    @Test
+    public void testSealedEntirely() {
+        Slice slice = new Slice(utc(2012, 8, 1), false, utc(2012, 9, 15), false);
+        List<Slice> r = TimeSliceSegmenter.segment(slice, SEALED_BEFORE);
+        Assert.assertEquals(r.size(), 3);
+        assertSlice(r.get(0), utc(2012, 8, 1), false, utc(2012, 9, 1), true);
+        assertSlice(r.get(1), utc(2012, 9, 1), false, utc(2012, 9, 15), false);
+        Assert.assertNull(r.get(2));
+
+        // right bound at the horizon, excluded
+        slice = new Slice(utc(2012, 9, 1), false, utc(2012, 10, 16), true);
+        r = TimeSliceSegmenter.segment(slice, SEALED_BEFORE);
+        Assert.assertEquals(r.size(), 3);
+        assertSlice(r.get(0), utc(2012, 9, 1), false, utc(2012, 10, 1), true);
+        assertSlice(r.get(1), utc(2012, 10, 1), false, utc(2012, 10, 16), true);
+        Assert.assertNull(r.get(2));
+    }
+
+    @Test
+    public void testUnboundedLeft() {
+        List<Slice> r = TimeSliceSegmenter.segment(new Slice(null, false, null, false), SEALED_BEFORE);
+        Assert.assertEquals(r.size(), 2);
+        assertSlice(r.get(0), null, false, utc(2012, 10, 1), true);
+        assertSlice(r.get(1), utc(2012, 10, 1), false, null, false);
+    }
+
+    @Test
+    public void testCalendarBounds() {
+        GregorianCalendar left = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        left.setTimeInMillis(utc(2012, 9, 1));
+        List<Slice> r = TimeSliceSegmenter.segment(new Slice(left, false, null, false), SEALED_BEFORE);
+        Assert.assertEquals(r.size(), 2);
+        assertSlice(r.get(0), utc(2012, 9, 1), false, utc(2012, 10, 1), true);
+        assertSlice(r.get(1), utc(2012, 10, 1), false, null, false);
+    }
+
+    private static void assertSlice(Slice s, Long left, boolean leftOpen, Long right, boolean rightOpen) {
+        Assert.assertEquals(s.getLeftBound(), left);
+        Assert.assertEquals(s.isLeftOpen(), leftOpen);
+        Assert.assertEquals(s.getRightBound(), right);
+        Assert.assertEquals(s.isRightOpen(), rightOpen);
+    }
+
+    private static long utc(int year, int month, int day) {
+        GregorianCalendar gcal = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        gcal.clear();
+        gcal.set(year, month - 1, day);
+        return gcal.getTimeInMillis();
+    }
+
+}
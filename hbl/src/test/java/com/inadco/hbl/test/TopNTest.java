@@ -0,0 +1,118 @@
+package com.inadco.hbl.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.inadco.datastructs.InputIterator;
+import com.inadco.hbl.client.impl.SliceOperation;
+import com.inadco.hbl.client.impl.scanner.RawScanResult;
+import com.inadco.hbl.client.impl.scanner.ScanSpec;
+import com.inadco.hbl.client.impl.scanner.TopNIterator;
+import com.inadco.hbl.protocodegen.Cells.Aggregation;
+
+/**
+ * ORDER BY ... LIMIT over grouped results thru the bounded heap.
+ * 
+ * @author dmitriy
+ * 
+ */
+public class TopNTest {
+
+    private static final int GROUPS = 10000;
+
+    @Test
+    public void testTopN() throws Exception {
+        ScanSpec spec = new ScanSpec(new byte[][] { Bytes.toBytes("m") }, 4, null, null, SliceOperation.ADD);
+
+        Random rnd = new Random(1234);
+        List<RawScanResult> rows = new ArrayList<RawScanResult>();
+        List<Long> sums = new ArrayList<Long>();
+        for (int i = 0; i < GROUPS; i++) {
+            RawScanResult row = new RawScanResult(spec);
+            Bytes.putInt(row.getGroup(), 0, i);
+            // plenty of ties
+            long sum = rnd.nextInt(GROUPS / 4);
+            row.setMeasures(new Aggregation.Builder[] { Aggregation.newBuilder().setCnt(1).setSum(sum) });
+            rows.add(row);
+            sums.add(sum);
+        }
+        Collections.sort(sums, Collections.reverseOrder());
+
+        TopNIterator.SortKey sumKey = new TopNIterator.SortKey() {
+
+            @Override
+            public Object evaluate(RawScanResult row) throws IOException {
+                return row.getMeasure(0).getSum();
+            }
+        };
+
+        for (int limit : new int[] { 0, 1, 20, GROUPS, -1 }) {
+            TopNIterator iter = new TopNIterator(new ListIterator(rows), sumKey, true, limit);
+            int n = 0, lastGroup = -1;
+            double lastSum = Double.MAX_VALUE;
+            while (iter.hasNext()) {
+                iter.next();
+                RawScanResult row = iter.current();
+                double sum = row.getMeasure(0).getSum();
+                int group = Bytes.toInt(row.getGroup());
+                Assert.assertEquals(sum, (double) sums.get(n));
+                Assert.assertTrue(sum < lastSum || sum == lastSum && group > lastGroup);
+                lastSum = sum;
+                lastGroup = group;
+                n++;
+            }
+            Assert.assertEquals(n, limit < 0 ? GROUPS : limit);
+            iter.close();
+        }
+
+        // limit without order
+        TopNIterator iter = new TopNIterator(new ListIterator(rows), null, false, 20);
+        int n = 0;
+        while (iter.hasNext()) {
+            iter.next();
+            Assert.assertEquals(Bytes.toInt(iter.current().getGroup()), n++);
+        }
+        Assert.assertEquals(n, 20);
+    }
+
+    private static class ListIterator implements InputIterator<RawScanResult> {
+        private List<RawScanResult> rows;
+        private int                 index = -1;
+
+        ListIterator(List<RawScanResult> rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return index + 1 < rows.size();
+        }
+
+        @Override
+        public void next() {
+            index++;
+        }
+
+        @Override
+        public RawScanResult current() {
+            return rows.get(index);
+        }
+
+        @Override
+        public int getCurrentIndex() {
+            return index;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
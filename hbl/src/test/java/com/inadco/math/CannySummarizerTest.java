@@ -26,7 +26,9 @@ import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import com.inadco.hbl.math.aggregators.OnlineCannyAvgSummarizer;
+import com.inadco.hbl.math.aggregators.OnlineCannyBiasedBinomialSummarizer;
 import com.inadco.hbl.math.aggregators.OnlineCannyRateSummarizer;
+import com.inadco.hbl.math.aggregators.OnlineExpBiasedBinomialSummarizer;
 import com.inadco.hbl.util.IOUtil;
 
 /**
@@ -192,6 +194,44 @@ public class CannySummarizerTest {
         Assert.assertTrue(Math.abs(cr.getValue() - rcombined2.getValue()) < PREC);
     }
 
+    @Test(enabled = !DEBUG)
+    public void testCannyBinomialCombine() {
+        OnlineCannyBiasedBinomialSummarizer bs = new OnlineCannyBiasedBinomialSummarizer(0.25, HISTORYLEN), bs1 =
+            new OnlineCannyBiasedBinomialSummarizer(0.25, HISTORYLEN), bs2 =
+            new OnlineCannyBiasedBinomialSummarizer(0.25, HISTORYLEN);
+
+        double time = System.currentTimeMillis();
+        for (int i = 0; i < N; i++) {
+            time += rnd.nextInt(2000);
+            double x = rnd.nextDouble() < 0.25 ? 1d : 0d;
+            bs.update(x, time);
+            if (rnd.nextDouble() > 0.5)
+                bs1.update(x, time);
+            else
+                bs2.update(x, time);
+        }
+
+        OnlineCannyBiasedBinomialSummarizer bcombined1 = IOUtil.tryClone(bs1);
+        bcombined1.combine(bs2);
+        OnlineCannyBiasedBinomialSummarizer bcombined2 = IOUtil.tryClone(bs2);
+        bcombined2.combine(bs1);
+
+        Assert.assertTrue(Math.abs(bs.getValue() - bcombined1.getValue()) < PREC);
+        Assert.assertTrue(Math.abs(bs.getValue() - bcombined2.getValue()) < PREC);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, enabled = !DEBUG)
+    public void testCannyBinomialCombineBias() {
+        OnlineCannyBiasedBinomialSummarizer bs = new OnlineCannyBiasedBinomialSummarizer(0.25, HISTORYLEN);
+        bs.combine(new OnlineCannyBiasedBinomialSummarizer(0.5, HISTORYLEN));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, enabled = !DEBUG)
+    public void testCannyBinomialCombineExp() {
+        OnlineCannyBiasedBinomialSummarizer bs = new OnlineCannyBiasedBinomialSummarizer(0.25, HISTORYLEN);
+        bs.combine(new OnlineExpBiasedBinomialSummarizer(0.25, HISTORYLEN));
+    }
+
     @DataProvider
     public Iterator<Object[]> dataprov() {
         // simulate 5-minute data
@@ -159,8 +159,10 @@ public class Example1 extends Configured implements Tool {
             // ------------- debug: dump the script
             // ////////////////////////////////////
 
-            if (!QUERY_ONLY)
+            if (!QUERY_ONLY) {
                 runScript(script, inputPath);
+                compiler.markCompiled(getConf());
+            }
 
             queryClient = new HblQueryClient(getConf());
             closeables.addFirst(queryClient);